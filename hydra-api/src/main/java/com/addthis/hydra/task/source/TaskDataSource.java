@@ -13,7 +13,10 @@
  */
 package com.addthis.hydra.task.source;
 
+import java.util.NoSuchElementException;
+
 import com.addthis.bundle.channel.DataChannelSource;
+import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.util.AutoField;
 import com.addthis.codec.annotations.FieldConfig;
 import com.addthis.codec.annotations.Pluggable;
@@ -46,6 +49,47 @@ public abstract class TaskDataSource implements Codable, DataChannelSource, Clon
 
     public abstract void init();
 
+    /**
+     * Read up to {@code into.length} bundles into the array. Returns the number of
+     * bundles that were read. A return value of zero has the same meaning as a null
+     * return value from {@link #next()}. Waits for the first bundle only, so the batch
+     * can be shorter than the array. The default implementation calls {@link #next()}
+     * once for each bundle and stops after the first bundle unless {@link #ready()}.
+     * Sources that can hand over several bundles at a lower cost should override this method.
+     * <p/>
+     * If {@link #next()} throws a {@link NoSuchElementException} after some bundles have
+     * been read then those bundles are returned and the exception is expected to be
+     * thrown again on the following call.
+     */
+    public int nextBatch(Bundle[] into) {
+        int count = 0;
+        try {
+            while (count < into.length) {
+                Bundle next = next();
+                if (next == null) {
+                    break;
+                }
+                into[count++] = next;
+                if (!ready()) {
+                    break;
+                }
+            }
+        } catch (NoSuchElementException ex) {
+            if (count == 0) {
+                throw ex;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if {@link #next()} is known to return without waiting for more input.
+     * False does not mean that the next call would wait. The default is false.
+     */
+    public boolean ready() {
+        return false;
+    }
+
     public final AutoField getShardField() {
         return shardField;
     }
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import java.io.File;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import java.nio.file.Files;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.hydra.data.channel.BlockingNullConsumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Push a fixed table of rows through a {@link QueryOpProcessor} chain and
+ * measure the time until {@code sendComplete()} returns. Rows have a string
+ * key drawn from {@code distinctKeys} values followed by three numeric columns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryOpBenchmark {
+
+    @Param({"gather=ksss", "sort=0:s:a", "gather=ksss;sort=1:n:d", "sort=0;merge=ksss",
+            "num=c1,c2,add,v1,set;gather=ksss"})
+    public String ops;
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"1000"})
+    public int distinctKeys;
+
+    private File tempDir;
+    private Bundle[] input;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("query-op-bench").toFile();
+        ListBundleFormat format = new ListBundleFormat();
+        BundleField[] fields = new BundleField[4];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = format.getField(Integer.toString(i));
+        }
+        Random random = new Random(rows);
+        input = new Bundle[rows];
+        for (int i = 0; i < rows; i++) {
+            Bundle row = new ListBundle(format);
+            row.setValue(fields[0], ValueFactory.create("key-" + random.nextInt(distinctKeys)));
+            row.setValue(fields[1], ValueFactory.create(random.nextInt(1000)));
+            row.setValue(fields[2], ValueFactory.create(random.nextInt(1000)));
+            row.setValue(fields[3], ValueFactory.create(random.nextDouble()));
+            input[i] = row;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        LessFiles.deleteDir(tempDir);
+    }
+
+    @Benchmark
+    public long process() throws Exception {
+        BlockingNullConsumer consumer = new BlockingNullConsumer();
+        QueryOpProcessor processor = new QueryOpProcessor.Builder(consumer, ops).tempDir(tempDir).build();
+        try {
+            for (Bundle row : input) {
+                // ops may rewrite rows in place so each run gets a fresh copy of the input
+                processor.send(copy(row));
+            }
+            processor.sendComplete();
+            consumer.waitComplete();
+            return processor.getInputRows();
+        } finally {
+            processor.close();
+        }
+    }
+
+    private static Bundle copy(Bundle row) {
+        Bundle copy = row.createBundle();
+        for (BundleField field : row) {
+            copy.setValue(field, row.getValue(field));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.concurrent;
+
+import java.io.File;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import java.nio.file.Files;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.data.tree.TreeCommonParameters;
+import com.addthis.hydra.store.skiplist.ConcurrentPage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Child lookups through {@link ConcurrentTree#getOrCreateNode}. With a
+ * {@code WARM} node cache every child is held by the
+ * {@code MediatedEvictionConcurrentHashMap} and a lookup is a cache hit
+ * plus a lease. With a {@code COLD} node cache the map holds a handful of
+ * nodes, so nearly every lookup evicts a node and decodes the child from
+ * the page cache. Lives in the tree package to reach the package-private
+ * tree constructor.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class ConcurrentTreeBenchmark {
+
+    public enum NodeCache {WARM, COLD}
+
+    @Param({"WARM", "COLD"})
+    public NodeCache nodeCache;
+
+    @Param({"100000"})
+    public int children;
+
+    private File dir;
+    private ConcurrentTree tree;
+    private ConcurrentTreeNode parent;
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("tree-bench").toFile();
+        int cacheSize = (nodeCache == NodeCache.WARM) ? (children * 2) : 16;
+        tree = new ConcurrentTree(dir, 1, cacheSize, TreeCommonParameters.maxCacheSize,
+                                  TreeCommonParameters.maxPageSize, ConcurrentPage.ConcurrentPageFactory.singleton);
+        parent = tree.getRootNode().getOrCreateEditableNode("parent");
+        names = new String[children];
+        for (int i = 0; i < children; i++) {
+            names[i] = String.format("child-%08d", i);
+            tree.getOrCreateNode(parent, names[i], null).release();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        parent.release();
+        tree.close();
+        LessFiles.deleteDir(dir);
+    }
+
+    @Benchmark
+    public ConcurrentTreeNode getOrCreateNode() {
+        String name = names[ThreadLocalRandom.current().nextInt(children)];
+        ConcurrentTreeNode node = tree.getOrCreateNode(parent, name, null);
+        node.release();
+        return node;
+    }
+
+    @Threads(1)
+    public static class SingleThread extends ConcurrentTreeBenchmark {}
+
+    @Threads(Threads.MAX)
+    public static class AllThreads extends ConcurrentTreeBenchmark {}
+}
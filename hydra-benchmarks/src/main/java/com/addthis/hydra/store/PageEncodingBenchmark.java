@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import java.nio.file.Files;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTreeNode;
+import com.addthis.hydra.store.common.AbstractPage;
+import com.addthis.hydra.store.common.AbstractPageCache;
+import com.addthis.hydra.store.common.Page;
+import com.addthis.hydra.store.db.DBKey;
+import com.addthis.hydra.store.db.PageDB;
+import com.addthis.hydra.store.kv.PageEncodeType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Encode and decode a single page of tree nodes with each of the
+ * standard page codecs. {@link PageEncodeType#LEGACY} pages can
+ * no longer be written and are not measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PageEncodingBenchmark {
+
+    @Param({"none", "deflate", "gzip", "lzf", "snappy", "lz4", "lz4_hc", "zstd"})
+    public String codec;
+
+    @Param({"SPARSE", "LONGIDS", "DICTIONARY"})
+    public PageEncodeType encodeType;
+
+    @Param({"50", "500"})
+    public int entries;
+
+    private File dir;
+    private PageDB<ConcurrentTreeNode> db;
+    private AbstractPageCache<DBKey, ConcurrentTreeNode> cache;
+    private AbstractPage<DBKey, ConcurrentTreeNode> page;
+    private ByteBufOutputStream out;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("page-encoding-bench").toFile();
+        db = new PageDB.Builder<>(dir, ConcurrentTreeNode.class, entries, 0).pageCodec(codec).build();
+        cache = (AbstractPageCache<DBKey, ConcurrentTreeNode>) db.getEps();
+        ArrayList<DBKey> keys = new ArrayList<>(entries);
+        ArrayList<ConcurrentTreeNode> values = new ArrayList<>(entries);
+        ArrayList<byte[]> rawValues = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            keys.add(new DBKey(2, String.format("child-%08d", i)));
+            ConcurrentTreeNode node = new ConcurrentTreeNode();
+            node.setCounter(i * 31L);
+            values.add(node);
+            rawValues.add(null);
+        }
+        page = (AbstractPage<DBKey, ConcurrentTreeNode>) cache.pageFactory.generateSiblingPage(
+                cache, keys.get(0), null, entries, keys, values, rawValues, encodeType);
+        out = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+        encoded = page.encode(out, false, encodeType);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        out.buffer().release();
+        db.close();
+        LessFiles.deleteDir(dir);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return page.encode(out, false, encodeType);
+    }
+
+    @Benchmark
+    public Page<DBKey, ConcurrentTreeNode> decode() {
+        Page<DBKey, ConcurrentTreeNode> target =
+                cache.pageFactory.generateEmptyPage(cache, page.getFirstKey(), null);
+        target.decode(encoded);
+        return target;
+    }
+
+    /**
+     * Decode the page and then materialize every value, which
+     * is the cost paid by a full scan of a freshly loaded page.
+     */
+    @Benchmark
+    public void decodeValues(Blackhole blackhole) {
+        Page<DBKey, ConcurrentTreeNode> target = decode();
+        for (int i = 0; i < target.size(); i++) {
+            target.fetchValue(i);
+            blackhole.consume(target.values().get(i));
+        }
+    }
+}
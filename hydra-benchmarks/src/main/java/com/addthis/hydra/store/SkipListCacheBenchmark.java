@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store;
+
+import java.io.File;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import java.nio.file.Files;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTreeNode;
+import com.addthis.hydra.store.db.DBKey;
+import com.addthis.hydra.store.db.IPageDB;
+import com.addthis.hydra.store.db.PageDB;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Point reads, writes and short range scans against a {@link PageDB} backed by
+ * the skip-list page cache. A small {@code maxPages} keeps the eviction and
+ * page load paths busy, a large value keeps every page resident. The
+ * {@link SingleThread} and {@link AllThreads} subclasses run the same
+ * operations without and with contention on the page locks; any other
+ * thread count can be selected with the jmh {@code -t} option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class SkipListCacheBenchmark {
+
+    private static final long NODE_DB = 2;
+
+    @Param({"100000"})
+    public int keyCount;
+
+    @Param({"100"})
+    public int pageSize;
+
+    @Param({"50", "5000"})
+    public int maxPages;
+
+    @Param({"100"})
+    public int rangeLength;
+
+    private File dir;
+    private PageDB<ConcurrentTreeNode> db;
+    private DBKey[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("skiplist-bench").toFile();
+        db = new PageDB.Builder<>(dir, ConcurrentTreeNode.class, pageSize, maxPages).build();
+        keys = new DBKey[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = new DBKey(NODE_DB, String.format("key-%08d", i));
+            db.put(keys[i], newNode(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+        LessFiles.deleteDir(dir);
+    }
+
+    private static ConcurrentTreeNode newNode(long hits) {
+        ConcurrentTreeNode node = new ConcurrentTreeNode();
+        node.setCounter(hits);
+        return node;
+    }
+
+    private DBKey randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keyCount)];
+    }
+
+    @Benchmark
+    public ConcurrentTreeNode get() {
+        return db.get(randomKey());
+    }
+
+    @Benchmark
+    public ConcurrentTreeNode put() {
+        return db.put(randomKey(), newNode(ThreadLocalRandom.current().nextLong(1000)));
+    }
+
+    @Benchmark
+    public void range(Blackhole blackhole) {
+        int start = ThreadLocalRandom.current().nextInt(keyCount);
+        IPageDB.Range<DBKey, ConcurrentTreeNode> range =
+                db.range(keys[start], new DBKey(NODE_DB + 1));
+        try {
+            for (int i = 0; i < rangeLength && range.hasNext(); i++) {
+                Map.Entry<DBKey, ConcurrentTreeNode> entry = range.next();
+                blackhole.consume(entry.getValue());
+            }
+        } finally {
+            range.close();
+        }
+    }
+
+    @Threads(1)
+    public static class SingleThread extends SkipListCacheBenchmark {}
+
+    @Threads(Threads.MAX)
+    public static class AllThreads extends SkipListCacheBenchmark {}
+}
@@ -92,6 +92,24 @@ public abstract class AbstractQueryOp implements QueryOp {
         }
     }
 
+    /**
+     * Pass a batch on to the next op. If the next op does not take batches
+     * then the selected rows are materialized and sent one at a time.
+     */
+    protected void sendBatchToNext(RowBatch batch) {
+        QueryOp nextOp = getNext();
+        if (nextOp instanceof BatchOp) {
+            ((BatchOp) nextOp).sendBatch(batch);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (opPromise.isDone()) {
+                break;
+            }
+            nextOp.send(batch.materialize(batch.row(i)));
+        }
+    }
+
     @Override
     public QueryMemTracker getMemTracker() {
         return memTracker;
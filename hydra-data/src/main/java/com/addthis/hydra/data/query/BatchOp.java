@@ -0,0 +1,28 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+/**
+ * A query op that can also consume rows a batch at a time.
+ * <p/>
+ * The batch is owned by the caller and is reused once sendBatch returns, so
+ * implementations must pass it on or materialize the rows they keep. Rows
+ * are forwarded with {@link AbstractQueryOp#sendBatchToNext(RowBatch)} which
+ * keeps the batch intact for a next op that is a BatchOp and otherwise sends
+ * the selected rows one by one.
+ */
+public interface BatchOp extends QueryOp {
+
+    public void sendBatch(RowBatch batch);
+}
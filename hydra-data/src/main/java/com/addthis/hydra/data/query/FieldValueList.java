@@ -36,6 +36,16 @@ public class FieldValueList implements BundleFormatted {
         this.bundleFormat = bundleFormat;
     }
 
+    /**
+     * @return a list with the same committed values and format
+     */
+    public FieldValueList copy() {
+        FieldValueList copy = new FieldValueList(bundleFormat);
+        copy.list.addAll(list);
+        copy.lastCommit = lastCommit;
+        return copy;
+    }
+
     /**
      * pushes must be committed
      */
@@ -22,6 +22,7 @@ import java.util.StringTokenizer;
 import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.LessStrings;
 
+import com.addthis.bundle.core.BundleFormat;
 import com.addthis.bundle.value.ValueFactory;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.codec.annotations.FieldConfig;
@@ -196,6 +197,38 @@ public class QueryElement implements SuperCodable {
         return hasdata;
     }
 
+    /**
+     * @return true if this element visits every child of a node independently so that the
+     * children can be split into key ranges and searched concurrently
+     */
+    public boolean splittable() {
+        return (node != null) && node.matchesAll() && !flatten() && (skip() == 0) && (limit() == 0);
+    }
+
+    /**
+     * Resolve the output fields of this element ahead of time. Fields are otherwise
+     * resolved on first use which is not safe when the element is used by several threads.
+     */
+    public void bindFields(BundleFormat format) {
+        if ((node != null) && node.show()) {
+            node.field(format);
+        }
+        if (prop != null) {
+            for (QueryElementProperty p : prop) {
+                if (p.show()) {
+                    p.field(format);
+                }
+            }
+        }
+        if (field != null) {
+            for (QueryElementField f : field) {
+                if (f.show()) {
+                    f.field(format);
+                }
+            }
+        }
+    }
+
     public Iterator<DataTreeNode> matchNodes(DataTree tree, LinkedList<DataTreeNode> stack) {
         return node != null ? node.getNodes(stack) : null;
     }
@@ -15,6 +15,7 @@ package com.addthis.hydra.data.query;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -22,6 +23,7 @@ import java.util.Map;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
 
+import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.LessBytes;
 import com.addthis.basis.util.LessStrings;
 
@@ -35,6 +37,8 @@ import com.addthis.hydra.data.tree.DataTreeNode;
 import com.addthis.hydra.data.tree.DataTreeNodeActor;
 import com.addthis.hydra.data.tree.ReadTreeNode;
 import com.addthis.hydra.data.tree.TreeNodeData;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTreeNode;
+import com.addthis.hydra.data.tree.nonconcurrent.NonConcurrentTreeNode;
 import com.addthis.hydra.data.tree.prop.VirtualTreeNode;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -85,7 +89,8 @@ public class QueryElementNode implements Codable {
     public Boolean up;
 
     private BundleField field;
-    private Pattern[] regexPatterns;
+    private volatile Pattern[] regexPatterns;
+    private List<RegexKeyRange> regexRanges;
 
     public QueryElementNode parse(String tok, MutableInt nextColumn) {
         if (tok.equals("+..")) {
@@ -290,6 +295,14 @@ public class QueryElementNode implements Codable {
         return not != null && not;
     }
 
+    /**
+     * @return true if this element matches every child of its parent
+     */
+    public boolean matchesAll() {
+        return (match == null) && (regex == null) && (data == null) && (path == null) &&
+               (defaultValue == null) && !up();
+    }
+
     private DataTreeNode followPath(DataTreeNode from, String[] path) {
         DataTreeNode node = from;
         for (String name : path) {
@@ -342,6 +355,98 @@ public class QueryElementNode implements Codable {
 
     }
 
+    private static final List<RegexKeyRange> FULL_SCAN = Collections.singletonList(new RegexKeyRange(null, null));
+
+    /**
+     * Key ranges can only be scanned on nodes whose children are stored in key order.
+     * Virtual nodes of data attachments list their children in any order.
+     */
+    private static boolean sortedChildren(DataTreeNode parent) {
+        Class<?> type = parent.getClass();
+        return (type == ConcurrentTreeNode.class) || (type == ReadTreeNode.class)
+               || (type == NonConcurrentTreeNode.class);
+    }
+
+    /**
+     * Streams the children that match any of the patterns, in the order of the children.
+     * Only the key ranges that can contain matches are scanned and a child is returned
+     * once for every pattern that it matches, or does not match if the match is negated.
+     */
+    private static class LazyRegexMatch extends AbstractIterator<DataTreeNode>
+            implements ClosableIterator<DataTreeNode> {
+
+        final DataTreeNode parent;
+
+        final Pattern[] patterns;
+
+        final boolean not;
+
+        final Iterator<RegexKeyRange> ranges;
+
+        final DataTreeNode defaultNode;
+
+        ClosableIterator<DataTreeNode> current;
+
+        DataTreeNode repeat;
+
+        int repeats;
+
+        boolean first;
+
+        LazyRegexMatch(DataTreeNode parent, Pattern[] patterns, boolean not, List<RegexKeyRange> ranges,
+                       DataTreeNode defaultNode) {
+            this.parent = parent;
+            this.patterns = patterns;
+            this.not = not;
+            this.ranges = ranges.iterator();
+            this.defaultNode = defaultNode;
+            this.first = true;
+        }
+
+        @Override
+        protected DataTreeNode computeNext() {
+            if (repeats > 0) {
+                repeats--;
+                return repeat;
+            }
+            while (true) {
+                while ((current == null) || !current.hasNext()) {
+                    close();
+                    if (!ranges.hasNext()) {
+                        if (first && (defaultNode != null)) {
+                            first = false;
+                            return defaultNode;
+                        }
+                        return endOfData();
+                    }
+                    RegexKeyRange range = ranges.next();
+                    current = range.unbounded() ? parent.getIterator() : parent.getIterator(range.from, range.to);
+                }
+                DataTreeNode next = current.next();
+                int matches = 0;
+                for (Pattern pattern : patterns) {
+                    if (pattern.matcher(next.getName()).matches() ^ not) {
+                        matches++;
+                    }
+                }
+                if (matches > 0) {
+                    first = false;
+                    repeat = next;
+                    repeats = matches - 1;
+                    return next;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
     public Iterator<DataTreeNode> getNodes(LinkedList<DataTreeNode> stack) {
         List<DataTreeNode> ret = null;
         if (up()) {
@@ -372,10 +477,17 @@ public class QueryElementNode implements Codable {
             if (match != null) {
                 if (regex()) {
                     if (regexPatterns == null) {
-                        regexPatterns = new Pattern[match.length];
+                        // publish the patterns only once compiled, this may run on several threads
+                        Pattern[] patterns = new Pattern[match.length];
                         for (int i = 0; i < match.length; i++) {
-                            regexPatterns[i] = Pattern.compile(match[i]);
+                            patterns[i] = Pattern.compile(match[i]);
                         }
+                        regexRanges = not() ? RegexKeyRange.union("") : RegexKeyRange.union(match);
+                        regexPatterns = patterns;
+                    }
+                    if (data == null) {
+                        List<RegexKeyRange> ranges = sortedChildren(parent) ? regexRanges : FULL_SCAN;
+                        return new LazyRegexMatch(parent, regexPatterns, not(), ranges, defaultNode);
                     }
                     for (Iterator<DataTreeNode> iter = parent.getIterator(); iter.hasNext();) {
                         tmp = iter.next();
@@ -67,10 +67,12 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
     private static final long   OP_MAXCELLS         = Parameter.longValue("query.max.cells", 0);
     private static final String TMP_SORT_DIR_STRING =
             Parameter.value("query.tmpdir", "query.tmpdir");
+    private static final int    OP_BATCH_SIZE       = Parameter.intValue("query.batch.size", 0);
 
     private final long memTip;
     private final long rowTip;
     private final File tempDir;
+    private final int  batchSize;
 
     private final ChannelProgressivePromise opPromise;
     private final ResultChannelOutput       output;
@@ -82,9 +84,12 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
     private long    rowsin;
     private long    cellsin;
 
+    /** rows waiting to be sent to firstOp when it is a {@link BatchOp} */
+    @Nullable private RowBatch batch;
+
     private QueryOpProcessor(Builder builder) {
         this(builder.output, builder.queryPromise, builder.tempDir,
-             builder.memTip, builder.rowTip, builder.memTracker, builder.ops);
+             builder.memTip, builder.rowTip, builder.memTracker, builder.batchSize, builder.ops);
     }
 
     public QueryOpProcessor(DataChannelOutput output, String[] ops) {
@@ -101,10 +106,17 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
     public QueryOpProcessor(
             DataChannelOutput output, ChannelProgressivePromise opPromise,
             File tempDir, long memTip, long rowTip, QueryMemTracker memTracker, String[] ops) {
+        this(output, opPromise, tempDir, memTip, rowTip, memTracker, OP_BATCH_SIZE, ops);
+    }
+
+    private QueryOpProcessor(
+            DataChannelOutput output, ChannelProgressivePromise opPromise,
+            File tempDir, long memTip, long rowTip, QueryMemTracker memTracker, int batchSize, String[] ops) {
         this.opPromise = opPromise;
         this.tempDir = tempDir;
         this.memTip = memTip;
         this.rowTip = rowTip;
+        this.batchSize = batchSize;
         this.output = new ResultChannelOutput(output, opPromise);
         this.memTracker = memTracker;
         this.firstOp = this.output;
@@ -198,11 +210,37 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
             }
             lastOp = current;
         }
+        updateBatch();
+    }
+
+    /**
+     * Rows are collected into batches whenever the first op can take them. Later ops
+     * in the chain keep the batch as long as they are batch ops themselves.
+     */
+    private void updateBatch() {
+        if ((batchSize > 0) && (firstOp instanceof BatchOp)) {
+            if (batch == null) {
+                batch = new RowBatch(batchSize);
+            }
+        } else {
+            batch = null;
+        }
+    }
+
+    private void sendBatch() {
+        if ((batch != null) && (batch.size() > 0)) {
+            if (!opPromise.isDone()) {
+                ((BatchOp) firstOp).sendBatch(batch);
+            }
+            batch.clear();
+        }
     }
 
     public QueryOpProcessor appendOp(QueryOp op) {
         if (lastOp == null) {
+            sendBatch();
             firstOp = op;
+            updateBatch();
         } else {
             lastOp.setNext(this, op);
         }
@@ -220,7 +258,14 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
         rowsin++;
         cellsin += row.getCount();
         if ((opPromise != null) && !opPromise.isDone()) {
-            firstOp.send(row);
+            if (batch != null) {
+                batch.append(row);
+                if (batch.isFull()) {
+                    sendBatch();
+                }
+            } else {
+                firstOp.send(row);
+            }
         }
         if ((OP_MAXROWS > 0) && (rowsin > OP_MAXROWS)) {
             throw new QueryException("query exceeded max input rows: " + OP_MAXROWS);
@@ -277,6 +322,7 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
     public void sendComplete() {
         try {
             // anyone who sets the opPromise to success is responsible for ensuring query completion
+            sendBatch();
             if (!opPromise.isDone()) {
                 firstOp.sendComplete();
                 opPromise.trySuccess();
@@ -353,6 +399,7 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
         private long rowTip = OP_TIPROW;
         private File tempDir = new File(TMP_SORT_DIR_STRING);
         private QueryMemTracker memTracker = null;
+        private int batchSize = OP_BATCH_SIZE;
 
         public Builder(DataChannelOutput output, String... ops) {
             this.output = output;
@@ -374,6 +421,14 @@ public class QueryOpProcessor implements DataChannelOutput, QueryMemTracker, Clo
             return this;
         }
 
+        /**
+         * Rows per batch for chains that start with a {@link BatchOp}. Zero sends every row on its own.
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
         public Builder tempDir(File tempDir) {
             this.tempDir = tempDir;
             return this;
@@ -0,0 +1,242 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A range [from, to) of node names. Used to restrict a regex match to the
+ * names that can possibly match instead of testing every child of a node.
+ * <p/>
+ * The ranges of a regex are derived from the literal prefix of each of its
+ * top level alternatives, optionally followed by one character class. For
+ * example {@code foo.*|ba[r-z]} is contained in [foo, fop) and [bar, ba{).
+ * Anything that can not be analyzed, such as groups, flags or quoting at
+ * the start of an alternative, results in an unbounded range.
+ */
+final class RegexKeyRange {
+
+    private static final String META = "\\[](){}.*+?|^$";
+
+    /**
+     * Inclusive lower bound or null if unbounded.
+     */
+    final String from;
+
+    /**
+     * Exclusive upper bound or null if unbounded.
+     */
+    final String to;
+
+    RegexKeyRange(String from, String to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    boolean unbounded() {
+        return (from == null) && (to == null);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + from + ", " + to + ")";
+    }
+
+    /**
+     * Returns sorted and disjoint ranges that contain every name matched by any
+     * of the regexes, or a single unbounded range.
+     */
+    static List<RegexKeyRange> union(String... regexes) {
+        List<RegexKeyRange> ranges = new ArrayList<>();
+        for (String regex : regexes) {
+            for (String alternative : alternatives(regex)) {
+                RegexKeyRange range = of(alternative);
+                if (range.unbounded()) {
+                    return Collections.singletonList(range);
+                }
+                ranges.add(range);
+            }
+        }
+        ranges.sort((a, b) -> a.from.compareTo(b.from));
+        List<RegexKeyRange> merged = new ArrayList<>(ranges.size());
+        RegexKeyRange current = null;
+        for (RegexKeyRange range : ranges) {
+            if (current == null) {
+                current = range;
+            } else if ((current.to == null) || (range.from.compareTo(current.to) <= 0)) {
+                String to = ((current.to == null) || (range.to == null)) ? null :
+                            (current.to.compareTo(range.to) >= 0 ? current.to : range.to);
+                current = new RegexKeyRange(current.from, to);
+            } else {
+                merged.add(current);
+                current = range;
+            }
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    /**
+     * Split the regex on alternations that are not nested in a group or a character class.
+     */
+    static List<String> alternatives(String regex) {
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        boolean inClass = false;
+        int start = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                if (c == ']') {
+                    inClass = false;
+                }
+            } else if (c == '[') {
+                inClass = true;
+                // a leading ']' or '^]' is a literal member of the class
+                if (((i + 1) < regex.length()) && (regex.charAt(i + 1) == '^')) {
+                    i++;
+                }
+                if (((i + 1) < regex.length()) && (regex.charAt(i + 1) == ']')) {
+                    i++;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if ((c == '|') && (depth == 0)) {
+                result.add(regex.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(regex.substring(start));
+        return result;
+    }
+
+    /**
+     * Returns the range of names that can match a regex without top level alternations.
+     */
+    static RegexKeyRange of(String regex) {
+        StringBuilder prefix = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            char literal;
+            int next;
+            if (c == '\\') {
+                if (((i + 1) >= regex.length()) || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    break;
+                }
+                literal = regex.charAt(i + 1);
+                next = i + 2;
+            } else if (META.indexOf(c) >= 0) {
+                break;
+            } else {
+                literal = c;
+                next = i + 1;
+            }
+            if (next < regex.length()) {
+                char quantifier = regex.charAt(next);
+                if ((quantifier == '*') || (quantifier == '?') || (quantifier == '{')) {
+                    // the character may be absent
+                    break;
+                }
+                if (quantifier == '+') {
+                    prefix.append(literal);
+                    i = regex.length();
+                    break;
+                }
+            }
+            prefix.append(literal);
+            i = next;
+        }
+        if ((i < regex.length()) && (regex.charAt(i) == '[')) {
+            RegexKeyRange range = ofClass(prefix.toString(), regex, i);
+            if (range != null) {
+                return range;
+            }
+        }
+        if (prefix.length() == 0) {
+            return new RegexKeyRange(null, null);
+        }
+        return new RegexKeyRange(prefix.toString(), successor(prefix.toString()));
+    }
+
+    /**
+     * Range of a literal prefix followed by a required character class of
+     * literal characters and character ranges, or null if the class is more complex.
+     */
+    private static RegexKeyRange ofClass(String prefix, String regex, int start) {
+        int i = start + 1;
+        if ((i < regex.length()) && (regex.charAt(i) == '^')) {
+            return null;
+        }
+        char min = Character.MAX_VALUE;
+        char max = Character.MIN_VALUE;
+        boolean empty = true;
+        while ((i < regex.length()) && ((regex.charAt(i) != ']') || empty)) {
+            char lo = regex.charAt(i);
+            if ((lo == '\\') || (lo == '[') || (lo == '&')) {
+                return null;
+            }
+            char hi = lo;
+            if (((i + 2) < regex.length()) && (regex.charAt(i + 1) == '-') && (regex.charAt(i + 2) != ']')) {
+                hi = regex.charAt(i + 2);
+                if ((hi == '\\') || (hi == '[') || (hi < lo)) {
+                    return null;
+                }
+                i += 3;
+            } else {
+                i++;
+            }
+            min = (char) Math.min(min, lo);
+            max = (char) Math.max(max, hi);
+            empty = false;
+        }
+        if (i >= regex.length()) {
+            return null;
+        }
+        int after = i + 1;
+        if (after < regex.length()) {
+            char quantifier = regex.charAt(after);
+            if ((quantifier == '*') || (quantifier == '?') || (quantifier == '{')) {
+                return null;
+            }
+        }
+        String to = (max < (Character.MIN_SURROGATE - 1)) ? (prefix + (char) (max + 1)) : successor(prefix);
+        return new RegexKeyRange(prefix + min, to);
+    }
+
+    /**
+     * Smallest string that is larger than every string with the given prefix, or null
+     * if there is none that orders the same way as the node keys.
+     */
+    static String successor(String prefix) {
+        if (prefix.isEmpty()) {
+            return null;
+        }
+        char last = prefix.charAt(prefix.length() - 1);
+        // node keys are ordered by their utf-8 encoding which differs from the
+        // order of java strings once surrogates are involved
+        if (last >= (Character.MIN_SURROGATE - 1)) {
+            return null;
+        }
+        return prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+    }
+}
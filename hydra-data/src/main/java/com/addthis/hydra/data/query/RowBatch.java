@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormat;
+import com.addthis.bundle.core.BundleFormatted;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * A batch of rows stored by column for {@link BatchOp}s.
+ * <p/>
+ * Each column holds primitive long or double values, dictionary encoded strings
+ * or, once it has seen values of more than one type, plain value objects. Rows
+ * are addressed by their position in the batch and a selection vector lists the
+ * rows that are still part of the batch, so filtering ops do not move any data.
+ * All rows share the format of the batch and are only turned back into bundles
+ * by {@link #materialize(int)} when they reach an op that works on rows.
+ */
+public final class RowBatch implements BundleFormatted {
+
+    public static final byte EMPTY = 0;
+    public static final byte LONG = 1;
+    public static final byte DOUBLE = 2;
+    public static final byte STRING = 3;
+    public static final byte OBJECT = 4;
+
+    private final ListBundleFormat format = new ListBundleFormat();
+    private final int capacity;
+
+    private Column[] columns = new Column[0];
+    private int rows;
+    private int[] selection;
+    private int selected;
+
+    /* maps the fields of the last appended format to columns */
+    private BundleFormat lastFormat;
+    private int lastFieldCount;
+    private BundleField[] fieldMap = new BundleField[0];
+
+    public RowBatch(int capacity) {
+        this.capacity = capacity;
+        this.selection = new int[capacity];
+    }
+
+    @Override
+    public BundleFormat getFormat() {
+        return format;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of selected rows.
+     */
+    public int size() {
+        return selected;
+    }
+
+    /**
+     * Position of the n-th selected row.
+     */
+    public int row(int n) {
+        return selection[n];
+    }
+
+    /**
+     * Replace the selection vector. The rows must be in ascending order.
+     */
+    public void select(int[] rows, int count) {
+        System.arraycopy(rows, 0, selection, 0, count);
+        selected = count;
+    }
+
+    /**
+     * Keep only the first count selected rows.
+     */
+    public void truncate(int count) {
+        selected = Math.min(selected, count);
+    }
+
+    /**
+     * Keep count selected rows starting at the from-th selected row.
+     */
+    public void slice(int from, int count) {
+        System.arraycopy(selection, from, selection, 0, count);
+        selected = count;
+    }
+
+    public boolean isFull() {
+        return rows == capacity;
+    }
+
+    public void clear() {
+        for (Column column : columns) {
+            if (column != null) {
+                column.clear();
+            }
+        }
+        rows = 0;
+        selected = 0;
+    }
+
+    /**
+     * Returns the column of a field of this batch, creating it if needed.
+     */
+    public Column column(BundleField field) {
+        int index = field.getIndex();
+        if (index >= columns.length) {
+            columns = Arrays.copyOf(columns, Math.max(index + 1, format.getFieldCount()));
+        }
+        Column column = columns[index];
+        if (column == null) {
+            column = new Column(capacity);
+            columns[index] = column;
+        }
+        return column;
+    }
+
+    /**
+     * Append a row to the end of the batch and select it.
+     */
+    public void append(Bundle bundle) {
+        BundleFormat rowFormat = bundle.getFormat();
+        if ((rowFormat != lastFormat) || (rowFormat.getFieldCount() != lastFieldCount)) {
+            lastFormat = rowFormat;
+            lastFieldCount = rowFormat.getFieldCount();
+            fieldMap = new BundleField[lastFieldCount];
+            int i = 0;
+            for (BundleField field : rowFormat) {
+                fieldMap[i++] = format.getField(field.getName());
+            }
+        }
+        int i = 0;
+        int row = rows++;
+        for (BundleField field : rowFormat) {
+            ValueObject value = bundle.getValue(field);
+            if (value != null) {
+                column(fieldMap[i]).set(row, value);
+            }
+            i++;
+        }
+        selection[selected++] = row;
+    }
+
+    /**
+     * Create a bundle with the values of a row.
+     */
+    public Bundle materialize(int row) {
+        ListBundle bundle = new ListBundle(format);
+        for (int i = 0; i < columns.length; i++) {
+            Column column = columns[i];
+            if (column != null) {
+                ValueObject value = column.getValue(row);
+                if (value != null) {
+                    bundle.setValue(format.getField(i), value);
+                }
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * The values of one field. Rows that were never set are null.
+     */
+    public static final class Column {
+
+        private final int capacity;
+        private byte type = EMPTY;
+        private final boolean[] nulls;
+
+        private long[] longs;
+        private double[] doubles;
+        private int[] codes;
+        private List<String> dictionary;
+        private Map<String, Integer> dictionaryCodes;
+        private ValueObject[] objects;
+
+        Column(int capacity) {
+            this.capacity = capacity;
+            this.nulls = new boolean[capacity];
+            Arrays.fill(nulls, true);
+        }
+
+        void clear() {
+            type = EMPTY;
+            Arrays.fill(nulls, true);
+            if (dictionary != null) {
+                dictionary.clear();
+                dictionaryCodes.clear();
+            }
+            if (objects != null) {
+                Arrays.fill(objects, null);
+            }
+        }
+
+        /**
+         * One of {@link #EMPTY}, {@link #LONG}, {@link #DOUBLE}, {@link #STRING} or {@link #OBJECT}.
+         */
+        public byte type() {
+            return type;
+        }
+
+        public boolean isNull(int row) {
+            return nulls[row];
+        }
+
+        public long getLong(int row) {
+            return longs[row];
+        }
+
+        public double getDouble(int row) {
+            return doubles[row];
+        }
+
+        public String getString(int row) {
+            return dictionary.get(codes[row]);
+        }
+
+        /**
+         * Dictionary code of a string value. Equal strings in a batch have equal codes.
+         */
+        public int getCode(int row) {
+            return codes[row];
+        }
+
+        public ValueObject getValue(int row) {
+            if (nulls[row]) {
+                return null;
+            }
+            switch (type) {
+                case LONG:
+                    return ValueFactory.create(longs[row]);
+                case DOUBLE:
+                    return ValueFactory.create(doubles[row]);
+                case STRING:
+                    return ValueFactory.create(dictionary.get(codes[row]));
+                default:
+                    return objects[row];
+            }
+        }
+
+        public void setLong(int row, long value) {
+            if (!become(LONG)) {
+                objects[row] = ValueFactory.create(value);
+            } else {
+                longs[row] = value;
+            }
+            nulls[row] = false;
+        }
+
+        public void setDouble(int row, double value) {
+            if (!become(DOUBLE)) {
+                objects[row] = ValueFactory.create(value);
+            } else {
+                doubles[row] = value;
+            }
+            nulls[row] = false;
+        }
+
+        public void setString(int row, String value) {
+            if (!become(STRING)) {
+                objects[row] = ValueFactory.create(value);
+            } else {
+                Integer code = dictionaryCodes.get(value);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.add(value);
+                    dictionaryCodes.put(value, code);
+                }
+                codes[row] = code;
+            }
+            nulls[row] = false;
+        }
+
+        public void set(int row, ValueObject value) {
+            if (value == null) {
+                nulls[row] = true;
+                return;
+            }
+            switch (value.getObjectType()) {
+                case INT:
+                    setLong(row, value.asLong().getLong());
+                    break;
+                case FLOAT:
+                    setDouble(row, value.asDouble().getDouble());
+                    break;
+                case STRING:
+                    setString(row, value.asString().asNative());
+                    break;
+                default:
+                    become(OBJECT);
+                    objects[row] = value;
+                    nulls[row] = false;
+                    break;
+            }
+        }
+
+        /**
+         * Switch an empty column to the given type or a column of another type to objects.
+         * Returns false if the column now holds objects while a primitive type was requested.
+         */
+        private boolean become(byte target) {
+            if (type == target) {
+                return true;
+            }
+            if (type == EMPTY) {
+                type = target;
+                switch (target) {
+                    case LONG:
+                        if (longs == null) {
+                            longs = new long[capacity];
+                        }
+                        break;
+                    case DOUBLE:
+                        if (doubles == null) {
+                            doubles = new double[capacity];
+                        }
+                        break;
+                    case STRING:
+                        if (codes == null) {
+                            codes = new int[capacity];
+                            dictionary = new ArrayList<>();
+                            dictionaryCodes = new HashMap<>();
+                        }
+                        break;
+                    default:
+                        if (objects == null) {
+                            objects = new ValueObject[capacity];
+                        }
+                        break;
+                }
+                return true;
+            }
+            if (type != OBJECT) {
+                ValueObject[] converted = (objects == null) ? new ValueObject[capacity] : objects;
+                for (int row = 0; row < capacity; row++) {
+                    converted[row] = getValue(row);
+                }
+                objects = converted;
+                type = OBJECT;
+            }
+            return target == OBJECT;
+        }
+    }
+}
@@ -13,20 +13,35 @@
  */
 package com.addthis.hydra.data.query.engine;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.addthis.basis.util.ClosableIterator;
+import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
 import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueObject;
 import com.addthis.hydra.data.query.FieldValueList;
 import com.addthis.hydra.data.query.Query;
 import com.addthis.hydra.data.query.QueryElement;
@@ -44,11 +59,51 @@ import io.netty.channel.ChannelProgressivePromise;
 /**
  * wraps a Tree and provides the real work behind the query engine. keeps track
  * of active queries so that they can be canceled.
+ * <p/>
+ * A query with the parameter {@code parallel=N} splits the children of the nodes
+ * matched by path element N into key ranges and searches the ranges on a shared
+ * fork join pool. This only applies when element N visits every child, ie. it has
+ * no match, regex, data, skip or limit and is not flattened. Otherwise the path is
+ * searched on the calling thread. Results of the ranges are emitted as they are
+ * found unless the query also has {@code parallelOrdered=true}, in which case each
+ * range is buffered until the preceding ranges have been emitted.
  */
 public class QueryEngine {
 
     private static final Logger log = LoggerFactory.getLogger(QueryEngine.class);
 
+    public static final String PARALLEL_PARAMETER = "parallel";
+
+    public static final String PARALLEL_ORDERED_PARAMETER = "parallelOrdered";
+
+    /**
+     * Threads of the pool for parallel searches. Zero disables parallel searches.
+     */
+    private static final int PARALLEL_THREADS = Parameter.intValue("hydra.query.parallel.threads",
+                                                                   Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Number of key ranges per thread that the children of a node are split into.
+     */
+    private static final int PARALLEL_RANGES = Parameter.intValue("hydra.query.parallel.ranges", 4);
+
+    /**
+     * Lookups per key range that may be made to find the bounds of the ranges.
+     */
+    private static final int PROBES_PER_RANGE = Parameter.intValue("hydra.query.parallel.probes", 16);
+
+    /**
+     * Unordered results are handed to the query output in batches of this size.
+     */
+    private static final int PARALLEL_BATCH = Parameter.intValue("hydra.query.parallel.batch", 256);
+
+    private static final ForkJoinPool parallelPool = (PARALLEL_THREADS > 0) ? new ForkJoinPool(
+            PARALLEL_THREADS, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("QueryEngineParallelSearch-" + thread.getPoolIndex());
+                return thread;
+            }, null, false) : null;
+
     protected final DataTree tree;
     private final AtomicInteger used;
     private final AtomicBoolean isOpen;
@@ -188,9 +243,23 @@ public class QueryEngine {
      */
     public void search(Query query, DataChannelOutput result,
             ChannelProgressivePromise queryPromise) throws QueryException {
+        int parallelLevel = -1;
+        String parallel = query.getParameter(PARALLEL_PARAMETER);
+        if ((parallel != null) && (parallelPool != null)) {
+            try {
+                parallelLevel = Integer.parseInt(parallel);
+            } catch (NumberFormatException ex) {
+                throw new QueryException("invalid " + PARALLEL_PARAMETER + " path level: " + parallel);
+            }
+        }
+        boolean ordered = Boolean.parseBoolean(query.getParameter(PARALLEL_ORDERED_PARAMETER));
         for (QueryElement[] path : query.getQueryPaths()) {
             if (!(queryPromise.isDone())) {
-                search(path, result, queryPromise);
+                if ((parallelLevel >= 0) && (parallelLevel < path.length) && path[parallelLevel].splittable()) {
+                    search(path, result, queryPromise, new ParallelSearch(parallelLevel, ordered, result));
+                } else {
+                    search(path, result, queryPromise, null);
+                }
             }
         }
     }
@@ -228,6 +297,11 @@ public class QueryEngine {
      */
     public void search(QueryElement[] path, DataChannelOutput result,
             ChannelProgressivePromise queryPromise) throws QueryException {
+        search(path, result, queryPromise, null);
+    }
+
+    private void search(QueryElement[] path, DataChannelOutput result,
+            ChannelProgressivePromise queryPromise, ParallelSearch parallel) throws QueryException {
         init();
         Thread thread = Thread.currentThread();
         synchronized (active) {
@@ -238,7 +312,13 @@ public class QueryEngine {
         try {
             LinkedList<DataTreeNode> stack = new LinkedList<>();
             stack.push(tree);
-            tableSearch(stack, new FieldValueList(new ListBundleFormat()), path, 0, result, 0, queryPromise);
+            FieldValueList prefix = new FieldValueList(new ListBundleFormat());
+            if (parallel != null) {
+                for (int i = parallel.level; i < path.length; i++) {
+                    path[i].bindFields(prefix.getFormat());
+                }
+            }
+            tableSearch(stack, prefix, path, 0, result, 0, queryPromise, parallel);
         } catch (QueryException | CancellationException ex) {
             log.debug("", ex);
         } catch (RuntimeException ex)  {
@@ -275,9 +355,9 @@ public class QueryEngine {
      */
     private void tableSearch(LinkedList<DataTreeNode> stack, DataTreeNode root, FieldValueList prefix, QueryElement[] path,
             int pathIndex, DataChannelOutput result, int collect,
-            ChannelProgressivePromise queryPromise) throws QueryException {
+            ChannelProgressivePromise queryPromise, ParallelSearch parallel) throws QueryException {
         stack.push(root);
-        tableSearch(stack, prefix, path, pathIndex, result, collect, queryPromise);
+        tableSearch(stack, prefix, path, pathIndex, result, collect, queryPromise, parallel);
         stack.pop();
     }
 
@@ -304,7 +384,7 @@ public class QueryEngine {
      */
     private void tableSearch(LinkedList<DataTreeNode> stack, FieldValueList prefix, QueryElement[] path,
             int pathIndex, DataChannelOutput sink, int collect,
-            ChannelProgressivePromise queryPromise) throws QueryException {
+            ChannelProgressivePromise queryPromise, ParallelSearch parallel) throws QueryException {
         if (queryPromise.isDone()) {
             log.debug("Query promise completed during processing");
             if (queryPromise.isCancelled()) {
@@ -332,6 +412,10 @@ public class QueryEngine {
             return;
         }
         QueryElement next = path[pathIndex];
+        if ((parallel != null) && (parallel.level == pathIndex) && (root != null)) {
+            parallel.search(stack, root, prefix, path, pathIndex, collect, queryPromise);
+            return;
+        }
         Iterator<DataTreeNode> iter = root != null ? next.matchNodes(tree, stack) : next.emptyok() ? Iterators.<DataTreeNode>emptyIterator() : null;
         if (iter == null) {
             return;
@@ -375,7 +459,7 @@ public class QueryEngine {
                     limit--;
                 }
                 if (!queryPromise.isDone()) {
-                    tableSearch(null, prefix, path, pathIndex + 1, sink, collect + count, queryPromise);
+                    tableSearch(null, prefix, path, pathIndex + 1, sink, collect + count, queryPromise, parallel);
                 }
                 prefix.pop(count);
                 return;
@@ -413,7 +497,8 @@ public class QueryEngine {
                 int count = next.update(prefix, tn);
                 if (count >= 0) {
                     if (!queryPromise.isDone()) {
-                        tableSearch(stack, tn, prefix, path, pathIndex + 1, sink, collect + count, queryPromise);
+                        tableSearch(stack, tn, prefix, path, pathIndex + 1, sink, collect + count, queryPromise,
+                                    parallel);
                     }
                     prefix.pop(count);
                     limit--;
@@ -431,4 +516,351 @@ public class QueryEngine {
         }
     }
 
+    /**
+     * Searches the children of a node in key ranges on the {@link #parallelPool}.
+     * Used for the path element at {@link #level} of a single query path.
+     */
+    private final class ParallelSearch {
+
+        final int level;
+        final boolean ordered;
+        final DataChannelOutput sink;
+
+        ParallelSearch(int level, boolean ordered, DataChannelOutput sink) {
+            this.level = level;
+            this.ordered = ordered;
+            this.sink = sink;
+        }
+
+        /**
+         * Returns the names of children of the node that are the lower bounds of key ranges,
+         * starting with the first child. The children are not scanned. Instead the first child
+         * of every distinct name prefix is looked up with a range iterator and the prefixes are
+         * made longer until there are enough ranges or {@link #PROBES_PER_RANGE} lookups per
+         * range have been made.
+         */
+        List<String> boundaries(DataTreeNode root) {
+            int maxRanges = Math.max(1, PARALLEL_THREADS * PARALLEL_RANGES);
+            int budget = PROBES_PER_RANGE * maxRanges;
+            List<String> bounds = Collections.emptyList();
+            for (int depth = 1; bounds.size() < maxRanges; depth++) {
+                List<String> next = new ArrayList<>();
+                boolean longer = false;
+                String name = firstChild(root, null);
+                while ((name != null) && (budget > 0)) {
+                    budget--;
+                    next.add(name);
+                    longer |= name.length() > depth;
+                    String from = prefixSuccessor(name, depth);
+                    name = (from == null) ? null : firstChild(root, from);
+                }
+                if (name != null) {
+                    // out of lookups, keep the bounds of the last complete pass
+                    break;
+                }
+                bounds = next;
+                if (!longer) {
+                    break;
+                }
+            }
+            if (bounds.size() <= (2 * maxRanges)) {
+                return bounds;
+            }
+            List<String> thinned = new ArrayList<>(2 * maxRanges);
+            for (int i = 0; i < (2 * maxRanges); i++) {
+                thinned.add(bounds.get((int) (((long) i * bounds.size()) / (2 * maxRanges))));
+            }
+            return thinned;
+        }
+
+        @Nullable private String firstChild(DataTreeNode root, @Nullable String from) {
+            ClosableIterator<DataTreeNode> iter = (from == null) ? root.getIterator() : root.getIterator(from, null);
+            try {
+                while (iter.hasNext()) {
+                    DataTreeNode child = iter.next();
+                    if (child != null) {
+                        return child.getName();
+                    }
+                }
+                return null;
+            } finally {
+                iter.close();
+            }
+        }
+
+        /**
+         * Returns the smallest name that is larger than every name which shares
+         * the first {@code depth} characters of {@code name}, or null if there is none.
+         */
+        @Nullable private String prefixSuccessor(String name, int depth) {
+            if (name.length() <= depth) {
+                return name + Character.MIN_VALUE;
+            }
+            char[] prefix = name.substring(0, depth).toCharArray();
+            for (int i = prefix.length - 1; i >= 0; i--) {
+                if (prefix[i] != Character.MAX_VALUE) {
+                    prefix[i]++;
+                    return new String(prefix, 0, i + 1);
+                }
+            }
+            return null;
+        }
+
+        void search(LinkedList<DataTreeNode> stack, DataTreeNode root, FieldValueList prefix, QueryElement[] path,
+                int pathIndex, int collect, ChannelProgressivePromise queryPromise) throws QueryException {
+            List<String> bounds = boundaries(root);
+            if (bounds.isEmpty()) {
+                return;
+            }
+            Split split = new Split(bounds.size());
+            List<RangeSearch> tasks = new ArrayList<>(bounds.size());
+            for (int i = 0; i < bounds.size(); i++) {
+                String to = ((i + 1) < bounds.size()) ? bounds.get(i + 1) : null;
+                tasks.add(new RangeSearch(split, i, bounds.get(i), to, new LinkedList<>(stack), root,
+                                          prefix.copy(), path, pathIndex, collect, queryPromise));
+            }
+            for (RangeSearch task : tasks) {
+                parallelPool.execute(task);
+            }
+            try {
+                for (RangeSearch task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException ex) {
+                split.abort();
+                Thread.currentThread().interrupt();
+                throw new QueryException("query interrupted");
+            } catch (ExecutionException ex) {
+                split.abort();
+                Throwable cause = ex.getCause();
+                if (cause instanceof CompletionException) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof QueryException) {
+                    throw (QueryException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw new QueryException(cause);
+                }
+            } finally {
+                // do not return while a range may still write to the output
+                for (RangeSearch task : tasks) {
+                    task.quietlyJoin();
+                }
+            }
+        }
+
+        /**
+         * Hand the bundles of a range to the query output. Bundles are created with
+         * a format of the range and copied into bundles of the output here, because
+         * creating fields in the format of the output is not thread safe.
+         */
+        void transfer(List<Bundle> bundles, ChannelProgressivePromise queryPromise) {
+            synchronized (sink) {
+                for (Bundle bundle : bundles) {
+                    if (queryPromise.isDone()) {
+                        return;
+                    }
+                    Bundle out = sink.createBundle();
+                    for (BundleField field : bundle.getFormat()) {
+                        ValueObject value = bundle.getValue(field);
+                        if (value != null) {
+                            out.setValue(out.getFormat().getField(field.getName()), value);
+                        }
+                    }
+                    sink.send(out);
+                }
+            }
+        }
+
+        /**
+         * State shared by the range searches of one node.
+         */
+        final class Split {
+
+            final HashSet<Thread> running = new HashSet<>();
+            final List<List<Bundle>> completed;
+            boolean aborted;
+            int nextRange;
+
+            Split(int ranges) {
+                completed = new ArrayList<>(ranges);
+                for (int i = 0; i < ranges; i++) {
+                    completed.add(null);
+                }
+            }
+
+            boolean enter(Thread thread) {
+                synchronized (running) {
+                    if (aborted) {
+                        return false;
+                    }
+                    running.add(thread);
+                }
+                synchronized (active) {
+                    active.add(thread);
+                }
+                return true;
+            }
+
+            void exit(Thread thread) {
+                synchronized (active) {
+                    active.remove(thread);
+                }
+                synchronized (running) {
+                    running.remove(thread);
+                }
+                // no interrupt is delivered once the thread has left both sets
+                Thread.interrupted();
+            }
+
+            void abort() {
+                synchronized (running) {
+                    aborted = true;
+                    for (Thread thread : running) {
+                        thread.interrupt();
+                    }
+                }
+            }
+
+            /**
+             * Emit the buffered ranges that are next in order.
+             */
+            synchronized void complete(int range, List<Bundle> bundles, ChannelProgressivePromise queryPromise) {
+                completed.set(range, bundles);
+                while ((nextRange < completed.size()) && (completed.get(nextRange) != null)) {
+                    transfer(completed.get(nextRange), queryPromise);
+                    completed.set(nextRange++, null);
+                }
+            }
+        }
+
+        /**
+         * Output of a range search. Creates bundles with a format of its own and
+         * buffers them until they can be handed to the query output.
+         */
+        final class RangeOutput implements DataChannelOutput {
+
+            final ListBundleFormat format = new ListBundleFormat();
+            final ChannelProgressivePromise queryPromise;
+            List<Bundle> buffer = new ArrayList<>();
+
+            RangeOutput(ChannelProgressivePromise queryPromise) {
+                this.queryPromise = queryPromise;
+            }
+
+            @Override
+            public Bundle createBundle() {
+                return new ListBundle(format);
+            }
+
+            @Override
+            public void send(Bundle bundle) {
+                buffer.add(bundle);
+                if (!ordered && (buffer.size() >= PARALLEL_BATCH)) {
+                    transfer(buffer, queryPromise);
+                    buffer = new ArrayList<>();
+                }
+            }
+
+            @Override
+            public void send(List<Bundle> bundles) {
+                for (Bundle bundle : bundles) {
+                    send(bundle);
+                }
+            }
+
+            @Override
+            public void sendComplete() {
+            }
+
+            @Override
+            public void sourceError(Throwable cause) {
+            }
+        }
+
+        final class RangeSearch extends RecursiveAction {
+
+            final Split split;
+            final int range;
+            final String from;
+            final String to;
+            final LinkedList<DataTreeNode> stack;
+            final DataTreeNode root;
+            final FieldValueList prefix;
+            final QueryElement[] path;
+            final int pathIndex;
+            final int collect;
+            final ChannelProgressivePromise queryPromise;
+
+            RangeSearch(Split split, int range, String from, String to, LinkedList<DataTreeNode> stack,
+                    DataTreeNode root, FieldValueList prefix, QueryElement[] path, int pathIndex, int collect,
+                    ChannelProgressivePromise queryPromise) {
+                this.split = split;
+                this.range = range;
+                this.from = from;
+                this.to = to;
+                this.stack = stack;
+                this.root = root;
+                this.prefix = prefix;
+                this.path = path;
+                this.pathIndex = pathIndex;
+                this.collect = collect;
+                this.queryPromise = queryPromise;
+            }
+
+            @Override
+            protected void compute() {
+                Thread thread = Thread.currentThread();
+                if (!split.enter(thread)) {
+                    return;
+                }
+                try {
+                    RangeOutput output = new RangeOutput(queryPromise);
+                    searchRange(output);
+                    if (ordered) {
+                        split.complete(range, output.buffer, queryPromise);
+                    } else {
+                        transfer(output.buffer, queryPromise);
+                    }
+                } catch (QueryException ex) {
+                    throw new CompletionException(ex);
+                } finally {
+                    split.exit(thread);
+                }
+            }
+
+            /**
+             * Same as the non flattened loop of {@link QueryEngine#tableSearch} over the
+             * children in the range. Splittable elements have no skip or limit.
+             */
+            private void searchRange(RangeOutput output) throws QueryException {
+                QueryElement next = path[pathIndex];
+                ClosableIterator<DataTreeNode> iter = root.getIterator(from, to);
+                try {
+                    while (iter.hasNext()) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new QueryException("query interrupted");
+                        }
+                        if (queryPromise.isDone()) {
+                            break;
+                        }
+                        DataTreeNode tn = iter.next();
+                        if ((tn == null) && !next.emptyok()) {
+                            return;
+                        }
+                        int count = next.update(prefix, tn);
+                        if (count >= 0) {
+                            tableSearch(stack, tn, prefix, path, pathIndex + 1, output, collect + count, queryPromise,
+                                        null);
+                            prefix.pop(count);
+                        }
+                    }
+                } finally {
+                    iter.close();
+                }
+            }
+        }
+    }
 }
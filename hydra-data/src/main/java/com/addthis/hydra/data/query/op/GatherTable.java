@@ -0,0 +1,687 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.Numeric;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.query.op.merge.AverageValue;
+import com.addthis.hydra.data.query.op.merge.KeyValue;
+import com.addthis.hydra.data.query.op.merge.MaxValue;
+import com.addthis.hydra.data.query.op.merge.MergeConfig;
+import com.addthis.hydra.data.query.op.merge.MergedValue;
+import com.addthis.hydra.data.query.op.merge.MinValue;
+import com.addthis.hydra.data.query.op.merge.NumMergesValue;
+import com.addthis.hydra.data.query.op.merge.SumValue;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+
+/**
+ * Hash aggregation table used by {@link OpGather} when every column is a key,
+ * ignored, sum, min, max, average or merge count column.
+ * <p/>
+ * The key columns of a group are encoded one after another into a shared byte
+ * arena and looked up through an open addressing table of group ids. Merged values
+ * are kept in primitive arrays indexed by group id, so a group costs a few dozen
+ * bytes instead of a row of boxed values. Once the table is over its limits the
+ * groups can be written to hash partitioned spill files. Each partition is then
+ * re-aggregated on its own, spilling again on the next bits of the hash if needed.
+ * <p/>
+ * Results are the same as for the {@link MergedRow} based gather: the type of a
+ * merged value is chosen by the first value that is merged and a key column emits
+ * the type of the last value seen for it. Key values that are not strings or numbers
+ * are emitted as strings.
+ */
+final class GatherTable implements Closeable {
+
+    private static final Meter spilledGroups = Metrics.newMeter(GatherTable.class, "spilledGroups", "spilledGroups",
+                                                                TimeUnit.SECONDS);
+
+    private static final int PARTITION_BITS = 4;
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+
+    /**
+     * Partitions at a deeper level are aggregated in memory regardless of the limits.
+     */
+    private static final int MAX_LEVEL = 3;
+
+    private static final int INITIAL_GROUPS = 64;
+    private static final int SPILL_BUFFER = 64 * 1024;
+
+    /* type of a key or merged value. NONE until a non null value is seen */
+    private static final byte NONE = 0;
+    private static final byte STRING = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+
+    private enum Kind {SUM, MIN, MAX, AVG}
+
+    /**
+     * Returns true if every column of the configuration can be aggregated by this table.
+     */
+    static boolean supports(MergeConfig config) {
+        if (config.topColumn >= 0) {
+            return false;
+        }
+        for (MergedValue value : config.conf) {
+            if ((value != null) && !(value.isKey() || (value instanceof NumMergesValue) || (kind(value) != null))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Kind kind(MergedValue value) {
+        Class<?> type = value.getClass();
+        if (type == SumValue.class) {
+            return Kind.SUM;
+        } else if (type == AverageValue.class) {
+            return Kind.AVG;
+        } else if (type == MinValue.class) {
+            return Kind.MIN;
+        } else if (type == MaxValue.class) {
+            return Kind.MAX;
+        } else {
+            return null;
+        }
+    }
+
+    private final ListBundleFormat format;
+    private final MergedValue[] keys;
+    private final MergedValue[] values;
+    private final Kind[] kinds;
+    private final MergedValue count;
+    private final int bytesPerGroup;
+
+    private final long tipMem;
+    private final long tipRow;
+    private final File spillDir;
+    private final int level;
+
+    private int groups;
+    /* group id + 1 of each slot or 0 if the slot is empty */
+    private int[] slots = new int[INITIAL_GROUPS * 2];
+    private int[] hashes = new int[INITIAL_GROUPS];
+    /* end of the key of each group in the arena. a key starts where the previous one ends */
+    private int[] keyEnds = new int[INITIAL_GROUPS];
+    private int[] merged = new int[INITIAL_GROUPS];
+    private byte[] keyTypes;
+    private byte[] valueTypes;
+    private long[] valueBits;
+
+    private byte[] arena = new byte[1024];
+    private int arenaSize;
+    private byte[] scratch = new byte[64];
+    private int scratchSize;
+    private ValueObject[] rowKeys;
+    private int cursor;
+
+    private DataOutputStream[] partitions;
+    private File[] partitionFiles;
+    private long[] partitionGroups;
+
+    GatherTable(MergedValue[] conf, ListBundleFormat format, long tipMem, long tipRow, File spillDir) {
+        this.format = format;
+        this.tipMem = tipMem;
+        this.tipRow = tipRow;
+        this.spillDir = spillDir;
+        this.level = 0;
+        int keyCount = 0;
+        int valueCount = 0;
+        MergedValue countValue = null;
+        for (MergedValue value : conf) {
+            if (value == null) {
+                continue;
+            }
+            if (value.isKey()) {
+                keyCount++;
+            } else if (value instanceof NumMergesValue) {
+                countValue = value;
+            } else {
+                valueCount++;
+            }
+        }
+        keys = new MergedValue[keyCount];
+        values = new MergedValue[valueCount];
+        kinds = new Kind[valueCount];
+        keyCount = 0;
+        valueCount = 0;
+        for (MergedValue value : conf) {
+            if ((value == null) || (value == countValue)) {
+                continue;
+            }
+            if (value.isKey()) {
+                keys[keyCount++] = value;
+            } else {
+                values[valueCount] = value;
+                kinds[valueCount++] = kind(value);
+            }
+        }
+        count = countValue;
+        bytesPerGroup = bytesPerGroup(keys.length, values.length);
+        init();
+    }
+
+    /**
+     * Table for the re-aggregation of one spilled partition of the parent.
+     */
+    private GatherTable(GatherTable parent) {
+        format = parent.format;
+        keys = parent.keys;
+        values = parent.values;
+        kinds = parent.kinds;
+        count = parent.count;
+        bytesPerGroup = parent.bytesPerGroup;
+        level = parent.level + 1;
+        tipMem = (level <= MAX_LEVEL) ? parent.tipMem : 0;
+        tipRow = (level <= MAX_LEVEL) ? parent.tipRow : 0;
+        spillDir = parent.spillDir;
+        init();
+    }
+
+    private static int bytesPerGroup(int keyCount, int valueCount) {
+        // hash, key end, merge count and two slots plus the type and value of each column
+        return 20 + keyCount + (valueCount * 9);
+    }
+
+    private void init() {
+        keyTypes = new byte[INITIAL_GROUPS * keys.length];
+        valueTypes = new byte[INITIAL_GROUPS * values.length];
+        valueBits = new long[INITIAL_GROUPS * values.length];
+        rowKeys = new ValueObject[keys.length];
+    }
+
+    int size() {
+        return groups;
+    }
+
+    boolean spilled() {
+        return partitions != null;
+    }
+
+    /**
+     * Approximate number of bytes used by the groups currently in memory.
+     */
+    long memory() {
+        return arenaSize + ((long) groups * bytesPerGroup);
+    }
+
+    boolean full() {
+        return ((tipMem > 0) && (memory() > tipMem)) || ((tipRow > 0) && (groups > tipRow));
+    }
+
+    /**
+     * Merge a row into its group. The columns of the merge configuration must already be bound.
+     */
+    void add(Bundle row) {
+        scratchSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            BundleField from = keys[i].getFrom();
+            ValueObject value = (from == null) ? null : row.getValue(from);
+            rowKeys[i] = value;
+            encode((value == null) ? "" : value.toString());
+        }
+        int group = findOrInsert(hash(scratch, scratchSize));
+        merged[group]++;
+        for (int i = 0; i < keys.length; i++) {
+            ValueObject value = rowKeys[i];
+            if (value != null) {
+                keyTypes[(group * keys.length) + i] = typeOf(value);
+                rowKeys[i] = null;
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            BundleField from = values[i].getFrom();
+            ValueObject value = (from == null) ? null : row.getValue(from);
+            if (value != null) {
+                merge((group * values.length) + i, kinds[i], OpGather.num(value));
+            }
+        }
+    }
+
+    private static byte typeOf(ValueObject value) {
+        switch (value.getObjectType()) {
+            case INT:
+                return LONG;
+            case FLOAT:
+                return DOUBLE;
+            default:
+                return STRING;
+        }
+    }
+
+    private void merge(int index, Kind kind, Numeric next) {
+        switch (valueTypes[index]) {
+            case NONE:
+                if (next.getObjectType() == ValueObject.TYPE.FLOAT) {
+                    valueTypes[index] = DOUBLE;
+                    valueBits[index] = Double.doubleToRawLongBits(next.asDouble().getDouble());
+                } else {
+                    valueTypes[index] = LONG;
+                    valueBits[index] = next.asLong().getLong();
+                }
+                break;
+            case LONG:
+                valueBits[index] = mergeLong(kind, valueBits[index], next.asLong().getLong());
+                break;
+            default:
+                valueBits[index] = mergeDouble(kind, valueBits[index], next.asDouble().getDouble());
+                break;
+        }
+    }
+
+    /**
+     * Merge a partial aggregate read back from a spill file.
+     */
+    private void merge(int index, Kind kind, byte type, long bits) {
+        switch (valueTypes[index]) {
+            case NONE:
+                valueTypes[index] = type;
+                valueBits[index] = bits;
+                break;
+            case LONG:
+                long nextLong = (type == DOUBLE) ? (long) Double.longBitsToDouble(bits) : bits;
+                valueBits[index] = mergeLong(kind, valueBits[index], nextLong);
+                break;
+            default:
+                double nextDouble = (type == DOUBLE) ? Double.longBitsToDouble(bits) : (double) bits;
+                valueBits[index] = mergeDouble(kind, valueBits[index], nextDouble);
+                break;
+        }
+    }
+
+    private static long mergeLong(Kind kind, long value, long next) {
+        switch (kind) {
+            case MIN:
+                return Math.min(value, next);
+            case MAX:
+                return Math.max(value, next);
+            default:
+                return value + next;
+        }
+    }
+
+    private static long mergeDouble(Kind kind, long bits, double next) {
+        double value = Double.longBitsToDouble(bits);
+        switch (kind) {
+            case MIN:
+                // same as ValueDouble.min which keeps the next value when the current one is not positive
+                value = (value > 0) ? Math.min(value, next) : next;
+                break;
+            case MAX:
+                value = Math.max(value, next);
+                break;
+            default:
+                value += next;
+                break;
+        }
+        return Double.doubleToRawLongBits(value);
+    }
+
+    /**
+     * Append a string to the scratch key as a char count followed by one to three bytes per char.
+     */
+    private void encode(String value) {
+        int length = value.length();
+        ensureScratch(scratchSize + 5 + (length * 3));
+        for (int remaining = length; ; remaining >>>= 7) {
+            if (remaining < 0x80) {
+                scratch[scratchSize++] = (byte) remaining;
+                break;
+            }
+            scratch[scratchSize++] = (byte) ((remaining & 0x7f) | 0x80);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                scratch[scratchSize++] = (byte) c;
+            } else if (c < 0x800) {
+                scratch[scratchSize++] = (byte) (0xc0 | (c >> 6));
+                scratch[scratchSize++] = (byte) (0x80 | (c & 0x3f));
+            } else {
+                scratch[scratchSize++] = (byte) (0xe0 | (c >> 12));
+                scratch[scratchSize++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                scratch[scratchSize++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Decode the string at the arena cursor and advance the cursor past it.
+     */
+    private String decode() {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = arena[cursor++];
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            int b = arena[cursor++] & 0xff;
+            if (b < 0x80) {
+                chars[i] = (char) b;
+            } else if (b < 0xe0) {
+                chars[i] = (char) (((b & 0x1f) << 6) | (arena[cursor++] & 0x3f));
+            } else {
+                int b2 = arena[cursor++] & 0x3f;
+                chars[i] = (char) (((b & 0x0f) << 12) | (b2 << 6) | (arena[cursor++] & 0x3f));
+            }
+        }
+        return new String(chars);
+    }
+
+    private void ensureScratch(int capacity) {
+        if (capacity > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(capacity, scratch.length * 2));
+        }
+    }
+
+    private static int hash(byte[] bytes, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = (31 * hash) + bytes[i];
+        }
+        // murmur3 finalizer. the low bits pick a slot and the high bits a spill partition
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private int keyStart(int group) {
+        return (group == 0) ? 0 : keyEnds[group - 1];
+    }
+
+    private boolean keyEquals(int group) {
+        int start = keyStart(group);
+        if ((keyEnds[group] - start) != scratchSize) {
+            return false;
+        }
+        for (int i = 0; i < scratchSize; i++) {
+            if (arena[start + i] != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the group of the key in the scratch buffer, creating it if it does not exist.
+     */
+    private int findOrInsert(int hash) {
+        int mask = slots.length - 1;
+        int index = hash & mask;
+        int slot;
+        while ((slot = slots[index]) != 0) {
+            int group = slot - 1;
+            if ((hashes[group] == hash) && keyEquals(group)) {
+                return group;
+            }
+            index = (index + 1) & mask;
+        }
+        int group = newGroup(hash);
+        slots[index] = group + 1;
+        if ((groups * 2) > slots.length) {
+            resize(slots.length * 2);
+        }
+        return group;
+    }
+
+    private int newGroup(int hash) {
+        int group = groups++;
+        if (group == hashes.length) {
+            int capacity = hashes.length * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            keyEnds = Arrays.copyOf(keyEnds, capacity);
+            merged = Arrays.copyOf(merged, capacity);
+            keyTypes = Arrays.copyOf(keyTypes, capacity * keys.length);
+            valueTypes = Arrays.copyOf(valueTypes, capacity * values.length);
+            valueBits = Arrays.copyOf(valueBits, capacity * values.length);
+        }
+        if ((arenaSize + scratchSize) > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arenaSize + scratchSize, arena.length * 2));
+        }
+        System.arraycopy(scratch, 0, arena, arenaSize, scratchSize);
+        arenaSize += scratchSize;
+        keyEnds[group] = arenaSize;
+        hashes[group] = hash;
+        merged[group] = 0;
+        Arrays.fill(keyTypes, group * keys.length, (group + 1) * keys.length, NONE);
+        Arrays.fill(valueTypes, group * values.length, (group + 1) * values.length, NONE);
+        return group;
+    }
+
+    private void resize(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int group = 0; group < groups; group++) {
+            int index = hashes[group] & mask;
+            while (slots[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            slots[index] = group + 1;
+        }
+    }
+
+    private void clear() {
+        groups = 0;
+        arenaSize = 0;
+        Arrays.fill(slots, 0);
+    }
+
+    private Bundle emit(int group) {
+        ListBundle bundle = new ListBundle(format);
+        cursor = keyStart(group);
+        for (int i = 0; i < keys.length; i++) {
+            String key = decode();
+            BundleField to = keys[i].getTo();
+            if (to == null) {
+                continue;
+            }
+            switch (keyTypes[(group * keys.length) + i]) {
+                case NONE:
+                    break;
+                case LONG:
+                    bundle.setValue(to, ValueFactory.create(Long.parseLong(key)));
+                    break;
+                case DOUBLE:
+                    bundle.setValue(to, ValueFactory.create(Double.parseDouble(key)));
+                    break;
+                default:
+                    bundle.setValue(to, ValueFactory.create(key));
+                    break;
+            }
+        }
+        int rows = Math.max(merged[group], 1);
+        for (int i = 0; i < values.length; i++) {
+            int index = (group * values.length) + i;
+            BundleField to = values[i].getTo();
+            if ((to == null) || (valueTypes[index] == NONE)) {
+                continue;
+            }
+            if (valueTypes[index] == LONG) {
+                long value = valueBits[index];
+                bundle.setValue(to, ValueFactory.create((kinds[i] == Kind.AVG) ? (value / rows) : value));
+            } else {
+                double value = Double.longBitsToDouble(valueBits[index]);
+                bundle.setValue(to, ValueFactory.create((kinds[i] == Kind.AVG) ? (value / rows) : value));
+            }
+        }
+        if ((count != null) && (count.getTo() != null)) {
+            bundle.setValue(count.getTo(), ValueFactory.create(merged[group]));
+        }
+        return bundle;
+    }
+
+    /**
+     * Write every group in memory to the spill partitions of this level and empty the table.
+     */
+    void spill() throws IOException {
+        if (partitions == null) {
+            if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+                throw new IOException("unable to create gather spill directory " + spillDir);
+            }
+            partitions = new DataOutputStream[PARTITIONS];
+            partitionFiles = new File[PARTITIONS];
+            partitionGroups = new long[PARTITIONS];
+        }
+        int shift = 32 - (PARTITION_BITS * (level + 1));
+        for (int group = 0; group < groups; group++) {
+            int partition = (hashes[group] >>> shift) & (PARTITIONS - 1);
+            DataOutputStream out = partitions[partition];
+            if (out == null) {
+                File file = File.createTempFile("gather", ".spill", spillDir);
+                partitionFiles[partition] = file;
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), SPILL_BUFFER));
+                partitions[partition] = out;
+            }
+            write(group, out);
+            partitionGroups[partition]++;
+        }
+        spilledGroups.mark(groups);
+        clear();
+    }
+
+    private void write(int group, DataOutputStream out) throws IOException {
+        int start = keyStart(group);
+        out.writeInt(hashes[group]);
+        out.writeInt(keyEnds[group] - start);
+        out.write(arena, start, keyEnds[group] - start);
+        out.write(keyTypes, group * keys.length, keys.length);
+        out.writeInt(merged[group]);
+        for (int i = 0; i < values.length; i++) {
+            int index = (group * values.length) + i;
+            out.writeByte(valueTypes[index]);
+            out.writeLong(valueBits[index]);
+        }
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        int hash = in.readInt();
+        scratchSize = in.readInt();
+        ensureScratch(scratchSize);
+        in.readFully(scratch, 0, scratchSize);
+        int group = findOrInsert(hash);
+        for (int i = 0; i < keys.length; i++) {
+            byte type = in.readByte();
+            if (type != NONE) {
+                keyTypes[(group * keys.length) + i] = type;
+            }
+        }
+        merged[group] += in.readInt();
+        for (int i = 0; i < values.length; i++) {
+            byte type = in.readByte();
+            long bits = in.readLong();
+            if (type != NONE) {
+                merge((group * values.length) + i, kinds[i], type, bits);
+            }
+        }
+    }
+
+    /**
+     * Emit every group until the sink returns false. Returns false if the sink stopped the emission.
+     */
+    boolean emit(Predicate<Bundle> sink) throws IOException {
+        if (partitions == null) {
+            for (int group = 0; group < groups; group++) {
+                if (!sink.test(emit(group))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        spill();
+        closePartitions();
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            File file = partitionFiles[partition];
+            if (file == null) {
+                continue;
+            }
+            try (GatherTable table = new GatherTable(this)) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(file), SPILL_BUFFER))) {
+                    for (long i = partitionGroups[partition]; i > 0; i--) {
+                        table.read(in);
+                        if (table.full()) {
+                            table.spill();
+                        }
+                    }
+                }
+                deletePartition(partition);
+                if (!table.emit(sink)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void closePartitions() throws IOException {
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            if (partitions[partition] != null) {
+                partitions[partition].close();
+                partitions[partition] = null;
+            }
+        }
+    }
+
+    private void deletePartition(int partition) {
+        if (partitionFiles[partition] != null) {
+            partitionFiles[partition].delete();
+            partitionFiles[partition] = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (partitions != null) {
+            try {
+                closePartitions();
+            } finally {
+                for (int partition = 0; partition < PARTITIONS; partition++) {
+                    deletePartition(partition);
+                }
+                if (level == 0) {
+                    LessFiles.deleteDir(spillDir);
+                }
+            }
+        }
+    }
+}
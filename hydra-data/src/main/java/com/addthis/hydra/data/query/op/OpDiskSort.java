@@ -60,6 +60,8 @@ import org.xerial.snappy.SnappyInputStream;
 import org.xerial.snappy.SnappyOutputStream;
 
 import io.netty.channel.ChannelProgressivePromise;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
 
 /**
  * <p>This query operation <span class="hydra-summary">performs a disk-backed sort</span>.
@@ -84,6 +86,13 @@ import io.netty.channel.ChannelProgressivePromise;
  * 1 B 2
  * 1 A 1
  * </pre>
+ * <p/>
+ * <p>Rows are sorted in runs that fill the op.disksort.memory budget. The runs are
+ * sorted and written on a background pool while rows are still arriving and are then
+ * merged into the output. The budget applies to every dsort op on its own, so a
+ * query worker running several sorts may hold that much heap for each of them. It
+ * defaults to 32MB. Setting op.disksort.parallel to false sorts chunks of
+ * op.disksort.chunk.rows rows on the query thread instead.</p>
  *
  * @user-reference
  * @hydra-name dsort
@@ -94,6 +103,7 @@ public class OpDiskSort extends AbstractRowOp {
     private static final int CHUNK_ROWS = Parameter.intValue("op.disksort.chunk.rows", 5000);
     private static final int CHUNK_MERGES = Parameter.intValue("op.disksort.chunk.merges", 1000);
     private static final int GZTYPE = Parameter.intValue("op.disksort.gz.type", 0);
+    private static final long DEFAULT_MEMORY = 32L * 1024 * 1024;
     private static final MuxyEventListener DISCARDER = new SingleDirMuxyEventListener();
 
     private final Bundle[] buffer = new Bundle[CHUNK_ROWS + 1];
@@ -110,6 +120,11 @@ public class OpDiskSort extends AbstractRowOp {
     private BundleComparator comparatorSS;
     private int chunk = 0;
 
+    /**
+     * Used instead of the mux file chunks when op.disksort.parallel is set.
+     */
+    private ParallelDiskSort parallelSort;
+
     public OpDiskSort(String args, String tempDirString, ChannelProgressivePromise queryPromise) {
         super(queryPromise);
         this.queryPromise = queryPromise;
@@ -125,10 +140,13 @@ public class OpDiskSort extends AbstractRowOp {
     }
 
     private void init(String args) {
+        boolean parallel = Parameter.boolValue("op.disksort.parallel", true);
         try {
             Files.createDirectories(tempDir);
-            mfm = new MuxFileDirectory(tempDir, DISCARDER);
-            mfm.setDeleteFreed(true);
+            if (!parallel) {
+                mfm = new MuxFileDirectory(tempDir, DISCARDER);
+                mfm.setDeleteFreed(true);
+            }
             log.debug("tempDir={} mfm={}", tempDir, mfm);
         } catch (Exception ex) {
             throw new RuntimeException(ex);
@@ -151,12 +169,21 @@ public class OpDiskSort extends AbstractRowOp {
 
         comparator = new BundleComparator();
         comparatorSS = new BundleComparator();
+        if (parallel) {
+            parallelSort = new ParallelDiskSort(cols, type, dir, tempDir,
+                                                Parameter.longValue("op.disksort.memory", DEFAULT_MEMORY),
+                                                Parameter.intValue("op.disksort.chunk.merges", CHUNK_MERGES));
+        }
     }
 
     @Override
     public void close() throws IOException {
         try {
-            mfm.waitForWriteClosure(0);
+            if (parallelSort != null) {
+                parallelSort.close();
+            } else {
+                mfm.waitForWriteClosure(0);
+            }
         } finally {
             if (Files.exists(tempDir)) {
                 boolean success = LessFiles.deleteDir(tempDir.toFile());
@@ -169,6 +196,10 @@ public class OpDiskSort extends AbstractRowOp {
 
     @Override
     public Bundle rowOp(Bundle row) {
+        if (parallelSort != null) {
+            parallelSort.add(row);
+            return null;
+        }
         if (bufferIndex > CHUNK_ROWS) {
             dumpBufferToMFM();
         }
@@ -182,7 +213,7 @@ public class OpDiskSort extends AbstractRowOp {
             try {
                 Arrays.sort(buffer, 0, bufferIndex, comparator);
                 WritableMuxFile meta = mfm.openFile("l0-c" + (chunk++), true);
-                OutputStream out = wrapOutputStream(meta.append());
+                OutputStream out = wrapOutputStream(meta.append(), GZTYPE);
                 DataChannelWriter writer = new DataChannelWriter(out);
                 for (int i = 0; i < bufferIndex; i++) {
                     writer.write(buffer[i]);
@@ -198,9 +229,9 @@ public class OpDiskSort extends AbstractRowOp {
     }
 
     // TODO: We really need a canonical library place for this kind of logic
-    private static OutputStream wrapOutputStream(OutputStream outputStream) throws IOException {
+    static OutputStream wrapOutputStream(OutputStream outputStream, int gzType) throws IOException {
 
-        switch (GZTYPE) {
+        switch (gzType) {
             case 0:
                 // no compression
                 return outputStream;
@@ -210,14 +241,32 @@ public class OpDiskSort extends AbstractRowOp {
             case 2:
                 // Snappy
                 return new SnappyOutputStream(outputStream);
+            case 3:
+                // LZ4
+                return new LZ4BlockOutputStream(outputStream);
             default:
-                throw new RuntimeException("Unknown compression type: " + GZTYPE);
+                throw new RuntimeException("Unknown compression type: " + gzType);
         }
     }
 
     // TODO disk cleanup
     @Override
     public void sendComplete() {
+        if (parallelSort != null) {
+            try {
+                parallelSort.complete(row -> {
+                    if (queryPromise.isDone()) {
+                        return false;
+                    }
+                    getNext().send(row);
+                    return true;
+                });
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            super.sendComplete();
+            return;
+        }
         /** optimization for when buffer hasn't yet spilled */
         if (chunk == 0) {
             Arrays.sort(buffer, 0, bufferIndex, comparator);
@@ -289,7 +338,7 @@ public class OpDiskSort extends AbstractRowOp {
                 merges++;
                 WritableMuxFile meta = mfm.openFile("l" + levelOut + "-c" + (chunkOut++), true);
                 log.debug(" output to level={} chunk={}", levelOut, chunkOut - 1);
-                try (OutputStream out = wrapOutputStream(meta.append());
+                try (OutputStream out = wrapOutputStream(meta.append(), GZTYPE);
                      DataChannelWriter writer = new DataChannelWriter(out);) {
                     Bundle next = null;
                     while ((next = sortedSource.next()) != null) {
@@ -361,9 +410,9 @@ public class OpDiskSort extends AbstractRowOp {
         return s1.toString().compareTo(s2.toString());
     }
 
-    private static InputStream wrapInputStream(InputStream inputStream) throws IOException {
+    static InputStream wrapInputStream(InputStream inputStream, int gzType) throws IOException {
 
-        switch (GZTYPE) {
+        switch (gzType) {
             case 0:
                 // no compression
                 return inputStream;
@@ -373,8 +422,11 @@ public class OpDiskSort extends AbstractRowOp {
             case 2:
                 // Snappy
                 return new SnappyInputStream(inputStream);
+            case 3:
+                // LZ4
+                return new LZ4BlockInputStream(inputStream);
             default:
-                throw new RuntimeException("Unknown compression type: " + GZTYPE);
+                throw new RuntimeException("Unknown compression type: " + gzType);
         }
     }
 
@@ -431,7 +483,7 @@ public class OpDiskSort extends AbstractRowOp {
                 try {
                     // TODO figure out how to delete these files after consuming them to keep the index small in mem
                     WritableMuxFile meta = mfm.openFile("l" + level + "-c" + (chunk++), false);
-                    DataChannelReader reader = new DataChannelReader(factory, wrapInputStream(meta.read(0)));
+                    DataChannelReader reader = new DataChannelReader(factory, wrapInputStream(meta.read(0), GZTYPE));
                     Bundle next = null;
                     try {
                         next = reader.read();
@@ -14,6 +14,7 @@
 package com.addthis.hydra.data.query.op;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 
 import java.util.HashMap;
@@ -50,7 +51,9 @@ import io.netty.channel.ChannelProgressivePromise;
  * <p>Gather collects all rows that match the criteria of the key columns.
  * It is an in-memory operation that spill over to disk when necessary. If the key
  * columns are already sorted then the {@link OpMerge merge} operation is
- * a much cheaper alternative.</p>
+ * a much cheaper alternative. When only the k, i, a, m, M, s and u column parameters
+ * are used the rows are merged into a compact table of primitive values that spills
+ * to hash partitioned files.</p>
  * <p>The syntax for this operation is "gather=[column parameters] where
  * column parameters is a sequence of one or more of the following letters:
  * <ul>
@@ -114,6 +117,12 @@ public class OpGather extends AbstractQueryOp {
 
     private boolean tippedToDisk = false;
     private boolean tipToDisk = Parameter.boolValue("opgather.tiptodisk", false);
+    private boolean primitive = Parameter.boolValue("opgather.primitive", true);
+
+    /**
+     * Used instead of resultTable when the merge configuration allows it.
+     */
+    private final GatherTable gatherTable;
 
 
     private static final Meter diskTips = Metrics.newMeter(OpGather.class, "diskTips", "diskTips", TimeUnit.SECONDS);
@@ -130,6 +139,32 @@ public class OpGather extends AbstractQueryOp {
         topper = mergeConfig.topper;
         topSize = mergeConfig.numericArg;
         conf = mergeConfig.conf;
+        if (primitive && GatherTable.supports(mergeConfig)) {
+            gatherTable = new GatherTable(conf, format, tipMem, tipRow, new File(tmpDir, UUID.randomUUID().toString()));
+        } else {
+            gatherTable = null;
+        }
+    }
+
+    private void sendToGatherTable(Bundle row) throws DataChannelError {
+        mergeConfig.handleBind(row, format);
+        gatherTable.add(row);
+        if (gatherTable.full()) {
+            if (!tipToDisk) {
+                if (tipMem > 0 && gatherTable.memory() > tipMem) {
+                    throw new DataChannelError("Memory usage of gathered objects exceeds allowed " + tipMem);
+                }
+                throw new DataChannelError("Number of gathered rows exceeds allowed " + tipRow);
+            }
+            if (!gatherTable.spilled()) {
+                diskTips.mark();
+            }
+            try {
+                gatherTable.spill();
+            } catch (IOException e) {
+                throw DataChannelError.promote(e);
+            }
+        }
     }
 
     @Override
@@ -137,6 +172,10 @@ public class OpGather extends AbstractQueryOp {
         if (opPromise.isDone()) {
             return;
         }
+        if (gatherTable != null) {
+            sendToGatherTable(row);
+            return;
+        }
         String key = mergeConfig.handleBindAndGetKey(row, format);
         MergedRow merge = resultTable.get(key);
         if (merge == null) {
@@ -210,6 +249,21 @@ public class OpGather extends AbstractQueryOp {
     @Override
     public void sendComplete() {
         QueryOp next = getNext();
+        if (gatherTable != null) {
+            try {
+                gatherTable.emit(row -> {
+                    if (opPromise.isDone()) {
+                        return false;
+                    }
+                    next.send(row);
+                    return true;
+                });
+            } catch (IOException e) {
+                throw DataChannelError.promote(e);
+            }
+            next.sendComplete();
+            return;
+        }
         for (MergedRow mergedRow : resultTable.values()) {
             if (!opPromise.isDone()) {
                 next.send(mergedRow.emit());
@@ -222,6 +276,9 @@ public class OpGather extends AbstractQueryOp {
 
     @Override
     public void close() throws IOException {
+        if (gatherTable != null) {
+            gatherTable.close();
+        }
         if (resultTable instanceof Closeable) {
             ((Closeable) resultTable).close();
         }
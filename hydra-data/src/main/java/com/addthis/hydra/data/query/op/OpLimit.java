@@ -18,6 +18,8 @@ import com.addthis.basis.util.LessStrings;
 import com.addthis.bundle.channel.DataChannelError;
 import com.addthis.bundle.core.Bundle;
 import com.addthis.hydra.data.query.AbstractQueryOp;
+import com.addthis.hydra.data.query.BatchOp;
+import com.addthis.hydra.data.query.RowBatch;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,7 +36,7 @@ import io.netty.channel.ChannelProgressivePromise;
  * @user-reference
  * @hydra-name limit
  */
-public class OpLimit extends AbstractQueryOp {
+public class OpLimit extends AbstractQueryOp implements BatchOp {
 
     private static final Logger log = LoggerFactory.getLogger(OpLimit.class);
 
@@ -97,6 +99,30 @@ public class OpLimit extends AbstractQueryOp {
         }
     }
 
+    @Override
+    public void sendBatch(RowBatch batch) {
+        int skipped = Math.min(skipCount, batch.size());
+        skipCount -= skipped;
+        int available = batch.size() - skipped;
+        if (available == 0) {
+            return;
+        }
+        if (sendCount <= 0) {
+            log.trace("received batch after sendCount reached; possibly expected to some extent");
+            return;
+        }
+        int count = Math.min(sendCount, available);
+        sendCount -= count;
+        batch.slice(skipped, count);
+        sendBatchToNext(batch);
+        if (sendCount == 0) {
+            sendComplete();
+            opPromise.trySuccess();
+            log.debug("OpLimit: sendCount reached {} and sendComplete has been called",
+                      originalSkipCount);
+        }
+    }
+
     @Override
     public void sendComplete() {
         if (!done) {
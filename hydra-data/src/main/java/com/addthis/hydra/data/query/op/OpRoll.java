@@ -17,16 +17,20 @@ import com.addthis.basis.util.LessStrings;
 
 import com.addthis.bundle.core.Bundle;
 import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.BundleFormatted;
 import com.addthis.bundle.util.BundleColumnBinder;
 import com.addthis.bundle.util.ValueUtil;
 import com.addthis.bundle.value.Numeric;
+import com.addthis.bundle.value.ValueFactory;
 import com.addthis.bundle.value.ValueObject;
 import com.addthis.hydra.data.query.AbstractRowOp;
+import com.addthis.hydra.data.query.BatchOp;
+import com.addthis.hydra.data.query.RowBatch;
 
 import io.netty.channel.ChannelProgressivePromise;
 
 
-public class OpRoll extends AbstractRowOp {
+public class OpRoll extends AbstractRowOp implements BatchOp {
 
     public static enum OP {
         MIN, MAX, AVG, SUM, DELTA
@@ -254,23 +258,125 @@ public class OpRoll extends AbstractRowOp {
         }
     }
 
+    private void bind(BundleFormatted source) {
+        colIn = new BundleColumnBinder(source, LessStrings.splitArray(args[0], ",")).getFields();
+        colKeys = args.length > 1 ? new BundleColumnBinder(source, LessStrings.splitArray(args[1], ",")).getFields() : null;
+        state = new Numeric[colIn.length];
+        oldvals = new Numeric[colIn.length];
+        if (inPlace || summary) {
+            colOut = colIn;
+        } else {
+            colOut = new BundleField[colIn.length];
+            for (int i = 0; i < colOut.length; i++) {
+                colOut[i] = source.getFormat().getField("op_".concat(colIn[i].getName()));
+            }
+        }
+    }
+
     @Override
-    public Bundle rowOp(Bundle row) {
-        if (state == null) {
-            colIn = new BundleColumnBinder(row, LessStrings.splitArray(args[0], ",")).getFields();
-            colKeys = args.length > 1 ? new BundleColumnBinder(row, LessStrings.splitArray(args[1], ",")).getFields() : null;
-            state = new Numeric[colIn.length];
-            oldvals = new Numeric[colIn.length];
-            if (inPlace || summary) {
-                colOut = colIn;
-                if (summary) {
-                    lastRow = row.createBundle();
+    public void sendBatch(RowBatch batch) {
+        if (state == null && !summary) {
+            bind(batch);
+        }
+        if (rollsBatch(batch)) {
+            roll(batch);
+            sendBatchToNext(batch);
+        } else {
+            for (int i = 0; i < batch.size(); i++) {
+                send(batch.materialize(batch.row(i)));
+            }
+        }
+    }
+
+    /**
+     * True if the batch can be rolled on primitive longs: integer state, long input
+     * columns and no key columns or summary row.
+     */
+    private boolean rollsBatch(RowBatch batch) {
+        if (!asInt || summary || colKeys != null || state == null) {
+            return false;
+        }
+        for (int i = 0; i < colIn.length; i++) {
+            RowBatch.Column column = batch.column(colIn[i]);
+            if (column.type() != RowBatch.LONG) {
+                return false;
+            }
+            if (state[i] != null && (state[i].getObjectType() != ValueObject.TYPE.INT ||
+                                     oldvals[i].getObjectType() != ValueObject.TYPE.INT)) {
+                return false;
+            }
+            if (op == OP.DELTA) {
+                for (int n = 0; n < batch.size(); n++) {
+                    if (column.isNull(batch.row(n))) {
+                        return false;
+                    }
                 }
-            } else {
-                colOut = new BundleField[colIn.length];
-                for (int i = 0; i < colOut.length; i++) {
-                    colOut[i] = row.getFormat().getField("op_".concat(colIn[i].getName()));
+            }
+        }
+        return true;
+    }
+
+    private void roll(RowBatch batch) {
+        int width = colIn.length;
+        RowBatch.Column[] in = new RowBatch.Column[width];
+        RowBatch.Column[] out = new RowBatch.Column[width];
+        long[] current = new long[width];
+        long[] previous = new long[width];
+        boolean[] started = new boolean[width];
+        for (int i = 0; i < width; i++) {
+            in[i] = batch.column(colIn[i]);
+            out[i] = batch.column(colOut[i]);
+            if (state[i] != null) {
+                current[i] = state[i].asLong().getLong();
+                previous[i] = oldvals[i].asLong().getLong();
+                started[i] = true;
+            }
+        }
+        for (int n = 0; n < batch.size(); n++) {
+            int row = batch.row(n);
+            rows++;
+            for (int i = 0; i < width; i++) {
+                boolean isNull = in[i].isNull(row);
+                long value = isNull ? 0 : in[i].getLong(row);
+                if (!started[i]) {
+                    current[i] = value;
+                    previous[i] = value;
+                    started[i] = true;
+                } else if (!isNull) {
+                    switch (op) {
+                        case DELTA:
+                            current[i] = value - previous[i];
+                            previous[i] = value;
+                            break;
+                        case MIN:
+                            current[i] = Math.min(current[i], value);
+                            break;
+                        case MAX:
+                            current[i] = Math.max(current[i], value);
+                            break;
+                        case SUM:
+                        case AVG:
+                            current[i] += value;
+                            break;
+                    }
                 }
+                out[i].setLong(row, op == OP.AVG ? current[i] / Math.max(rows, 1) : current[i]);
+            }
+        }
+        for (int i = 0; i < width; i++) {
+            if (started[i]) {
+                state[i] = ValueFactory.create(current[i]);
+                oldvals[i] = ValueFactory.create(previous[i]);
+            }
+        }
+    }
+
+    @Override
+    public Bundle rowOp(Bundle row) {
+        if (state == null) {
+            bind(row);
+            if (summary) {
+                lastRow = row.createBundle();
             }
         }
         rows++;
@@ -15,6 +15,8 @@ package com.addthis.hydra.data.query.op;
 
 import com.addthis.bundle.core.Bundle;
 import com.addthis.hydra.data.query.AbstractRowOp;
+import com.addthis.hydra.data.query.BatchOp;
+import com.addthis.hydra.data.query.RowBatch;
 
 import io.netty.channel.ChannelProgressivePromise;
 
@@ -30,12 +32,13 @@ import io.netty.channel.ChannelProgressivePromise;
  * @user-reference
  * @hydra-name skip
  */
-public class OpSkip extends AbstractRowOp {
+public class OpSkip extends AbstractRowOp implements BatchOp {
 
     private int[] skip;
 
     private boolean on;
     private int rem;
+    private int[] keep;
 
     public OpSkip(String args, ChannelProgressivePromise queryPromise) {
         super(queryPromise);
@@ -46,6 +49,30 @@ public class OpSkip extends AbstractRowOp {
 
     @Override
     public Bundle rowOp(Bundle line) {
+        return advance() ? line : null;
+    }
+
+    @Override
+    public void sendBatch(RowBatch batch) {
+        if ((keep == null) || (keep.length < batch.capacity())) {
+            keep = new int[batch.capacity()];
+        }
+        int count = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (advance()) {
+                keep[count++] = batch.row(i);
+            }
+        }
+        if (count > 0) {
+            batch.select(keep, count);
+            sendBatchToNext(batch);
+        }
+    }
+
+    /**
+     * Returns true if the next row is emitted.
+     */
+    private boolean advance() {
         if (--rem == 0) {
             if (skip.length > 2) {
                 rem = on ? skip[2] : skip[1];
@@ -54,6 +81,6 @@ public class OpSkip extends AbstractRowOp {
             }
             on = !on;
         }
-        return on ? line : null;
+        return on;
     }
 }
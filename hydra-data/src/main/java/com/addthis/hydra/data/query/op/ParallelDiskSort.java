@@ -0,0 +1,566 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.function.Predicate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.addthis.basis.util.LessBytes;
+import com.addthis.basis.util.MemoryCounter;
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleFactory;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.io.DataChannelReader;
+import com.addthis.bundle.io.DataChannelWriter;
+import com.addthis.bundle.util.BundleColumnBinder;
+import com.addthis.bundle.util.ValueUtil;
+import com.addthis.bundle.value.ValueObject;
+
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * External merge sort used by {@link OpDiskSort}.
+ * <p/>
+ * Every row is buffered with a binary comparable encoding of its sort columns
+ * until the buffer reaches the memory budget of a run. Full runs are sorted and
+ * written to disk on a shared background pool while the caller keeps buffering.
+ * Runs are merged with a loser tree that only compares the encoded keys, and if
+ * there are more runs than the merge fan in they are first merged in groups on
+ * the background pool.
+ */
+final class ParallelDiskSort implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelDiskSort.class);
+
+    private static final int THREADS = Parameter.intValue("op.disksort.threads",
+                                                          Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Compression of the run files. Uses the op.disksort.gz.type values and defaults to lz4.
+     */
+    private static final int RUN_CODEC = Parameter.intValue("op.disksort.run.gz.type", 3);
+
+    /* re-estimate the size of a row once every this many rows */
+    private static final int SAMPLE_ROWS = 1000;
+    /* record object, array slot and key array headers */
+    private static final int RECORD_OVERHEAD = 48;
+    private static final int STREAM_BUFFER = 64 * 1024;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            THREADS, new ThreadFactoryBuilder().setNameFormat("diskSort-%d").setDaemon(true).build());
+
+    private static final Comparator<byte[]> KEY_ORDER = UnsignedBytes.lexicographicalComparator();
+    private static final Comparator<Record> RECORD_ORDER = (a, b) -> KEY_ORDER.compare(a.key, b.key);
+
+    private final KeyEncoder encoder;
+    private final Path dir;
+    private final long runBytes;
+    private final int fanIn;
+
+    private List<Record> buffer = new ArrayList<>();
+    private long bufferBytes;
+    private long rowBytes;
+    private int runCount;
+    private List<Future<Run>> pending = new ArrayList<>();
+
+    /* one party for the sort and one for every background task that has not finished */
+    private final Phaser tasks = new Phaser(1);
+    private volatile boolean closed;
+
+    /**
+     * @param memory budget for the rows that are buffered or being sorted. It is split
+     *               between the run being buffered and one run per background thread.
+     * @param fanIn  maximum number of runs that are merged at once
+     */
+    ParallelDiskSort(String[] cols, char[] type, char[] dir, Path tempDir, long memory, int fanIn) {
+        this.encoder = new KeyEncoder(cols, type, dir);
+        this.dir = tempDir;
+        this.runBytes = Math.max(1, memory / (THREADS + 1));
+        this.fanIn = Math.max(2, fanIn);
+    }
+
+    void add(Bundle row) {
+        if ((buffer.size() % SAMPLE_ROWS) == 0) {
+            rowBytes = MemoryCounter.estimateSize(row);
+        }
+        byte[] key = encoder.encode(row);
+        buffer.add(new Record(key, row));
+        bufferBytes += key.length + rowBytes + RECORD_OVERHEAD;
+        if (bufferBytes >= runBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Hand the buffered rows to the background pool as a new run. Waits for
+     * an earlier run if every thread is already busy with one of ours.
+     */
+    private void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        int running = 0;
+        for (Future<Run> future : pending) {
+            if (!future.isDone()) {
+                running++;
+            }
+        }
+        for (int i = 0; (running >= THREADS) && (i < pending.size()); i++) {
+            if (!pending.get(i).isDone()) {
+                await(pending.get(i));
+                running--;
+            }
+        }
+        List<Record> records = buffer;
+        Path file = dir.resolve("run-0-" + (runCount++));
+        log.debug("flush run={} rows={} bytes={}", file, records.size(), bufferBytes);
+        buffer = new ArrayList<>(records.size());
+        bufferBytes = 0;
+        pending.add(submit(() -> {
+            records.sort(RECORD_ORDER);
+            try (RunWriter writer = new RunWriter(file)) {
+                for (Record record : records) {
+                    checkClosed();
+                    writer.write(record.key, record.row);
+                }
+                return writer.finish();
+            }
+        }));
+    }
+
+    /**
+     * Run a task on the background pool. Tasks are never cancelled so that {@link #close()}
+     * can wait for every task that was submitted. Tasks that start after the sort was closed
+     * fail right away and running tasks stop at their next row.
+     */
+    private Future<Run> submit(Callable<Run> task) {
+        tasks.register();
+        return executor.submit(() -> {
+            try {
+                checkClosed();
+                return task.call();
+            } finally {
+                tasks.arriveAndDeregister();
+            }
+        });
+    }
+
+    private void checkClosed() {
+        if (closed) {
+            throw new CancellationException("disk sort closed");
+        }
+    }
+
+    private static Run await(Future<Run> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * Send every row in sorted order to the sink until it returns false.
+     */
+    void complete(Predicate<Bundle> sink) throws IOException {
+        if (runCount == 0) {
+            // nothing spilled so skip the disk
+            buffer.sort(RECORD_ORDER);
+            for (Record record : buffer) {
+                if (!sink.test(record.row)) {
+                    break;
+                }
+            }
+            buffer.clear();
+            return;
+        }
+        flush();
+        List<Run> runs = awaitPending();
+        for (int level = 1; runs.size() > fanIn; level++) {
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<Run> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                Path file = dir.resolve("run-" + level + "-" + (i / fanIn));
+                pending.add(submit(() -> merge(group, file)));
+            }
+            log.debug("merge level={} runs={} into={}", level, runs.size(), pending.size());
+            runs = awaitPending();
+        }
+        try (Merger merger = new Merger(runs, new ListBundle())) {
+            Bundle row;
+            while ((row = merger.next()) != null) {
+                if (!sink.test(row)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private List<Run> awaitPending() {
+        List<Run> runs = new ArrayList<>(pending.size());
+        for (Future<Run> future : pending) {
+            runs.add(await(future));
+        }
+        pending = new ArrayList<>();
+        return runs;
+    }
+
+    /**
+     * Merge a group of runs into a new run. Each group has its own bundle factory
+     * since bundle formats are not safe to share between threads.
+     */
+    private Run merge(List<Run> runs, Path file) throws IOException {
+        try (Merger merger = new Merger(runs, new ListBundle());
+             RunWriter writer = new RunWriter(file)) {
+            while (merger.hasNext()) {
+                checkClosed();
+                byte[] key = merger.key();
+                writer.write(key, merger.next());
+            }
+            return writer.finish();
+        } finally {
+            for (Run run : runs) {
+                Files.deleteIfExists(run.file);
+            }
+        }
+    }
+
+    /**
+     * Stops the background tasks and waits until every task that was submitted has
+     * finished, so that they are done with the temporary directory before it is removed.
+     * Does not remove the directory itself.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            tasks.awaitAdvanceInterruptibly(tasks.arrive());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        pending.clear();
+        buffer.clear();
+    }
+
+    private static final class Record {
+
+        final byte[] key;
+        final Bundle row;
+
+        Record(byte[] key, Bundle row) {
+            this.key = key;
+            this.row = row;
+        }
+    }
+
+    private static final class Run {
+
+        final Path file;
+        final long rows;
+
+        Run(Path file, long rows) {
+            this.file = file;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Writes a run as alternating key and row records.
+     */
+    private static final class RunWriter implements Closeable {
+
+        private final Path file;
+        private final OutputStream out;
+        private final DataChannelWriter writer;
+        private long rows;
+
+        RunWriter(Path file) throws IOException {
+            this.file = file;
+            this.out = OpDiskSort.wrapOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file), STREAM_BUFFER), RUN_CODEC);
+            this.writer = new DataChannelWriter(out);
+        }
+
+        void write(byte[] key, Bundle row) throws IOException {
+            LessBytes.writeBytes(key, out);
+            writer.write(row);
+            rows++;
+        }
+
+        Run finish() {
+            return new Run(file, rows);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static final class RunReader implements Closeable {
+
+        private final DataChannelReader reader;
+        private final InputStream in;
+        private long remaining;
+
+        byte[] key;
+        Bundle row;
+
+        RunReader(Run run, BundleFactory factory) throws IOException {
+            this.in = OpDiskSort.wrapInputStream(
+                    new BufferedInputStream(Files.newInputStream(run.file), STREAM_BUFFER), RUN_CODEC);
+            this.reader = new DataChannelReader(factory, in);
+            this.remaining = run.rows;
+        }
+
+        /**
+         * Read the next record. Returns false once the run is exhausted.
+         */
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                key = null;
+                row = null;
+                return false;
+            }
+            remaining--;
+            key = LessBytes.readBytes(in);
+            row = reader.read();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * K-way merge of runs through a loser tree. Node i of the tree holds the
+     * reader that lost the match played at that node and node 0 the overall winner.
+     * The leaves are implicit at positions k to 2k - 1. Ties go to the earlier run
+     * so that equal rows keep the order in which they arrived.
+     */
+    private static final class Merger implements Closeable {
+
+        private final RunReader[] readers;
+        private final int[] tree;
+
+        Merger(List<Run> runs, BundleFactory factory) throws IOException {
+            readers = new RunReader[runs.size()];
+            tree = new int[Math.max(1, runs.size())];
+            try {
+                for (int i = 0; i < readers.length; i++) {
+                    readers[i] = new RunReader(runs.get(i), factory);
+                    readers[i].advance();
+                }
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+            int k = readers.length;
+            if (k > 1) {
+                int[] winners = new int[2 * k];
+                for (int i = 0; i < k; i++) {
+                    winners[k + i] = i;
+                }
+                for (int node = k - 1; node > 0; node--) {
+                    int a = winners[2 * node];
+                    int b = winners[(2 * node) + 1];
+                    if (beats(a, b)) {
+                        winners[node] = a;
+                        tree[node] = b;
+                    } else {
+                        winners[node] = b;
+                        tree[node] = a;
+                    }
+                }
+                tree[0] = winners[1];
+            }
+        }
+
+        private boolean beats(int a, int b) {
+            byte[] keyA = readers[a].key;
+            byte[] keyB = readers[b].key;
+            if (keyA == null) {
+                return false;
+            }
+            if (keyB == null) {
+                return true;
+            }
+            int delta = KEY_ORDER.compare(keyA, keyB);
+            return (delta < 0) || ((delta == 0) && (a < b));
+        }
+
+        boolean hasNext() {
+            return (readers.length > 0) && (readers[tree[0]].key != null);
+        }
+
+        /**
+         * Key of the row that will be returned by the next call to {@link #next()}.
+         */
+        byte[] key() {
+            return readers[tree[0]].key;
+        }
+
+        Bundle next() throws IOException {
+            if (!hasNext()) {
+                return null;
+            }
+            int winner = tree[0];
+            Bundle row = readers[winner].row;
+            readers[winner].advance();
+            for (int node = (winner + readers.length) >> 1; node > 0; node >>= 1) {
+                if (beats(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+            return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader reader : readers) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes the sort columns of a row into bytes whose unsigned lexicographic
+     * order is the order of the dsort comparator. Each column starts with a byte
+     * that sorts null values last, and all bytes of a descending column are inverted.
+     */
+    static final class KeyEncoder {
+
+        private final String[] cols;
+        private final char[] type;
+        private final char[] dir;
+
+        private BundleField[] columns;
+        private byte[] scratch = new byte[64];
+        private int size;
+
+        KeyEncoder(String[] cols, char[] type, char[] dir) {
+            this.cols = cols;
+            this.type = type;
+            this.dir = dir;
+        }
+
+        byte[] encode(Bundle row) {
+            if (columns == null) {
+                columns = new BundleColumnBinder(row, cols).getFields();
+            }
+            size = 0;
+            for (int i = 0; i < columns.length; i++) {
+                int start = size;
+                ValueObject value = row.getValue(columns[i]);
+                if (value == null) {
+                    put(1);
+                } else {
+                    put(0);
+                    switch (type[i]) {
+                        case 'i': // int
+                        case 'l': // long
+                        case 'n': // legacy "number"
+                            putLong(ValueUtil.asNumberOrParseLong(value, 10).asLong().getLong() ^ Long.MIN_VALUE);
+                            break;
+                        case 'd': // double
+                        case 'f': // float
+                            // flip the sign bit of positive values and every bit of negative
+                            // values to get the order of Double.compare
+                            long bits = Double.doubleToLongBits(
+                                    ValueUtil.asNumberOrParseDouble(value).asDouble().getDouble());
+                            putLong(bits ^ ((bits < 0) ? -1L : Long.MIN_VALUE));
+                            break;
+                        case 's': // string
+                        default:
+                            putString(value.toString());
+                            break;
+                    }
+                }
+                if (dir[i] == 'd') {
+                    for (int j = start; j < size; j++) {
+                        scratch[j] = (byte) ~scratch[j];
+                    }
+                }
+            }
+            return Arrays.copyOf(scratch, size);
+        }
+
+        private void put(int b) {
+            if (size == scratch.length) {
+                scratch = Arrays.copyOf(scratch, size * 2);
+            }
+            scratch[size++] = (byte) b;
+        }
+
+        private void putLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                put((int) (value >>> shift));
+            }
+        }
+
+        /**
+         * Chars below 0x7f take one byte and the others three bytes that start with
+         * 0x80 to 0x83, followed by a zero terminator, which preserves String.compareTo order.
+         */
+        private void putString(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x7f) {
+                    put(c + 1);
+                } else {
+                    put(0x80 | (c >> 14));
+                    put((c >> 7) & 0x7f);
+                    put(c & 0x7f);
+                }
+            }
+            put(0);
+        }
+    }
+}
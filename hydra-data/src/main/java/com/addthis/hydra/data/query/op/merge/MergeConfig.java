@@ -120,22 +120,47 @@ public class MergeConfig {
             if (mc == null) {
                 continue;
             }
-            if (mc.getFrom() == null) {
-                mc.setFrom(field);
-                // TODO only clone field name for non-int names, otherwise create 'next' column # as name
-                mc.setTo(format.getField(field.getName()));
-            }
+            bindField(mc, field, format);
             if (mc.isKey()) {
                 ValueObject lval = row.getValue(field);
                 key = key.concat(lval == null ? "" : lval.toString());
             }
         }
+        bindMergeCount(format);
+        return key;
+    }
+
+    /**
+     * Fill in from/to of any column that is not yet bound without computing a key.
+     */
+    public void handleBind(Bundle row, ListBundleFormat format) {
+        int i = 0;
+        for (BundleField field : row.getFormat()) {
+            if (i >= conf.length) {
+                break;
+            }
+            MergedValue mc = conf[i++];
+            if (mc != null) {
+                bindField(mc, field, format);
+            }
+        }
+        bindMergeCount(format);
+    }
+
+    private static void bindField(MergedValue mc, BundleField field, ListBundleFormat format) {
+        if (mc.getFrom() == null) {
+            mc.setFrom(field);
+            // TODO only clone field name for non-int names, otherwise create 'next' column # as name
+            mc.setTo(format.getField(field.getName()));
+        }
+    }
+
+    private void bindMergeCount(ListBundleFormat format) {
         if (mergeCountValue != null) {
             if (mergeCountValue.getTo() == null) {
                 mergeCountValue.setTo(format.createNewField("merge_"));
             }
         }
-        return key;
     }
 
 }
@@ -13,6 +13,9 @@
  */
 package com.addthis.hydra.data.tree;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -21,10 +24,11 @@ import java.nio.charset.Charset;
 import com.addthis.basis.util.Varint;
 
 import com.addthis.codec.annotations.FieldConfig;
-import com.addthis.codec.codables.BytesCodable;
 import com.addthis.codec.codables.ConcurrentCodable;
 import com.addthis.codec.codables.SuperCodable;
 import com.addthis.codec.reflection.Fields;
+import com.addthis.hydra.store.kv.DictionaryCodable;
+import com.addthis.hydra.store.kv.PageDictionary;
 import com.addthis.hydra.store.kv.PageEncodeType;
 
 import com.google.common.primitives.Ints;
@@ -35,7 +39,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 
-public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, ConcurrentCodable, BytesCodable {
+public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, ConcurrentCodable, DictionaryCodable {
 
     public static final int ALIAS = 1 << 1;
     
@@ -56,6 +60,19 @@ public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, Co
 
     @Override
     public byte[] bytesEncode(long version) {
+        return encodeNode(version, null);
+    }
+
+    /**
+     * Attachments are written as an index into the page dictionary of
+     * their (name, class name) pair instead of as the two strings.
+     */
+    @Override
+    public byte[] bytesEncode(long version, @Nonnull PageDictionary dictionary) {
+        return encodeNode(version, dictionary);
+    }
+
+    private byte[] encodeNode(long version, @Nullable PageDictionary dictionary) {
         byte[] returnBytes;
         ByteBuf b = PooledByteBufAllocator.DEFAULT.buffer();
         encodeLock();
@@ -66,14 +83,17 @@ public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, Co
                 int numAttachments = data.size();
                 Varint.writeSignedVarInt(numAttachments, b);
                 for (Map.Entry<String, TreeNodeData> entry : data.entrySet()) {
-
-                    byte[] keyBytes = entry.getKey().getBytes(Charset.forName("UTF-8"));
-                    Varint.writeUnsignedVarInt(keyBytes.length, b);
-                    b.writeBytes(keyBytes);
                     String classInfo = Fields.getClassFieldMap(entry.getValue().getClass()).getClassName(entry.getValue());
-                    byte[] classNameBytes = classInfo.getBytes(Charset.forName("UTF-8"));
-                    Varint.writeUnsignedVarInt(classNameBytes.length, b);
-                    b.writeBytes(classNameBytes);
+                    if (dictionary != null) {
+                        Varint.writeUnsignedVarInt(dictionary.index(entry.getKey(), classInfo), b);
+                    } else {
+                        byte[] keyBytes = entry.getKey().getBytes(Charset.forName("UTF-8"));
+                        Varint.writeUnsignedVarInt(keyBytes.length, b);
+                        b.writeBytes(keyBytes);
+                        byte[] classNameBytes = classInfo.getBytes(Charset.forName("UTF-8"));
+                        Varint.writeUnsignedVarInt(classNameBytes.length, b);
+                        b.writeBytes(classNameBytes);
+                    }
                     byte[] bytes = entry.getValue().bytesEncode(version);
                     Varint.writeUnsignedVarInt(bytes.length, b);
                     b.writeBytes(bytes);
@@ -98,6 +118,15 @@ public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, Co
 
     @Override
     public void bytesDecode(byte[] b, long version) {
+        decodeNode(b, version, null);
+    }
+
+    @Override
+    public void bytesDecode(byte[] b, long version, @Nonnull PageDictionary dictionary) {
+        decodeNode(b, version, dictionary);
+    }
+
+    private void decodeNode(byte[] b, long version, @Nullable PageDictionary dictionary) {
         ByteBuf buf = Unpooled.wrappedBuffer(b);
         try {
             hits = Varint.readUnsignedVarLong(buf);
@@ -106,14 +135,23 @@ public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, Co
             if (numAttachments > 0) {
                 HashMap<String, TreeNodeData> dataMap = new HashMap<>();
                 for (int i = 0; i < numAttachments; i++) {
-                    int kl = Varint.readUnsignedVarInt(buf);
-                    if (kl == 0) {
-                        continue;
+                    String key;
+                    Class<?> clazz;
+                    if (dictionary != null) {
+                        int index = Varint.readUnsignedVarInt(buf);
+                        key = dictionary.entry(index)[0];
+                        clazz = dictionary.resolve(index, AbstractTreeNode::attachmentClass);
+                    } else {
+                        int kl = Varint.readUnsignedVarInt(buf);
+                        if (kl == 0) {
+                            continue;
+                        }
+                        key = new String(buf.readBytes(kl).array(), Charset.forName("UTF-8"));
+                        int cl = Varint.readUnsignedVarInt(buf);
+                        String className = new String(buf.readBytes(cl).array(), Charset.forName("UTF-8"));
+                        clazz = Fields.getClassFieldMap(TreeNodeData.class).getClass(className);
                     }
-                    String key = new String(buf.readBytes(kl).array(), Charset.forName("UTF-8"));
-                    int cl = Varint.readUnsignedVarInt(buf);
-                    String className = new String(buf.readBytes(cl).array(), Charset.forName("UTF-8"));
-                    TreeNodeData tn = (TreeNodeData) Fields.getClassFieldMap(TreeNodeData.class).getClass(className).newInstance();
+                    TreeNodeData tn = (TreeNodeData) clazz.newInstance();
                     int vl = Varint.readUnsignedVarInt(buf);
                     tn.bytesDecode(buf.readBytes(vl).array(), version);
                     dataMap.put(key, tn);
@@ -132,6 +170,14 @@ public abstract class AbstractTreeNode implements DataTreeNode, SuperCodable, Co
         }
     }
 
+    private static Class<?> attachmentClass(String[] entry) {
+        try {
+            return Fields.getClassFieldMap(TreeNodeData.class).getClass(entry[1]);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public void postDecode() {
         if (nodedbLegacy != null) {
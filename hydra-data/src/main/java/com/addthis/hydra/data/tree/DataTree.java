@@ -59,6 +59,19 @@ public interface DataTree extends DataTreeNode {
 
     public DataTreeNode getRootNode();
 
+    /**
+     * Marks the start of a unit of work, such as processing one bundle, on the calling thread.
+     * Trees that protect nodes by epochs instead of leases keep every node that the thread
+     * retrieves valid until the matching {@link #exitEpoch()}. Calls may be nested.
+     */
+    public default void enterEpoch() {
+        // intentionally empty
+    }
+
+    public default void exitEpoch() {
+        // intentionally empty
+    }
+
     @Override public default DataTreeNode getNode(String name) {
         return getRootNode().getNode(name);
     }
@@ -26,6 +26,7 @@ import com.addthis.basis.util.MemoryCounter.Mem;
 import com.addthis.hydra.store.db.DBKey;
 import com.addthis.hydra.store.db.IPageDB;
 import com.addthis.hydra.store.db.IReadWeighable;
+import com.addthis.hydra.store.kv.PageDictionary;
 
 import com.google.common.base.Objects;
 
@@ -179,6 +180,10 @@ public class ReadTreeNode extends AbstractTreeNode implements IReadWeighable {
         throw new UnsupportedOperationException("ReadTreeNode cannot be encoded");
     }
 
+    @Override public byte[] bytesEncode(long version, PageDictionary dictionary) {
+        throw new UnsupportedOperationException("ReadTreeNode cannot be encoded");
+    }
+
     /** Returns a clone of this node, but with a new hits value. */
     public DataTreeNode getCloneWithCount(long val) {
         ReadTreeNode tn = new ReadTreeNode();
@@ -32,6 +32,14 @@ public class TreeCommonParameters {
     public static int cacheShards = Parameter.intValue("hydra.tree.shards", Runtime.getRuntime().availableProcessors() * 8);
     public static long trashInterval = Parameter.longValue("hydra.tree.trash.interval", 0);
     public static long trashMaxTime = Parameter.intValue("hydra.tree.trash.maxtime", 0);
+    // name of the page codec, null uses the eps.gz.type default
+    public static String pageCodec = Parameter.value("hydra.tree.page.codec");
+    // backing store of new trees, null uses the pagedb.bytestore default
+    public static String byteStore = Parameter.value("hydra.tree.bytestore");
+    // prefix of the page cache metrics scope, usually the job and task of the tree
+    public static String metricsScope = Parameter.value("hydra.tree.metrics.scope");
+    // store the node keys of cached pages in columns to fit more pages in memory
+    public static boolean columnarKeys = Parameter.boolValue("hydra.tree.page.columnar", false);
 
     public static void setDefaultMaxCacheSize(int size) {
         maxCacheSize = size;
@@ -73,4 +81,20 @@ public class TreeCommonParameters {
         trashMaxTime = trashTimeLimit;
     }
 
+    public static void setDefaultPageCodec(String codec) {
+        pageCodec = codec;
+    }
+
+    public static void setDefaultByteStore(String store) {
+        byteStore = store;
+    }
+
+    public static void setDefaultMetricsScope(String scope) {
+        metricsScope = scope;
+    }
+
+    public static void setDefaultColumnarKeys(boolean columnar) {
+        columnarKeys = columnar;
+    }
+
 }
@@ -14,6 +14,7 @@
 package com.addthis.hydra.data.tree;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -47,15 +48,31 @@ public final class TreeConfig {
     private static final Logger log = LoggerFactory.getLogger(TreeConfig.class);
     private static final Path CONFIG_FILE = Paths.get("tree.config");
 
+    /** How a {@link com.addthis.hydra.data.tree.concurrent.ConcurrentTree} keeps nodes from being evicted while in use. */
+    public enum NodeCache {
+        /** Each use of a node takes a lease on the node and nodes with leases are not evicted. */
+        LEASE,
+        /**
+         * Nodes are looked up without allocating a key or taking a lease. Evicted nodes are written back once
+         * every thread that may still hold them has left the epoch in which they were evicted.
+         */
+        EPOCH
+    }
+
     /** How much (query) cache space should be reserved for this tree relative to normal. */
     public final double cacheWeight;
     /** (dangerous!) Forces a (query) cache weight of zero regardless of actual memory usage or cache ratio. */
     public final boolean unevictable;
+    /** Node cache used by the concurrent tree while the tree is built. */
+    @Nonnull public final NodeCache nodeCache;
 
     public TreeConfig(@JsonProperty("cacheWeight") double cacheWeight,
-                      @JsonProperty("unevictable") boolean unevictable) {
+                      @JsonProperty("unevictable") boolean unevictable,
+                      @Nullable @JsonProperty("nodeCache") NodeCache nodeCache) {
         this.cacheWeight = cacheWeight;
         this.unevictable = unevictable;
+        // tree.config files written before this setting existed do not have it
+        this.nodeCache = (nodeCache == null) ? NodeCache.LEASE : nodeCache;
     }
 
     @JsonIgnore public double cacheWeight() {
@@ -97,17 +114,19 @@ public final class TreeConfig {
         }
         TreeConfig config = (TreeConfig) o;
         return Objects.equals(this.cacheWeight, config.cacheWeight) &&
-               Objects.equals(this.unevictable, config.unevictable);
+               Objects.equals(this.unevictable, config.unevictable) &&
+               Objects.equals(this.nodeCache, config.nodeCache);
     }
 
     @Override public int hashCode() {
-        return Objects.hash(this.cacheWeight, this.unevictable);
+        return Objects.hash(this.cacheWeight, this.unevictable, this.nodeCache);
     }
 
     @Override public String toString() {
         return toStringHelper(this)
                 .add("cacheWeight", cacheWeight)
                 .add("unevictable", unevictable)
+                .add("nodeCache", nodeCache)
                 .toString();
     }
 }
@@ -65,6 +65,34 @@ public abstract class TreeNodeData<C extends TreeDataParameters<?>> implements B
         return false;
     }
 
+    /**
+     * called in place of updateChildData() when the tree mapper has combined
+     * {@code count} bundles with identical values into a single update. the
+     * default applies the update once for each combined bundle. override when
+     * the data can absorb all of the bundles in one step.
+     */
+    public boolean combineChildData(DataTreeNodeUpdater state, DataTreeNode childNode, C conf, int count) {
+        boolean updated = false;
+        for (int i = 0; i < count; i++) {
+            updated |= updateChildData(state, childNode, conf);
+        }
+        return updated;
+    }
+
+    /**
+     * called in place of updateParentData() for a combined update of {@code count}
+     * bundles. see {@link #combineChildData(DataTreeNodeUpdater, DataTreeNode, TreeDataParameters, int)}.
+     */
+    public boolean combineParentData(DataTreeNodeUpdater state, DataTreeNode parentNode,
+                                     DataTreeNode childNode,
+                                     List<TreeNodeDataDeferredOperation> deferredOps, int count) {
+        boolean updated = false;
+        for (int i = 0; i < count; i++) {
+            updated |= updateParentData(state, parentNode, childNode, deferredOps);
+        }
+        return updated;
+    }
+
     /**
      * return a stored value to the query engine given a query key
      */
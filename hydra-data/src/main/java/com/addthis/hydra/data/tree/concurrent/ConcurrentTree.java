@@ -13,13 +13,12 @@
  */
 package com.addthis.hydra.data.tree.concurrent;
 
-import javax.annotation.concurrent.GuardedBy;
-
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
@@ -29,6 +28,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BooleanSupplier;
 
 import java.nio.charset.StandardCharsets;
@@ -48,10 +48,12 @@ import com.addthis.hydra.data.tree.DataTreeNodeActor;
 import com.addthis.hydra.data.tree.DataTreeNodeInitializer;
 import com.addthis.hydra.data.tree.DataTreeNodeUpdater;
 import com.addthis.hydra.data.tree.TreeCommonParameters;
+import com.addthis.hydra.data.tree.TreeConfig;
 import com.addthis.hydra.data.tree.TreeDataParent;
 import com.addthis.hydra.data.tree.TreeNodeData;
 import com.addthis.hydra.store.common.PageFactory;
 import com.addthis.hydra.store.db.CloseOperation;
+import com.addthis.hydra.store.db.ColumnarPage;
 import com.addthis.hydra.store.db.DBKey;
 import com.addthis.hydra.store.db.IPageDB;
 import com.addthis.hydra.store.db.PageDB;
@@ -85,10 +87,27 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     @Configuration.Parameter
     static final int defaultNumDeletionThreads = Parameter.intValue("hydra.tree.clean.threads", 1);
 
+    // maximum number of background deletion threads while there is a trash backlog and the tree is not busy
+    @Configuration.Parameter
+    static final int defaultMaxDeletionThreads = Parameter.intValue("hydra.tree.clean.threads.max",
+            Math.max(defaultNumDeletionThreads, Runtime.getRuntime().availableProcessors() / 2));
+
     // sleep interval of deletion threads in between polls of deletion queue
     @Configuration.Parameter
     static final int deletionThreadSleepMillis = Parameter.intValue("hydra.tree.clean.interval", 10);
 
+    // interval in between adjustments of the number of active deletion threads
+    @Configuration.Parameter
+    static final int deletionAdjustMillis = Parameter.intValue("hydra.tree.clean.adjust", 1000);
+
+    // number of trash entries that a deletion thread claims at a time
+    @Configuration.Parameter
+    static final int deletionRangeSize = Parameter.intValue("hydra.tree.clean.range", 16);
+
+    // deletion threads are removed while the node lookup rate is above this percentage of its recent peak
+    @Configuration.Parameter
+    static final int deletionLoadPercent = Parameter.intValue("hydra.tree.clean.load", 50);
+
     // number of nodes in between trash removal logging messages
     @Configuration.Parameter
     static final int deletionLogInterval = Parameter.intValue("hydra.tree.clean.logging", 100000);
@@ -114,11 +133,30 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     private final Meter<METERTREE> meter;
     private final MeterFileLogger logger;
     private final AtomicDouble cacheHitRate = new AtomicDouble(0.0);
+    // exactly one of the two caches is used
     private final MediatedEvictionConcurrentHashMap<CacheKey, ConcurrentTreeNode> cache;
+    private final EpochNodeCache epochCache;
     private final ScheduledExecutorService deletionThreadPool;
 
-    @GuardedBy("treeTrashNode")
-    private IPageDB.Range<DBKey, ConcurrentTreeNode> trashIterator;
+    /**
+     * Next trash entry that has not been claimed by a deletion task.
+     * Starts past the end so that the first claim begins a new pass.
+     */
+    private final AtomicInteger trashCursor = new AtomicInteger(Integer.MAX_VALUE);
+
+    private final int minDeletionThreads;
+    private final int maxDeletionThreads;
+    private volatile int activeDeletionThreads;
+
+    // node lookups and node deletions since the last adjustment of the deletion threads
+    private final LongAdder nodeLookups = new LongAdder();
+    private final LongAdder nodesDeleted = new LongAdder();
+
+    private volatile double deletionRate;
+
+    // only accessed by the adjustment task
+    private long lastAdjustment = System.nanoTime();
+    private double peakLookupRate;
 
     @SuppressWarnings("unused")
     final Gauge<Integer> treeTrashNodeCount = Metrics.newGauge(SkipListCache.class,
@@ -140,8 +178,43 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
                 }
             });
 
+    @SuppressWarnings("unused")
+    final Gauge<Long> treeTrashBacklog = Metrics.newGauge(SkipListCache.class,
+            "treeTrashBacklog", scope,
+            new Gauge<Long>() {
+                @Override
+                public Long value() {
+                    return treeTrashNode == null ? -1 : trashBacklog();
+                }
+            });
+
+    @SuppressWarnings("unused")
+    final Gauge<Double> treeDeletionRate = Metrics.newGauge(SkipListCache.class,
+            "treeDeletionRate", scope,
+            new Gauge<Double>() {
+                @Override
+                public Double value() {
+                    return deletionRate;
+                }
+            });
+
+    @SuppressWarnings("unused")
+    final Gauge<Integer> treeDeletionThreads = Metrics.newGauge(SkipListCache.class,
+            "treeDeletionThreads", scope,
+            new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    return activeDeletionThreads;
+                }
+            });
+
     ConcurrentTree(File root, int numDeletionThreads, int cleanQSize, int maxCacheSize,
                    int maxPageSize, PageFactory factory) throws Exception {
+        this(root, numDeletionThreads, cleanQSize, maxCacheSize, maxPageSize, factory, TreeConfig.NodeCache.LEASE);
+    }
+
+    ConcurrentTree(File root, int numDeletionThreads, int cleanQSize, int maxCacheSize,
+                   int maxPageSize, PageFactory factory, TreeConfig.NodeCache nodeCache) throws Exception {
         LessFiles.initDirectory(root);
         this.root = root;
         long start = System.currentTimeMillis();
@@ -161,15 +234,24 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
         }
         source = new PageDB.Builder<>(root, ConcurrentTreeNode.class, maxPageSize, maxCacheSize)
                 .pageFactory(factory)
+                .pageCodec(TreeCommonParameters.pageCodec)
+                .byteStore(TreeCommonParameters.byteStore)
+                .metricsScope(TreeCommonParameters.metricsScope)
                 .build();
         source.setCacheMem(TreeCommonParameters.maxCacheMem);
         source.setPageMem(TreeCommonParameters.maxPageMem);
         source.setMemSampleInterval(TreeCommonParameters.memSample);
         // create cache
-        cache = new MediatedEvictionConcurrentHashMap.Builder<CacheKey, ConcurrentTreeNode>()
-                .mediator(new CacheMediator(source))
-                .maximumWeightedCapacity(cleanQSize)
-                .build();
+        if (nodeCache == TreeConfig.NodeCache.EPOCH) {
+            cache = null;
+            epochCache = new EpochNodeCache(source, cleanQSize);
+        } else {
+            cache = new MediatedEvictionConcurrentHashMap.Builder<CacheKey, ConcurrentTreeNode>()
+                    .mediator(new CacheMediator(source))
+                    .maximumWeightedCapacity(cleanQSize)
+                    .build();
+            epochCache = null;
+        }
 
         // get stored next db id
         idFile = new File(root, "nextID");
@@ -184,25 +266,39 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
         treeRootNode = dummyRoot.getOrCreateEditableNode("root");
         treeTrashNode = dummyRoot.getOrCreateEditableNode("trash");
         treeTrashNode.requireNodeDB();
-        deletionThreadPool = Executors.newScheduledThreadPool(numDeletionThreads,
+        minDeletionThreads = numDeletionThreads;
+        maxDeletionThreads = (numDeletionThreads > 0) ? Math.max(numDeletionThreads, defaultMaxDeletionThreads) : 0;
+        activeDeletionThreads = numDeletionThreads;
+        deletionThreadPool = Executors.newScheduledThreadPool(maxDeletionThreads + 1,
                 new NamedThreadFactory(scope + "-deletion-", true));
 
-        for (int i = 0; i < numDeletionThreads; i++) {
+        Logger deletionLogger = LoggerFactory.getLogger(ConcurrentTreeDeletionTask.class.getName() + ".Background");
+        for (int i = 0; i < maxDeletionThreads; i++) {
+            int thread = i;
+            BooleanSupplier terminationCondition = () -> closed.get() || (thread >= activeDeletionThreads);
             deletionThreadPool.scheduleAtFixedRate(
-                    new ConcurrentTreeDeletionTask(this, closed::get, LoggerFactory.getLogger(
-                            ConcurrentTreeDeletionTask.class.getName() + ".Background")),
+                    new ConcurrentTreeDeletionTask(this, terminationCondition, deletionLogger, false),
                     i, deletionThreadSleepMillis, TimeUnit.MILLISECONDS);
         }
+        if (maxDeletionThreads > 0) {
+            deletionThreadPool.scheduleWithFixedDelay(this::adjustDeletionThreads,
+                    deletionAdjustMillis, deletionAdjustMillis, TimeUnit.MILLISECONDS);
+        }
 
         long openTime = System.currentTimeMillis() - start;
-        log.info("dir={} root={} trash={} cache={} nextdb={} openms={}",
-                 root, treeRootNode, treeTrashNode, TreeCommonParameters.cleanQMax, nextDBID, openTime);
+        log.info("dir={} root={} trash={} cache={} nodeCache={} nextdb={} openms={}",
+                 root, treeRootNode, treeTrashNode, TreeCommonParameters.cleanQMax, nodeCache, nextDBID, openTime);
     }
 
     public ConcurrentTree(File root) throws Exception {
+        this(root, TreeConfig.NodeCache.LEASE);
+    }
+
+    public ConcurrentTree(File root, TreeConfig.NodeCache nodeCache) throws Exception {
         this(root, defaultNumDeletionThreads, TreeCommonParameters.cleanQMax,
                 TreeCommonParameters.maxCacheSize, TreeCommonParameters.maxPageSize,
-                ConcurrentPage.ConcurrentPageFactory.singleton);
+                TreeCommonParameters.columnarKeys ? ColumnarPage.ColumnarPageFactory.singleton
+                                                  : ConcurrentPage.ConcurrentPageFactory.singleton, nodeCache);
     }
 
     public void meter(METERTREE meterval) {
@@ -235,13 +331,80 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
         return (!lease || node.tryLease());
     }
 
+    /**
+     * Threads inside an epoch of the epoch node cache do not take leases.
+     * A node they retrieve only needs to be returned to use if it was retired.
+     */
+    private boolean acquire(final ConcurrentTreeNode node, final boolean lease) {
+        if ((epochCache != null) && epochCache.inEpoch()) {
+            return node.clearRetirement();
+        } else {
+            return setLease(node, lease);
+        }
+    }
+
+    /**
+     * True if the calling thread may modify nodes without a lease, ie. when
+     * it is in an epoch of the epoch node cache.
+     */
+    boolean inEpoch() {
+        return (epochCache != null) && epochCache.inEpoch();
+    }
+
+    /**
+     * With the {@link TreeConfig.NodeCache#EPOCH EPOCH} node cache the nodes returned
+     * to the calling thread remain valid until {@link #exitEpoch()} without leases.
+     * Calls may be nested. Does nothing with the lease node cache.
+     */
+    @Override
+    public void enterEpoch() {
+        if (epochCache != null) {
+            epochCache.enter();
+        }
+    }
+
+    @Override
+    public void exitEpoch() {
+        if (epochCache != null) {
+            epochCache.exit();
+        }
+    }
+
+    private ConcurrentTreeNode cacheGet(CacheKey key, long nodedb, String name) {
+        return (epochCache != null) ? epochCache.get(nodedb, name) : cache.get(key);
+    }
+
+    private ConcurrentTreeNode cachePutIfAbsent(CacheKey key, long nodedb, String name, ConcurrentTreeNode node) {
+        return (epochCache != null) ? epochCache.putIfAbsent(nodedb, name, node) : cache.putIfAbsent(key, node);
+    }
+
+    private void cacheRemove(CacheKey key, long nodedb, String name, ConcurrentTreeNode node) {
+        if (epochCache != null) {
+            epochCache.remove(nodedb, name, node);
+        } else {
+            cache.remove(key, node);
+        }
+    }
+
+    /**
+     * The epoch node cache does not need a cache key, which saves an allocation per lookup.
+     */
+    private CacheKey cacheKey(long nodedb, String name) {
+        return (epochCache != null) ? null : new CacheKey(nodedb, name);
+    }
+
+    private static DBKey dbkey(CacheKey key, long nodedb, String name) {
+        return (key != null) ? key.dbkey() : new DBKey(nodedb, Raw.get(name));
+    }
+
     public ConcurrentTreeNode getNode(final ConcurrentTreeNode parent, final String child, final boolean lease) {
+        nodeLookups.increment();
         long nodedb = parent.nodeDB();
         if (nodedb <= 0) {
             log.trace("[node.get] {} --> {} NOMAP --> null", parent, child);
             return null;
         }
-        CacheKey key = new CacheKey(nodedb, child);
+        CacheKey key = cacheKey(nodedb, child);
 
         /**
          * (1) First check the cache for the (key, value) pair. If the value
@@ -254,16 +417,16 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
          */
 
         while (true) {
-            ConcurrentTreeNode node = cache.get(key);
+            ConcurrentTreeNode node = cacheGet(key, nodedb, child);
             if (node != null) {
                 if (node.isDeleted()) {
-                    cache.remove(key, node);
-                } else if (setLease(node, lease)) {
+                    cacheRemove(key, nodedb, child, node);
+                } else if (acquire(node, lease)) {
                     reportCacheHit();
                     return node; // (1)
                 }
             } else {// (2)
-                DBKey dbkey = key.dbkey();
+                DBKey dbkey = dbkey(key, nodedb, child);
                 reportCacheMiss();
                 node = source.get(dbkey);
 
@@ -275,12 +438,12 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
                 if (node.isDeleted()) {
                     source.remove(dbkey);
                 } else {
-                    node.initIfDecoded(this, dbkey, key.name);
+                    node.initIfDecoded(this, dbkey, child);
 
-                    ConcurrentTreeNode prev = cache.putIfAbsent(key, node);
+                    ConcurrentTreeNode prev = cachePutIfAbsent(key, nodedb, child, node);
                     if (prev == null) {
                         node.reactivate();
-                        if (setLease(node, lease)) {
+                        if (acquire(node, lease)) {
                             return node; // (4)
                         }
                     }
@@ -292,20 +455,21 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     public ConcurrentTreeNode getOrCreateNode(final ConcurrentTreeNode parent, final String child,
                                               final DataTreeNodeInitializer creator) {
         parent.requireNodeDB();
-        CacheKey key = new CacheKey(parent.nodeDB(), child);
+        long nodedb = parent.nodeDB();
+        CacheKey key = cacheKey(nodedb, child);
         ConcurrentTreeNode newNode = null;
 
         while (true) {
-            ConcurrentTreeNode node = cache.get(key);
+            ConcurrentTreeNode node = cacheGet(key, nodedb, child);
             if (node != null) {
                 if (node.isDeleted()) {
-                    cache.remove(key, node);
-                } else if (setLease(node, true)) {
+                    cacheRemove(key, nodedb, child, node);
+                } else if (acquire(node, true)) {
                     reportCacheHit();
                     return node;
                 }
             } else {
-                DBKey dbkey = key.dbkey();
+                DBKey dbkey = dbkey(key, nodedb, child);
                 reportCacheMiss();
                 node = source.get(dbkey);
 
@@ -313,11 +477,11 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
                     if (node.isDeleted()) {
                         source.remove(dbkey);
                     } else {
-                        node.initIfDecoded(this, dbkey, key.name);
-                        ConcurrentTreeNode prev = cache.putIfAbsent(key, node);
+                        node.initIfDecoded(this, dbkey, child);
+                        ConcurrentTreeNode prev = cachePutIfAbsent(key, nodedb, child, node);
                         if (prev == null) {
                             node.reactivate();
-                            if (setLease(node, true)) {
+                            if (acquire(node, true)) {
                                 return node;
                             }
                         }
@@ -325,15 +489,17 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
                 } else { // create a new node
                     if (newNode == null) {
                         newNode = new ConcurrentTreeNode();
-                        newNode.init(this, dbkey, key.name);
-                        newNode.tryLease();
+                        newNode.init(this, dbkey, child);
+                        if (!inEpoch()) {
+                            newNode.tryLease();
+                        }
                         newNode.markChanged();
                         if (creator != null) {
                             creator.onNewNode(newNode);
                         }
                     }
                     node = newNode;
-                    if (cache.putIfAbsent(key, node) == null) {
+                    if (cachePutIfAbsent(key, nodedb, child, node) == null) {
                         /**
                          * We must insert the new node into the external storage
                          * because our iterators traverse this data
@@ -355,12 +521,12 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
             log.debug("parent has no children on delete : {} --> {}", parent, child);
             return false;
         }
-        CacheKey key = new CacheKey(nodedb, child);
+        CacheKey key = cacheKey(nodedb, child);
         // lease node to prevent eviction from cache and thereby disrupting our {@code source.remove()}
         ConcurrentTreeNode node = getNode(parent, child, true);
         if (node != null) {
             // first ensure no one can rehydrate into a different instance
-            source.remove(key.dbkey());
+            source.remove(dbkey(key, nodedb, child));
             // "markDeleted" causes other threads to remove the node at will, so it is semantically the same
             // as removing it from the cache ourselves. Since this is the last and only instance, we can safely
             // coordinate concurrent deletion attempts with the lease count (-2 is used as a special flag) even
@@ -368,7 +534,7 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
             if (node.markDeleted()) {
                 // node could have already been dropped from the cache, and then re-created (sharing the same cache
                 // key equality). That is a fresh node that needs its own deletion, so only try to remove our instance.
-                cache.remove(key, node);
+                cacheRemove(key, nodedb, child, node);
                 parent.updateNodeCount(-1);
                 if (node.hasNodes() && !node.isAlias()) {
                     markForChildDeletion(node);
@@ -417,12 +583,6 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
     @VisibleForTesting
     void waitOnDeletions() {
         shutdownDeletionThreadPool();
-        synchronized (treeTrashNode) {
-            if (trashIterator != null) {
-                trashIterator.close();
-                trashIterator = null;
-            }
-        }
     }
 
     /**
@@ -461,14 +621,15 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
      */
     @Override
     public void foregroundNodeDeletion(BooleanSupplier terminationCondition) {
-        ConcurrentTreeDeletionTask deletionTask = new ConcurrentTreeDeletionTask(this, terminationCondition, log);
+        ConcurrentTreeDeletionTask deletionTask = new ConcurrentTreeDeletionTask(this, terminationCondition, log, true);
         deletionTask.run();
     }
 
     @Override
     public void sync() throws IOException {
         log.debug("[sync] start");
-        for (ConcurrentTreeNode node : cache.values()) {
+        Collection<ConcurrentTreeNode> nodes = (epochCache != null) ? epochCache.values() : cache.values();
+        for (ConcurrentTreeNode node : nodes) {
             if (!node.isDeleted() && node.isChanged()) {
                 source.put(node.getDbkey(), node);
             }
@@ -484,7 +645,7 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
 
     @Override
     public int getCacheSize() {
-        return cache.size();
+        return (epochCache != null) ? epochCache.size() : cache.size();
     }
 
     @Override
@@ -705,6 +866,7 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
         try {
             while (range.hasNext() && !terminationCondition.getAsBoolean()) {
                 totalCount.increment();
+                nodesDeleted.increment();
                 if ((totalCount.longValue() % deletionLogInterval) == 0) {
                     deletionLogger.info("Deleted {} total nodes in {} trash nodes from the trash.",
                                         totalCount.longValue(), nodeCount.longValue());
@@ -716,8 +878,8 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
                     deleteSubTree(next, totalCount, nodeCount, terminationCondition, deletionLogger);
                 }
                 String name = entry.getKey().rawKey().toString();
-                CacheKey key = new CacheKey(nodeDB, name);
-                ConcurrentTreeNode cacheNode = cache.remove(key);
+                ConcurrentTreeNode cacheNode = (epochCache != null) ? epochCache.remove(nodeDB, name)
+                                                                    : cache.remove(new CacheKey(nodeDB, name));
                 /* Mark the node as deleted so that it will not be
                  * pushed to disk when removed from the eviction queue.
                  */
@@ -741,30 +903,85 @@ public final class ConcurrentTree implements DataTree, MeterDataSource {
         }
     }
 
-    Map.Entry<DBKey, ConcurrentTreeNode> nextTrashNode() {
-        synchronized (treeTrashNode) {
-            if (trashIterator == null) {
-                return recreateTrashIterator();
-            } else if (trashIterator.hasNext()) {
-                return trashIterator.next();
-            } else {
-                return recreateTrashIterator();
+    /**
+     * Claims the next {@link #deletionRangeSize} trash entries for a deletion task.
+     *
+     * @return the first entry of the claimed range or -1 if every entry
+     *         has been claimed since the last {@link #restartTrashPass()}
+     */
+    int claimTrashRange() {
+        while (true) {
+            int start = trashCursor.get();
+            if (start >= treeTrashNode.getNodeCount()) {
+                return -1;
+            } else if (trashCursor.compareAndSet(start, start + deletionRangeSize)) {
+                return start;
             }
         }
     }
 
-    @GuardedBy("treeTrashNode")
-    private Map.Entry<DBKey, ConcurrentTreeNode> recreateTrashIterator() {
-        if (trashIterator != null) {
-            trashIterator.close();
+    /**
+     * Moves the claim cursor back to the oldest entry in the trash. Entries are removed
+     * once they are deleted so this is the oldest entry that remains to be deleted, which
+     * may have been skipped by a task that stopped early.
+     *
+     * @return false if the trash is empty
+     */
+    boolean restartTrashPass() {
+        IPageDB.Range<DBKey, ConcurrentTreeNode> range = fetchNodeRange(treeTrashNode.nodeDB());
+        try {
+            if (range.hasNext()) {
+                trashCursor.set(LessBytes.toInt(range.next().getKey().rawKey().toBytes()));
+                return true;
+            } else {
+                trashCursor.set(treeTrashNode.getNodeCount());
+                return false;
+            }
+        } finally {
+            range.close();
         }
-        trashIterator = fetchNodeRange(treeTrashNode.nodeDB());
-        if (trashIterator.hasNext()) {
-            return trashIterator.next();
+    }
+
+    @SuppressWarnings("unchecked") IPageDB.Range<DBKey, ConcurrentTreeNode> fetchTrashRange(int from, int to) {
+        long nodeDB = treeTrashNode.nodeDB();
+        return source.range(new DBKey(nodeDB, Raw.get(LessBytes.toBytes(from))),
+                            new DBKey(nodeDB, Raw.get(LessBytes.toBytes(to))));
+    }
+
+    /**
+     * Number of trash entries that have not been deleted yet.
+     */
+    long trashBacklog() {
+        return Math.max(0, treeTrashNode.getNodeCount() - treeTrashNode.getCounter());
+    }
+
+    /**
+     * Grow the number of active deletion threads while there is a trash backlog
+     * and the tree is not busy, and shrink it back to the minimum while the tree is
+     * busy. The tree is busy while the rate of node lookups, most of which come
+     * from the mappers, is close to the highest rate seen recently.
+     */
+    private void adjustDeletionThreads() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - lastAdjustment) / 1_000_000_000.0;
+        lastAdjustment = now;
+        deletionRate = nodesDeleted.sumThenReset() / seconds;
+        double lookupRate = nodeLookups.sumThenReset() / seconds;
+        peakLookupRate = Math.max(lookupRate, peakLookupRate * 0.95);
+        boolean busy = (lookupRate > 0) && ((lookupRate * 100) >= (peakLookupRate * deletionLoadPercent));
+        int current = activeDeletionThreads;
+        int next;
+        if (trashBacklog() == 0) {
+            next = minDeletionThreads;
+        } else if (busy) {
+            next = Math.max(minDeletionThreads, current - 1);
         } else {
-            trashIterator.close();
-            trashIterator = null;
-            return null;
+            next = Math.min(maxDeletionThreads, current + 1);
+        }
+        if (next != current) {
+            log.debug("deletion threads {} -> {} backlog={} deleted/s={} lookups/s={}",
+                      current, next, trashBacklog(), deletionRate, lookupRate);
+            activeDeletionThreads = next;
         }
     }
 
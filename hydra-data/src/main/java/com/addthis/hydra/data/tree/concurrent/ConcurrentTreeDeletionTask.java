@@ -17,6 +17,7 @@ import java.util.Map;
 import java.util.function.BooleanSupplier;
 
 import com.addthis.hydra.store.db.DBKey;
+import com.addthis.hydra.store.db.IPageDB;
 
 import org.apache.commons.lang3.mutable.MutableLong;
 
@@ -28,39 +29,66 @@ import org.slf4j.Logger;
  * all subtrees of these nodes. After deleting each subtree then test
  * the provided {@link ConcurrentTreeDeletionTask#terminationCondition}.
  * If it returns true then stop deletion.
+ * <p/>
+ * The trash is processed in small ranges of entries that are claimed
+ * with {@link ConcurrentTree#claimTrashRange()}. Several tasks can run
+ * at the same time without coordinating beyond the claim.
  */
 class ConcurrentTreeDeletionTask implements Runnable {
     private final ConcurrentTree dataTreeNodes;
     private final BooleanSupplier terminationCondition;
     private final Logger deletionLogger;
 
+    /**
+     * If true then keep deleting until the trash is empty. Otherwise
+     * return after one pass over the trash.
+     */
+    private final boolean drain;
+
     public ConcurrentTreeDeletionTask(ConcurrentTree dataTreeNodes,
                                       BooleanSupplier terminationCondition,
-                                      Logger deletionLogger) {
+                                      Logger deletionLogger,
+                                      boolean drain) {
         this.dataTreeNodes = dataTreeNodes;
         this.terminationCondition = terminationCondition;
         this.deletionLogger = deletionLogger;
+        this.drain = drain;
     }
 
     @Override
     public void run() {
         try {
-            Map.Entry<DBKey, ConcurrentTreeNode> entry;
             MutableLong totalCount = new MutableLong();
             MutableLong nodeCount = new MutableLong();
-            do {
-                entry = dataTreeNodes.nextTrashNode();
-                if (entry != null) {
-                    ConcurrentTreeNode node = entry.getValue();
-                    ConcurrentTreeNode prev = dataTreeNodes.source.remove(entry.getKey());
-                    if (prev != null) {
-                        dataTreeNodes.deleteSubTree(node, totalCount, nodeCount, terminationCondition, deletionLogger);
-                        nodeCount.increment();
-                        dataTreeNodes.treeTrashNode.incrementCounter();
+            boolean restarted = false;
+            while (!terminationCondition.getAsBoolean()) {
+                int start = dataTreeNodes.claimTrashRange();
+                if (start < 0) {
+                    // every entry has been claimed. start over from the oldest entry that remains
+                    if (dataTreeNodes.restartTrashPass() && (drain || !restarted)) {
+                        restarted = true;
+                        continue;
+                    }
+                    return;
+                }
+                IPageDB.Range<DBKey, ConcurrentTreeNode> range =
+                        dataTreeNodes.fetchTrashRange(start, start + ConcurrentTree.deletionRangeSize);
+                try {
+                    while (range.hasNext() && !terminationCondition.getAsBoolean()) {
+                        Map.Entry<DBKey, ConcurrentTreeNode> entry = range.next();
+                        ConcurrentTreeNode node = entry.getValue();
+                        ConcurrentTreeNode prev = dataTreeNodes.source.remove(entry.getKey());
+                        if (prev != null) {
+                            dataTreeNodes.deleteSubTree(node, totalCount, nodeCount,
+                                                        terminationCondition, deletionLogger);
+                            nodeCount.increment();
+                            dataTreeNodes.treeTrashNode.incrementCounter();
+                        }
                     }
+                } finally {
+                    range.close();
                 }
             }
-            while ((entry != null) && !terminationCondition.getAsBoolean());
         } catch (Exception ex) {
             ConcurrentTree.log.warn("{}", "Uncaught exception in concurrent tree background deletion thread", ex);
         }
@@ -23,6 +23,7 @@ import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -56,6 +57,11 @@ import com.addthis.hydra.store.db.IPageDB.Range;
  * can be deleted (yes it is counterintuitive but for legacy purposes
  * deleting nodes is a higher priority operation that modifying nodes).
  *
+ * When the tree uses an {@link EpochNodeCache} threads inside an epoch use
+ * nodes with 0 leases. Such a node is only evicted after it has been retired
+ * and the epoch it was retired in has ended. The 'retired' field is
+ * 0 for a node in use, the epoch for a retired node and -1 for a node
+ * that is being evicted.
  */
 public class ConcurrentTreeNode extends AbstractTreeNode {
 
@@ -101,6 +107,14 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
     private ConcurrentTree tree;
     @Mem(estimate = false, size = 64)
     private AtomicInteger leases = new AtomicInteger(0);
+
+    private static final AtomicLongFieldUpdater<ConcurrentTreeNode> retiredUpdater =
+            AtomicLongFieldUpdater.newUpdater(ConcurrentTreeNode.class, "retired");
+
+    private volatile long retired;
+
+    // second chance bit of the epoch node cache
+    volatile boolean referenced;
     @Mem(estimate = false, size = 64)
     private AtomicBoolean changed = new AtomicBoolean(false);
     @Mem(estimate = false, size = 64)
@@ -156,7 +170,7 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
 
     void requireEditable() {
         int count = leases.get();
-        if (!(count == -2 || count > 0)) {
+        if (!(count == -2 || count > 0 || (count == 0 && tree.inEpoch()))) {
             throw new RuntimeException("fail editable requirement: lease state is " + count);
         }
     }
@@ -210,6 +224,7 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
      *
      */
     void reactivate() {
+        retired = 0;
         while(true) {
             int count = leases.get();
             if (count == -3 && leases.compareAndSet(-3, 0)) {
@@ -263,11 +278,54 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
         }
     }
 
+    long retiredEpoch() {
+        return retired;
+    }
+
+    /**
+     * @return true if the node was in use and is now retired in {@code epoch}
+     */
+    boolean retire(long epoch) {
+        return retiredUpdater.compareAndSet(this, 0, epoch);
+    }
+
+    /**
+     * Return a retired node to use.
+     *
+     * @return false if the node is being evicted or has been evicted
+     */
+    boolean clearRetirement() {
+        while (true) {
+            long epoch = retired;
+            if (epoch < 0) {
+                return false;
+            } else if (epoch == 0 || retiredUpdater.compareAndSet(this, epoch, 0)) {
+                return leases.get() >= 0;
+            }
+        }
+    }
+
+    /**
+     * Claim the eviction of a node that has been retired in {@code epoch}.
+     */
+    boolean tryReclaim(long epoch) {
+        return retiredUpdater.compareAndSet(this, epoch, -1);
+    }
+
+    void cancelReclaim() {
+        retired = 0;
+    }
+
     /**
      * Atomically decrement the number of active leases.
+     * Does nothing for a thread inside an epoch of an
+     * {@link EpochNodeCache} since it did not take a lease.
      */
     @Override
     public void release() {
+        if ((tree != null) && tree.inEpoch()) {
+            return;
+        }
         while (true) {
             int count = leases.get();
             if (count <= 0) {
@@ -391,6 +449,7 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
         requireEditable();
         boolean updated = false;
         HashMap<String, TreeDataParameters> dataconf = path.dataConfig();
+        int count = state.getCountValue();
         lock.writeLock().lock();
         try {
             if (path.assignHits()) {
@@ -411,7 +470,8 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
                         data.put(el.getKey(), tnd);
                         updated = true;
                     }
-                    if (tnd.updateChildData(state, this, el.getValue())) {
+                    if ((count > 1) ? tnd.combineChildData(state, this, el.getValue(), count)
+                                    : tnd.updateChildData(state, this, el.getValue())) {
                         updated = true;
                     }
                 }
@@ -430,6 +490,7 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
     @Override public void updateParentData(DataTreeNodeUpdater state, DataTreeNode child, boolean isnew) {
         requireEditable();
         List<TreeNodeDataDeferredOperation> deferredOps = null;
+        int count = state.getCountValue();
         lock.writeLock().lock();
         try {
             if (child != null && data != null) {
@@ -438,7 +499,8 @@ public class ConcurrentTreeNode extends AbstractTreeNode {
                     if (isnew && tnd.updateParentNewChild(state, this, child, deferredOps)) {
                         changed.set(true);
                     }
-                    if (tnd.updateParentData(state, this, child, deferredOps)) {
+                    if ((count > 1) ? tnd.combineParentData(state, this, child, deferredOps, count)
+                                    : tnd.updateParentData(state, this, child, deferredOps)) {
                         changed.set(true);
                     }
                 }
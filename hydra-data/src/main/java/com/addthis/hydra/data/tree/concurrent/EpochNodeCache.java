@@ -0,0 +1,427 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+import com.addthis.hydra.store.db.DBKey;
+import com.addthis.hydra.store.db.IPageDB;
+
+/**
+ * Node cache of a {@link ConcurrentTree} in the
+ * {@link com.addthis.hydra.data.tree.TreeConfig.NodeCache#EPOCH EPOCH} mode.
+ * <p/>
+ * Nodes are stored in open addressing tables keyed on the node db of the parent and
+ * the name of the node. Lookups take those two values directly so no key is allocated,
+ * and read the table under an optimistic {@link StampedLock} read so that a hit does
+ * not write to shared memory.
+ * <p/>
+ * Threads that {@link #enter()} an epoch do not take leases on the nodes they use.
+ * Instead eviction happens in two steps. A node is first retired with the current
+ * epoch and stays in the table. It is written back and removed on a later sweep if it
+ * has not been used since and every thread that was in an epoch when it was retired
+ * has left that epoch. A thread that finds a retired node clears the retirement.
+ * Sweeps run when an insert overflows a segment and when a thread leaves its epoch,
+ * so that the table is trimmed even when every lookup hits.
+ * Threads that are not in an epoch take leases as in the lease mode and a node is never
+ * evicted while it has leases.
+ */
+final class EpochNodeCache {
+
+    private static final int maxSegments = 64;
+
+    /**
+     * Epoch that threads entering an epoch are assigned. Advanced after every
+     * sweep that retired nodes.
+     */
+    private final AtomicLong epoch = new AtomicLong(1);
+
+    private final List<Participant> participants = new CopyOnWriteArrayList<>();
+
+    private final ThreadLocal<Participant> participant = ThreadLocal.withInitial(() -> {
+        Participant p = new Participant();
+        participants.add(p);
+        return p;
+    });
+
+    private final IPageDB<DBKey, ConcurrentTreeNode> source;
+
+    private final Segment[] segments;
+
+    private final int segmentMask;
+
+    private final int segmentCapacity;
+
+    private static final class Participant {
+
+        /**
+         * Epoch that the thread entered or 0 if the thread is not in an epoch.
+         */
+        volatile long epoch;
+
+        /**
+         * Only accessed by the owning thread.
+         */
+        int depth;
+
+        /**
+         * Next segment to check on exit. Only accessed by the owning thread.
+         */
+        int next;
+    }
+
+    EpochNodeCache(IPageDB<DBKey, ConcurrentTreeNode> source, int capacity) {
+        this.source = source;
+        int count = Math.min(maxSegments, Integer.highestOneBit(Math.max(1, capacity / 64)));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+        segmentMask = count - 1;
+        segmentCapacity = Math.max(1, capacity / count);
+    }
+
+    void enter() {
+        Participant p = participant.get();
+        if (p.depth++ == 0) {
+            p.epoch = epoch.get();
+        }
+    }
+
+    void exit() {
+        Participant p = participant.get();
+        if (--p.depth == 0) {
+            p.epoch = 0;
+            trim(segments[p.next++ & segmentMask]);
+        }
+    }
+
+    /**
+     * Sweep a segment that is over its capacity from a thread that is not in an epoch.
+     * The nodes that this thread retires can be evicted in the same sweep if no other
+     * thread is in an epoch. Skips the segment if another thread is writing to it.
+     */
+    private void trim(Segment segment) {
+        if (segment.size <= segmentCapacity) {
+            return;
+        }
+        long stamp = segment.tryWriteLock();
+        if (stamp != 0) {
+            try {
+                sweep(segment);
+            } finally {
+                segment.unlockWrite(stamp);
+            }
+        }
+    }
+
+    boolean inEpoch() {
+        return participant.get().depth > 0;
+    }
+
+    private long minActiveEpoch() {
+        long min = Long.MAX_VALUE;
+        for (Participant p : participants) {
+            long value = p.epoch;
+            if ((value != 0) && (value < min)) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    private static int hash(long db, String name) {
+        int h = Long.hashCode(db * 0x9E3779B97F4A7C15L) ^ name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> 26) & segmentMask];
+    }
+
+    ConcurrentTreeNode get(long db, String name) {
+        int hash = hash(db, name);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.tryOptimisticRead();
+        ConcurrentTreeNode node = segment.find(db, name, hash);
+        if (!segment.validate(stamp)) {
+            stamp = segment.readLock();
+            try {
+                node = segment.find(db, name, hash);
+            } finally {
+                segment.unlockRead(stamp);
+            }
+        }
+        if ((node != null) && !node.referenced) {
+            node.referenced = true;
+        }
+        return node;
+    }
+
+    /**
+     * @return the node that is already stored under the key or null if {@code node} was inserted
+     */
+    ConcurrentTreeNode putIfAbsent(long db, String name, ConcurrentTreeNode node) {
+        int hash = hash(db, name);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            ConcurrentTreeNode prev = segment.find(db, name, hash);
+            if (prev != null) {
+                return prev;
+            }
+            segment.insert(db, name, hash, node);
+            if (segment.size > segmentCapacity) {
+                sweep(segment);
+            }
+            return null;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    boolean remove(long db, String name, ConcurrentTreeNode node) {
+        int hash = hash(db, name);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            return segment.delete(db, name, hash, node) != null;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    ConcurrentTreeNode remove(long db, String name) {
+        int hash = hash(db, name);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            return segment.delete(db, name, hash, null);
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.readLock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    List<ConcurrentTreeNode> values() {
+        List<ConcurrentTreeNode> values = new ArrayList<>();
+        for (Segment segment : segments) {
+            long stamp = segment.readLock();
+            try {
+                for (ConcurrentTreeNode node : segment.table.nodes) {
+                    if (node != null) {
+                        values.add(node);
+                    }
+                }
+            } finally {
+                segment.unlockRead(stamp);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Second chance sweep over a write locked segment until it is back within its capacity.
+     * Retires nodes that have not been used since the last sweep and evicts the nodes that
+     * have completed their grace period.
+     */
+    private void sweep(Segment segment) {
+        Table table = segment.table;
+        int length = table.nodes.length;
+        long current = epoch.get();
+        long minActive = minActiveEpoch();
+        boolean retired = false;
+        for (int steps = 0; (steps < (3 * length)) && (segment.size > segmentCapacity); steps++) {
+            int index = segment.hand;
+            ConcurrentTreeNode node = table.nodes[index];
+            if (node == null) {
+                segment.hand = (index + 1) & (length - 1);
+                continue;
+            }
+            if (node.isDeleted()) {
+                segment.deleteAt(index);
+                continue;
+            }
+            if (node.referenced) {
+                node.referenced = false;
+            } else if (node.retire(current)) {
+                retired = true;
+            } else if (evict(node, minActive)) {
+                segment.deleteAt(index);
+                continue;
+            }
+            segment.hand = (index + 1) & (length - 1);
+        }
+        if (retired) {
+            epoch.incrementAndGet();
+        }
+    }
+
+    private boolean evict(ConcurrentTreeNode node, long minActive) {
+        long retiredAt = node.retiredEpoch();
+        if ((retiredAt <= 0) || (retiredAt >= minActive) || !node.tryReclaim(retiredAt)) {
+            return false;
+        }
+        if (!node.trySetEviction()) {
+            // a thread outside of an epoch holds a lease on the node
+            node.cancelReclaim();
+            return false;
+        }
+        try {
+            if (!node.isDeleted() && node.isChanged()) {
+                source.put(node.getDbkey(), node);
+            }
+        } finally {
+            node.evictionComplete();
+        }
+        return true;
+    }
+
+    private static final class Table {
+
+        final long[] dbs;
+        final String[] names;
+        final ConcurrentTreeNode[] nodes;
+
+        Table(int length) {
+            dbs = new long[length];
+            names = new String[length];
+            nodes = new ConcurrentTreeNode[length];
+        }
+    }
+
+    /**
+     * Linear probing table with at most half of its slots in use.
+     * The table is replaced when it grows so that optimistic readers
+     * always probe arrays of the same length.
+     */
+    private static final class Segment extends StampedLock {
+
+        volatile Table table = new Table(16);
+
+        int size;
+
+        int hand;
+
+        ConcurrentTreeNode find(long db, String name, int hash) {
+            Table t = table;
+            int mask = t.nodes.length - 1;
+            for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                ConcurrentTreeNode node = t.nodes[i];
+                if (node == null) {
+                    return null;
+                }
+                if ((t.dbs[i] == db) && name.equals(t.names[i])) {
+                    return node;
+                }
+            }
+            return null;
+        }
+
+        void insert(long db, String name, int hash, ConcurrentTreeNode node) {
+            if (((size + 1) * 2) > table.nodes.length) {
+                resize(table.nodes.length * 2);
+            }
+            Table t = table;
+            int mask = t.nodes.length - 1;
+            int i = hash & mask;
+            while (t.nodes[i] != null) {
+                i = (i + 1) & mask;
+            }
+            t.dbs[i] = db;
+            t.names[i] = name;
+            t.nodes[i] = node;
+            size++;
+        }
+
+        private void resize(int length) {
+            Table prev = table;
+            Table next = new Table(length);
+            int mask = length - 1;
+            for (int j = 0; j < prev.nodes.length; j++) {
+                if (prev.nodes[j] != null) {
+                    int i = hash(prev.dbs[j], prev.names[j]) & mask;
+                    while (next.nodes[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    next.dbs[i] = prev.dbs[j];
+                    next.names[i] = prev.names[j];
+                    next.nodes[i] = prev.nodes[j];
+                }
+            }
+            hand = 0;
+            table = next;
+        }
+
+        /**
+         * Remove the entry for the key if it maps to {@code expected}, or to any node
+         * when {@code expected} is null.
+         */
+        ConcurrentTreeNode delete(long db, String name, int hash, ConcurrentTreeNode expected) {
+            Table t = table;
+            int mask = t.nodes.length - 1;
+            for (int i = hash & mask; t.nodes[i] != null; i = (i + 1) & mask) {
+                if ((t.dbs[i] == db) && name.equals(t.names[i])) {
+                    ConcurrentTreeNode node = t.nodes[i];
+                    if ((expected != null) && (node != expected)) {
+                        return null;
+                    }
+                    deleteAt(i);
+                    return node;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Backward shift deletion. Entries that follow the slot in its probe
+         * sequence are moved back so that no tombstones are needed.
+         */
+        void deleteAt(int index) {
+            Table t = table;
+            int mask = t.nodes.length - 1;
+            int hole = index;
+            for (int i = (hole + 1) & mask; t.nodes[i] != null; i = (i + 1) & mask) {
+                int home = hash(t.dbs[i], t.names[i]) & mask;
+                // move the entry unless its home slot lies cyclically in (hole, i]
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    t.dbs[hole] = t.dbs[i];
+                    t.names[hole] = t.names[i];
+                    t.nodes[hole] = t.nodes[i];
+                    hole = i;
+                }
+            }
+            t.dbs[hole] = 0;
+            t.names[hole] = null;
+            t.nodes[hole] = null;
+            size--;
+        }
+    }
+}
@@ -114,7 +114,9 @@ public final class NonConcurrentTree implements DataTree, MeterDataSource {
             logger = null;
         }
         source = new PageDB.Builder<>(root, NonConcurrentTreeNode.class, maxPageSize, maxCacheSize)
-                .pageFactory(factory).build();
+                .pageFactory(factory).pageCodec(TreeCommonParameters.pageCodec)
+                .byteStore(TreeCommonParameters.byteStore)
+                .metricsScope(TreeCommonParameters.metricsScope).build();
         source.setCacheMem(TreeCommonParameters.maxCacheMem);
         source.setPageMem(TreeCommonParameters.maxPageMem);
         source.setMemSampleInterval(TreeCommonParameters.memSample);
@@ -206,6 +206,7 @@ public class NonConcurrentTreeNode extends AbstractTreeNode {
     @SuppressWarnings("unchecked")
     public void updateChildData(DataTreeNodeUpdater state, TreeDataParent path) {
         HashMap<String, TreeDataParameters> dataconf = path.dataConfig();
+        int count = state.getCountValue();
         if (path.assignHits()) {
             hits = state.getAssignmentValue();
         } else if (path.countHits()) {
@@ -221,7 +222,10 @@ public class NonConcurrentTreeNode extends AbstractTreeNode {
                     tnd = el.getValue().newInstance(this);
                     data.put(el.getKey(), tnd);
                 }
-                if (tnd.updateChildData(state, this, el.getValue())) {
+                if (count > 1) {
+                    tnd.combineChildData(state, this, el.getValue(), count);
+                } else {
+                    tnd.updateChildData(state, this, el.getValue());
                 }
             }
         }
@@ -233,13 +237,18 @@ public class NonConcurrentTreeNode extends AbstractTreeNode {
     @Override
     public void updateParentData(DataTreeNodeUpdater state, DataTreeNode child, boolean isnew) {
         List<TreeNodeDataDeferredOperation> deferredOps = null;
+        int count = state.getCountValue();
         if (child != null && data != null) {
             deferredOps = new ArrayList<>(1);
             for (TreeNodeData<?> tnd : data.values()) {
                 if (isnew) {
                     tnd.updateParentNewChild(state, this, child, deferredOps);
                 }
-                tnd.updateParentData(state, this, child, deferredOps);
+                if (count > 1) {
+                    tnd.combineParentData(state, this, child, deferredOps, count);
+                } else {
+                    tnd.updateParentData(state, this, child, deferredOps);
+                }
             }
         }
         if (deferredOps != null) {
@@ -141,6 +141,16 @@ public class DataSum extends TreeNodeData<DataSum.Config> {
         return true;
     }
 
+    @Override
+    public boolean combineChildData(DataTreeNodeUpdater state, DataTreeNode tn, DataSum.Config conf, int count) {
+        if (conf.key == null) {
+            num += count;
+            sum += (long) conf.value * count;
+            return true;
+        }
+        return super.combineChildData(state, tn, conf, count);
+    }
+
     @Override
     public ValueObject getValue(String key) {
         if (key == null) {
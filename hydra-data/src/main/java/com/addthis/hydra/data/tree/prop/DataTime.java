@@ -99,6 +99,14 @@ public class DataTime extends TreeNodeData<DataTime.Config> {
         return true;
     }
 
+    /**
+     * combined bundles carry the same time so a single update is sufficient.
+     */
+    @Override
+    public boolean combineChildData(DataTreeNodeUpdater state, DataTreeNode tn, Config conf, int count) {
+        return updateChildData(state, tn, conf);
+    }
+
     @Override
     public ValueObject getValue(String key) {
         checkNotNull(key, "Data Attachment 'time' requires a key during lookups");
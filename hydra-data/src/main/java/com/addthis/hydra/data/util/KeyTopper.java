@@ -20,7 +20,9 @@ import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.TreeMap;
 
 import com.addthis.basis.util.Varint;
 
@@ -38,6 +40,8 @@ import io.netty.buffer.Unpooled;
 
 /**
  * Class that helps maintain a top N list for any String Map.
+ * Keys are also indexed by count so that the minimum entry can be
+ * found and evicted in logarithmic time.
  */
 public final class KeyTopper implements Codable, BytesCodable {
 
@@ -72,6 +76,14 @@ public final class KeyTopper implements Codable, BytesCodable {
     @FieldConfig(codable = false)
     private HashMap<String, Long> errors;
 
+    /**
+     * Keys of {@link #map} grouped by their count (a stream summary).
+     * Lets the minimum be found without scanning the map. Not serialized,
+     * rebuilt from the map on first use after decoding.
+     */
+    @FieldConfig(codable = false)
+    private TreeMap<Long, LinkedHashSet<String>> buckets;
+
     @Override
     public String toString() {
         return "topper(min:" + minKey + "=" + minVal + "->" + map.toString() + ",lossy:" + lossy + ")";
@@ -79,6 +91,7 @@ public final class KeyTopper implements Codable, BytesCodable {
 
     public KeyTopper init() {
         map = new HashMap<>();
+        buckets = null;
         return this;
     }
 
@@ -160,17 +173,62 @@ public final class KeyTopper implements Codable, BytesCodable {
      */
     private void recreateMinimum(boolean force) {
         if (map.size() > 0 && (minKey == null || force)) {
-            minVal = Long.MAX_VALUE;
-            for (Map.Entry<String, Long> e : this.map.entrySet()) {
-                if (e.getValue() < minVal) {
-                    minKey = e.getKey();
-                    minVal = e.getValue();
-                }
-            }
+            Map.Entry<Long, LinkedHashSet<String>> lowest = buckets().firstEntry();
+            minVal = lowest.getKey();
+            minKey = lowest.getValue().iterator().next();
         }
         assert((minKey != null) ^ (map.size() == 0));
     }
 
+    private TreeMap<Long, LinkedHashSet<String>> buckets() {
+        if (buckets == null) {
+            buckets = new TreeMap<>();
+            for (Map.Entry<String, Long> e : map.entrySet()) {
+                addToBucket(e.getKey(), e.getValue());
+            }
+        }
+        return buckets;
+    }
+
+    private void addToBucket(String id, long value) {
+        LinkedHashSet<String> bucket = buckets.get(value);
+        if (bucket == null) {
+            bucket = new LinkedHashSet<>();
+            buckets.put(value, bucket);
+        }
+        bucket.add(id);
+    }
+
+    private void removeFromBucket(String id, long value) {
+        LinkedHashSet<String> bucket = buckets.get(value);
+        bucket.remove(id);
+        if (bucket.isEmpty()) {
+            buckets.remove(value);
+        }
+    }
+
+    /**
+     * All writes to {@link #map} go through here and {@link #remove(String)}
+     * to keep the buckets in sync. The buckets are left alone if they have
+     * not been built yet.
+     */
+    private void put(String id, long value) {
+        Long previous = map.put(id, value);
+        if (buckets != null) {
+            if (previous != null) {
+                removeFromBucket(id, previous);
+            }
+            addToBucket(id, value);
+        }
+    }
+
+    private void remove(String id) {
+        Long previous = map.remove(id);
+        if ((buckets != null) && (previous != null)) {
+            removeFromBucket(id, previous);
+        }
+    }
+
     /**
      * Adds 'ID' the top N if: 1) there are more empty slots or 2) count >
      * smallest top count in the list
@@ -218,7 +276,7 @@ public final class KeyTopper implements Codable, BytesCodable {
     public boolean incrementExisting(@Nonnull String id) {
         Long value = map.get(id);
         if (value != null) {
-            map.put(id, value + 1L);
+            put(id, value + 1L);
             if (id.equals(minKey)) {
                 recreateMinimum(true);
             }
@@ -242,7 +300,7 @@ public final class KeyTopper implements Codable, BytesCodable {
         Preconditions.checkArgument(maxsize > 0, "Argument was %s but expected positive integer", maxsize);
         /** There is guaranteed capacity to update or insert value */
         if (map.size() < maxsize) {
-            map.put(id, value);
+            put(id, value);
             /** new minimum key has been identified */
             if (value < minVal) {
                 minKey = id;
@@ -261,7 +319,7 @@ public final class KeyTopper implements Codable, BytesCodable {
             /** only remove if topN is full and we're not updating an existing entry */
             boolean remove = !map.containsKey(id) && (minKey != null);
             if (remove) {
-                map.remove(minKey);
+                remove(minKey);
                 if (hasErrors()) {
                     errors.remove(minKey);
                     errors.put(id, minVal);
@@ -269,7 +327,7 @@ public final class KeyTopper implements Codable, BytesCodable {
                 result = minKey;
             }
             /** update or add entry */
-            map.put(id, value);
+            put(id, value);
             /** recalculate min *only* if the min entry was removed or updated */
             if (remove || id.equals(minKey)) {
                 recreateMinimum(true);
@@ -333,6 +391,7 @@ public final class KeyTopper implements Codable, BytesCodable {
     @Override
     public void bytesDecode(byte[] b, long version) {
         errors = null;
+        buckets = null;
         if (b.length == 0) {
             map = new HashMap<>();
             return;
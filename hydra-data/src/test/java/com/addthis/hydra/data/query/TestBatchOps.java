@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.channel.BlockingBufferedConsumer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestBatchOps {
+
+    private static DataTableHelper input() {
+        DataTableHelper table = new DataTableHelper();
+        for (int i = 0; i < 100; i++) {
+            table.tr().td("k" + (i / 9)).td((long) ((i * 7) % 13) - 4);
+            if (i % 10 == 3) {
+                table.tdNull();
+            } else {
+                table.td((long) i);
+            }
+        }
+        return table;
+    }
+
+    private static List<String> run(String ops, int batchSize) throws Exception {
+        BlockingBufferedConsumer buffer = new BlockingBufferedConsumer();
+        QueryOpProcessor qp = new QueryOpProcessor.Builder(buffer, ops).batchSize(batchSize).build();
+        for (Bundle row : input()) {
+            qp.send(row);
+        }
+        qp.sendComplete();
+        List<String> rows = new ArrayList<>();
+        for (Bundle row : buffer.getTable()) {
+            StringBuilder sb = new StringBuilder();
+            for (BundleField field : row.getFormat()) {
+                ValueObject value = row.getValue(field);
+                if (value != null) {
+                    sb.append(field.getName()).append('=').append(value).append(' ');
+                }
+            }
+            rows.add(sb.toString());
+        }
+        qp.close();
+        return rows;
+    }
+
+    private static void verify(String ops, int expectedRows) throws Exception {
+        List<String> expected = run(ops, 0);
+        assertEquals(ops, expectedRows, expected.size());
+        assertEquals(ops, expected, run(ops, 16));
+        assertEquals(ops, expected, run(ops, 7));
+    }
+
+    @Test
+    public void nativeOps() throws Exception {
+        verify("skip=3;sum=1;limit=50", 50);
+        verify("sum=s1;max=2", 100);
+        verify("delta=1;min=2;avg=1", 100);
+        verify("skip=2,5,3;avg=1,2;limit=7:40", 40);
+        verify("limit=5:10", 10);
+    }
+
+    @Test
+    public void fallbackOps() throws Exception {
+        verify("sum=f1", 100);
+        verify("sum=1:0", 100);
+        verify("sum=S1,2", 101);
+        verify("skip=1;num=c1,c1,mult,v1,set;sum=1", 99);
+        verify("delta=1:0", 100);
+    }
+}
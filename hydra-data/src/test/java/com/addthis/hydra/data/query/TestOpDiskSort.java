@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.table.DataTable;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.channel.BlockingBufferedConsumer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestOpDiskSort extends TestOp {
+
+    @Test
+    public void testDiskSort() throws Exception {
+        DataTableHelper basicTable = parse("A 1 art|B 2 bot|C 3 cog|D 4 din");
+        DataTableHelper dataTable = parse("0 A 3|0 A 5|1 A 1|1 B 2");
+        DataTableHelper dataTableDecimals = parse("A .9 | B .8282 | C .95 | D .102392");
+        doOpTest(parse(""), "dsort=1,2,3:sns:d", parse(""));
+        doOpTest(basicTable, "dsort=1:n:d", parse("D 4 din|C 3 cog|B 2 bot|A 1 art"));
+        doOpTest(basicTable, "dsort=0:x:d", parse("D 4 din|C 3 cog|B 2 bot|A 1 art"));
+        doOpTest(dataTable, "dsort=0,1,2:nsn:ada", parse("0 A 3|0 A 5|1 B 2|1 A 1"));
+        doOpTest(dataTable, "dsort=0,1,2:nsn:add", parse("0 A 5|0 A 3|1 B 2|1 A 1"));
+        doOpTest(dataTable, "dsort=1,2:sn:da", parse("1 B 2|1 A 1|0 A 3|0 A 5"));
+        doOpTest(dataTableDecimals, "dsort=1:d:a", parse("D .102392|B .8282|A .9|C .95"));
+    }
+
+    private static List<String> dsort(DataTable in, String ops, boolean parallel) throws Exception {
+        System.setProperty("op.disksort.parallel", Boolean.toString(parallel));
+        // a few rows per run and three runs per merge to force several merge levels
+        System.setProperty("op.disksort.memory", "20000");
+        System.setProperty("op.disksort.chunk.merges", "3");
+        try {
+            BlockingBufferedConsumer buffer = new BlockingBufferedConsumer();
+            QueryOpProcessor qp = new QueryOpProcessor.Builder(buffer, ops).build();
+            for (Bundle row : in) {
+                qp.send(row);
+            }
+            qp.sendComplete();
+            List<String> result = new ArrayList<>();
+            for (Bundle row : buffer.getTable()) {
+                StringBuilder sb = new StringBuilder();
+                for (BundleField field : row.getFormat()) {
+                    ValueObject value = row.getValue(field);
+                    sb.append(value).append(' ');
+                }
+                result.add(sb.toString().trim());
+            }
+            qp.close();
+            return result;
+        } finally {
+            System.clearProperty("op.disksort.parallel");
+            System.clearProperty("op.disksort.memory");
+            System.clearProperty("op.disksort.chunk.merges");
+        }
+    }
+
+    @Test
+    public void testSpilledRuns() throws Exception {
+        Random random = new Random(7);
+        String[] words = {"", "a", "ab", "abc", "b", "été", "中文", "Z", "a\u0000"};
+        DataTableHelper in = new DataTableHelper();
+        for (int i = 0; i < 3000; i++) {
+            in.tr().td(words[random.nextInt(words.length)])
+              .td(random.nextInt(200) - 100)
+              .td((random.nextInt(400) - 200) / 8.0)
+              .td(i);
+        }
+        for (String ops : new String[]{"dsort=0,1,3:sna:aaa", "dsort=0,2,3:sdn:dda", "dsort=1,0,3:nsn:dad",
+                                       "dsort=2,3:dn:ad"}) {
+            List<String> expected = dsort(in, ops, false);
+            assertEquals(3000, expected.size());
+            assertEquals(ops, expected, dsort(in, ops, true));
+        }
+        // rows with equal keys keep their input order
+        List<String> stable = dsort(in, "dsort=1:n:d", true);
+        for (int i = 1; i < stable.size(); i++) {
+            String[] prev = stable.get(i - 1).split(" ");
+            String[] next = stable.get(i).split(" ");
+            String prevKey = prev[prev.length - 3];
+            String nextKey = next[next.length - 3];
+            if (prevKey.equals(nextKey)) {
+                assertTrue(Long.parseLong(prev[prev.length - 1]) < Long.parseLong(next[next.length - 1]));
+            }
+        }
+    }
+}
@@ -13,8 +13,20 @@
  */
 package com.addthis.hydra.data.query;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.table.DataTable;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.channel.BlockingBufferedConsumer;
+
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+
 public class TestOpGather extends TestOp {
 
     @Test
@@ -105,7 +117,7 @@ public class TestOpGather extends TestOp {
                         tr().td("b", "1", "2", "3").
                         tr().td("c", "1", "2", "3").
                         tr().td("a", "1", "2", "3"),
-                "gather=ksssu",
+                "gather=ksssu;sort",
                 new DataTableHelper().
                         tr().td("a", "3", "6", "9", "3").
                         tr().td("b", "2", "4", "6", "2").
@@ -121,7 +133,7 @@ public class TestOpGather extends TestOp {
                         tr().td("b", "3", "2", "3").
                         tr().td("c", "1", "2", "5").
                         tr().td("a", "1", "2", "3"),
-                "gather=kaaa",
+                "gather=kaaa;sort",
                 new DataTableHelper().
                         tr().td("a", "1", "3", "3").
                         tr().td("b", "4", "5", "3").
@@ -137,7 +149,7 @@ public class TestOpGather extends TestOp {
                         tr().td("b", "3").td().td("3").
                         tr().td("c", "1", "2").
                         tr().td("a", "1", "2", "3"),
-                "gather=ksss",
+                "gather=ksss;sort",
                 new DataTableHelper().
                         tr().td("a", "3", "9", "6").
                         tr().td("b", "8", "8", "6").
@@ -153,7 +165,7 @@ public class TestOpGather extends TestOp {
                         tr().td("b", "1", "2", "3").
                         tr().td("c", "1", "2", "3").
                         tr().td("a", "1", "2", "3"),
-                "gather=kiss",
+                "gather=kiss;sort",
                 new DataTableHelper().
                         tr().td("a", "6", "9").
                         tr().td("b", "4", "6").
@@ -174,6 +186,53 @@ public class TestOpGather extends TestOp {
         );
     }
 
+    private static List<String> gather(DataTable in, String ops, int tipRow, boolean primitive) throws Exception {
+        System.setProperty("opgather.primitive", Boolean.toString(primitive));
+        System.setProperty("opgather.tiptodisk", Boolean.toString(tipRow > 0));
+        try {
+            BlockingBufferedConsumer buffer = new BlockingBufferedConsumer();
+            QueryOpProcessor qp = new QueryOpProcessor.Builder(buffer, ops).rowTip(tipRow).build();
+            for (Bundle row : in) {
+                qp.send(row);
+            }
+            qp.sendComplete();
+            List<String> result = new ArrayList<>();
+            for (Bundle row : buffer.getTable()) {
+                StringBuilder sb = new StringBuilder();
+                for (BundleField field : row.getFormat()) {
+                    ValueObject value = row.getValue(field);
+                    sb.append(value == null ? "null" : (value.getObjectType() + ":" + value)).append(' ');
+                }
+                result.add(sb.toString());
+            }
+            qp.close();
+            Collections.sort(result);
+            return result;
+        } finally {
+            System.clearProperty("opgather.primitive");
+            System.clearProperty("opgather.tiptodisk");
+        }
+    }
+
+    @Test
+    public void testPrimitiveGather() throws Exception {
+        DataTableHelper in = new DataTableHelper();
+        for (int i = 0; i < 2000; i++) {
+            in.tr().td("k" + (i % 23)).td(i % 7).td(i - 1000).td(1 + (i % 13) * 0.25).td(i % 100 - 50);
+            if (i % 5 != 0) {
+                in.td(i * 0.5);
+            }
+        }
+        String ops = "gather=kksmMau";
+        List<String> expected = gather(in, ops, 0, false);
+        assertEquals(161, expected.size());
+        assertEquals(expected, gather(in, ops, 0, true));
+        // spills after every 10 groups and re-aggregates the partitions
+        assertEquals(expected, gather(in, ops, 10, true));
+        assertEquals(gather(in, "gather=kiisau", 0, false), gather(in, "gather=kiisau", 0, true));
+        assertEquals(gather(in, "gather=iksMia", 0, false), gather(in, "gather=iksMia", 3, true));
+    }
+
     //@Test
     public void comparePerformance() throws Exception {
         long inMemoryTime = 0;
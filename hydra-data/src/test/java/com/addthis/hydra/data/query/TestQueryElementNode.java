@@ -13,6 +13,17 @@
  */
 package com.addthis.hydra.data.query;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.prop.VirtualTreeNode;
+
+import org.apache.commons.lang3.mutable.MutableInt;
+
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -47,4 +58,19 @@ public class TestQueryElementNode {
         assertEquals("abc", node.defaultValue);
         assertEquals(15, node.defaultHits);
     }
+
+    @Test
+    public void regexOverUnsortedChildren() {
+        // data attachments such as the reservoir list their children newest first
+        VirtualTreeNode parent = new VirtualTreeNode("observations", 0, new VirtualTreeNode[]{
+                new VirtualTreeNode("16", 1), new VirtualTreeNode("15", 1), new VirtualTreeNode("14", 1)});
+        LinkedList<DataTreeNode> stack = new LinkedList<>();
+        stack.push(parent);
+        List<String> names = new ArrayList<>();
+        QueryElementNode node = new QueryElementNode().parse("|1[4]|15", new MutableInt());
+        for (Iterator<DataTreeNode> iter = node.getNodes(stack); iter.hasNext(); ) {
+            names.add(iter.next().getName());
+        }
+        assertEquals(Arrays.asList("15", "14"), names);
+    }
 }
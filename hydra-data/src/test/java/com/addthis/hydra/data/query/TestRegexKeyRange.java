@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestRegexKeyRange {
+
+    private static String ranges(String... regexes) {
+        return RegexKeyRange.union(regexes).toString();
+    }
+
+    @Test
+    public void literalPrefix() {
+        assertEquals("[[foo, fop)]", ranges("foo.*"));
+        assertEquals("[[foo, fop)]", ranges("^foo"));
+        assertEquals("[[fo, fp)]", ranges("foo?bar"));
+        assertEquals("[[foo, fop)]", ranges("foo+bar"));
+        assertEquals("[[a.b, a.c)]", ranges("a\\.b\\d+"));
+        assertEquals("[[null, null)]", ranges(".*foo"));
+        assertEquals("[[null, null)]", ranges("(?i)foo"));
+        assertEquals("[[null, null)]", ranges("\\Qfoo\\E"));
+    }
+
+    @Test
+    public void characterClass() {
+        assertEquals("[[bar, ba{)]", ranges("ba[r-z]"));
+        assertEquals("[[2014, 2016)]", ranges("201[45]\\d*"));
+        assertEquals("[[ba, bb)]", ranges("ba[r-z]?"));
+        assertEquals("[[ba, bb)]", ranges("ba[^r]"));
+    }
+
+    @Test
+    public void alternatives() {
+        assertEquals("[[bar, bas), [foo, fop)]", ranges("foo|bar"));
+        assertEquals("[[ab, ac)]", ranges("abc", "ab"));
+        assertEquals("[[null, null)]", ranges("foo|.*"));
+        assertEquals("[[a(b|c, a(b|d)]", ranges("a\\(b\\|c"));
+        assertEquals("[[a, b)]", ranges("a(b|c)"));
+        assertEquals("[[a|, a})]", ranges("a[|]b"));
+    }
+}
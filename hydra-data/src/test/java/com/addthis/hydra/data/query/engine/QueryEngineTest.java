@@ -0,0 +1,162 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.engine;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.channel.DataChannelOutput;
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.hydra.data.query.Query;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.concurrent.ConcurrentTree;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.channel.DefaultChannelProgressivePromise;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+public class QueryEngineTest {
+
+    private static class CollectingOutput implements DataChannelOutput {
+
+        final ListBundleFormat format = new ListBundleFormat();
+        final List<String> rows = new ArrayList<>();
+
+        @Override public Bundle createBundle() {
+            return new ListBundle(format);
+        }
+
+        @Override public void send(Bundle bundle) {
+            rows.add(bundle.getValue(format.getField("a")) + "/" + bundle.getValue(format.getField("b")));
+        }
+
+        @Override public void send(List<Bundle> bundles) {
+            bundles.forEach(this::send);
+        }
+
+        @Override public void sendComplete() {
+        }
+
+        @Override public void sourceError(Throwable cause) {
+        }
+    }
+
+    private static List<String> search(QueryEngine engine, String parallel, boolean ordered) throws Exception {
+        return search(engine, "+{a}/+{b}", parallel, ordered);
+    }
+
+    private static List<String> search(QueryEngine engine, String path, String parallel, boolean ordered)
+            throws Exception {
+        Query query = new Query("job", new String[]{path}, null);
+        if (parallel != null) {
+            query.setParameter(QueryEngine.PARALLEL_PARAMETER, parallel);
+            query.setParameter(QueryEngine.PARALLEL_ORDERED_PARAMETER, ordered);
+        }
+        CollectingOutput output = new CollectingOutput();
+        engine.search(query, output, new DefaultChannelProgressivePromise(null, ImmediateEventExecutor.INSTANCE));
+        return output.rows;
+    }
+
+    private static ConcurrentTree tree(File dir) throws Exception {
+        ConcurrentTree tree = new ConcurrentTree(dir);
+        for (int i = 0; i < 40; i++) {
+            DataTreeNode parent = tree.getOrCreateNode(String.format("a%02d", i), null);
+            for (int j = 0; j < 30; j++) {
+                parent.getOrCreateNode(String.format("b%02d", j), null).release();
+            }
+            parent.release();
+        }
+        return tree;
+    }
+
+    @Test
+    public void regexSearch() throws Exception {
+        File dir = LessFiles.createTempDir();
+        ConcurrentTree tree = tree(dir);
+        try {
+            QueryEngine engine = new QueryEngine(tree);
+            assertEquals(Arrays.asList("a12/b07", "a12/b17", "a13/b07", "a13/b17"),
+                         search(engine, "|+{a}a1[23]/|+{b}b[01]7", null, false));
+            assertEquals(Arrays.asList("a05/b29", "a30/b29", "a35/b29"),
+                         search(engine, "|+{a}a3[05]|a05/|+{b}b29", null, false));
+            // a child is returned once for every pattern that it matches
+            assertEquals(Arrays.asList("a05/b09", "a05/b19", "a05/b28", "a05/b29", "a05/b29"),
+                         search(engine, "|+{a}a05/|+{b}b2[89],b.9", null, false));
+            assertEquals(0, search(engine, "!+{a}a[0-3]./+{b}", null, false).size());
+            assertEquals(360, search(engine, "!+{a}a[0-3]0/|+{b}b0.", null, false).size());
+        } finally {
+            tree.close();
+            LessFiles.deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void parallelSearch() throws Exception {
+        File dir = LessFiles.createTempDir();
+        ConcurrentTree tree = tree(dir);
+        try {
+            QueryEngine engine = new QueryEngine(tree);
+            List<String> expected = search(engine, null, false);
+            assertEquals(1200, expected.size());
+            assertEquals(expected, search(engine, "0", true));
+            assertEquals(expected, search(engine, "1", true));
+            List<String> unordered = search(engine, "1", false);
+            Collections.sort(unordered);
+            assertEquals(expected, unordered);
+        } finally {
+            tree.close();
+            LessFiles.deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void parallelSearchSharedPrefixes() throws Exception {
+        File dir = LessFiles.createTempDir();
+        ConcurrentTree tree = new ConcurrentTree(dir);
+        try {
+            List<String> names = new ArrayList<>(Arrays.asList("", "a", "a\uffff", "a\uffff\uffff", "ab", "b"));
+            for (int i = 0; i < 500; i++) {
+                names.add("http://www.example.com/" + i);
+            }
+            for (String name : names) {
+                DataTreeNode parent = tree.getOrCreateNode(name, null);
+                parent.getOrCreateNode("b", null).release();
+                parent.release();
+            }
+            QueryEngine engine = new QueryEngine(tree);
+            List<String> expected = search(engine, null, false);
+            assertEquals(names.size(), expected.size());
+            assertEquals(expected, search(engine, "0", true));
+            List<String> unordered = search(engine, "0", false);
+            Collections.sort(unordered);
+            List<String> sorted = new ArrayList<>(expected);
+            Collections.sort(sorted);
+            assertEquals(sorted, unordered);
+        } finally {
+            tree.close();
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
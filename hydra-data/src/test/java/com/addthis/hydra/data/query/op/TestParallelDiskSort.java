@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.query.op;
+
+import java.io.IOException;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.core.list.ListBundleFormat;
+import com.addthis.bundle.value.ValueFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestParallelDiskSort {
+
+    @Test
+    public void closeWaitsForBackgroundTasks() throws Exception {
+        Path dir = Files.createTempDirectory("dsort");
+        try {
+            ParallelDiskSort sort = new ParallelDiskSort(new String[]{"key", "value"}, new char[]{'s', 'n'},
+                                                         new char[]{'a', 'a'}, dir, 8 * 1024 * 1024, 4);
+            ListBundleFormat format = new ListBundleFormat();
+            BundleField key = format.getField("key");
+            BundleField value = format.getField("value");
+            for (int i = 0; i < 50_000; i++) {
+                Bundle row = new ListBundle(format);
+                row.setValue(key, ValueFactory.create("key-" + ((i * 7919) % 50_000)));
+                row.setValue(value, ValueFactory.create(i));
+                sort.add(row);
+            }
+            sort.close();
+            // no task may still be writing runs into the directory
+            Map<Path, Long> files = listFiles(dir);
+            Thread.sleep(200);
+            assertEquals(files, listFiles(dir));
+        } finally {
+            LessFiles.deleteDir(dir.toFile());
+        }
+    }
+
+    private static Map<Path, Long> listFiles(Path dir) throws IOException {
+        Map<Path, Long> files = new TreeMap<>();
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                files.put(path, Files.size(path));
+            }
+        }
+        return files;
+    }
+}
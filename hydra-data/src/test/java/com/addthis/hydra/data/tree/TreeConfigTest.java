@@ -37,4 +37,13 @@ public class TreeConfigTest {
         config = Configs.decodeObject(TreeConfig.class, "unevictable = false, cacheWeight = 5");
         assertNotEquals(0.0d, config.cacheWeight(), 0.001);
     }
+
+    @Test public void nodeCache() throws Exception {
+        assertEquals(TreeConfig.NodeCache.LEASE, Configs.newDefault(TreeConfig.class).nodeCache);
+        TreeConfig config = Configs.decodeObject(TreeConfig.class, "nodeCache = EPOCH");
+        assertEquals(TreeConfig.NodeCache.EPOCH, config.nodeCache);
+        // written before the node cache setting existed
+        config = Jackson.defaultMapper().readValue("{\"cacheWeight\":1.0,\"unevictable\":false}", TreeConfig.class);
+        assertEquals(TreeConfig.NodeCache.LEASE, config.nodeCache);
+    }
 }
\ No newline at end of file
@@ -19,13 +19,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.addthis.basis.test.SlowTest;
 import com.addthis.basis.util.ClosableIterator;
 
 import com.addthis.hydra.data.tree.DataTreeNode;
 import com.addthis.hydra.data.tree.TreeCommonParameters;
+import com.addthis.hydra.data.tree.TreeConfig;
 import com.addthis.hydra.store.db.CloseOperation;
 
 import org.junit.Rule;
@@ -517,4 +520,204 @@ public class TestConcurrentTree {
         tree.foregroundNodeDeletion(() -> false);
         tree.close();
     }
+
+    @Test
+    public void backgroundDeletionDrainsTrash() throws Exception {
+        File dir = tempFolder.newFolder();
+        ConcurrentTree tree = new TreeBuilder(dir).numDeletionThreads(2).multiThreadedTree();
+        ConcurrentTreeNode root = tree.getRootNode();
+        for (int i = 0; i < veryFastNumElements; i++) {
+            ConcurrentTreeNode node = tree.getOrCreateNode(root, Integer.toString(i), null);
+            ConcurrentTreeNode child = tree.getOrCreateNode(node, Integer.toString(i), null);
+            child.release();
+            node.release();
+        }
+        for (int i = 0; i < veryFastNumElements; i++) {
+            assertTrue(tree.deleteNode(root, Integer.toString(i)));
+        }
+        long deadline = System.currentTimeMillis() + 60_000;
+        while ((tree.trashBacklog() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, tree.trashBacklog());
+        assertEquals(tree.getTreeTrashNode().getCounter(), tree.getTreeTrashNode().getNodeCount());
+        tree.close(false, close);
+    }
+
+    @Test
+    public void epochNodeCacheKeepsUpdates() throws Exception {
+        File dir = tempFolder.newFolder();
+        int numNodes = 2000;
+        int updates = 20_000;
+        ConcurrentTree tree = new TreeBuilder(dir).nodeCache(TreeConfig.NodeCache.EPOCH)
+                                                  .nodeCacheSize(100).multiThreadedTree();
+        ConcurrentTreeNode root = tree.getRootNode();
+        CyclicBarrier barrier = new CyclicBarrier(fastNumThreads);
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[fastNumThreads];
+        for (int t = 0; t < fastNumThreads; t++) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    barrier.await();
+                    for (int i = 0; i < updates; i++) {
+                        tree.enterEpoch();
+                        try {
+                            ConcurrentTreeNode node = tree.getOrCreateNode(root, Integer.toString(i % numNodes), null);
+                            assertEquals(0, node.getLeaseCount());
+                            node.incrementCounter();
+                            node.markChanged();
+                            ConcurrentTreeNode other = tree.getNode(root, Integer.toString(random.nextInt(numNodes)),
+                                                                    true);
+                            if (other != null) {
+                                other.release();
+                            }
+                            node.release();
+                        } finally {
+                            tree.exitEpoch();
+                        }
+                    }
+                } catch (Throwable ex) {
+                    log.error("", ex);
+                    failures.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertTrue(tree.getCacheSize() < numNodes);
+        tree.close();
+
+        ConcurrentTree reopened = new TreeBuilder(dir).multiThreadedTree();
+        ConcurrentTreeNode reopenedRoot = reopened.getRootNode();
+        assertEquals(numNodes, reopenedRoot.getNodeCount());
+        for (int i = 0; i < numNodes; i++) {
+            ConcurrentTreeNode node = reopened.getNode(reopenedRoot, Integer.toString(i), true);
+            assertEquals((updates / numNodes) * fastNumThreads, node.getCounter());
+            node.release();
+        }
+        reopened.close(false, close);
+    }
+
+    @Test
+    public void epochNodeCacheTrimsOnHits() throws Exception {
+        File dir = tempFolder.newFolder();
+        int numNodes = 2000;
+        ConcurrentTree tree = new TreeBuilder(dir).nodeCache(TreeConfig.NodeCache.EPOCH)
+                                                  .nodeCacheSize(100).multiThreadedTree();
+        ConcurrentTreeNode root = tree.getRootNode();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        // an open epoch on another thread keeps every retired node in the cache
+        Thread holder = new Thread(() -> {
+            tree.enterEpoch();
+            entered.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException ignored) {
+            } finally {
+                tree.exitEpoch();
+            }
+        });
+        holder.start();
+        entered.await();
+        for (int i = 0; i < numNodes; i++) {
+            tree.enterEpoch();
+            try {
+                ConcurrentTreeNode node = tree.getOrCreateNode(root, Integer.toString(i), null);
+                node.incrementCounter();
+                node.markChanged();
+                node.release();
+            } finally {
+                tree.exitEpoch();
+            }
+        }
+        done.countDown();
+        holder.join();
+        // lookups that all hit the cache must still shrink it
+        for (int pass = 0; pass < 3; pass++) {
+            for (int i = 0; i < numNodes; i++) {
+                tree.enterEpoch();
+                try {
+                    tree.getNode(root, Integer.toString(i), true).release();
+                } finally {
+                    tree.exitEpoch();
+                }
+            }
+        }
+        assertTrue(tree.getCacheSize() <= 100);
+        tree.close();
+
+        ConcurrentTree reopened = new TreeBuilder(dir).multiThreadedTree();
+        ConcurrentTreeNode reopenedRoot = reopened.getRootNode();
+        assertEquals(numNodes, reopenedRoot.getNodeCount());
+        for (int i = 0; i < numNodes; i++) {
+            ConcurrentTreeNode node = reopened.getNode(reopenedRoot, Integer.toString(i), true);
+            assertEquals(1, node.getCounter());
+            node.release();
+        }
+        reopened.close(false, close);
+    }
+
+    @Test
+    public void epochNodeCacheRequiresLeaseOutsideEpoch() throws Exception {
+        File dir = tempFolder.newFolder();
+        ConcurrentTree tree = new TreeBuilder(dir).nodeCache(TreeConfig.NodeCache.EPOCH).multiThreadedTree();
+        ConcurrentTreeNode root = tree.getRootNode();
+        ConcurrentTreeNode node;
+        tree.enterEpoch();
+        try {
+            node = tree.getOrCreateNode(root, "a", null);
+            node.markChanged();
+            node.release();
+        } finally {
+            tree.exitEpoch();
+        }
+        try {
+            node.markChanged();
+            fail("edit without a lease outside of an epoch");
+        } catch (RuntimeException expected) {
+        }
+        tree.close(false, close);
+    }
+
+    @Test
+    public void columnarKeys() throws Exception {
+        File dir = tempFolder.newFolder();
+        TreeCommonParameters.setDefaultColumnarKeys(true);
+        try {
+            ConcurrentTree tree = new ConcurrentTree(dir);
+            ConcurrentTreeNode root = tree.getRootNode();
+            for (int i = 0; i < 1000; i++) {
+                ConcurrentTreeNode node = tree.getOrCreateNode(root, String.format("%04d", i), null);
+                node.incrementCounter();
+                node.markChanged();
+                node.release();
+            }
+            tree.close();
+            ConcurrentTree reopened = new ConcurrentTree(dir);
+            ConcurrentTreeNode reopenedRoot = reopened.getRootNode();
+            assertEquals(1000, reopenedRoot.getNodeCount());
+            int count = 0;
+            ClosableIterator<DataTreeNode> iter = reopenedRoot.getIterator("05");
+            try {
+                while (iter.hasNext()) {
+                    DataTreeNode node = iter.next();
+                    assertEquals(String.format("%04d", 500 + count), node.getName());
+                    assertEquals(1, node.getCounter());
+                    count++;
+                }
+            } finally {
+                iter.close();
+            }
+            assertEquals(100, count);
+            reopened.close();
+        } finally {
+            TreeCommonParameters.setDefaultColumnarKeys(false);
+        }
+    }
 }
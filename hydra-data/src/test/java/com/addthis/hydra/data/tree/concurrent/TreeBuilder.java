@@ -16,6 +16,7 @@ package com.addthis.hydra.data.tree.concurrent;
 import java.io.File;
 
 import com.addthis.hydra.data.tree.TreeCommonParameters;
+import com.addthis.hydra.data.tree.TreeConfig;
 import com.addthis.hydra.data.tree.nonconcurrent.NonConcurrentTree;
 import com.addthis.hydra.store.common.PageFactory;
 import com.addthis.hydra.store.nonconcurrent.NonConcurrentPage;
@@ -34,6 +35,7 @@ public class TreeBuilder {
     protected PageFactory concurrentPageFactory = ConcurrentPage.ConcurrentPageFactory.singleton;
     protected PageFactory nonConcurrentPageFactory = NonConcurrentPage.NonConcurrentPageFactory.singleton;
     protected PageFactory pageFactory;
+    protected TreeConfig.NodeCache nodeCache = TreeConfig.NodeCache.LEASE;
 
     public TreeBuilder(File root) {
         this.root = root;
@@ -59,6 +61,11 @@ public class TreeBuilder {
         return this;
     }
 
+    public TreeBuilder nodeCache(TreeConfig.NodeCache val) {
+        nodeCache = val;
+        return this;
+    }
+
     public TreeBuilder pageFactory(PageFactory factory) {
         pageFactory = factory;
         return this;
@@ -67,7 +74,7 @@ public class TreeBuilder {
     public ConcurrentTree multiThreadedTree() throws Exception {
         pageFactory = concurrentPageFactory;
         return new ConcurrentTree(root, numDeletionThreads, cleanQSize,
-                                  maxCache, maxPageSize, pageFactory);
+                                  maxCache, maxPageSize, pageFactory, nodeCache);
     }
 
     public NonConcurrentTree singleThreadedTree() throws Exception {
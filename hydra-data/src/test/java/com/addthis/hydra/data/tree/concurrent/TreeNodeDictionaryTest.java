@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.concurrent;
+
+import java.io.File;
+
+import java.util.ArrayList;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.data.tree.prop.DataTime;
+import com.addthis.hydra.store.common.AbstractPage;
+import com.addthis.hydra.store.common.AbstractPageCache;
+import com.addthis.hydra.store.common.Page;
+import com.addthis.hydra.store.db.DBKey;
+import com.addthis.hydra.store.db.PageDB;
+import com.addthis.hydra.store.kv.PageEncodeType;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TreeNodeDictionaryTest {
+
+    private static ConcurrentTreeNode node(long hits) {
+        ConcurrentTreeNode node = new ConcurrentTreeNode();
+        node.setCounter(hits);
+        DataTime time = new DataTime();
+        time.setFirst(hits);
+        time.setLast(hits + 1000);
+        node.createMap().put("time", time);
+        return node;
+    }
+
+    private static void assertNode(long hits, ConcurrentTreeNode node) {
+        assertEquals(hits, node.getCounter());
+        DataTime time = (DataTime) node.getDataMap().get("time");
+        assertNotNull(time);
+        assertEquals(hits, time.getValue("first").asLong().getLong());
+        assertEquals(hits + 1000, time.getValue("last").asLong().getLong());
+    }
+
+    @Test
+    public void pageRoundTrip() throws Exception {
+        File dir = LessFiles.createTempDir();
+        PageDB<ConcurrentTreeNode> db = new PageDB.Builder<>(dir, ConcurrentTreeNode.class, 100, 0).build();
+        ByteBufOutputStream out = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+        try {
+            @SuppressWarnings("unchecked")
+            AbstractPageCache<DBKey, ConcurrentTreeNode> cache =
+                    (AbstractPageCache<DBKey, ConcurrentTreeNode>) db.getEps();
+            int entries = 50;
+            ArrayList<DBKey> keys = new ArrayList<>(entries);
+            ArrayList<ConcurrentTreeNode> values = new ArrayList<>(entries);
+            ArrayList<byte[]> rawValues = new ArrayList<>(entries);
+            for (int i = 0; i < entries; i++) {
+                keys.add(new DBKey(2, String.format("child-%08d", i)));
+                values.add(node(i));
+                rawValues.add(null);
+            }
+            AbstractPage<DBKey, ConcurrentTreeNode> page = (AbstractPage<DBKey, ConcurrentTreeNode>)
+                    cache.pageFactory.generateSiblingPage(cache, keys.get(0), null, entries, keys, values,
+                                                          rawValues, PageEncodeType.DICTIONARY);
+            byte[] dictionaryPage = page.encode(out, false, PageEncodeType.DICTIONARY);
+            byte[] longIdsPage = page.encode(out, false, PageEncodeType.LONGIDS);
+            assertTrue(dictionaryPage.length < longIdsPage.length);
+
+            AbstractPage<DBKey, ConcurrentTreeNode> decoded = (AbstractPage<DBKey, ConcurrentTreeNode>)
+                    cache.pageFactory.generateEmptyPage(cache, keys.get(0), null);
+            decoded.decode(dictionaryPage);
+            assertEquals(PageEncodeType.DICTIONARY, decoded.getEncodeType());
+            assertEquals(1, decoded.getDictionary().size());
+            // reuse the raw values of the decoded page and encode one new value with its dictionary
+            decoded.values().set(0, node(1000));
+            decoded.rawValues().set(0, null);
+            byte[] reencoded = decoded.encode(out, false, PageEncodeType.DICTIONARY);
+
+            Page<DBKey, ConcurrentTreeNode> again = cache.pageFactory.generateEmptyPage(cache, keys.get(0), null);
+            again.decode(reencoded);
+            again.fetchValue(0);
+            assertNode(1000, again.values().get(0));
+            for (int i = 1; i < entries; i++) {
+                again.fetchValue(i);
+                assertNode(i, again.values().get(i));
+            }
+
+            // pages written before the dictionary encoding still decode
+            Page<DBKey, ConcurrentTreeNode> legacy = cache.pageFactory.generateEmptyPage(cache, keys.get(0), null);
+            legacy.decode(longIdsPage);
+            assertEquals(PageEncodeType.LONGIDS, legacy.getEncodeType());
+            assertNull(legacy.getDictionary());
+            for (int i = 0; i < entries; i++) {
+                legacy.fetchValue(i);
+                assertNode(i, legacy.values().get(i));
+            }
+        } finally {
+            out.buffer().release();
+            db.close();
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
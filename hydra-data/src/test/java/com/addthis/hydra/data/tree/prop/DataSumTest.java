@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.data.tree.prop;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.util.AutoField;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.codec.config.Configs;
+import com.addthis.hydra.data.tree.DataTreeNodeUpdater;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DataSumTest {
+
+    private static DataTreeNodeUpdater generateUpdater(Bundle bundle, int count) {
+        return new DataTreeNodeUpdater() {
+            @Override public Bundle getBundle() {
+                return bundle;
+            }
+
+            @Override public int getCountValue() {
+                return count;
+            }
+
+            @Override public long getAssignmentValue() {
+                return 0;
+            }
+        };
+    }
+
+    private static void assertCombineMatchesUpdates(String config, Bundle bundle) throws Exception {
+        DataSum.Config conf = Configs.decodeObject(DataSum.Config.class, config);
+        DataSum updated = conf.newInstance();
+        for (int i = 0; i < 4; i++) {
+            updated.updateChildData(generateUpdater(bundle, 1), null, conf);
+        }
+        DataSum combined = conf.newInstance();
+        combined.combineChildData(generateUpdater(bundle, 4), null, conf, 4);
+        assertEquals(updated.getValue("sum"), combined.getValue("sum"));
+        assertEquals(updated.getValue("num"), combined.getValue("num"));
+    }
+
+    @Test
+    public void combineValue() throws Exception {
+        assertCombineMatchesUpdates("value: 3", new ListBundle());
+    }
+
+    @Test
+    public void combineKey() throws Exception {
+        Bundle bundle = new ListBundle();
+        AutoField.newAutoField("foo").setValue(bundle, ValueFactory.create("7"));
+        assertCombineMatchesUpdates("key: foo", bundle);
+    }
+}
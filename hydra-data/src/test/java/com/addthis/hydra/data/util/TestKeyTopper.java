@@ -13,6 +13,9 @@
  */
 package com.addthis.hydra.data.util;
 
+import java.util.Map;
+import java.util.Random;
+
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -195,4 +198,29 @@ public class TestKeyTopper {
         assertEquals(new Long(3), topper.get(Integer.toString(101)));
     }
 
+    @Test
+    public void minimumAfterDecode() {
+        Random random = new Random(7);
+        KeyTopper topper = new KeyTopper();
+        topper.init().setLossy(true);
+        for (int i = 0; i < 5000; i++) {
+            if (i == 2500) {
+                byte[] serialized = topper.bytesEncode(0);
+                topper = new KeyTopper().setLossy(true);
+                topper.bytesDecode(serialized, 0);
+            }
+            String key = Integer.toString(random.nextInt(200));
+            String evicted = topper.increment(key, 1 + random.nextInt(3), 50);
+            if (evicted != null) {
+                assertNull(topper.get(evicted));
+                long min = Long.MAX_VALUE;
+                for (Map.Entry<String, Long> entry : topper.getSortedEntries()) {
+                    min = Math.min(min, entry.getValue());
+                }
+                assertEquals(min, topper.getMinVal());
+                assertEquals(new Long(min), topper.get(topper.getMinKey()));
+            }
+        }
+        assertEquals(50, topper.size());
+    }
 }
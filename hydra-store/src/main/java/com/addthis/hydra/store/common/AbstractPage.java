@@ -4,49 +4,38 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 
 import java.util.ArrayList;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.zip.GZIPInputStream;
 
-import com.addthis.basis.io.GZOut;
 import com.addthis.basis.util.MemoryCounter;
 import com.addthis.basis.util.Parameter;
 import com.addthis.basis.util.Varint;
 
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.compress.PageCodec;
 import com.addthis.hydra.store.kv.KeyCoder;
+import com.addthis.hydra.store.kv.PageDictionary;
 import com.addthis.hydra.store.kv.PageEncodeType;
 import com.addthis.hydra.store.skiplist.LockMode;
 import com.addthis.hydra.store.skiplist.SkipListCache;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 
-import com.jcraft.jzlib.Deflater;
-import com.jcraft.jzlib.DeflaterOutputStream;
-import com.jcraft.jzlib.InflaterInputStream;
-import com.ning.compress.lzf.LZFInputStream;
-import com.ning.compress.lzf.LZFOutputStream;
 import com.yammer.metrics.core.Histogram;
 
-import org.xerial.snappy.SnappyInputStream;
-import org.xerial.snappy.SnappyOutputStream;
-
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.Unpooled;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K, V> {
 
-    public static final int gzlevel = Parameter.intValue("eps.gz.level", 1);
-    public static final int gztype = Parameter.intValue("eps.gz.type", 1);
-    public static final int gzbuf = Parameter.intValue("eps.gz.buffer", 1024);
     public static final int estimateMissingFactor = Parameter.intValue("eps.mem.estimate.missing.factor", 8);
     public static final int memEstimationStrategy = Parameter.intValue("eps.mem.estimate.method", 1);
     public static final int estimateRollMin = Parameter.intValue("eps.mem.estimate.roll.min", 1000);
@@ -83,6 +72,16 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
 
     private PageEncodeType encodeType;
 
+    /**
+     * Non-null if and only if {@link #encodeType} is {@link PageEncodeType#DICTIONARY}.
+     * The raw values of the page refer to entries of this dictionary.
+     */
+    @Nullable
+    private volatile PageDictionary dictionary;
+
+    @Nullable
+    private PageCodec codec;
+
     public static final int ESTIMATES_BIT_OFFSET = 4;
     public static final int TYPE_BIT_OFFSET = 5;
     public static final int FLAGS_HAS_ESTIMATES = 1 << ESTIMATES_BIT_OFFSET;
@@ -115,9 +114,15 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         this.timeStamp = AbstractPageCache.generateTimestamp();
         this.state = ExternalMode.DISK_MEMORY_IDENTICAL;
         this.encodeType = encodeType;
+        this.dictionary = newDictionary(encodeType);
         this.lock = initLock();
     }
 
+    @Nullable
+    private static PageDictionary newDictionary(PageEncodeType encodeType) {
+        return (encodeType == PageEncodeType.DICTIONARY) ? new PageDictionary() : null;
+    }
+
     public ReentrantReadWriteLock initLock() {
         // default implementation does nothing, subclasses may override
         return null;
@@ -146,6 +151,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         this.timeStamp = AbstractPageCache.generateTimestamp();
         this.state = ExternalMode.DISK_MEMORY_IDENTICAL;
         this.encodeType = encodeType;
+        this.dictionary = newDictionary(encodeType);
         this.lock = initLock();
     }
 
@@ -173,10 +179,10 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
     public void modeLock(LockMode mode) {
         switch (mode) {
             case READMODE:
-                lock.readLock().lock();
+                readLock();
                 break;
             case WRITEMODE:
-                lock.writeLock().lock();
+                writeLock();
                 break;
         }
     }
@@ -206,12 +212,36 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         return lock.getReadHoldCount() > 0;
     }
 
+    @Override
+    public long tryOptimisticRead() {
+        // default implementation does not support optimistic reads, subclasses may override
+        return 0;
+    }
+
+    @Override
+    public boolean validate(long stamp) {
+        return false;
+    }
+
+    @Override
+    public ArrayList<K> newKeyList(int capacity) {
+        // default implementation stores key objects, subclasses may override
+        return new ArrayList<>(capacity);
+    }
+
+    /**
+     * Estimated heap usage of a key once it is stored in this page.
+     */
+    protected long estimateKeySize(K key) {
+        return MemoryCounter.estimateSize(key);
+    }
+
     /**
      * Generate a blank page.
      */
     @Override
     public void initialize() {
-        keys = new ArrayList<>();
+        keys = newKeyList(10);
         values = new ArrayList<>();
         rawValues = new ArrayList<>();
         size = 0;
@@ -235,29 +265,32 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
     }
 
     public byte[] encode(ByteBufOutputStream out, boolean record) {
+        return encode(out, record, PageEncodeType.defaultType());
+    }
+
+    /**
+     * Encode the page using an explicit page encoding. Pages in a live cache are
+     * always written with {@link PageEncodeType#defaultType()}. Older encodings can be
+     * generated here to measure and verify the decode paths that still read them.
+     * {@link PageEncodeType#LEGACY} pages cannot be written.
+     */
+    @VisibleForTesting
+    public byte[] encode(ByteBufOutputStream out, boolean record, PageEncodeType upgradeType) {
+        checkArgument(upgradeType != PageEncodeType.LEGACY, "legacy pages are read-only");
         PageCacheMetrics<K, V> metrics = parent.metrics;
         parent.numPagesEncoded.getAndIncrement();
-        PageEncodeType upgradeType = PageEncodeType.defaultType();
+        long start = System.nanoTime();
         try {
-            OutputStream os = out;
-            out.write(gztype | FLAGS_HAS_ESTIMATES | (upgradeType.ordinal() << TYPE_BIT_OFFSET));
-            switch (gztype) {
-                case 0:
-                    break;
-                case 1:
-                    os = new DeflaterOutputStream(out, new Deflater(gzlevel));
-                    break;
-                case 2:
-                    os = new GZOut(out, gzbuf, gzlevel);
-                    break;
-                case 3:
-                    os = new LZFOutputStream(out);
-                    break;
-                case 4:
-                    os = new SnappyOutputStream(out);
-                    break;
-                default:
-                    throw new RuntimeException("invalid gztype: " + gztype);
+            PageCodec pageCodec = parent.pageCodec;
+            out.write(pageCodec.id() | FLAGS_HAS_ESTIMATES | (upgradeType.ordinal() << TYPE_BIT_OFFSET));
+            OutputStream os = pageCodec.encoder(out);
+            /**
+             * Raw values are only reused when the encoding is unchanged, in which case
+             * they refer to the existing dictionary and new values are added to it.
+             */
+            PageDictionary pageDictionary = null;
+            if (upgradeType == PageEncodeType.DICTIONARY) {
+                pageDictionary = (encodeType == upgradeType) ? dictionary : new PageDictionary();
             }
 
             DataOutputStream dos = new DataOutputStream(os);
@@ -279,7 +312,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
 
                 if (rawVal == null || upgradeType != encodeType) {
                     fetchValue(i);
-                    rawVal = keyCoder.valueEncode(values.get(i), upgradeType);
+                    rawVal = keyCoder.valueEncode(values.get(i), upgradeType, pageDictionary);
                 }
 
                 updateHistogram(metrics.encodeKeySize, keyEncoded.length, record);
@@ -293,16 +326,12 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
 
             Varint.writeUnsignedVarInt((estimateTotal > 0 ? estimateTotal : 1), dos);
             Varint.writeUnsignedVarInt((estimates > 0 ? estimates : 1), dos);
-            switch (gztype) {
-                case 1:
-                    ((DeflaterOutputStream) os).finish();
-                    break;
-                case 2:
-                    ((GZOut) os).finish();
-                    break;
+            if (pageDictionary != null) {
+                pageDictionary.write(dos);
             }
-            os.flush(); // flush should be called by dos.close(), but better safe than sorry
+            // closing the codec stream writes any buffered output
             dos.close();
+            codec = pageCodec;
 
             ByteBuf buffer = out.buffer();
 
@@ -312,6 +341,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
             buffer.clear();
             updateHistogram(metrics.numberKeysPerPage, size, record);
             updateHistogram(metrics.encodePageSize, returnValue.length, record);
+            metrics.pageEncoded(start);
             return returnValue;
         } catch (Exception ex) {
             throw Throwables.propagate(ex);
@@ -320,96 +350,83 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
 
 
     public void decode(byte[] page) {
-        parent.numPagesDecoded.getAndIncrement();
         ByteBuf buffer = Unpooled.wrappedBuffer(page);
         try {
-            InputStream in = new ByteBufInputStream(buffer);
-            int flags = in.read() & 0xff;
-            int gztype = flags & 0x0f;
+            decode(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Decode the page from the readable bytes of {@code page}. Keys and raw
+     * values are read straight out of the decompressed contents. The buffer
+     * is not released.
+     */
+    @Override
+    public void decode(ByteBuf page) {
+        parent.numPagesDecoded.getAndIncrement();
+        long start = System.nanoTime();
+        try {
+            int flags = page.readUnsignedByte();
+            PageCodec pageCodec = parent.codecForId(flags & 0x0f);
             int pageType = flags >>> TYPE_BIT_OFFSET;
             boolean hasEstimates = (flags & FLAGS_HAS_ESTIMATES) != 0;
-            switch (gztype) {
-                case 1:
-                    in = new InflaterInputStream(in);
-                    break;
-                case 2:
-                    in = new GZIPInputStream(in);
-                    break;
-                case 3:
-                    in = new LZFInputStream(in);
-                    break;
-                case 4:
-                    in = new SnappyInputStream(in);
-                    break;
-            }
-            DataInputStream dis = null;
-            switch (pageType) {
-                case 0:
-                    encodeType = PageEncodeType.LEGACY;
-                    break;
-                case 1:
-                    encodeType = PageEncodeType.SPARSE;
-                    dis = new DataInputStream(in);
-                    break;
-                case 2:
-                    encodeType = PageEncodeType.LONGIDS;
-                    dis = new DataInputStream(in);
-                    break;
+            encodeType = PageEncodeType.fromOrdinal(pageType);
+            ByteBuf contents = pageCodec.decompress(page);
+            try {
+                decodeKeysAndValues(encodeType, contents, hasEstimates);
+            } finally {
+                contents.release();
             }
-            decodeKeysAndValues(encodeType, in, dis, hasEstimates);
-            in.close();
+            codec = pageCodec;
+            parent.metrics.pageDecoded(start);
         } catch (Exception ex) {
             throw Throwables.propagate(ex);
-        } finally {
-            buffer.release();
         }
     }
 
-    /**
-     * @param encodeType
-     * @param in
-     * @param dis
-     * @param hasEstimates
-     * @throws IOException
-     */
-    private void decodeKeysAndValues(PageEncodeType encodeType, InputStream in,
-                                     DataInputStream dis, boolean hasEstimates) throws IOException {
+    private void decodeKeysAndValues(PageEncodeType encodeType, ByteBuf in,
+                                     boolean hasEstimates) throws IOException {
         K firstKey;
         byte[] nextFirstKeyBytes;
         int readEstimateTotal;
         int readEstimates;
-        int entries = encodeType.readInt(in, dis);
+        int entries = encodeType.readInt(in);
 
-        firstKey = keyCoder.keyDecode(encodeType.readBytes(in, dis));
-        nextFirstKeyBytes = encodeType.nextFirstKey(in, dis);
+        firstKey = keyCoder.keyDecode(encodeType.readBytes(in));
+        nextFirstKeyBytes = encodeType.nextFirstKey(in);
         nextFirstKey = keyCoder.keyDecode(nextFirstKeyBytes);
         assert (this.firstKey.equals(firstKey));
 
         int bytes = 0;
 
         size = entries;
-        keys = new ArrayList<>(size);
+        keys = newKeyList(size);
         values = new ArrayList<>(size);
         rawValues = new ArrayList<>(size);
 
         for (int i = 0; i < entries; i++) {
-            byte[] kb = encodeType.readBytes(in, dis);
-            byte[] vb = encodeType.readBytes(in, dis);
-            bytes += kb.length + vb.length;
-            keys.add(keyCoder.keyDecode(kb, firstKey, encodeType));
+            int keyLength = encodeType.readInt(in);
+            keys.add(keyCoder.keyDecode(in, keyLength, firstKey, encodeType));
+            byte[] vb = encodeType.readBytes(in);
+            bytes += keyLength + vb.length;
             values.add(null);
             rawValues.add(vb);
         }
 
         if (hasEstimates) {
-            readEstimateTotal = encodeType.readInt(in, dis);
-            readEstimates = encodeType.readInt(in, dis);
+            readEstimateTotal = encodeType.readInt(in);
+            readEstimates = encodeType.readInt(in);
             setAverage(readEstimateTotal, readEstimates);
         } else {
             /** use a pessimistic/conservative byte/entry estimate */
             setAverage(bytes * estimateMissingFactor, entries);
         }
 
+        /** the dictionary follows the estimates, which are always present on dictionary pages */
+        dictionary = (encodeType == PageEncodeType.DICTIONARY) ? PageDictionary.read(in) : null;
+
         updateMemoryEstimate();
     }
 
@@ -441,7 +458,7 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
                     break;
                 case 1:
                     /** walk objects and estimate.  possibly slower and not demonstrably more accurate */
-                    updateAverage((int) (MemoryCounter.estimateSize(key) + MemoryCounter.estimateSize(val)), count);
+                    updateAverage((int) (estimateKeySize(key) + MemoryCounter.estimateSize(val)), count);
                     break;
                 default:
                     throw new IllegalStateException("invalid sample strategy: " + memEstimationStrategy);
@@ -507,10 +524,18 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         V value = values.get(position);
         byte[] rawValue = rawValues.get(position);
         if (value == null) {
-            values.set(position, keyCoder.valueDecode(rawValue, encodeType));
+            publishValue(position, keyCoder.valueDecode(rawValue, encodeType, dictionary));
         }
     }
 
+    /**
+     * Store a value that was decoded by {@link #fetchValue(int)}. This may be
+     * called with only the read lock held.
+     */
+    protected void publishValue(int position, V value) {
+        values.set(position, value);
+    }
+
     public boolean splitCondition() {
         if (size == 1) {
             return false;
@@ -611,6 +636,23 @@ public abstract class AbstractPage<K, V extends BytesCodable> implements Page<K,
         return encodeType;
     }
 
+    @Override
+    @Nullable
+    public PageDictionary getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public void setDictionary(@Nullable PageDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    @Nullable
+    public PageCodec getCodec() {
+        return codec;
+    }
+
     @Override
     public ExternalMode getState() {
         return state;
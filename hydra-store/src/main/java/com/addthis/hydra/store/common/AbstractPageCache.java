@@ -3,6 +3,8 @@ package com.addthis.hydra.store.common;
 import com.addthis.basis.util.MemoryCounter;
 import com.addthis.basis.util.Parameter;
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.compress.PageCodec;
+import com.addthis.hydra.store.compress.PageCodecs;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.KeyCoder;
 import com.addthis.hydra.store.kv.PageEncodeType;
@@ -15,18 +17,26 @@ import io.netty.buffer.PooledByteBufAllocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -51,6 +61,31 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     public static final int defaultMaxPageEntries = Parameter.intValue("eps.cache.page.entries", 50);
     public static final int expirationDelta = Parameter.intValue("cache.expire.delta", 1000);
     public static final boolean trackEncodingByteUsage = Parameter.boolValue("eps.cache.track.encoding", false);
+    /**
+     * Rewrite pages that were read with a codec other than {@link #pageCodec}
+     * the next time they are evicted.
+     */
+    public static final boolean reencodePages = Parameter.boolValue("eps.cache.reencode", true);
+    /**
+     * Dirty pages evicted from the cache are written to the external store in
+     * batches of up to this many pages or {@link #writeBatchBytes} encoded bytes.
+     * A value of 1 writes every page as it is evicted.
+     */
+    public static final int writeBatchPages = Parameter.intValue("eps.cache.batch.pages", 32);
+    public static final int writeBatchBytes = Parameter.intValue("eps.cache.batch.bytes", 4 * 1024 * 1024);
+    /**
+     * Number of threads used by {@link #pushAllPagesToDisk} to encode and compress
+     * pages. Pages are still written to the external store in key order.
+     * The default of 1 encodes every page on the calling thread. Caches that do
+     * not lock their pages always flush on the calling thread.
+     */
+    public static final int flushThreads = Parameter.intValue("eps.cache.flush.threads", 1);
+    /**
+     * Drop the pages that lie entirely inside the range of a {@link #removeValues}
+     * call without reading them from the external store.
+     */
+    public static final boolean dropCoveredPages = Parameter.boolValue("eps.cache.remove.drop", true);
+    private static final long flushProgressInterval = Parameter.longValue("eps.cache.flush.progress", 10000);
 
     public final AtomicLong memoryEstimate = new AtomicLong();
     public final KeyCoder<K, V> keyCoder;
@@ -58,15 +93,29 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     public final AtomicInteger cacheSize = new AtomicInteger();
     public final AtomicInteger numPagesInMemory = new AtomicInteger();
     public final AtomicLong numPagesDeleted = new AtomicLong();
+    public final AtomicLong numPagesDropped = new AtomicLong();
     public final AtomicLong numPagesEncoded = new AtomicLong();
     public final AtomicLong numPagesDecoded = new AtomicLong();
     public final AtomicLong numPagesSplit = new AtomicLong();
+    public final AtomicLong numBatchesWritten = new AtomicLong();
 
     private final ConcurrentSkipListMap<K, Page<K, V>> cache;
     private final BlockingQueue<Page<K, V>> evictionQueue;
 
     protected final ByteStore externalStore;
 
+    /**
+     * Dirty pages that have been encoded for eviction but not yet written to the
+     * external store, sorted by first key. A pending page keeps its contents in
+     * memory until the batch is written so it is never read back from the external
+     * store in the meantime.
+     */
+    @GuardedBy("pendingWrites")
+    private final TreeMap<K, PendingWrite<K, V>> pendingWrites;
+
+    @GuardedBy("pendingWrites")
+    private long pendingBytes;
+
     public final AtomicBoolean shutdownGuard;
     public final AtomicBoolean shutdownEvictionThreads;
 
@@ -76,7 +125,19 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
 
     public final PageFactory<K, V> pageFactory;
 
-    public final PageCacheMetrics<K, V> metrics = new PageCacheMetrics<>(this);
+    /**
+     * Codec used to write pages.
+     */
+    public final PageCodec pageCodec;
+
+    /**
+     * Codec holding the dictionary of this database, if one has been trained.
+     * Used to read pages regardless of the codec they are written with.
+     */
+    @Nullable
+    public final PageCodec dictionaryCodec;
+
+    public final PageCacheMetrics<K, V> metrics;
 
     public final AtomicLong estimateCounter = new AtomicLong();
 
@@ -99,6 +160,19 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
 
     private final boolean useLocks;
 
+    /**
+     * Encodes pages for {@link #pushAllPagesToDisk}. Created on the first
+     * parallel flush and shut down with the external store.
+     */
+    @GuardedBy("this")
+    private ForkJoinPool flushPool;
+
+    /**
+     * True if point lookups first try to read the page without locking it.
+     * See {@link #optimisticGet(Object)}.
+     */
+    private final boolean optimisticReads;
+
     private long softTotalMem;
     private long maxTotalMem;
     private long maxPageMem;
@@ -111,6 +185,8 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     protected static <K> int binarySearch(ArrayList<K> arrayList, K key, Comparator comparator) {
         if (comparator != null) {
             return Collections.binarySearch(arrayList, key, comparator);
+        } else if (arrayList instanceof SearchableKeyList) {
+            return ((SearchableKeyList<K>) arrayList).binarySearch(key);
         } else {
             return Collections.binarySearch((ArrayList<Comparable<K>>) arrayList, key);
         }
@@ -137,6 +213,19 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         return evictionQueue;
     }
 
+    private static final class PendingWrite<K, V extends BytesCodable> {
+
+        final Page<K, V> page;
+        final byte[] encodeKey;
+        final byte[] encodePage;
+
+        PendingWrite(Page<K, V> page, byte[] encodeKey, byte[] encodePage) {
+            this.page = page;
+            this.encodeKey = encodeKey;
+            this.encodePage = encodePage;
+        }
+    }
+
     protected enum EvictionStatus {
         // did not attempt eviction
         NO_STATUS,
@@ -184,13 +273,37 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     public AbstractPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore,
                              PageFactory<K, V> pageFactory, int maxPageSize, int maxPages,
                              boolean useLocks) {
+        this(keyCoder, externalStore, pageFactory, PageCodecs.defaultCodec(), null,
+             maxPageSize, maxPages, useLocks);
+    }
+
+    public AbstractPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore,
+                             PageFactory<K, V> pageFactory, PageCodec pageCodec,
+                             @Nullable PageCodec dictionaryCodec, int maxPageSize, int maxPages,
+                             boolean useLocks) {
+        this(keyCoder, externalStore, pageFactory, pageCodec, dictionaryCodec, maxPageSize, maxPages,
+             useLocks, null);
+    }
+
+    /**
+     * @param metricsScope if non-null then it is prepended to the scope of the
+     *                     metrics of this cache, for example to tag them with a job and task
+     */
+    public AbstractPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore,
+                             PageFactory<K, V> pageFactory, PageCodec pageCodec,
+                             @Nullable PageCodec dictionaryCodec, int maxPageSize, int maxPages,
+                             boolean useLocks, @Nullable String metricsScope) {
         if (externalStore == null) {
             throw new NullPointerException("externalStore must be non-null");
         }
         this.keyCoder = keyCoder;
-        scope = this.getClass().getSimpleName() + Integer.toString(scopeGenerator.getAndIncrement());
+        scope = ((metricsScope != null) ? (metricsScope + ".") : "") +
+                this.getClass().getSimpleName() + Integer.toString(scopeGenerator.getAndIncrement());
+        this.metrics = new PageCacheMetrics<>(this);
         this.mem_page = (int) MemoryCounter.estimateSize(pageFactory.measureMemoryEmptyPage(PageEncodeType.defaultType()));
         this.pageFactory = pageFactory;
+        this.pageCodec = pageCodec;
+        this.dictionaryCodec = dictionaryCodec;
 
         this.negInf = keyCoder.negInfinity();
         this.cache = new ConcurrentSkipListMap<>();
@@ -199,10 +312,12 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         this.maxPages = maxPages;
         this.shutdownGuard = new AtomicBoolean(false);
         this.evictionQueue = new LinkedBlockingQueue<>();
+        this.pendingWrites = new TreeMap<>();
         this.comparator = null;
         // if we are using locks then we will have eviction threads that need to be shutdown
         this.shutdownEvictionThreads = new AtomicBoolean(useLocks);
         this.useLocks = useLocks;
+        this.optimisticReads = useLocks && (pageFactory.getType() == PageFactory.TYPE.OPTIMISTIC);
         loadFromExternalStore();
 
     }
@@ -259,6 +374,12 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
      * @param cleanLog if true then wait for the BerkeleyDB clean thread to finish.
      **/
     protected void closeExternalStore(boolean cleanLog) {
+        synchronized (this) {
+            if (flushPool != null) {
+                flushPool.shutdown();
+                flushPool = null;
+            }
+        }
         externalStore.close(cleanLog);
     }
 
@@ -335,7 +456,18 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     }
 
 
-    protected void pushPageToDisk(Page<K, V> current, ByteBufOutputStream byteStream) {
+    /**
+     * Write a dirty page to the external store and release its contents.
+     * Unless batching is disabled the encoded page is queued with
+     * {@link #addPendingWrite} and its contents are released once the batch is written.
+     *
+     * @return true if the contents of the page have been released
+     */
+    protected boolean pushPageToDisk(Page<K, V> current, ByteBufOutputStream byteStream) {
+        return pushPageToDisk(current, byteStream, writeBatchPages > 1);
+    }
+
+    private boolean pushPageToDisk(Page<K, V> current, ByteBufOutputStream byteStream, boolean batch) {
 
         assert isWriteLockedByCurrentThread(current);
         assert (!current.inTransientState());
@@ -347,11 +479,24 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
             byte[] encodeKey = keyCoder.keyEncode(current.getFirstKey());
             byte[] encodePage = current.encode(byteStream);
 
-            externalStore.put(encodeKey, encodePage);
-
             current.setState(ExternalMode.DISK_MEMORY_IDENTICAL);
+
+            if (batch) {
+                addPendingWrite(current, encodeKey, encodePage);
+                return false;
+            }
+
+            externalStore.put(encodeKey, encodePage);
+        } else if (isPendingWrite(current)) {
+            // the page is already waiting on a batch, it was queued for eviction twice
+            return false;
         }
 
+        releasePageContents(current);
+        return true;
+    }
+
+    private void releasePageContents(Page<K, V> current) {
         updateMemoryEstimate(-current.getMemoryEstimate());
         current.keys().clear();
         current.values().clear();
@@ -362,14 +507,169 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         numPagesInMemory.getAndDecrement();
     }
 
+    private void addPendingWrite(Page<K, V> page, byte[] encodeKey, byte[] encodePage) {
+        synchronized (pendingWrites) {
+            PendingWrite<K, V> prev = pendingWrites.put(page.getFirstKey(),
+                                                        new PendingWrite<>(page, encodeKey, encodePage));
+            if (prev != null) {
+                pendingBytes -= prev.encodePage.length;
+            }
+            pendingBytes += encodePage.length;
+        }
+    }
+
+    /**
+     * Pending writes are only removed while their page is write locked so this is
+     * stable for as long as the caller holds the write lock on {@code page}.
+     */
+    private boolean isPendingWrite(Page<K, V> page) {
+        synchronized (pendingWrites) {
+            PendingWrite<K, V> write = pendingWrites.get(page.getFirstKey());
+            return write != null && write.page == page;
+        }
+    }
+
+    protected boolean pendingWritesFull() {
+        synchronized (pendingWrites) {
+            return pendingWrites.size() >= writeBatchPages || pendingBytes >= writeBatchBytes;
+        }
+    }
+
+    /**
+     * Write all pending pages to the external store with a single
+     * {@link ByteStore#putBatch} and release the contents of the pages that
+     * have not been modified since they were encoded. Modified pages go back
+     * onto the eviction queue and deleted pages are dropped from the batch.
+     * <p/>
+     * The pages of the batch are write locked for the duration of the write.
+     * Pages that cannot be locked immediately, or that are locked by the
+     * calling thread, stay pending until a later flush.
+     */
+    public void flushPendingWrites() {
+        List<PendingWrite<K, V>> snapshot;
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            snapshot = new ArrayList<>(pendingWrites.values());
+        }
+        List<PendingWrite<K, V>> locked = new ArrayList<>(snapshot.size());
+        try {
+            for (PendingWrite<K, V> write : snapshot) {
+                Page<K, V> page = write.page;
+                if (useLocks && (page.isReadLockedByCurrentThread() || page.isWriteLockedByCurrentThread())) {
+                    continue;
+                }
+                if (writeTryLock(page)) {
+                    locked.add(write);
+                }
+            }
+            writePendingBatch(locked);
+        } finally {
+            for (PendingWrite<K, V> write : locked) {
+                writeUnlockAndNull(write.page);
+            }
+        }
+    }
+
+    /**
+     * Flush all pending writes and wait for the pages that are locked by other threads.
+     * The pages that could not be locked immediately are written one at a time so that
+     * the calling thread never waits for a lock while it holds another page lock. Pages
+     * that are locked by the calling thread stay pending.
+     */
+    private void drainPendingWrites() {
+        flushPendingWrites();
+        List<PendingWrite<K, V>> snapshot;
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            snapshot = new ArrayList<>(pendingWrites.values());
+        }
+        for (PendingWrite<K, V> write : snapshot) {
+            Page<K, V> page = write.page;
+            if (useLocks && (page.isReadLockedByCurrentThread() || page.isWriteLockedByCurrentThread())) {
+                continue;
+            }
+            writeLock(page);
+            try {
+                writePendingBatch(Collections.singletonList(write));
+            } finally {
+                writeUnlockAndNull(page);
+            }
+        }
+    }
+
+    /**
+     * Write the pending writes of pages that are write locked by the calling thread.
+     */
+    private void writePendingBatch(List<PendingWrite<K, V>> locked) {
+        // a page may have been encoded again, or flushed by another thread,
+        // before we acquired its lock
+        List<PendingWrite<K, V>> batch = new ArrayList<>(locked.size());
+        synchronized (pendingWrites) {
+            for (PendingWrite<K, V> write : locked) {
+                PendingWrite<K, V> current = pendingWrites.get(write.page.getFirstKey());
+                if (current != null && current.page == write.page) {
+                    pendingWrites.remove(write.page.getFirstKey());
+                    pendingBytes -= current.encodePage.length;
+                    batch.add(current);
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>(batch.size());
+        for (PendingWrite<K, V> write : batch) {
+            if (write.page.getState() != ExternalMode.DELETED) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(write.encodeKey, write.encodePage));
+            }
+        }
+        externalStore.putBatch(entries);
+        numBatchesWritten.getAndIncrement();
+        for (PendingWrite<K, V> write : batch) {
+            Page<K, V> page = write.page;
+            if (page.getState() == ExternalMode.DISK_MEMORY_IDENTICAL && page.keys() != null) {
+                releasePageContents(page);
+                addToPurgeSet(page);
+            } else if (page.getState() == ExternalMode.DISK_MEMORY_DIRTY) {
+                getEvictionQueue().offer(page);
+            }
+        }
+    }
+
     protected void updateMemoryEstimate(int delta) {
         long est = memoryEstimate.addAndGet(delta);
         assert (est >= 0);
     }
 
+    /**
+     * Codec able to read a page written with codec {@code id}.
+     */
+    public PageCodec codecForId(int id) {
+        return PageCodecs.forId(id, dictionaryCodec);
+    }
+
+    /**
+     * Mark a page that was just read from external storage as dirty
+     * when it was written with a different codec. Trees that change
+     * codecs are migrated gradually as their pages are evicted.
+     */
+    protected void markForReencode(Page<K, V> page) {
+        // compare ids since each database may load its own instance of the dictionary codec
+        PageCodec codec = page.getCodec();
+        if (reencodePages && (codec == null || codec.id() != pageCodec.id()) && !isReadOnly()
+            && page.getState() == ExternalMode.DISK_MEMORY_IDENTICAL) {
+            page.setState(ExternalMode.DISK_MEMORY_DIRTY);
+        }
+    }
+
     protected void pullPageHelper(Page<K, V> current, byte[] page) {
         assert isWriteLockedByCurrentThread(current);
         current.decode(page);
+        markForReencode(current);
         getEvictionQueue().offer(current);
         updateMemoryEstimate(current.getMemoryEstimate());
         numPagesInMemory.getAndIncrement();
@@ -389,11 +689,12 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
             }
 
             if (current.keys() == null) {
-
+                long start = System.nanoTime();
                 byte[] encodeKey = keyCoder.keyEncode(current.getFirstKey());
                 byte[] page = externalStore.get(encodeKey);
 
                 pullPageHelper(current, page);
+                metrics.pageMiss(start);
             }
         } finally {
             if (mode == LockMode.READMODE) {
@@ -423,11 +724,19 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
 
     public void fixedNumberEviction(int numEvictions) {
         ByteBufOutputStream byteStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+        int evicted = 0;
         try {
             for (int i = 0; i < numEvictions; i++) {
-                doEvictPage(byteStream);
+                if (doEvictPage(byteStream)) {
+                    evicted++;
+                }
+                if (pendingWritesFull()) {
+                    flushPendingWrites();
+                }
             }
+            flushPendingWrites();
         } finally {
+            metrics.pagesEvicted(evicted, false);
             byteStream.buffer().release();
         }
     }
@@ -460,9 +769,9 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
                 return EvictionStatus.EVICTED_PAGE;
             }
 
-            pushPageToDisk(page, byteStream);
-
-            addToPurgeSet(page);
+            if (pushPageToDisk(page, byteStream)) {
+                addToPurgeSet(page);
+            }
 
             return EvictionStatus.SUCCESS;
         } finally {
@@ -472,6 +781,12 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
 
     protected abstract void addToPurgeSet(Page<K, V> page);
 
+    /**
+     * Called when a page stub is removed from the cache by a thread other than the purge threads.
+     */
+    protected void removeFromPurgeSet(K key) {
+    }
+
 
 
     /**
@@ -600,13 +915,16 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         List<V> valueRange = target.values().subList(newSize, target.size());
         List<byte[]> rawValueRange = target.rawValues().subList(newSize, target.size());
 
-        ArrayList<K> sibKeys = new ArrayList<>(keyRange);
+        ArrayList<K> sibKeys = target.newKeyList(sibSize);
+        sibKeys.addAll(keyRange);
         ArrayList<V> sibValues = new ArrayList<>(valueRange);
         ArrayList<byte[]> sibRawValues = new ArrayList<>(rawValueRange);
         K sibMinKey = sibKeys.get(0);
 
         Page<K, V> sibling = pageFactory.generateSiblingPage(this,
                 sibMinKey, target.getNextFirstKey(), sibSize, sibKeys, sibValues, sibRawValues, target.getEncodeType());
+        // the raw values that moved to the sibling refer to entries of the target dictionary
+        sibling.setDictionary(target.getDictionary());
         writeLock(sibling);
 
         byte[] encodeKey;
@@ -752,6 +1070,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
 
                 if (firstKey.equals(negInf)) {
                     leftSentinel.decode(page);
+                    markForReencode(leftSentinel);
                     updateMemoryEstimate(leftSentinel.getMemoryEstimate());
                 } else {
                     byteBufOutputStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
@@ -764,6 +1083,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
 
                     Page<K, V> minPage = pageFactory.generateEmptyPage(this, firstKey, leftSentinel.getEncodeType());
                     minPage.decode(page);
+                    markForReencode(minPage);
 
                     getCache().put(firstKey, minPage);
                     updateMemoryEstimate(minPage.getMemoryEstimate());
@@ -808,6 +1128,16 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
      * and retrieve the current value.
      */
     protected V doGet(K key) {
+        if (optimisticReads) {
+            Page<K, V> page = getCache().floorEntry(key).getValue();
+            V value = optimisticGet(page, key);
+            if (value != null) {
+                metrics.optimisticReads.mark();
+                metrics.pageHit();
+                return value;
+            }
+            metrics.optimisticFallbacks.mark();
+        }
         Page<K, V> page = locatePage(key, LockMode.READMODE);
         try {
             if (page.size() == 0) {
@@ -825,6 +1155,39 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         }
     }
 
+    /**
+     * Look up a key without locking the page. Returns null if the page is not
+     * in memory, is being modified, or if the value of the key has not been
+     * decoded yet. The caller must then use the locking path, which also
+     * handles keys that are absent from the page. Any exception thrown while
+     * reading a page that is concurrently modified is treated the same way.
+     * Values that readers decode under the read lock are published through
+     * {@link AbstractPage#publishValue(int, Object)}, which must invalidate
+     * the stamp for the value to be read safely here.
+     */
+    private V optimisticGet(Page<K, V> page, K key) {
+        long stamp = page.tryOptimisticRead();
+        if (stamp == 0) {
+            return null;
+        }
+        try {
+            ArrayList<K> keys = page.keys();
+            ArrayList<V> values = page.values();
+            if (keys == null || values == null || page.inTransientState() || !page.interval(comparable(key))) {
+                return null;
+            }
+            int offset = binarySearch(keys, key, comparator);
+            V value = (offset >= 0) ? values.get(offset) : null;
+            if (value != null && page.validate(stamp)) {
+                page.setTimeStamp(generateTimestamp());
+                return value;
+            }
+        } catch (RuntimeException ignored) {
+            // torn read of a page that is being modified
+        }
+        return null;
+    }
+
     /**
      * This method locates a page either in cache or in the external storage.
      * If the page is on disk then it is loaded into memory. The target page
@@ -866,6 +1229,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         while (current.inTransientState());
 
         boolean pageLoad = false;
+        boolean resident = true;
 
         while (true) {
             K currentFirstKey = current.getFirstKey();
@@ -873,6 +1237,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
             assert (ckey.compareTo(currentFirstKey) >= 0);
 
             if (current.keys() == null) {
+                resident = false;
                 pullPageFromDisk(current, currentMode);
                 // If currentMode is LockMode.READMODE then the lock was dropped and re-acquired.
                 // We could be in a transient state.
@@ -893,6 +1258,9 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
                 }
                 if (returnPage) {
                     current.setTimeStamp(generateTimestamp());
+                    if (resident) {
+                        metrics.pageHit();
+                    }
 
                     if (currentMode == LockMode.WRITEMODE && returnMode == LockMode.READMODE) {
                         downgradeLock(current);
@@ -906,6 +1274,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
              * The key was not found in a page on memory.
              * We must load a page from external storage.
              */
+            resident = false;
             if (!current.inTransientState() && currentMode == LockMode.WRITEMODE) {
                 current = loadPage(key, current);
             } else {
@@ -997,6 +1366,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
                     return cachePage;
                 }
 
+                long start = System.nanoTime();
                 byte[] floorPageEncoded = externalStore.get(externalKeyEncoded);
 
                 if (floorPageEncoded == null) {
@@ -1005,7 +1375,7 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
                     continue;
                 }
 
-                Page<K, V> newPage = constructNewPage(current, next, externalKey, floorPageEncoded);
+                Page<K, V> newPage = constructNewPage(current, next, externalKey, floorPageEncoded, start);
                 current = null;
                 next = null;
                 return newPage;
@@ -1056,13 +1426,16 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     }
 
     /**
-     * Helper method for loadPage().
+     * Helper method for loadPage(). {@code loadStart} is the time at which
+     * the page began to be read from the external store.
      */
     protected Page<K, V> constructNewPage(Page<K, V> current, Page<K, V> next,
-                                          K externalKey, byte[] floorPageEncoded) {
+                                          K externalKey, byte[] floorPageEncoded, long loadStart) {
 
         Page<K, V> newPage = pageFactory.generateEmptyPage(this, externalKey, null);
         newPage.decode(floorPageEncoded);
+        markForReencode(newPage);
+        metrics.pageMiss(loadStart);
 
         assert (newPage.getFirstKey().equals(externalKey));
         assert (compareKeys(current.getFirstKey(), newPage.getFirstKey()) < 0);
@@ -1151,6 +1524,66 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
         }
     }
 
+    /**
+     * Delete every page that follows {@code page} and whose keys are all less than
+     * {@code end}. Each page is removed from the cache and the external store
+     * without being decoded. Pages only need to be decoded when they may hold keys
+     * outside of the range, and those are the pages that contain {@code start}
+     * and {@code end} of a range removal.
+     * <p/>
+     * The caller must hold the write lock on {@code page} and must already have
+     * removed the keys of {@code page} that are in the range. Holding the lock on
+     * the lower page makes the external store consistent for the pages that follow
+     * it (invariant #2 of {@link com.addthis.hydra.store.skiplist.SkipListCache}).
+     * A following page that is not in the cache cannot be loaded or deleted by another
+     * thread because both operations would first lock {@code page}.
+     *
+     * @return number of pages that were deleted
+     */
+    protected int dropPagesBefore(Page<K, V> page, K end) {
+        assert isWriteLockedByCurrentThread(page);
+        int dropped = 0;
+        K targetKey;
+        while (((targetKey = page.getNextFirstKey()) != null) && (compareKeys(targetKey, end) < 0)) {
+            byte[] encodedTargetKey = keyCoder.keyEncode(targetKey);
+            byte[] nextKeyEncoded = externalStore.higherKey(encodedTargetKey);
+            if (nextKeyEncoded == null) {
+                break;
+            }
+            K nextKey = keyCoder.keyDecode(nextKeyEncoded);
+            // the target page may contain keys greater than or equal to end
+            if (compareKeys(nextKey, end) > 0) {
+                break;
+            }
+            Page<K, V> target = getCache().get(targetKey);
+            try {
+                if (target != null) {
+                    writeLock(target);
+                    if (target.inTransientState()) {
+                        break;
+                    }
+                    getCache().remove(targetKey);
+                    cacheSize.getAndDecrement();
+                    if (target.keys() != null) {
+                        updateMemoryEstimate(-target.getMemoryEstimate());
+                        numPagesInMemory.getAndDecrement();
+                    }
+                    target.setState(ExternalMode.DELETED);
+                    removeFromPurgeSet(targetKey);
+                }
+                externalStore.delete(encodedTargetKey);
+            } finally {
+                writeUnlockAndNull(target);
+            }
+            page.setNextFirstKey(nextKey);
+            page.setState(ExternalMode.DISK_MEMORY_DIRTY);
+            numPagesDeleted.getAndIncrement();
+            numPagesDropped.getAndIncrement();
+            dropped++;
+        }
+        return dropped;
+    }
+
     protected V putIntoPage(Page<K, V> page, K key, V value) {
         V prev;
         int offset = binarySearch(page.keys(), key, comparator);
@@ -1777,25 +2210,116 @@ public abstract class AbstractPageCache<K, V extends BytesCodable> implements Pa
     }
 
 
+    /**
+     * Write every page in memory to the external store and release its contents.
+     * Unless {@link #flushThreads} is 1 or the cache does not use locks the pages
+     * are encoded on a {@link ForkJoinPool} in groups of consecutive keys and each
+     * group is written in key order once it has been encoded.
+     */
     @VisibleForTesting
     public void pushAllPagesToDisk() {
+        long start = System.nanoTime();
+        flushPendingWrites();
+        boolean parallel = useLocks && (flushThreads > 1);
+        int pages = parallel ? parallelPushAllPages(start) : serialPushAllPages();
+        drainPendingWrites();
+        if (pages > 0) {
+            long elapsed = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), 1);
+            log.info("[flush] {} pages in {} ms ({} pages/sec) threads={}",
+                     pages, elapsed, (pages * 1000L) / elapsed, parallel ? flushThreads : 1);
+        }
+
+        assert (pushAllPagesToDiskAssertion());
+    }
+
+    private int serialPushAllPages() {
         final ByteBufOutputStream byteStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+        int pages = 0;
         try {
             for (Page<K, V> page : getEvictionQueue()) {
                 writeLock(page);
                 try {
                     if (!page.inTransientState() && page.keys() != null) {
                         pushPageToDisk(page, byteStream);
+                        pages++;
                     }
                 } finally {
                     writeUnlockAndNull(page);
                 }
+                if (pendingWritesFull()) {
+                    flushPendingWrites();
+                }
             }
         } finally {
             byteStream.buffer().release();
         }
+        metrics.flushedPages.mark(pages);
+        return pages;
+    }
+
+    private int parallelPushAllPages(long start) {
+        List<Page<K, V>> pages = new ArrayList<>();
+        for (Page<K, V> page : getCache().values()) {
+            if (page.keys() != null) {
+                pages.add(page);
+            }
+        }
+        if (pages.isEmpty()) {
+            return 0;
+        }
+        int groupSize = Math.max(writeBatchPages, 1) * flushThreads;
+        ForkJoinPool pool = flushPool();
+        long lastProgress = start;
+        int pushed = 0;
+        for (int i = 0; i < pages.size(); i += groupSize) {
+            List<Page<K, V>> group = pages.subList(i, Math.min(i + groupSize, pages.size()));
+            List<ForkJoinTask<Boolean>> tasks = new ArrayList<>(group.size());
+            for (Page<K, V> page : group) {
+                tasks.add(pool.submit(() -> encodeForFlush(page)));
+            }
+            int groupPushed = 0;
+            for (ForkJoinTask<Boolean> task : tasks) {
+                if (task.join()) {
+                    groupPushed++;
+                }
+            }
+            drainPendingWrites();
+            metrics.flushedPages.mark(groupPushed);
+            pushed += groupPushed;
+            long now = System.nanoTime();
+            if (TimeUnit.NANOSECONDS.toMillis(now - lastProgress) >= flushProgressInterval) {
+                long elapsed = Math.max(TimeUnit.NANOSECONDS.toMillis(now - start), 1);
+                log.info("[flush] {}/{} pages ({} pages/sec)", i + group.size(), pages.size(),
+                         (pushed * 1000L) / elapsed);
+                lastProgress = now;
+            }
+        }
+        return pushed;
+    }
 
-        assert (pushAllPagesToDiskAssertion());
+    private synchronized ForkJoinPool flushPool() {
+        if (flushPool == null) {
+            flushPool = new ForkJoinPool(flushThreads);
+        }
+        return flushPool;
+    }
+
+    /**
+     * Encode a page into the pending writes. Called from the flush pool.
+     */
+    private boolean encodeForFlush(Page<K, V> page) {
+        ByteBufOutputStream byteStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+        writeLock(page);
+        try {
+            if (page.inTransientState() || page.keys() == null) {
+                return false;
+            }
+            pushPageToDisk(page, byteStream, true);
+            return true;
+        } finally {
+            writeUnlockAndNull(page);
+            byteStream.buffer().release();
+        }
     }
 
 
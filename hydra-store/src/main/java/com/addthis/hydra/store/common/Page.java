@@ -3,9 +3,12 @@ package com.addthis.hydra.store.common;
 import java.util.ArrayList;
 
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.compress.PageCodec;
+import com.addthis.hydra.store.kv.PageDictionary;
 import com.addthis.hydra.store.kv.PageEncodeType;
 import com.addthis.hydra.store.skiplist.LockMode;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufOutputStream;
 
 public interface Page<K, V extends BytesCodable> {
@@ -17,6 +20,8 @@ public interface Page<K, V extends BytesCodable> {
 
     void decode(byte[] page);
 
+    void decode(ByteBuf page);
+
     int getMemoryEstimate();
 
     void updateMemoryEstimate();
@@ -31,6 +36,24 @@ public interface Page<K, V extends BytesCodable> {
 
     PageEncodeType getEncodeType();
 
+    /**
+     * Dictionary shared by the raw values of a {@link PageEncodeType#DICTIONARY} page.
+     * Null for the other encodings.
+     */
+    PageDictionary getDictionary();
+
+    /**
+     * Used when raw values are moved to a new page, which must then
+     * share the dictionary of the page they were decoded from.
+     */
+    void setDictionary(PageDictionary dictionary);
+
+    /**
+     * Codec of the most recent encoding or decoding of this page.
+     * Null if the page has never been read from or written to external storage.
+     */
+    PageCodec getCodec();
+
     ExternalMode getState();
 
     void setState(ExternalMode externalMode);
@@ -67,6 +90,11 @@ public interface Page<K, V extends BytesCodable> {
 
     void setKeys(ArrayList<K> keys);
 
+    /**
+     * Create an empty list for the keys of this page.
+     */
+    ArrayList<K> newKeyList(int capacity);
+
     void setValues(ArrayList<V> values);
 
     void setRawValues(ArrayList<byte[]> rawValues);
@@ -97,6 +125,19 @@ public interface Page<K, V extends BytesCodable> {
 
     long getWriteStamp();
 
+    /**
+     * Returns a stamp that can be passed to {@link #validate(long)} after
+     * reading the page without holding its lock. Returns zero if the page
+     * is write-locked or does not support optimistic reads.
+     */
+    long tryOptimisticRead();
+
+    /**
+     * Returns true if the page has not been write-locked since
+     * {@code stamp} was returned by {@link #tryOptimisticRead()}.
+     */
+    boolean validate(long stamp);
+
     void incrementWriteStamp();
 
 }
@@ -13,11 +13,18 @@
  */
 package com.addthis.hydra.store.common;
 
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
 import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.nonconcurrent.NonConcurrentPageCache;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
 
 public class PageCacheMetrics<K, V extends BytesCodable> {
 
@@ -35,6 +42,10 @@ public class PageCacheMetrics<K, V extends BytesCodable> {
     @SuppressWarnings("unused")
     public final Gauge<Long> pagesDeletedGauge;
 
+    // Pages deleted by a range removal without being read
+    @SuppressWarnings("unused")
+    public final Gauge<Long> pagesDroppedGauge;
+
     public final Histogram encodeFirstKeySize;
 
     public final Histogram encodeNextFirstKeySize;
@@ -49,6 +60,50 @@ public class PageCacheMetrics<K, V extends BytesCodable> {
     // This metrics counts compressed bytes
     public final Histogram numberKeysPerPage;
 
+    // Pages written by AbstractPageCache#pushAllPagesToDisk
+    public final Meter flushedPages;
+
+    private final LongAdder pageHits = new LongAdder();
+
+    private final LongAdder pageMisses = new LongAdder();
+
+    private final LongAdder syncEvictions = new LongAdder();
+
+    private final LongAdder backgroundEvictions = new LongAdder();
+
+    @SuppressWarnings("unused")
+    public final Gauge<Long> pageHitsGauge;
+
+    @SuppressWarnings("unused")
+    public final Gauge<Long> pageMissesGauge;
+
+    @SuppressWarnings("unused")
+    public final Gauge<Double> pageHitRatioGauge;
+
+    @SuppressWarnings("unused")
+    public final Gauge<Long> syncEvictionsGauge;
+
+    @SuppressWarnings("unused")
+    public final Gauge<Long> backgroundEvictionsGauge;
+
+    @SuppressWarnings("unused")
+    public final Gauge<Integer> evictionQueueDepthGauge;
+
+    // Microseconds to read a page from the external store and decode it
+    public final Histogram pageLoadTime;
+
+    // Microseconds to encode and compress a page
+    public final Histogram encodeTime;
+
+    // Microseconds to decompress and decode a page
+    public final Histogram decodeTime;
+
+    // Lookups answered without locking the page
+    public final Meter optimisticReads;
+
+    // Lookups that fell back to the page read lock
+    public final Meter optimisticFallbacks;
+
     public PageCacheMetrics(AbstractPageCache<K, V> cache) {
         parent = cache;
         memEstimateGauge = Metrics.newGauge(cache.getClass(),
@@ -87,6 +142,86 @@ public class PageCacheMetrics<K, V extends BytesCodable> {
                     }
                 });
 
+        pagesDroppedGauge = Metrics.newGauge(cache.getClass(),
+                "pagesDropped", parent.scope,
+                new Gauge<Long>() {
+                    @Override
+                    public Long value() {
+                        return parent.numPagesDropped.get();
+                    }
+                });
+
+        flushedPages = Metrics.newMeter(cache.getClass(), "flushedPages", parent.scope,
+                "pages", TimeUnit.SECONDS);
+
+        pageHitsGauge = Metrics.newGauge(cache.getClass(),
+                "pageHits", parent.scope,
+                new Gauge<Long>() {
+                    @Override
+                    public Long value() {
+                        return pageHits.sum();
+                    }
+                });
+
+        pageMissesGauge = Metrics.newGauge(cache.getClass(),
+                "pageMisses", parent.scope,
+                new Gauge<Long>() {
+                    @Override
+                    public Long value() {
+                        return pageMisses.sum();
+                    }
+                });
+
+        pageHitRatioGauge = Metrics.newGauge(cache.getClass(),
+                "pageHitRatio", parent.scope,
+                new Gauge<Double>() {
+                    @Override
+                    public Double value() {
+                        long hits = pageHits.sum();
+                        long total = hits + pageMisses.sum();
+                        return (total == 0) ? 0.0 : (hits / (double) total);
+                    }
+                });
+
+        syncEvictionsGauge = Metrics.newGauge(cache.getClass(),
+                "syncEvictions", parent.scope,
+                new Gauge<Long>() {
+                    @Override
+                    public Long value() {
+                        return syncEvictions.sum();
+                    }
+                });
+
+        backgroundEvictionsGauge = Metrics.newGauge(cache.getClass(),
+                "backgroundEvictions", parent.scope,
+                new Gauge<Long>() {
+                    @Override
+                    public Long value() {
+                        return backgroundEvictions.sum();
+                    }
+                });
+
+        evictionQueueDepthGauge = Metrics.newGauge(cache.getClass(),
+                "evictionQueueDepth", parent.scope,
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer value() {
+                        return parent.getEvictionQueue().size();
+                    }
+                });
+
+        pageLoadTime = Metrics.newHistogram(cache.getClass(), "pageLoadTime", parent.scope, true);
+
+        encodeTime = Metrics.newHistogram(cache.getClass(), "encodeTime", parent.scope, true);
+
+        decodeTime = Metrics.newHistogram(cache.getClass(), "decodeTime", parent.scope, true);
+
+        optimisticReads = Metrics.newMeter(cache.getClass(), "optimisticReads", parent.scope,
+                "reads", TimeUnit.SECONDS);
+
+        optimisticFallbacks = Metrics.newMeter(cache.getClass(), "optimisticFallbacks", parent.scope,
+                "reads", TimeUnit.SECONDS);
+
         encodeFirstKeySize = NonConcurrentPageCache.trackEncodingByteUsage ?
                 Metrics.newHistogram(cache.getClass(), "encodeFirstKeySize", parent.scope) :
                              null;
@@ -113,4 +248,60 @@ public class PageCacheMetrics<K, V extends BytesCodable> {
 
     }
 
+    /**
+     * A lookup found its page in memory.
+     */
+    public void pageHit() {
+        pageHits.increment();
+    }
+
+    /**
+     * A lookup loaded its page from the external store. {@code startNanos}
+     * is the {@link System#nanoTime()} at which the load started.
+     */
+    public void pageMiss(long startNanos) {
+        pageMisses.increment();
+        pageLoadTime.update(micros(startNanos));
+    }
+
+    public void pageEncoded(long startNanos) {
+        encodeTime.update(micros(startNanos));
+    }
+
+    public void pageDecoded(long startNanos) {
+        decodeTime.update(micros(startNanos));
+    }
+
+    public void pagesEvicted(int count, boolean background) {
+        if (background) {
+            backgroundEvictions.add(count);
+        } else {
+            syncEvictions.add(count);
+        }
+    }
+
+    public long pageHits() {
+        return pageHits.sum();
+    }
+
+    public long pageMisses() {
+        return pageMisses.sum();
+    }
+
+    /**
+     * Remove the metrics of this cache from the registry.
+     */
+    public void close() {
+        MetricsRegistry registry = Metrics.defaultRegistry();
+        for (MetricName name : new ArrayList<>(registry.allMetrics().keySet())) {
+            if (parent.scope.equals(name.getScope())) {
+                registry.removeMetric(name);
+            }
+        }
+    }
+
+    private static long micros(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
 }
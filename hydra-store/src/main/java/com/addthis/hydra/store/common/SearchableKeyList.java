@@ -0,0 +1,29 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.common;
+
+/**
+ * A list of page keys that can search itself. Implemented by key
+ * layouts that compare keys without materializing them.
+ *
+ * @param <K> the key type of the page
+ */
+public interface SearchableKeyList<K> {
+
+    /**
+     * Binary search for {@code key} with the same contract as
+     * {@link java.util.Collections#binarySearch(java.util.List, Object)}.
+     */
+    int binarySearch(K key);
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Compression applied to the body of an encoded page. The identifier of
+ * the codec is stored in the low four bits of the page flags byte so
+ * every page records the codec needed to read it back.
+ * <p/>
+ * Codecs are looked up through {@link PageCodecs}.
+ */
+public interface PageCodec {
+
+    /**
+     * Identifier written into the page flags byte. Must be in the range [0, 15].
+     */
+    int id();
+
+    /**
+     * Name used to select this codec from job configuration. Matched ignoring case.
+     */
+    String name();
+
+    /**
+     * Wrap the page output stream. Closing the returned stream must
+     * write any buffered output and close {@code out}.
+     */
+    OutputStream encoder(OutputStream out) throws IOException;
+
+    /**
+     * Wrap the page input stream positioned immediately after the flags byte.
+     */
+    InputStream decoder(InputStream in) throws IOException;
+
+    /**
+     * Decompress the readable bytes of {@code in} into a pooled buffer that is released
+     * by the caller. Codecs that can decompress in a single call should override this
+     * to avoid the copies made by the stream returned from {@link #decoder}.
+     */
+    default ByteBuf decompress(ByteBuf in) throws IOException {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer(in.readableBytes() * 4);
+        try (InputStream stream = decoder(new ByteBufInputStream(in))) {
+            while (out.writeBytes(stream, Math.max(out.writableBytes(), 1024)) > 0) {
+                // keep reading until the end of the stream
+            }
+        } catch (IOException | RuntimeException ex) {
+            out.release();
+            throw ex;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.compress;
+
+import javax.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.hydra.store.kv.ByteStore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Registry of page codecs keyed by the identifier stored in the
+ * low four bits of the page flags byte.
+ * <p/>
+ * Codecs that do not depend on the database directory are registered
+ * here once per JVM. The {@link ZstdDictionaryPageCodec} is different
+ * for every database and is supplied by the page cache that owns it.
+ */
+public final class PageCodecs {
+
+    /**
+     * Default codec identifier. Retains the name of the original property.
+     */
+    public static final int defaultCodecId = Parameter.intValue("eps.gz.type", 1);
+
+    private static final PageCodec[] registry = new PageCodec[16];
+
+    static {
+        for (StandardPageCodec codec : StandardPageCodec.values()) {
+            register(codec);
+        }
+    }
+
+    private PageCodecs() {
+    }
+
+    /**
+     * Register an additional codec. The identifier must not be in use.
+     */
+    public static synchronized void register(PageCodec codec) {
+        int id = codec.id();
+        checkArgument(id >= 0 && id < registry.length, "page codec id %s out of range", id);
+        checkArgument(id != ZstdDictionaryPageCodec.ID, "page codec id %s is reserved", id);
+        checkArgument(registry[id] == null, "page codec id %s is assigned to %s", id, registry[id]);
+        registry[id] = codec;
+    }
+
+    @Nullable
+    static PageCodec lookup(int id) {
+        return registry[id];
+    }
+
+    /**
+     * Codec for the identifier stored in a page header.
+     *
+     * @param id         low four bits of the page flags byte
+     * @param dictionary dictionary codec of the database the page belongs to, if any
+     * @throws IllegalStateException if no codec is able to read the page
+     */
+    public static PageCodec forId(int id, @Nullable PageCodec dictionary) {
+        if (dictionary != null && dictionary.id() == id) {
+            return dictionary;
+        }
+        PageCodec codec = registry[id];
+        if (codec == null) {
+            if (id == ZstdDictionaryPageCodec.ID) {
+                throw new IllegalStateException("page requires the zstd dictionary of its database");
+            }
+            throw new IllegalStateException("invalid page codec id: " + id);
+        }
+        return codec;
+    }
+
+    public static PageCodec forId(int id) {
+        return forId(id, null);
+    }
+
+    /**
+     * Codec used when no codec is configured for a database.
+     */
+    public static PageCodec defaultCodec() {
+        return forId(defaultCodecId);
+    }
+
+    /**
+     * Look up a codec by name. {@link ZstdDictionaryPageCodec#NAME} cannot be
+     * resolved here, use {@link #forDatabase(String, File, ByteStore)}.
+     */
+    public static PageCodec forName(String name) {
+        for (PageCodec codec : registry) {
+            if (codec != null && codec.name().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("unknown page codec: " + name);
+    }
+
+    /**
+     * Resolve the codec used to write pages of the database in {@code dir}.
+     * When the dictionary codec is requested but no dictionary can be trained yet
+     * the pages are written with plain zstd. The first open with enough pages
+     * trains the dictionary and later evictions rewrite pages with it.
+     *
+     * @param name  configured codec name or null for {@link #defaultCodec()}
+     * @param dir   database directory
+     * @param store backing store of the database
+     */
+    public static PageCodec forDatabase(@Nullable String name, File dir, ByteStore store) throws IOException {
+        if (name == null) {
+            return defaultCodec();
+        } else if (ZstdDictionaryPageCodec.NAME.equalsIgnoreCase(name)) {
+            PageCodec codec = ZstdDictionaryPageCodec.loadOrTrain(dir, store);
+            return (codec != null) ? codec : StandardPageCodec.ZSTD;
+        } else {
+            return forName(name);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.zip.GZIPInputStream;
+
+import com.addthis.basis.io.GZOut;
+import com.addthis.basis.util.Parameter;
+
+import com.jcraft.jzlib.Deflater;
+import com.jcraft.jzlib.DeflaterOutputStream;
+import com.jcraft.jzlib.InflaterInputStream;
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
+
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+import io.netty.buffer.ByteBuf;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Page codecs that need no per-tree state. The identifiers of
+ * {@link #NONE} through {@link #SNAPPY} are the historical values
+ * of {@code eps.gz.type} and must never change.
+ */
+public enum StandardPageCodec implements PageCodec {
+
+    NONE(0) {
+        @Override
+        public OutputStream encoder(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decoder(InputStream in) {
+            return in;
+        }
+
+        @Override
+        public ByteBuf decompress(ByteBuf in) {
+            return in.retain();
+        }
+    },
+    DEFLATE(1) {
+        @Override
+        public OutputStream encoder(OutputStream out) throws IOException {
+            return new DeflaterOutputStream(out, new Deflater(gzlevel));
+        }
+
+        @Override
+        public InputStream decoder(InputStream in) throws IOException {
+            return new InflaterInputStream(in);
+        }
+    },
+    GZIP(2) {
+        @Override
+        public OutputStream encoder(OutputStream out) throws IOException {
+            return new GZOut(out, gzbuf, gzlevel);
+        }
+
+        @Override
+        public InputStream decoder(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+    },
+    LZF(3) {
+        @Override
+        public OutputStream encoder(OutputStream out) {
+            return new LZFOutputStream(out);
+        }
+
+        @Override
+        public InputStream decoder(InputStream in) throws IOException {
+            return new LZFInputStream(in);
+        }
+    },
+    SNAPPY(4) {
+        @Override
+        public OutputStream encoder(OutputStream out) throws IOException {
+            return new SnappyOutputStream(out);
+        }
+
+        @Override
+        public InputStream decoder(InputStream in) throws IOException {
+            return new SnappyInputStream(in);
+        }
+    },
+    LZ4(5) {
+        @Override
+        public OutputStream encoder(OutputStream out) {
+            return new LZ4BlockOutputStream(out, lz4block, Lz4Compressors.FAST);
+        }
+
+        @Override
+        public InputStream decoder(InputStream in) {
+            return new LZ4BlockInputStream(in);
+        }
+    },
+    LZ4_HC(6) {
+        @Override
+        public OutputStream encoder(OutputStream out) {
+            return new LZ4BlockOutputStream(out, lz4block, Lz4Compressors.HIGH);
+        }
+
+        @Override
+        public InputStream decoder(InputStream in) {
+            return new LZ4BlockInputStream(in);
+        }
+    },
+    ZSTD(7) {
+        @Override
+        public OutputStream encoder(OutputStream out) {
+            return ZstdFrames.encoder(out, zstdlevel, null);
+        }
+
+        @Override
+        public InputStream decoder(InputStream in) throws IOException {
+            return ZstdFrames.decoder(in, null);
+        }
+
+        @Override
+        public ByteBuf decompress(ByteBuf in) throws IOException {
+            return ZstdFrames.decompress(in, null);
+        }
+    };
+
+    public static final int gzlevel = Parameter.intValue("eps.gz.level", 1);
+    public static final int gzbuf = Parameter.intValue("eps.gz.buffer", 1024);
+    public static final int lz4block = Parameter.intValue("eps.lz4.block", 8192);
+    public static final int lz4level = Parameter.intValue("eps.lz4.hc.level", 9);
+    public static final int zstdlevel = Parameter.intValue("eps.zstd.level", 3);
+
+    private final int id;
+
+    StandardPageCodec(int id) {
+        this.id = id;
+    }
+
+    @Override
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Compressor instances are thread safe. Kept out of the enum body so the
+     * lz4 native library is only loaded when an lz4 codec is used.
+     */
+    private static final class Lz4Compressors {
+        static final LZ4Compressor FAST = LZ4Factory.fastestInstance().fastCompressor();
+        static final LZ4Compressor HIGH = LZ4Factory.fastestInstance().highCompressor(lz4level);
+    }
+}
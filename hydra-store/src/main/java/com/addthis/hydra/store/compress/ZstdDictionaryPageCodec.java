@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.compress;
+
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.addthis.basis.util.LessFiles;
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.hydra.store.kv.ByteStore;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.google.common.io.ByteStreams;
+
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Zstandard with a dictionary trained from the pages of a single tree.
+ * Tree pages share most of their structure (key prefixes, node class
+ * layout) so a dictionary improves the ratio on small pages considerably.
+ * <p/>
+ * The dictionary is written once to {@link #DICTIONARY_FILENAME} in the
+ * database directory and is never replaced: every page encoded with this
+ * codec needs exactly that dictionary to be read back.
+ */
+public final class ZstdDictionaryPageCodec implements PageCodec {
+
+    private static final Logger log = LoggerFactory.getLogger(ZstdDictionaryPageCodec.class);
+
+    public static final int ID = 8;
+
+    public static final String NAME = "zstd_dict";
+
+    public static final String DICTIONARY_FILENAME = "page.zdict";
+
+    private static final int dictSize = Parameter.intValue("eps.zstd.dict.size", 64 * 1024);
+    private static final int dictSamples = Parameter.intValue("eps.zstd.dict.samples", 2000);
+    private static final int dictMinSamples = Parameter.intValue("eps.zstd.dict.samples.min", 100);
+    private static final int minDictSize = 1024;
+
+    private final ZstdDictCompress compressDictionary;
+    private final ZstdDictDecompress decompressDictionary;
+
+    public ZstdDictionaryPageCodec(byte[] dictionary) {
+        this.compressDictionary = new ZstdDictCompress(dictionary, StandardPageCodec.zstdlevel);
+        this.decompressDictionary = new ZstdDictDecompress(dictionary);
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public OutputStream encoder(OutputStream out) {
+        return ZstdFrames.encoder(out, StandardPageCodec.zstdlevel, compressDictionary);
+    }
+
+    @Override
+    public InputStream decoder(InputStream in) throws IOException {
+        return ZstdFrames.decoder(in, decompressDictionary);
+    }
+
+    @Override
+    public ByteBuf decompress(ByteBuf in) throws IOException {
+        return ZstdFrames.decompress(in, decompressDictionary);
+    }
+
+    @Override
+    public String toString() {
+        return NAME;
+    }
+
+    /**
+     * Load the dictionary stored in {@code dir}.
+     *
+     * @return the codec or null if no dictionary has been trained for this directory
+     */
+    @Nullable
+    public static ZstdDictionaryPageCodec load(File dir) throws IOException {
+        File file = new File(dir, DICTIONARY_FILENAME);
+        if (!file.exists()) {
+            return null;
+        }
+        return new ZstdDictionaryPageCodec(LessFiles.read(file));
+    }
+
+    /**
+     * Load the dictionary stored in {@code dir} or train a new one from the pages
+     * of {@code store}. Training is skipped while the store holds too few pages
+     * to produce a useful dictionary.
+     *
+     * @return the codec or null if no dictionary is available yet
+     */
+    @Nullable
+    public static ZstdDictionaryPageCodec loadOrTrain(File dir, ByteStore store) throws IOException {
+        ZstdDictionaryPageCodec codec = load(dir);
+        if (codec != null || store.isReadOnly()) {
+            return codec;
+        }
+        byte[] dictionary = train(store);
+        if (dictionary == null) {
+            return null;
+        }
+        LessFiles.write(new File(dir, DICTIONARY_FILENAME), dictionary, false);
+        log.info("[train] wrote {} byte page dictionary to {}", dictionary.length, dir);
+        return new ZstdDictionaryPageCodec(dictionary);
+    }
+
+    /**
+     * Train a dictionary from the uncompressed bodies of the pages in {@code store}.
+     *
+     * @return the dictionary or null if there are not enough pages to sample
+     */
+    @Nullable
+    static byte[] train(ByteStore store) throws IOException {
+        byte[] first = store.firstKey();
+        if (first == null) {
+            return null;
+        }
+        List<byte[]> samples = new ArrayList<>();
+        int totalSize = 0;
+        Iterator<byte[]> keys = store.keyIterator(first);
+        while (keys.hasNext() && samples.size() < dictSamples) {
+            byte[] page = store.get(keys.next());
+            if (page == null || page.length < 2) {
+                continue;
+            }
+            byte[] body = uncompressedBody(page);
+            if (body != null) {
+                samples.add(body);
+                totalSize += body.length;
+            }
+        }
+        // zstd recommends roughly a hundred times more sample data than dictionary
+        int size = Math.min(dictSize, totalSize / 100);
+        if (samples.size() < dictMinSamples || size < minDictSize) {
+            log.info("[train] only {} pages ({} bytes) available, deferring dictionary training",
+                     samples.size(), totalSize);
+            return null;
+        }
+        ZstdDictTrainer trainer = new ZstdDictTrainer(totalSize, size);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        try {
+            return trainer.trainSamples();
+        } catch (RuntimeException ex) {
+            log.warn("[train] dictionary training failed over {} pages", samples.size(), ex);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static byte[] uncompressedBody(byte[] page) throws IOException {
+        PageCodec codec = PageCodecs.lookup(page[0] & 0x0f);
+        if (codec == null) {
+            return null;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(page.length * 4);
+        try (InputStream in = codec.decoder(new ByteArrayInputStream(page, 1, page.length - 1))) {
+            ByteStreams.copy(in, body);
+        }
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.compress;
+
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.google.common.io.ByteStreams;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Pages are compressed as a single zstd frame. Creating a zstd
+ * stream allocates a full compression window which costs more than
+ * compressing a typical page, so the page is buffered and compressed
+ * with the one-shot API instead. The frame header records the content
+ * size which allows the page to be decompressed in one call
+ * directly into a pooled buffer of the right size.
+ */
+final class ZstdFrames {
+
+    private ZstdFrames() {
+    }
+
+    static OutputStream encoder(OutputStream out, int level, @Nullable ZstdDictCompress dictionary) {
+        return new ByteArrayOutputStream(4096) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    byte[] input = toByteArray();
+                    out.write((dictionary == null) ? Zstd.compress(input, level) :
+                              Zstd.compress(input, dictionary));
+                    out.close();
+                }
+            }
+        };
+    }
+
+    static InputStream decoder(InputStream in, @Nullable ZstdDictDecompress dictionary) throws IOException {
+        return new ByteArrayInputStream(decompress(ByteStreams.toByteArray(in), dictionary));
+    }
+
+    static ByteBuf decompress(ByteBuf in, @Nullable ZstdDictDecompress dictionary) throws IOException {
+        int length = in.readableBytes();
+        byte[] frame;
+        if (in.hasArray() && ((in.arrayOffset() + in.readerIndex()) == 0) && (in.array().length == length)) {
+            frame = in.array();
+        } else {
+            frame = new byte[length];
+            in.getBytes(in.readerIndex(), frame);
+        }
+        long size = Zstd.decompressedSize(frame);
+        if ((size < 0) || (size > Integer.MAX_VALUE)) {
+            throw new IOException("zstd frame without a valid content size");
+        }
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.heapBuffer((int) size, (int) size);
+        try {
+            byte[] dst = out.array();
+            int dstOffset = out.arrayOffset();
+            long written = (dictionary == null) ?
+                           Zstd.decompressByteArray(dst, dstOffset, (int) size, frame, 0, length) :
+                           Zstd.decompressFastDict(dst, dstOffset, frame, 0, length, dictionary);
+            if (Zstd.isError(written) || (written != size)) {
+                throw new IOException("zstd decompression failed: " + Zstd.getErrorName(written));
+            }
+            out.writerIndex((int) size);
+            in.skipBytes(length);
+            return out;
+        } catch (IOException | RuntimeException ex) {
+            out.release();
+            throw ex;
+        }
+    }
+
+    private static byte[] decompress(byte[] frame, @Nullable ZstdDictDecompress dictionary) {
+        int size = (int) Zstd.decompressedSize(frame);
+        return (dictionary == null) ? Zstd.decompress(frame, size) :
+               Zstd.decompress(frame, dictionary, size);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.db;
+
+import java.util.ArrayList;
+
+import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.common.AbstractPageCache;
+import com.addthis.hydra.store.common.PageFactory;
+import com.addthis.hydra.store.kv.PageEncodeType;
+import com.addthis.hydra.store.skiplist.ConcurrentPage;
+
+/**
+ * A {@link ConcurrentPage} of {@link DBKey} keys that are stored in a
+ * {@link DBKeyList}. Keys take a fraction of the heap of the default page
+ * so more pages can be held in memory for the same cache budget. Reading a
+ * key materializes a new {@link DBKey}, which makes this page a poor fit
+ * for workloads dominated by iteration.
+ *
+ * @param <V> the value which must extend {@link BytesCodable}
+ */
+public class ColumnarPage<V extends BytesCodable> extends ConcurrentPage<DBKey, V> {
+
+    public ColumnarPage(AbstractPageCache<DBKey, V> cache, DBKey firstKey, DBKey nextFirstKey,
+                        PageEncodeType encodeType) {
+        super(cache, firstKey, nextFirstKey, encodeType);
+    }
+
+    public ColumnarPage(AbstractPageCache<DBKey, V> cache, DBKey firstKey, DBKey nextFirstKey, int size,
+                        ArrayList<DBKey> keys, ArrayList<V> values, ArrayList<byte[]> rawValues,
+                        PageEncodeType encodeType) {
+        super(cache, firstKey, nextFirstKey, size, keys, values, rawValues, encodeType);
+    }
+
+    @Override
+    public ArrayList<DBKey> newKeyList(int capacity) {
+        return new DBKeyList(capacity);
+    }
+
+    @Override
+    protected long estimateKeySize(DBKey key) {
+        // 8 byte id, 4 byte offset, and the key bytes
+        return 12 + key.rawKey().toBytes().length;
+    }
+
+    public static class ColumnarPageFactory<V extends BytesCodable> extends PageFactory<DBKey, V> {
+
+        public static final ColumnarPageFactory singleton = new ColumnarPageFactory<>();
+
+        @Override
+        public TYPE getType() {
+            return TYPE.CONCURRENT;
+        }
+
+        private ColumnarPageFactory() {
+        }
+
+        @Override
+        protected ColumnarPage<V> newPage(AbstractPageCache<DBKey, V> cache, DBKey firstKey, DBKey nextFirstKey,
+                                          PageEncodeType encodeType) {
+            return new ColumnarPage<>(cache, firstKey, nextFirstKey, encodeType);
+        }
+
+        @Override
+        protected ColumnarPage<V> newPage(AbstractPageCache<DBKey, V> cache, DBKey firstKey, DBKey nextFirstKey,
+                                          int size, ArrayList<DBKey> keys, ArrayList<V> values,
+                                          ArrayList<byte[]> rawValues, PageEncodeType encodeType) {
+            return new ColumnarPage<>(cache, firstKey, nextFirstKey, size, keys, values, rawValues, encodeType);
+        }
+    }
+}
@@ -79,14 +79,22 @@ public final class DBKey implements IPageDB.Key, Comparable<DBKey> {
     }
 
     public static DBKey deltaDecode(byte[] encoding, @Nonnull IPageDB.Key baseKey) {
-        ByteBuf buffer = Unpooled.copiedBuffer(encoding);
+        return deltaDecode(Unpooled.wrappedBuffer(encoding), encoding.length, baseKey);
+    }
+
+    /**
+     * Decode a key from the next {@code length} bytes of {@code buffer}
+     * without copying the encoding. Advances the reader index past the key.
+     */
+    public static DBKey deltaDecode(ByteBuf buffer, int length, @Nonnull IPageDB.Key baseKey) {
+        int end = buffer.readerIndex() + length;
         long offset = Varint.readSignedVarLong(buffer);
         long id = offset + baseKey.id();
         Raw key;
-        if (buffer.readableBytes() == 0) {
+        if (buffer.readerIndex() == end) {
             key = null;
         } else {
-            byte[] data = new byte[buffer.readableBytes()];
+            byte[] data = new byte[end - buffer.readerIndex()];
             buffer.readBytes(data);
             key = Raw.get(data);
         }
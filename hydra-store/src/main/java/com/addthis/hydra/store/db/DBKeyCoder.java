@@ -19,6 +19,8 @@ import javax.annotation.Nullable;
 import com.addthis.codec.Codec;
 import com.addthis.codec.binary.CodecBin2;
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.kv.DictionaryCodable;
+import com.addthis.hydra.store.kv.PageDictionary;
 import com.addthis.hydra.store.kv.PageEncodeType;
 import com.addthis.hydra.store.kv.KeyCoder;
 import com.addthis.hydra.store.util.Raw;
@@ -26,6 +28,8 @@ import com.addthis.hydra.store.util.Raw;
 import com.google.common.base.Objects;
 import com.google.common.base.Throwables;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  */
 class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
@@ -84,6 +88,7 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
             case SPARSE:
                 return key.toBytes();
             case LONGIDS:
+            case DICTIONARY:
                 return key.deltaEncode(baseKey);
             default:
                 throw new RuntimeException("Unknown encoding type: " + encodeType);
@@ -95,14 +100,25 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
      */
     @Override
     public byte[] valueEncode(V value, @Nonnull PageEncodeType encodeType) {
+        return valueEncode(value, encodeType, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] valueEncode(V value, @Nonnull PageEncodeType encodeType, @Nullable PageDictionary dictionary) {
         try {
             switch (encodeType) {
                 case LEGACY:
                     return codec.encode(value);
                 case SPARSE:
                 case LONGIDS:
+                case DICTIONARY:
                     if (value == null) {
                         return zero;
+                    } else if ((dictionary != null) && (value instanceof DictionaryCodable)) {
+                        return ((DictionaryCodable) value).bytesEncode(encodeType.ordinal(), dictionary);
                     } else {
                         return value.bytesEncode(encodeType.ordinal());
                     }
@@ -139,6 +155,7 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
                 case SPARSE:
                     return DBKey.fromBytes(key);
                 case LONGIDS:
+                case DICTIONARY:
                     return DBKey.deltaDecode(key, baseKey);
                 default:
                     throw new RuntimeException("Unknown encoding type: " + encodeType);
@@ -146,21 +163,50 @@ class DBKeyCoder<V extends BytesCodable> implements KeyCoder<DBKey, V> {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DBKey keyDecode(@Nonnull ByteBuf buffer, int length, @Nonnull DBKey baseKey,
+                           @Nonnull PageEncodeType encodeType) {
+        if (length == 0) {
+            return null;
+        } else if (encodeType != PageEncodeType.LEGACY && encodeType != PageEncodeType.SPARSE) {
+            return DBKey.deltaDecode(buffer, length, baseKey);
+        } else {
+            byte[] key = new byte[length];
+            buffer.readBytes(key);
+            return DBKey.fromBytes(key);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public V valueDecode(byte[] value, @Nonnull PageEncodeType encodeType) {
+        return valueDecode(value, encodeType, null);
+    }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V valueDecode(byte[] value, @Nonnull PageEncodeType encodeType, @Nullable PageDictionary dictionary) {
         try {
             switch (encodeType) {
                 case LEGACY:
                     return codec.decode(clazz.newInstance(), value);
                 case SPARSE:
                 case LONGIDS:
+                case DICTIONARY:
                     if (value.length > 0) {
                         V v = clazz.newInstance();
-                        v.bytesDecode(value, encodeType.ordinal());
+                        if ((dictionary != null) && (v instanceof DictionaryCodable)) {
+                            ((DictionaryCodable) v).bytesDecode(value, encodeType.ordinal(), dictionary);
+                        } else {
+                            v.bytesDecode(value, encodeType.ordinal());
+                        }
                         return v;
                     } else {
                         return null;
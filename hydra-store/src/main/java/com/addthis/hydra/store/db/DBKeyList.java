@@ -0,0 +1,421 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.db;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import com.addthis.hydra.store.common.SearchableKeyList;
+import com.addthis.hydra.store.util.Raw;
+
+/**
+ * Sorted page keys stored in columns. The ids are kept in a {@code long[]}
+ * and the key bytes of all entries are packed into a single {@code byte[]}
+ * with an array of offsets. A page of N keys costs three arrays instead of
+ * N {@link DBKey}, {@link Raw} and {@code byte[]} objects.
+ * <p/>
+ * This class extends {@link ArrayList} only so that it can be stored in a
+ * page. None of the storage of the superclass is used and every method of
+ * the {@link List} interface is implemented on top of the columns.
+ * {@link #get(int)} creates a new key on each call, lookups should use
+ * {@link #binarySearch(DBKey)} which does not allocate.
+ */
+public final class DBKeyList extends ArrayList<DBKey> implements SearchableKeyList<DBKey> {
+
+    private static final long[] NO_IDS = new long[0];
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private long[] ids;
+
+    /**
+     * Key bytes of entry {@code i} are {@code bytes[offsets[i], offsets[i + 1])}.
+     */
+    private int[] offsets;
+
+    private byte[] bytes;
+
+    private int count;
+
+    private final List<DBKey> view = new AbstractList<DBKey>() {
+        @Override
+        public DBKey get(int index) {
+            return DBKeyList.this.get(index);
+        }
+
+        @Override
+        public DBKey set(int index, DBKey element) {
+            return DBKeyList.this.set(index, element);
+        }
+
+        @Override
+        public void add(int index, DBKey element) {
+            DBKeyList.this.add(index, element);
+        }
+
+        @Override
+        public DBKey remove(int index) {
+            return DBKeyList.this.remove(index);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    };
+
+    public DBKeyList() {
+        this(10);
+    }
+
+    public DBKeyList(int capacity) {
+        super(0);
+        ids = (capacity == 0) ? NO_IDS : new long[capacity];
+        offsets = new int[capacity + 1];
+        bytes = NO_BYTES;
+    }
+
+    public DBKeyList(Collection<? extends DBKey> keys) {
+        this(keys.size());
+        addAll(keys);
+    }
+
+    public long id(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    /**
+     * Bytes of the columns that hold the keys. Does not include unused capacity.
+     */
+    public long memoryUsage() {
+        return (count * 12L) + offsets[count];
+    }
+
+    /**
+     * Binary search for {@code key} with the same contract as
+     * {@link Collections#binarySearch(List, Object)}.
+     */
+    @Override
+    public int binarySearch(DBKey key) {
+        if (Raw.usesLongCompare()) {
+            return Collections.binarySearch(view, key);
+        }
+        long id = key.id();
+        byte[] raw = key.rawKey().toBytes();
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareAt(mid, id, raw);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Compare entry {@code index} with a key in the same order as {@link DBKey#compareTo(DBKey)}.
+     */
+    private int compareAt(int index, long id, byte[] raw) {
+        long current = ids[index];
+        if (current != id) {
+            return current > id ? 1 : -1;
+        }
+        int start = offsets[index];
+        int length = offsets[index + 1] - start;
+        int limit = Math.min(length, raw.length);
+        for (int i = 0; i < limit; i++) {
+            int a = bytes[start + i] & 0xff;
+            int b = raw[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - raw.length;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+    }
+
+    private void checkPositionIndex(int index) {
+        if (index < 0 || index > count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+    }
+
+    private void growEntries(int minCapacity) {
+        if (minCapacity > ids.length) {
+            int capacity = Math.max(minCapacity, ids.length + (ids.length >> 1) + 1);
+            ids = Arrays.copyOf(ids, capacity);
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+        }
+    }
+
+    private void growBytes(int minCapacity) {
+        if (minCapacity > bytes.length) {
+            int capacity = Math.max(minCapacity, bytes.length + (bytes.length >> 1) + 16);
+            bytes = Arrays.copyOf(bytes, capacity);
+        }
+    }
+
+    /**
+     * Resize the key bytes of entry {@code index} to {@code length} bytes
+     * and shift the keys that follow it.
+     */
+    private void resizeKey(int index, int length) {
+        int start = offsets[index];
+        int delta = length - (offsets[index + 1] - start);
+        if (delta == 0) {
+            return;
+        }
+        int end = offsets[count];
+        growBytes(end + delta);
+        int tail = offsets[index + 1];
+        System.arraycopy(bytes, tail, bytes, tail + delta, end - tail);
+        for (int i = index + 1; i <= count; i++) {
+            offsets[i] += delta;
+        }
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    @Override
+    public DBKey get(int index) {
+        checkIndex(index);
+        int start = offsets[index];
+        int end = offsets[index + 1];
+        Raw key = (start == end) ? null : Raw.get(Arrays.copyOfRange(bytes, start, end));
+        return new DBKey(ids[index], key);
+    }
+
+    @Override
+    public DBKey set(int index, DBKey element) {
+        DBKey prev = get(index);
+        byte[] raw = element.rawKey().toBytes();
+        resizeKey(index, raw.length);
+        System.arraycopy(raw, 0, bytes, offsets[index], raw.length);
+        ids[index] = element.id();
+        return prev;
+    }
+
+    @Override
+    public boolean add(DBKey element) {
+        add(count, element);
+        return true;
+    }
+
+    @Override
+    public void add(int index, DBKey element) {
+        checkPositionIndex(index);
+        growEntries(count + 1);
+        System.arraycopy(ids, index, ids, index + 1, count - index);
+        System.arraycopy(offsets, index, offsets, index + 1, count - index + 1);
+        ids[index] = element.id();
+        count++;
+        // the new entry starts out empty and is then resized to hold its key
+        byte[] raw = element.rawKey().toBytes();
+        resizeKey(index, raw.length);
+        System.arraycopy(raw, 0, bytes, offsets[index], raw.length);
+        modCount++;
+    }
+
+    @Override
+    public DBKey remove(int index) {
+        DBKey prev = get(index);
+        resizeKey(index, 0);
+        System.arraycopy(ids, index + 1, ids, index, count - index - 1);
+        System.arraycopy(offsets, index + 1, offsets, index, count - index);
+        count--;
+        modCount++;
+        return prev;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int index = indexOf(o);
+        if (index >= 0) {
+            remove(index);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        count = 0;
+        offsets[0] = 0;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends DBKey> c) {
+        return addAll(count, c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends DBKey> c) {
+        checkPositionIndex(index);
+        growEntries(count + c.size());
+        for (DBKey key : c) {
+            add(index++, key);
+        }
+        return !c.isEmpty();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        for (int i = toIndex - 1; i >= fromIndex; i--) {
+            remove(i);
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return view.indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return view.lastIndexOf(o);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        return view.removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        return view.retainAll(c);
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super DBKey> filter) {
+        return view.removeIf(filter);
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<DBKey> operator) {
+        view.replaceAll(operator);
+    }
+
+    @Override
+    public void sort(Comparator<? super DBKey> c) {
+        view.sort(c);
+    }
+
+    @Override
+    public void forEach(Consumer<? super DBKey> action) {
+        view.forEach(action);
+    }
+
+    @Override
+    public Iterator<DBKey> iterator() {
+        return view.iterator();
+    }
+
+    @Override
+    public ListIterator<DBKey> listIterator() {
+        return view.listIterator();
+    }
+
+    @Override
+    public ListIterator<DBKey> listIterator(int index) {
+        return view.listIterator(index);
+    }
+
+    @Override
+    public List<DBKey> subList(int fromIndex, int toIndex) {
+        return view.subList(fromIndex, toIndex);
+    }
+
+    @Override
+    public Spliterator<DBKey> spliterator() {
+        return view.spliterator();
+    }
+
+    @Override
+    public Object[] toArray() {
+        return view.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        return view.toArray(a);
+    }
+
+    @Override
+    public void trimToSize() {
+        ids = Arrays.copyOf(ids, count);
+        offsets = Arrays.copyOf(offsets, count + 1);
+        bytes = Arrays.copyOf(bytes, offsets[count]);
+    }
+
+    @Override
+    public void ensureCapacity(int minCapacity) {
+        growEntries(minCapacity);
+    }
+
+    @Override
+    public Object clone() {
+        return new DBKeyList(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return view.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return view.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return view.toString();
+    }
+}
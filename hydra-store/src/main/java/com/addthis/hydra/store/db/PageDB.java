@@ -30,9 +30,14 @@ import com.addthis.basis.util.Parameter;
 
 import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.common.PageFactory;
+import com.addthis.hydra.store.compress.PageCodec;
+import com.addthis.hydra.store.compress.PageCodecs;
+import com.addthis.hydra.store.compress.ZstdDictionaryPageCodec;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.ConcurrentByteStoreBDB;
+import com.addthis.hydra.store.kv.LogByteStore;
 import com.addthis.hydra.store.kv.MapDbByteStore;
+import com.addthis.hydra.store.kv.OffHeapCachingByteStore;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
 
 import com.addthis.hydra.store.nonconcurrent.NonConcurrentPageCache;
@@ -50,11 +55,13 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
 
     static final String PAGED_MAP_DB = "paged.mapdb";
     static final String PAGED_BERK_DB = "paged.bdb";
+    static final String PAGED_LOG_DB = "paged.log";
 
     public static final String DB_TYPE_FILENAME = "db.type";
 
     static final String defaultDbName = Parameter.value("pagedb.dbname", "db.key");
     static final String DEFAULT_BYTESTORE = Parameter.value("pagedb.bytestore", PAGED_BERK_DB);
+    static final long DEFAULT_OFFHEAP_BYTES = Parameter.longValue("pagedb.offheap.bytes", 0);
 
     private final PagedKeyValueStore<DBKey, V> eps;
     private final DBKeyCoder<V> keyCoder;
@@ -71,6 +78,10 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
         // Optional parameters - initialized to default values;
         protected String dbname = defaultDbName;
         protected PageFactory<DBKey, V> pageFactory = ConcurrentPage.ConcurrentPageFactory.singleton;
+        protected String pageCodec = null;
+        protected String byteStore = DEFAULT_BYTESTORE;
+        protected long offHeapCacheBytes = DEFAULT_OFFHEAP_BYTES;
+        protected String metricsScope = null;
 
         public Builder(File dir, Class<? extends V> clazz, int maxPageSize, int maxPages) {
             this.dir = dir;
@@ -89,8 +100,46 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
             return this;
         }
 
+        /**
+         * Name of the {@link PageCodec} used to write pages. Null selects
+         * {@link PageCodecs#defaultCodec()}. Pages written with any other
+         * codec remain readable and are rewritten as they are evicted.
+         */
+        public Builder<V> pageCodec(String value) {
+            this.pageCodec = value;
+            return this;
+        }
+
+        /**
+         * Backing store for a new database: {@code paged.bdb}, {@code paged.mapdb}
+         * or {@code paged.log}. An existing database keeps the store it was created
+         * with. Null selects the {@code pagedb.bytestore} default.
+         */
+        public Builder<V> byteStore(String value) {
+            this.byteStore = (value != null) ? value : DEFAULT_BYTESTORE;
+            return this;
+        }
+
+        /**
+         * Bytes of direct memory used to cache encoded pages between the page cache
+         * and the backing store. Zero disables the off-heap cache.
+         */
+        public Builder<V> offHeapCacheBytes(long value) {
+            this.offHeapCacheBytes = value;
+            return this;
+        }
+
+        /**
+         * Prefix of the scope of the page cache metrics. Null leaves them untagged.
+         */
+        public Builder<V> metricsScope(String value) {
+            this.metricsScope = value;
+            return this;
+        }
+
         public PageDB<V> build() throws IOException {
-            return new PageDB<>(dir, clazz, dbname, maxPageSize, maxPages, pageFactory);
+            return new PageDB<>(dir, clazz, dbname, maxPageSize, maxPages, pageFactory, pageCodec, byteStore,
+                                offHeapCacheBytes, metricsScope);
         }
     }
 
@@ -104,7 +153,30 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
 
     public PageDB(File dir, Class<? extends V> clazz, String dbname, int maxPageSize,
                   int maxPages, PageFactory<DBKey, V> factory) throws IOException {
-        String dbType = getByteStoreNameForFile(dir);
+        this(dir, clazz, dbname, maxPageSize, maxPages, factory, null);
+    }
+
+    public PageDB(File dir, Class<? extends V> clazz, String dbname, int maxPageSize,
+                  int maxPages, PageFactory<DBKey, V> factory, String codecName) throws IOException {
+        this(dir, clazz, dbname, maxPageSize, maxPages, factory, codecName, DEFAULT_BYTESTORE);
+    }
+
+    public PageDB(File dir, Class<? extends V> clazz, String dbname, int maxPageSize,
+                  int maxPages, PageFactory<DBKey, V> factory, String codecName,
+                  String defaultDbType) throws IOException {
+        this(dir, clazz, dbname, maxPageSize, maxPages, factory, codecName, defaultDbType, DEFAULT_OFFHEAP_BYTES);
+    }
+
+    public PageDB(File dir, Class<? extends V> clazz, String dbname, int maxPageSize,
+                  int maxPages, PageFactory<DBKey, V> factory, String codecName,
+                  String defaultDbType, long offHeapCacheBytes) throws IOException {
+        this(dir, clazz, dbname, maxPageSize, maxPages, factory, codecName, defaultDbType, offHeapCacheBytes, null);
+    }
+
+    public PageDB(File dir, Class<? extends V> clazz, String dbname, int maxPageSize,
+                  int maxPages, PageFactory<DBKey, V> factory, String codecName,
+                  String defaultDbType, long offHeapCacheBytes, String metricsScope) throws IOException {
+        String dbType = getByteStoreNameForFile(dir, defaultDbType);
         this.keyCoder = new DBKeyCoder<>(clazz);
         LessFiles.initDirectory(dir);
         ByteStore store;
@@ -112,22 +184,36 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
             case PAGED_MAP_DB:
                 store = new MapDbByteStore(dir, dbname);
                 break;
+            case PAGED_LOG_DB:
+                store = new LogByteStore(dir, dbname);
+                break;
             case PAGED_BERK_DB:
                 // fall through -- the previous dbType was always something like 'pagedb' so this is expected
             default:
                 store = new ConcurrentByteStoreBDB(dir, dbname);
                 break;
         }
+        PageCodec codec = PageCodecs.forDatabase(codecName, dir, store);
+        // share the instance so that pages written with the dictionary codec are not rewritten on every load
+        PageCodec dictionary = (codec instanceof ZstdDictionaryPageCodec) ? codec : ZstdDictionaryPageCodec.load(dir);
+        if (offHeapCacheBytes > 0) {
+            store = new OffHeapCachingByteStore(store, offHeapCacheBytes);
+        }
 
         switch (factory.getType()) {
             case NON_CONCURRENT:
                 this.eps =  new NonConcurrentPageCache.Builder<>(keyCoder, store, maxPageSize)
-                        .maxPages(maxPages).pageFactory(factory).build();
+                        .maxPages(maxPages).pageFactory(factory)
+                        .pageCodec(codec).dictionaryCodec(dictionary)
+                        .metricsScope(metricsScope).build();
                 break;
             case CONCURRENT:
+            case OPTIMISTIC:
             default:
                 this.eps =  new SkipListCache.Builder<>(keyCoder, store, maxPageSize)
-                        .maxPages(maxPages).pageFactory(factory).build();
+                        .maxPages(maxPages).pageFactory(factory)
+                        .pageCodec(codec).dictionaryCodec(dictionary)
+                        .metricsScope(metricsScope).build();
                 break;
         }
 
@@ -135,11 +221,18 @@ public class PageDB<V extends BytesCodable> implements IPageDB<DBKey, V> {
     }
 
     public static String getByteStoreNameForFile(File dir) throws IOException {
+        return getByteStoreNameForFile(dir, DEFAULT_BYTESTORE);
+    }
+
+    /**
+     * Store type recorded in {@code dir} or {@code defaultType} if the database is new.
+     */
+    public static String getByteStoreNameForFile(File dir, String defaultType) throws IOException {
         File typeFile = new File(dir, DB_TYPE_FILENAME);
         if (typeFile.exists()) {
             return new String(LessFiles.read(typeFile));
         } else {
-            return DEFAULT_BYTESTORE;
+            return defaultType;
         }
     }
 
@@ -13,8 +13,11 @@
  */
 package com.addthis.hydra.store.db;
 
+import javax.annotation.Nullable;
+
 import com.addthis.codec.Codec;
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.kv.PageDictionary;
 import com.addthis.hydra.store.kv.PageEncodeType;
 
 /**
@@ -30,8 +33,8 @@ public class ReadDBKeyCoder<V extends IReadWeighable & BytesCodable> extends DBK
     }
 
     @Override
-    public V valueDecode(byte[] value, PageEncodeType encodeType) {
-        V val = super.valueDecode(value, encodeType);
+    public V valueDecode(byte[] value, PageEncodeType encodeType, @Nullable PageDictionary dictionary) {
+        V val = super.valueDecode(value, encodeType, dictionary);
         val.setWeight(value.length);
         return val;
     }
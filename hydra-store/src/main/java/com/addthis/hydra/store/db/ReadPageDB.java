@@ -26,8 +26,10 @@ import com.addthis.basis.util.Parameter;
 import com.addthis.codec.Codec;
 import com.addthis.codec.binary.CodecBin2;
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.compress.ZstdDictionaryPageCodec;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.ByteStoreBDB;
+import com.addthis.hydra.store.kv.LogByteStore;
 import com.addthis.hydra.store.kv.MapDbByteStore;
 import com.addthis.hydra.store.kv.PagedKeyValueStore;
 import com.addthis.hydra.store.kv.ReadExternalPagedStore;
@@ -68,6 +70,9 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
             case PageDB.PAGED_MAP_DB:
                 store = new MapDbByteStore(dir, defaultDbName, true);
                 break;
+            case PageDB.PAGED_LOG_DB:
+                store = new LogByteStore(dir, defaultDbName, true);
+                break;
             case PageDB.PAGED_BERK_DB:
                 // fall through -- the previous dbType was always something like 'pagedb' so this
                 // is expected
@@ -76,7 +81,7 @@ public class ReadPageDB<V extends IReadWeighable & BytesCodable> implements IPag
                 break;
         }
         this.eps = new ReadExternalPagedStore<>(new ReadDBKeyCoder<>(codec, clazz), store, maxSize,
-                                                maxWeight, metrics);
+                                                maxWeight, metrics, ZstdDictionaryPageCodec.load(dir));
     }
 
     public String toString() {
@@ -15,6 +15,7 @@
 package com.addthis.hydra.store.kv;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 public interface ByteStore {
@@ -34,6 +35,17 @@ public interface ByteStore {
 
     public void put(byte[] key, byte[] val);
 
+    /**
+     * Write several entries at once. Implementations should amortize the
+     * per-write overhead of the store across the batch. Entries are written
+     * in list order.
+     */
+    default void putBatch(List<Map.Entry<byte[], byte[]>> entries) {
+        for (Map.Entry<byte[], byte[]> entry : entries) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
     public byte[] get(byte[] key);
 
     /**
@@ -18,6 +18,7 @@ import java.io.File;
 import java.util.AbstractMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
@@ -145,6 +146,25 @@ public class ByteStoreBDB implements ByteStore {
         puts.incrementAndGet();
     }
 
+    /**
+     * Same as {@link ConcurrentByteStoreBDB#putBatch}: entries are written
+     * individually and only the statistics are updated once per batch.
+     */
+    @Override
+    public void putBatch(List<Map.Entry<byte[], byte[]>> entries) {
+        long bytes = 0;
+        for (Map.Entry<byte[], byte[]> entry : entries) {
+            byte[] key = entry.getKey();
+            byte[] val = entry.getValue();
+            if (bdb.put(null, new DatabaseEntry(key), new DatabaseEntry(val)) != opSuccess) {
+                throw new RuntimeException("put fail");
+            }
+            bytes += key.length + val.length;
+        }
+        bytesOut.addAndGet(bytes);
+        puts.addAndGet(entries.size());
+    }
+
     @Override
     public byte[] get(byte[] key) {
         final DatabaseEntry dv = new DatabaseEntry();
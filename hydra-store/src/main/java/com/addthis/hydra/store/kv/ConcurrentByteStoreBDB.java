@@ -18,6 +18,7 @@ import java.io.File;
 import java.util.AbstractMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
@@ -131,6 +132,27 @@ public class ConcurrentByteStoreBDB implements ByteStore {
         puts.incrementAndGet();
     }
 
+    /**
+     * The database is not transactional so there is no commit to share across
+     * the batch. Entries are still written one at a time rather than through a
+     * single cursor as an open cursor keeps the lock on its current record and
+     * would stall readers in other threads until the batch completes.
+     */
+    @Override
+    public void putBatch(List<Map.Entry<byte[], byte[]>> entries) {
+        long bytes = 0;
+        for (Map.Entry<byte[], byte[]> entry : entries) {
+            byte[] key = entry.getKey();
+            byte[] val = entry.getValue();
+            if (bdb.put(null, new DatabaseEntry(key), new DatabaseEntry(val)) != opSuccess) {
+                throw new RuntimeException("put fail");
+            }
+            bytes += key.length + val.length;
+        }
+        bytesOut.addAndGet(bytes);
+        puts.addAndGet(entries.size());
+    }
+
     @Override
     public byte[] get(byte[] key) {
         final DatabaseEntry dv = new DatabaseEntry();
@@ -0,0 +1,31 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nonnull;
+
+import com.addthis.codec.codables.BytesCodable;
+
+/**
+ * A {@link BytesCodable} value that can move repeated strings out of its
+ * serialization and into the {@link PageDictionary} of the page that stores it.
+ * Only used for {@link PageEncodeType#DICTIONARY} pages. The plain
+ * {@link BytesCodable} methods must still produce a self-contained encoding.
+ */
+public interface DictionaryCodable extends BytesCodable {
+
+    byte[] bytesEncode(long version, @Nonnull PageDictionary dictionary);
+
+    void bytesDecode(byte[] b, long version, @Nonnull PageDictionary dictionary);
+}
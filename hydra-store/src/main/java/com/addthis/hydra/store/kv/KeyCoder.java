@@ -17,6 +17,8 @@ package com.addthis.hydra.store.kv;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import io.netty.buffer.ByteBuf;
+
 public interface KeyCoder<K, V> {
 
     /**
@@ -59,6 +61,19 @@ public interface KeyCoder<K, V> {
      */
     byte[] valueEncode(V value, PageEncodeType encodeType);
 
+    /**
+     * Value encoding for a page that has a dictionary. The dictionary
+     * is only provided for {@link PageEncodeType#DICTIONARY} pages.
+     *
+     * @param value         input to encode
+     * @param encodeType    type of page encoding to apply to value
+     * @param dictionary    strings shared by the values of the page
+     * @return value serialization to byte array
+     */
+    default byte[] valueEncode(V value, PageEncodeType encodeType, @Nullable PageDictionary dictionary) {
+        return valueEncode(value, encodeType);
+    }
+
     /**
      * Unoptimized key encoding. Uses only the state of the
      * byte array to generate the key. The sorted order of
@@ -81,6 +96,25 @@ public interface KeyCoder<K, V> {
      */
     K keyDecode(@Nullable byte[] key, @Nonnull K baseKey, @Nonnull PageEncodeType encodeType);
 
+    /**
+     * Optimized key decoding directly from page contents. Reads
+     * {@code length} bytes starting at the reader index of the
+     * buffer and advances the reader index past them. Implementations
+     * should override this to avoid copying the key into a byte array.
+     *
+     * @param buffer        page contents
+     * @param length        length of the key serialization
+     * @param baseKey       another key value that can be used for delta decoding
+     * @param encodeType    type of page encoding to apply to key
+     * @return deserialized key
+     */
+    default K keyDecode(@Nonnull ByteBuf buffer, int length, @Nonnull K baseKey,
+                        @Nonnull PageEncodeType encodeType) {
+        byte[] key = new byte[length];
+        buffer.readBytes(key);
+        return keyDecode(key, baseKey, encodeType);
+    }
+
     /**
      * Value decoding.
      *
@@ -90,4 +124,16 @@ public interface KeyCoder<K, V> {
      */
     V valueDecode(byte[] value, @Nonnull PageEncodeType encodeType);
 
+    /**
+     * Value decoding for a page that has a dictionary.
+     *
+     * @param value         input to decode
+     * @param encodeType    type of page decoding to apply to value
+     * @param dictionary    strings shared by the values of the page
+     * @return deserialized value
+     */
+    default V valueDecode(byte[] value, @Nonnull PageEncodeType encodeType, @Nullable PageDictionary dictionary) {
+        return valueDecode(value, encodeType);
+    }
+
 }
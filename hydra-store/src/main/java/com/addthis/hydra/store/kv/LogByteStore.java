@@ -0,0 +1,645 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import com.addthis.basis.util.LessFiles;
+import com.addthis.basis.util.Parameter;
+
+import com.addthis.hydra.store.util.NamedThreadFactory;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only byte store for page sized values. Every put and delete is
+ * appended as a record to the active segment, a memory mapped file of
+ * {@link #segmentSize} bytes. An in-memory sorted index maps each key to
+ * the location of its latest record. The page cache stores one entry per
+ * page so the index is sparse relative to the tree and small enough to
+ * hold on heap. It answers all of the ordered lookups without touching
+ * the segments.
+ * <p/>
+ * Overwritten and deleted records are reclaimed by a background thread
+ * that copies the live records of a sealed segment to the active segment
+ * and then deletes the segment. There is no record cache: the page cache
+ * above this store already holds the decoded pages and the operating
+ * system holds the mapped segments.
+ * <p/>
+ * On open the segments are replayed in order to rebuild the index. A
+ * record with a bad checksum ends the replay of its segment, which
+ * drops a partially written record at the end of the log.
+ * <p/>
+ * Record layout: {@code [int size][int keyLength][int valueLength][int crc][key][value]}.
+ * A value length of -1 marks a delete.
+ */
+public class LogByteStore implements ByteStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LogByteStore.class);
+
+    static final int segmentSize = Parameter.intValue("eps.log.segment.size", 64 * 1024 * 1024);
+    // compact a sealed segment when less than this fraction of it is live
+    static final double compactRatio = Double.parseDouble(Parameter.value("eps.log.compact.ratio", "0.5"));
+    static final long compactInterval = Parameter.longValue("eps.log.compact.interval", 10000);
+
+    static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int HEADER = 16;
+    private static final int DELETED = -1;
+
+    private final File dir;
+    private final String dbname;
+    private final boolean readonly;
+    private final int segmentCapacity;
+    private final ConcurrentSkipListMap<byte[], Long> index =
+            new ConcurrentSkipListMap<>(UnsignedBytes.lexicographicalComparator());
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    /**
+     * Held for writing only to remove a segment. Readers hold it across the
+     * index lookup and the segment read so the segment cannot disappear in between.
+     */
+    private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+    /**
+     * Serializes appends and every index update that depends on the current location of a key.
+     */
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final AtomicLong gets = new AtomicLong(0);
+    private final AtomicLong puts = new AtomicLong(0);
+    private final AtomicLong bytesIn = new AtomicLong(0);
+    private final AtomicLong bytesOut = new AtomicLong(0);
+    private final AtomicLong compactedSegments = new AtomicLong(0);
+    @Nullable private final ScheduledExecutorService compactor;
+
+    private Segment active;
+    private volatile boolean closed;
+
+    public LogByteStore(File dir, String dbname) {
+        this(dir, dbname, false);
+    }
+
+    public LogByteStore(File dir, String dbname, boolean readonly) {
+        this(dir, dbname, readonly, segmentSize);
+    }
+
+    LogByteStore(File dir, String dbname, boolean readonly, int segmentCapacity) {
+        this.dir = LessFiles.initDirectory(dir);
+        this.dbname = dbname;
+        this.readonly = readonly;
+        this.segmentCapacity = segmentCapacity;
+        try {
+            replay();
+            if (!readonly) {
+                if (segments.isEmpty()) {
+                    active = createSegment(0, segmentCapacity);
+                } else {
+                    active = segments.lastEntry().getValue();
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (readonly) {
+            compactor = null;
+        } else {
+            compactor = Executors.newSingleThreadScheduledExecutor(
+                    new NamedThreadFactory("log-compact-" + dir.getName() + "-", true));
+            compactor.scheduleWithFixedDelay(this::compactQuietly, compactInterval, compactInterval,
+                                             TimeUnit.MILLISECONDS);
+        }
+        log.info("log ByteStore opened {} segments with {} keys in {}", segments.size(), index.size(), dir);
+    }
+
+    @Override
+    public String toString() {
+        return "LBS[" + gets + "," + puts + "," + segments.size() + "]";
+    }
+
+    @Override
+    public boolean hasKey(byte[] key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return readonly;
+    }
+
+    @Override
+    public byte[] firstKey() {
+        Map.Entry<byte[], Long> first = index.firstEntry();
+        return (first == null) ? null : first.getKey();
+    }
+
+    @Override
+    public byte[] lastKey() {
+        Map.Entry<byte[], Long> last = index.lastEntry();
+        return (last == null) ? null : last.getKey();
+    }
+
+    @Override
+    public byte[] delete(byte[] key) {
+        checkWritable();
+        appendLock.lock();
+        try {
+            if (index.containsKey(key)) {
+                append(key, null);
+                release(index.remove(key));
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        return index.lowerKey(key);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] val) {
+        checkWritable();
+        appendLock.lock();
+        try {
+            long location = append(key, val);
+            active.live.addAndGet(recordSize(key.length, val.length));
+            release(index.put(key, location));
+        } finally {
+            appendLock.unlock();
+        }
+        bytesOut.addAndGet(key.length + val.length);
+        puts.incrementAndGet();
+    }
+
+    /**
+     * Append all of the entries while holding the append lock once.
+     */
+    @Override
+    public void putBatch(List<Map.Entry<byte[], byte[]>> entries) {
+        checkWritable();
+        long bytes = 0;
+        appendLock.lock();
+        try {
+            for (Map.Entry<byte[], byte[]> entry : entries) {
+                byte[] key = entry.getKey();
+                byte[] val = entry.getValue();
+                long location = append(key, val);
+                active.live.addAndGet(recordSize(key.length, val.length));
+                release(index.put(key, location));
+                bytes += key.length + val.length;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        bytesOut.addAndGet(bytes);
+        puts.addAndGet(entries.size());
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        segmentLock.readLock().lock();
+        try {
+            Long location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            byte[] val = readValue(location);
+            bytesIn.addAndGet(key.length + val.length);
+            gets.incrementAndGet();
+            return val;
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public byte[] higherKey(byte[] key) {
+        return index.higherKey(key);
+    }
+
+    @Override
+    public byte[] lowerKey(byte[] key) {
+        return index.lowerKey(key);
+    }
+
+    @Override
+    public byte[] floorKey(byte[] key) {
+        return index.floorKey(key);
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> floorEntry(byte[] key) {
+        segmentLock.readLock().lock();
+        try {
+            Map.Entry<byte[], Long> floor = index.floorEntry(key);
+            if (floor == null) {
+                return null;
+            }
+            byte[] val = readValue(floor.getValue());
+            gets.incrementAndGet();
+            bytesIn.addAndGet(floor.getKey().length + val.length);
+            return new AbstractMap.SimpleImmutableEntry<>(floor.getKey(), val);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public byte[] firstEntry() {
+        byte[] first = firstKey();
+        return (first == null) ? null : get(first);
+    }
+
+    /**
+     * Iterate over the keys starting at the greatest key less than or equal
+     * to {@code start}, matching the behavior of {@link ConcurrentByteStoreBDB}.
+     */
+    @Override
+    public Iterator<byte[]> keyIterator(byte[] start) {
+        byte[] from = (start == null || start.length == 0) ? null : index.floorKey(start);
+        NavigableMap<byte[], Long> tail = (from == null) ? index : index.tailMap(from, true);
+        return tail.keySet().iterator();
+    }
+
+    @Override
+    public void close() {
+        close(false);
+    }
+
+    /**
+     * Close the store.
+     *
+     * @param cleanLog if true then compact every segment holding overwritten records before closing.
+     */
+    @Override
+    public void close(boolean cleanLog) {
+        if (closed) {
+            return;
+        }
+        log.info("Closing log store for: " + dir.getAbsolutePath());
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (cleanLog && !readonly) {
+            compact(1.0);
+        }
+        closed = true;
+        if (!readonly) {
+            appendLock.lock();
+            try {
+                active.buffer.force();
+            } finally {
+                appendLock.unlock();
+            }
+        }
+        log.info("pages:gets=" + gets + " puts=" + puts + " in=" + bytesIn + " out=" + bytesOut +
+                 " segments=" + segments.size() + " compacted=" + compactedSegments);
+    }
+
+    @Override
+    public long count() {
+        return index.size();
+    }
+
+    /**
+     * Number of segment files currently backing the store.
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Compact every sealed segment with a live fraction below {@code ratio}.
+     *
+     * @return number of segments that were compacted
+     */
+    public int compact(double ratio) {
+        int compacted = 0;
+        for (Segment segment : segments.values()) {
+            if (closed) {
+                break;
+            }
+            if (segment == activeSegment()) {
+                continue;
+            }
+            if (segment.live.get() < ratio * segment.end) {
+                try {
+                    compact(segment);
+                    compacted++;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }
+        return compacted;
+    }
+
+    private Segment activeSegment() {
+        appendLock.lock();
+        try {
+            return active;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact(compactRatio);
+        } catch (Exception ex) {
+            log.warn("log compaction failed for {}", dir, ex);
+        }
+    }
+
+    /**
+     * Copy the records of {@code segment} that the index still points to into the
+     * active segment and delete it. A delete record is kept only while an older
+     * segment may still hold a record for its key.
+     */
+    private void compact(Segment segment) throws IOException {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        int copied = 0;
+        while (position < segment.end) {
+            int size = buffer.getInt(position);
+            int keyLength = buffer.getInt(position + 4);
+            int valueLength = buffer.getInt(position + 8);
+            byte[] key = new byte[keyLength];
+            buffer.position(position + HEADER);
+            buffer.get(key);
+            long location = location(segment.id, position);
+            appendLock.lock();
+            try {
+                if (valueLength == DELETED) {
+                    if (!index.containsKey(key) && segments.firstKey() < segment.id) {
+                        append(key, null);
+                    }
+                } else {
+                    Long current = index.get(key);
+                    if (current != null && current == location) {
+                        byte[] val = new byte[valueLength];
+                        buffer.get(val);
+                        long moved = append(key, val);
+                        active.live.addAndGet(size);
+                        index.put(key, moved);
+                        copied++;
+                    }
+                }
+            } finally {
+                appendLock.unlock();
+            }
+            position += size;
+        }
+        // the copies must be durable before the only other copy of the records is deleted
+        appendLock.lock();
+        try {
+            active.buffer.force();
+        } finally {
+            appendLock.unlock();
+        }
+        segmentLock.writeLock().lock();
+        try {
+            segments.remove(segment.id);
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+        // the mapping is released when the buffer is collected
+        if (!segment.file.delete()) {
+            log.warn("unable to delete compacted segment {}", segment.file);
+        }
+        compactedSegments.incrementAndGet();
+        log.debug("compacted segment {} moving {} records", segment.file, copied);
+    }
+
+    private void checkWritable() {
+        if (readonly) {
+            throw new UnsupportedOperationException("log store " + dir + " is read only");
+        }
+    }
+
+    /**
+     * Append a record to the active segment, rolling over to a new segment
+     * when it does not fit. Caller must hold {@link #appendLock}.
+     *
+     * @param val value or null to append a delete record
+     * @return location of the new record
+     */
+    private long append(byte[] key, @Nullable byte[] val) {
+        int valueLength = (val == null) ? DELETED : val.length;
+        int size = recordSize(key.length, valueLength);
+        if (active.buffer.capacity() - active.end < size) {
+            roll(size);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        if (val != null) {
+            crc.update(val);
+        }
+        ByteBuffer buffer = active.buffer.duplicate();
+        int offset = active.end;
+        buffer.position(offset);
+        buffer.putInt(size);
+        buffer.putInt(key.length);
+        buffer.putInt(valueLength);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(key);
+        if (val != null) {
+            buffer.put(val);
+        }
+        if (buffer.remaining() >= 4) {
+            // end marker, overwrites any partial record left behind by a crash
+            buffer.putInt(0);
+        }
+        active.end = offset + size;
+        return location(active.id, offset);
+    }
+
+    private void roll(int size) {
+        active.buffer.force();
+        try {
+            active = createSegment(active.id + 1, Math.max(segmentCapacity, size));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Subtract the record at {@code location} from the live bytes of its segment.
+     */
+    private void release(@Nullable Long location) {
+        if (location != null) {
+            Segment segment = segments.get(segmentId(location));
+            int offset = offset(location);
+            segment.live.addAndGet(-segment.buffer.getInt(offset));
+        }
+    }
+
+    private byte[] readValue(long location) {
+        Segment segment = segments.get(segmentId(location));
+        int offset = offset(location);
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int keyLength = buffer.getInt(offset + 4);
+        int valueLength = buffer.getInt(offset + 8);
+        byte[] val = new byte[valueLength];
+        buffer.position(offset + HEADER + keyLength);
+        buffer.get(val);
+        return val;
+    }
+
+    private Segment createSegment(int id, int capacity) throws IOException {
+        File file = segmentFile(id);
+        Segment segment;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(capacity);
+            segment = new Segment(id, file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private File segmentFile(int id) {
+        return new File(dir, String.format("%s.%08d%s", dbname, id, SEGMENT_SUFFIX));
+    }
+
+    private void replay() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        String prefix = dbname + ".";
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(prefix) && name.endsWith(SEGMENT_SUFFIX)) {
+                    String id = name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length());
+                    try {
+                        ids.add(Integer.parseInt(id));
+                    } catch (NumberFormatException ignored) {
+                        // not a segment of this store
+                    }
+                }
+            }
+        }
+        ids.sort(null);
+        for (int id : ids) {
+            File file = segmentFile(id);
+            FileChannel.MapMode mode = readonly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+            Segment segment;
+            try (RandomAccessFile raf = new RandomAccessFile(file, readonly ? "r" : "rw")) {
+                segment = new Segment(id, file, raf.getChannel().map(mode, 0, raf.length()));
+            }
+            segments.put(id, segment);
+            replay(segment);
+        }
+    }
+
+    private void replay(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        while (position + HEADER <= buffer.capacity()) {
+            int size = buffer.getInt(position);
+            if (size == 0) {
+                break;
+            }
+            int keyLength = buffer.getInt(position + 4);
+            int valueLength = buffer.getInt(position + 8);
+            int checksum = buffer.getInt(position + 12);
+            if (size < HEADER || keyLength < 0 || valueLength < DELETED ||
+                size != recordSize(keyLength, valueLength) || position + size > buffer.capacity()) {
+                log.warn("truncating {} at {}: invalid record header", segment.file, position);
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            buffer.position(position + HEADER);
+            buffer.get(key);
+            CRC32 crc = new CRC32();
+            crc.update(key);
+            if (valueLength > 0) {
+                byte[] val = new byte[valueLength];
+                buffer.get(val);
+                crc.update(val);
+            }
+            if ((int) crc.getValue() != checksum) {
+                log.warn("truncating {} at {}: checksum mismatch", segment.file, position);
+                break;
+            }
+            if (valueLength == DELETED) {
+                release(index.remove(key));
+            } else {
+                segment.live.addAndGet(size);
+                release(index.put(key, location(segment.id, position)));
+            }
+            position += size;
+        }
+        segment.end = position;
+    }
+
+    private static int recordSize(int keyLength, int valueLength) {
+        return HEADER + keyLength + Math.max(valueLength, 0);
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int segmentId(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    private static final class Segment {
+
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        // bytes of records that the index points to
+        final AtomicLong live = new AtomicLong();
+        // end of the last record, only advanced under the append lock
+        volatile int end;
+
+        Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
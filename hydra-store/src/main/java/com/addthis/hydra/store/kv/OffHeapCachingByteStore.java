@@ -0,0 +1,352 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the most recently used values of another {@link ByteStore} in direct
+ * memory. The page caches store encoded and compressed pages so a page that
+ * was evicted from the heap can be read back without a trip through the
+ * backing store. Values are cached when they are written and when they are
+ * read from the backing store, and are evicted with the CLOCK algorithm once
+ * the cache holds more than {@code capacity} bytes.
+ * <p/>
+ * Concurrent writes to the same key must be ordered by the caller. The page
+ * caches do this by holding the write lock of the page being written.
+ */
+public class OffHeapCachingByteStore implements ByteStore {
+
+    private static final Logger log = LoggerFactory.getLogger(OffHeapCachingByteStore.class);
+
+    private static final int GENERATION_STRIPES = 64;
+
+    private final ByteStore store;
+    private final long capacity;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @GuardedBy("lock")
+    private final Map<ByteBuffer, Entry> entries = new HashMap<>();
+
+    @GuardedBy("lock")
+    private final List<Entry> clock = new ArrayList<>();
+
+    @GuardedBy("lock")
+    private int hand;
+
+    @GuardedBy("lock")
+    private long size;
+
+    /**
+     * Incremented before and after every write to the backing store. A value read
+     * from the backing store is only cached if the generation of its stripe did not
+     * change during the read, otherwise it may be older than a concurrent write.
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static final class Entry {
+
+        final ByteBuffer key;
+        final ByteBuf value;
+        final int length;
+        int slot;
+        volatile boolean referenced;
+
+        Entry(ByteBuffer key, ByteBuf value, int length) {
+            this.key = key;
+            this.value = value;
+            this.length = length;
+        }
+    }
+
+    public OffHeapCachingByteStore(ByteStore store, long capacity) {
+        this.store = store;
+        this.capacity = capacity;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Bytes of values currently held in direct memory.
+     */
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int stripe(ByteBuffer key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    @Override
+    public boolean hasKey(byte[] key) {
+        lock.readLock().lock();
+        try {
+            if (entries.containsKey(ByteBuffer.wrap(key))) {
+                return true;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return store.hasKey(key);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return store.isReadOnly();
+    }
+
+    @Override
+    public byte[] firstKey() {
+        return store.firstKey();
+    }
+
+    @Override
+    public byte[] lastKey() {
+        return store.lastKey();
+    }
+
+    @Override
+    public byte[] delete(byte[] key) {
+        ByteBuffer wrapped = ByteBuffer.wrap(key);
+        int stripe = stripe(wrapped);
+        generations.incrementAndGet(stripe);
+        byte[] prev = store.delete(key);
+        lock.writeLock().lock();
+        try {
+            generations.incrementAndGet(stripe);
+            remove(entries.get(wrapped));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return prev;
+    }
+
+    @Override
+    public void put(byte[] key, byte[] val) {
+        ByteBuffer wrapped = ByteBuffer.wrap(key);
+        int stripe = stripe(wrapped);
+        generations.incrementAndGet(stripe);
+        store.put(key, val);
+        lock.writeLock().lock();
+        try {
+            generations.incrementAndGet(stripe);
+            insert(wrapped, val);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void putBatch(List<Map.Entry<byte[], byte[]>> batch) {
+        for (Map.Entry<byte[], byte[]> entry : batch) {
+            generations.incrementAndGet(stripe(ByteBuffer.wrap(entry.getKey())));
+        }
+        store.putBatch(batch);
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<byte[], byte[]> entry : batch) {
+                ByteBuffer wrapped = ByteBuffer.wrap(entry.getKey());
+                generations.incrementAndGet(stripe(wrapped));
+                insert(wrapped, entry.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        ByteBuffer wrapped = ByteBuffer.wrap(key);
+        lock.readLock().lock();
+        try {
+            Entry entry = entries.get(wrapped);
+            if (entry != null) {
+                entry.referenced = true;
+                hits.getAndIncrement();
+                byte[] result = new byte[entry.length];
+                entry.value.getBytes(0, result);
+                return result;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        misses.getAndIncrement();
+        int stripe = stripe(wrapped);
+        long generation = generations.get(stripe);
+        byte[] val = store.get(key);
+        if (val != null) {
+            lock.writeLock().lock();
+            try {
+                if (generations.get(stripe) == generation && !entries.containsKey(wrapped)) {
+                    insert(wrapped, val);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return val;
+    }
+
+    @Override
+    public byte[] higherKey(byte[] key) {
+        return store.higherKey(key);
+    }
+
+    @Override
+    public byte[] lowerKey(byte[] key) {
+        return store.lowerKey(key);
+    }
+
+    @Override
+    public byte[] floorKey(byte[] key) {
+        return store.floorKey(key);
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> floorEntry(byte[] key) {
+        return store.floorEntry(key);
+    }
+
+    @Override
+    public byte[] firstEntry() {
+        return store.firstEntry();
+    }
+
+    @Override
+    public Iterator<byte[]> keyIterator(byte[] start) {
+        return store.keyIterator(start);
+    }
+
+    @Override
+    public void close() {
+        close(false);
+    }
+
+    @Override
+    public void close(boolean cleanLog) {
+        lock.writeLock().lock();
+        try {
+            for (Entry entry : clock) {
+                entry.value.release();
+            }
+            clock.clear();
+            entries.clear();
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("[close] off-heap page cache hits={} misses={} evictions={}",
+                 hits.get(), misses.get(), evictions.get());
+        store.close(cleanLog);
+    }
+
+    @Override
+    public long count() {
+        return store.count();
+    }
+
+    @GuardedBy("lock")
+    private void insert(ByteBuffer key, byte[] val) {
+        remove(entries.get(key));
+        // a single value larger than a quarter of the cache would flush most of it
+        if (val.length > capacity / 4) {
+            return;
+        }
+        while (size + val.length > capacity && !clock.isEmpty()) {
+            evict();
+        }
+        ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer(val.length, val.length);
+        buffer.writeBytes(val);
+        Entry entry = new Entry(key, buffer, val.length);
+        entry.referenced = true;
+        entry.slot = clock.size();
+        clock.add(entry);
+        entries.put(key, entry);
+        size += val.length;
+    }
+
+    /**
+     * Advance the clock hand until it reaches an entry that has not been
+     * referenced since the hand last passed it and remove that entry.
+     */
+    @GuardedBy("lock")
+    private void evict() {
+        while (true) {
+            if (hand >= clock.size()) {
+                hand = 0;
+            }
+            Entry entry = clock.get(hand);
+            if (entry.referenced) {
+                entry.referenced = false;
+                hand++;
+            } else {
+                remove(entry);
+                evictions.getAndIncrement();
+                return;
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private void remove(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        entries.remove(entry.key);
+        // move the last entry into the free slot, the hand stays on the moved entry
+        Entry last = clock.remove(clock.size() - 1);
+        if (last != entry) {
+            last.slot = entry.slot;
+            clock.set(entry.slot, last);
+        }
+        size -= entry.length;
+        entry.value.release();
+    }
+}
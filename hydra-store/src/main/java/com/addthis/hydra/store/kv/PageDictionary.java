@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import javax.annotation.Nonnull;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+import java.nio.charset.StandardCharsets;
+
+import com.addthis.basis.util.Varint;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Table of strings that are shared by the values of a {@link PageEncodeType#DICTIONARY} page.
+ * Each entry is a short tuple of strings, for example the name and class of a tree node
+ * attachment. Values refer to an entry by its index and the table is written once per page.
+ * <p/>
+ * Entries are only ever appended so an index stays valid for the lifetime of the dictionary.
+ * This allows raw values that were decoded with the dictionary to be written back out
+ * unchanged with the same dictionary. All methods are thread safe.
+ */
+public final class PageDictionary {
+
+    private final List<String[]> entries;
+
+    private final HashMap<List<String>, Integer> indices;
+
+    /**
+     * Object resolved from each entry by {@link #resolve(int, Function)}. Never written.
+     */
+    private final List<Object> resolved;
+
+    public PageDictionary() {
+        this(4);
+    }
+
+    private PageDictionary(int capacity) {
+        entries = new ArrayList<>(capacity);
+        indices = new HashMap<>(capacity * 2);
+        resolved = new ArrayList<>(capacity);
+    }
+
+    /**
+     * Returns the index of the entry and appends it if it is not already present.
+     */
+    public synchronized int index(@Nonnull String... entry) {
+        List<String> key = Arrays.asList(entry);
+        Integer index = indices.get(key);
+        if (index == null) {
+            index = entries.size();
+            entries.add(entry);
+            resolved.add(null);
+            indices.put(key, index);
+        }
+        return index;
+    }
+
+    @Nonnull
+    public synchronized String[] entry(int index) {
+        if (index >= entries.size()) {
+            throw new IllegalStateException("page dictionary has " + entries.size() +
+                                            " entries and no entry " + index);
+        }
+        return entries.get(index);
+    }
+
+    /**
+     * Returns the result of applying {@code resolver} to the entry. The result is
+     * computed once per entry and then reused, so that expensive lookups such
+     * as resolving a class name happen once per page and not once per value.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T resolve(int index, @Nonnull Function<String[], T> resolver) {
+        String[] entry;
+        synchronized (this) {
+            Object result = resolved.get(index);
+            if (result != null) {
+                return (T) result;
+            }
+            entry = entries.get(index);
+        }
+        T result = resolver.apply(entry);
+        synchronized (this) {
+            resolved.set(index, result);
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void write(@Nonnull DataOutput out) throws IOException {
+        Varint.writeUnsignedVarInt(entries.size(), out);
+        for (String[] entry : entries) {
+            Varint.writeUnsignedVarInt(entry.length, out);
+            for (String element : entry) {
+                byte[] bytes = element.getBytes(StandardCharsets.UTF_8);
+                Varint.writeUnsignedVarInt(bytes.length, out);
+                out.write(bytes);
+            }
+        }
+    }
+
+    @Nonnull
+    public static PageDictionary read(@Nonnull ByteBuf in) {
+        int size = Varint.readUnsignedVarInt(in);
+        PageDictionary dictionary = new PageDictionary(size);
+        for (int i = 0; i < size; i++) {
+            String[] entry = new String[Varint.readUnsignedVarInt(in)];
+            for (int j = 0; j < entry.length; j++) {
+                int length = Varint.readUnsignedVarInt(in);
+                entry[j] = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+                in.skipBytes(length);
+            }
+            dictionary.index(entry);
+        }
+        return dictionary;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PageDictionary{size=" + entries.size() + "}";
+    }
+}
@@ -14,89 +14,82 @@
 package com.addthis.hydra.store.kv;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import com.addthis.basis.util.LessBytes;
+import com.addthis.basis.util.Parameter;
 import com.addthis.basis.util.Varint;
 
 import com.google.common.primitives.Ints;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 
 public enum PageEncodeType {
     LEGACY,
     SPARSE,
-    LONGIDS;
+    LONGIDS,
+    /**
+     * Same as {@link #LONGIDS} followed by a {@link PageDictionary}
+     * that is shared by the {@link DictionaryCodable} values of the page.
+     */
+    DICTIONARY;
 
     /**
-     * Reads the next integer from the input stream.
+     * Encoding of newly written pages. Pages are always read with the
+     * encoding recorded in their header, so switching back to
+     * {@link #LONGIDS} is possible while pages of both types exist.
+     */
+    private static final PageEncodeType defaultType =
+            valueOf(Parameter.value("eps.page.encode.type", "LONGIDS").toUpperCase());
+
+    /**
+     * Reads the next integer from the buffer.
      *
-     * @param in   input stream
-     * @param dis  possible data input stream wrapping the input stream
+     * @param buf  page contents
      * @return integer value
      * @throws IOException
      */
-    public int readInt(@Nullable InputStream in, @Nullable DataInputStream dis) throws IOException {
+    public int readInt(@Nonnull ByteBuf buf) throws IOException {
         switch (this) {
             case LEGACY:
-                assert in != null;
-                return (int) LessBytes.readLength(in);
+                return (int) LessBytes.readLength(new ByteBufInputStream(buf));
             case SPARSE:
             case LONGIDS:
-                assert dis != null;
-                return Varint.readUnsignedVarInt(dis);
+            case DICTIONARY:
+                return Varint.readUnsignedVarInt(buf);
             default:
                 throw new IllegalStateException("unknown state " + this);
         }
     }
 
     /**
-     * Reads the next byte array from input stream.
-     * @param in  input stream
-     * @param dis possible data input stream wrapping the input stream
+     * Reads the next byte array from the buffer.
+     *
+     * @param buf  page contents
      * @return byte array
      * @throws IOException
      */
-    public byte[] readBytes(@Nonnull InputStream in, @Nullable DataInputStream dis) throws IOException {
-        switch (this) {
-            case LEGACY:
-                return LessBytes.readBytes(in);
-            case SPARSE:
-            case LONGIDS:
-                assert dis != null;
-                return LessBytes.readBytes(in, Varint.readUnsignedVarInt(dis));
-            default:
-                throw new IllegalStateException("unknown state " + this);
-        }
+    public byte[] readBytes(@Nonnull ByteBuf buf) throws IOException {
+        byte[] bytes = new byte[readInt(buf)];
+        buf.readBytes(bytes);
+        return bytes;
     }
 
     /**
-     * Retrieves the next first key from a page.
-     * @param in  input stream
-     * @param dis possible data input stream wrapping the input stream
+     * Retrieves the next first key from the buffer.
+     *
+     * @param buf  page contents
      * @return encoded next first key
      * @throws IOException
      */
-    public byte[] nextFirstKey(@Nonnull InputStream in, @Nullable DataInputStream dis) throws IOException {
-        switch (this) {
-            case LEGACY:
-                return LessBytes.readBytes(in);
-            case SPARSE:
-            case LONGIDS: {
-                assert dis != null;
-                int nextFirstKeyLength = Varint.readUnsignedVarInt(dis);
-                if (nextFirstKeyLength > 0) {
-                    return LessBytes.readBytes(in, nextFirstKeyLength);
-                } else {
-                    return null;
-                }
-            }
-            default:
-                throw new IllegalStateException("unknown state " + this);
+    public byte[] nextFirstKey(@Nonnull ByteBuf buf) throws IOException {
+        byte[] bytes = readBytes(buf);
+        if (bytes.length == 0 && this != LEGACY) {
+            return null;
+        } else {
+            return bytes;
         }
     }
 
@@ -130,8 +123,19 @@ public enum PageEncodeType {
         }
     }
 
+    /**
+     * Returns the page encoding for a page type number stored in the page header.
+     */
+    public static PageEncodeType fromOrdinal(int pageType) {
+        PageEncodeType[] types = values();
+        if ((pageType < 0) || (pageType >= types.length)) {
+            throw new IllegalStateException("unknown page type " + pageType);
+        }
+        return types[pageType];
+    }
+
     public static PageEncodeType defaultType() {
-        return LONGIDS;
+        return defaultType;
     }
 
 }
\ No newline at end of file
@@ -13,9 +13,9 @@
  */
 package com.addthis.hydra.store.kv;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.InputStream;
+import javax.annotation.Nullable;
+
+import java.io.IOException;
 
 import java.util.Comparator;
 import java.util.Iterator;
@@ -24,12 +24,13 @@ import java.util.NoSuchElementException;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
-import java.util.zip.GZIPInputStream;
 
 import com.addthis.basis.util.ClosableIterator;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.compress.PageCodec;
+import com.addthis.hydra.store.compress.PageCodecs;
 import com.addthis.hydra.store.db.IReadWeighable;
 import com.addthis.hydra.store.db.ReadDBKeyCoder;
 import com.addthis.hydra.store.kv.metrics.ExternalPagedStoreMetrics;
@@ -39,12 +40,10 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.Weigher;
 
-import com.jcraft.jzlib.InflaterInputStream;
-import com.ning.compress.lzf.LZFInputStream;
-
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xerial.snappy.SnappyInputStream;
 
 /**
  * read only caching page store intended to play nice with the query system
@@ -88,6 +87,10 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
     //backing byte store
     private final ByteStore pages;
 
+    // dictionary of the backing store, if one has been trained
+    @Nullable
+    private final PageCodec dictionaryCodec;
+
     final KeyCoder<K, V> keyCoder;
 
     public ReadExternalPagedStore(KeyCoder<K, V> keyCoder, final ByteStore pages,
@@ -97,13 +100,20 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
 
     public ReadExternalPagedStore(final KeyCoder<K, V> keyCoder, final ByteStore pages,
                                   int maxSize, int maxWeight, boolean collect) {
+        this(keyCoder, pages, maxSize, maxWeight, collect, null);
+    }
+
+    public ReadExternalPagedStore(final KeyCoder<K, V> keyCoder, final ByteStore pages,
+                                  int maxSize, int maxWeight, boolean collect,
+                                  @Nullable PageCodec dictionaryCodec) {
         this.keyCoder = keyCoder;
         this.pages = pages;
+        this.dictionaryCodec = dictionaryCodec;
         log.info("[init] maxSize=" + maxSize + " maxWeight=" + maxWeight);
 
         collectMetrics = collectMetricsParameter || collect;
 
-        metrics = collectMetrics ? new ExternalPagedStoreMetrics() : null;
+        metrics = new ExternalPagedStoreMetrics();
 
         // Prefer evicting on weight instead of page count
         if (maxWeight != 0) {
@@ -118,9 +128,12 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
                     .build(
                             new CacheLoader<K, TreePage>() {
                                 public TreePage load(K key) throws Exception {
+                                    long start = System.nanoTime();
                                     byte[] page = pages.get(keyCoder.keyEncode(key));
                                     if (page != null) {
-                                        return pageDecode(page);
+                                        TreePage decoded = pageDecode(page);
+                                        metrics.updatePageLoad(start);
+                                        return decoded;
                                     } else {
                                         throw new ExecutionException("Source did not have page",
                                                                      new NullPointerException());
@@ -133,9 +146,12 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
                     .build(
                             new CacheLoader<K, TreePage>() {
                                 public TreePage load(K key) throws Exception {
+                                    long start = System.nanoTime();
                                     byte[] page = pages.get(keyCoder.keyEncode(key));
                                     if (page != null) {
-                                        return pageDecode(page);
+                                        TreePage decoded = pageDecode(page);
+                                        metrics.updatePageLoad(start);
+                                        return decoded;
                                     } else {
                                         throw new ExecutionException("Source did not have page",
                                                                      new NullPointerException());
@@ -175,90 +191,79 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
     public V getValue(K key) {
         KeyValuePage<K, V> page = getOrLoadPageForKey(key);
         V value = page.getValue(key);
-        if (collectMetrics) {
-            metrics.updateGetValue(value);
-        }
+        metrics.updateGetValue(value);
         return value;
     }
 
     public void close() {
+        metrics.close();
         pages.close();
     }
 
     //decode pages. Called on the bytes returned by store.get()
     private TreePage pageDecode(byte[] page) {
+        ByteBuf buffer = Unpooled.wrappedBuffer(page);
         try {
-            InputStream in = new ByteArrayInputStream(page);
-            int flags = in.read() & 0xff;
-            int gztype = flags & 0x0f;
+            int flags = buffer.readUnsignedByte();
             int pageType = flags >>> TYPE_BIT_OFFSET;
-            switch (gztype) {
-                case 1:
-                    in = new InflaterInputStream(in);
-                    break;
-                case 2:
-                    in = new GZIPInputStream(in);
-                    break;
-                case 3:
-                    in = new LZFInputStream(in);
-                    break;
-                case 4:
-                    in = new SnappyInputStream(in);
-                    break;
-            }
-            PageEncodeType pageEncodeType;
-            DataInputStream dis = null;
-            switch (pageType) {
-                case 0:
-                    pageEncodeType = PageEncodeType.LEGACY;
-                    break;
-                case 1:
-                    pageEncodeType = PageEncodeType.SPARSE;
-                    dis = new DataInputStream(in);
-                    break;
-                case 2:
-                    pageEncodeType = PageEncodeType.LONGIDS;
-                    dis = new DataInputStream(in);
-                    break;
-                default:
-                    throw new IllegalStateException("unknown page type " + pageType);
-            }
-            TreePage decode;
-            int entries = pageEncodeType.readInt(in, dis);
-            if (collectMetrics) {
-                metrics.updatePageSize(entries);
-            }
-            byte[] firstKeyBytes = pageEncodeType.readBytes(in, dis);
-            K firstKey = keyCoder.keyDecode(firstKeyBytes);
-            byte[] nextFirstKeyBytes = pageEncodeType.nextFirstKey(in, dis);
-            K nextFirstKey = keyCoder.keyDecode(nextFirstKeyBytes);
-            decode = new TreePage(firstKey).setNextFirstKey(nextFirstKey);
-            decode.originalByteSize = 4 + firstKeyBytes.length;
-            if (nextFirstKeyBytes != null) {
-                decode.originalByteSize += nextFirstKeyBytes.length;
-            }
-
-            for (int i = 0; i < entries; i++) {
-                byte[] kb = pageEncodeType.readBytes(in, dis);
-                decode.originalByteSize += kb.length;
-                byte[] vb = pageEncodeType.readBytes(in, dis);
-                decode.originalByteSize += vb.length;
-                K key = keyCoder.keyDecode(kb, firstKey, pageEncodeType);
-                decode.map.put(key, new PageValue(vb, pageEncodeType));
+            PageCodec codec = PageCodecs.forId(flags & 0x0f, dictionaryCodec);
+            PageEncodeType pageEncodeType = PageEncodeType.fromOrdinal(pageType);
+            ByteBuf in = codec.decompress(buffer);
+            try {
+                return pageDecode(in, pageEncodeType);
+            } finally {
+                in.release();
             }
-
-            //ignoring memory data
-            in.close();
-            log.debug("decoded {}", decode);
-
-            return decode;
         } catch (RuntimeException ex) {
             throw ex;
         } catch (Exception ex) {
             throw new RuntimeException(ex);
+        } finally {
+            buffer.release();
         }
     }
 
+    private TreePage pageDecode(ByteBuf in, PageEncodeType pageEncodeType) throws IOException {
+        TreePage decode;
+        int entries = pageEncodeType.readInt(in);
+        if (collectMetrics) {
+            metrics.updatePageSize(entries);
+        }
+        byte[] firstKeyBytes = pageEncodeType.readBytes(in);
+        K firstKey = keyCoder.keyDecode(firstKeyBytes);
+        byte[] nextFirstKeyBytes = pageEncodeType.nextFirstKey(in);
+        K nextFirstKey = keyCoder.keyDecode(nextFirstKeyBytes);
+        decode = new TreePage(firstKey).setNextFirstKey(nextFirstKey);
+        decode.originalByteSize = 4 + firstKeyBytes.length;
+        if (nextFirstKeyBytes != null) {
+            decode.originalByteSize += nextFirstKeyBytes.length;
+        }
+
+        for (int i = 0; i < entries; i++) {
+            int keyLength = pageEncodeType.readInt(in);
+            decode.originalByteSize += keyLength;
+            K key = keyCoder.keyDecode(in, keyLength, firstKey, pageEncodeType);
+            byte[] vb = pageEncodeType.readBytes(in);
+            decode.originalByteSize += vb.length;
+            decode.map.put(key, new PageValue(vb, pageEncodeType));
+        }
+
+        if (pageEncodeType == PageEncodeType.DICTIONARY) {
+            // skip the memory estimates to reach the dictionary
+            pageEncodeType.readInt(in);
+            pageEncodeType.readInt(in);
+            PageDictionary dictionary = PageDictionary.read(in);
+            for (PageValue value : decode.map.values()) {
+                value.dictionary = dictionary;
+            }
+        }
+
+        //ignoring memory data
+        log.debug("decoded {}", decode);
+
+        return decode;
+    }
+
     /**
      * wrapper around an individual (non-paged) value V that allows for selective
      * decoding of tree nodes from a page. Pages start off with a bunch of these.
@@ -271,6 +276,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
         private byte[] raw;
         private volatile V realValue;
         private PageEncodeType encodeType;
+        @Nullable private PageDictionary dictionary;
 
         PageValue(byte[] raw, PageEncodeType encodeType) {
             this.raw = raw;
@@ -288,7 +294,7 @@ public class ReadExternalPagedStore<K extends Comparable<K>, V extends IReadWeig
                 if (realValue != null) {
                     value = realValue;
                 } else if (r != null) {
-                    realValue = keyCoder.valueDecode(r, encodeType);
+                    realValue = keyCoder.valueDecode(r, encodeType, dictionary);
                     value = realValue;
                     raw = null;
                 }
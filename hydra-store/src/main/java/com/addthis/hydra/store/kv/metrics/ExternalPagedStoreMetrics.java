@@ -15,22 +15,26 @@ package com.addthis.hydra.store.kv.metrics;
 
 import javax.annotation.Nonnull;
 
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
 
 public class ExternalPagedStoreMetrics {
 
     private static final AtomicInteger scopeGenerator = new AtomicInteger();
 
     @Nonnull
-    private final AtomicLong getHits;
+    private final LongAdder getHits;
 
     @Nonnull
-    private final AtomicLong getMisses;
+    private final LongAdder getMisses;
 
     @Nonnull
     private final String metricsScope;
@@ -51,9 +55,13 @@ public class ExternalPagedStoreMetrics {
     @SuppressWarnings("unused")
     private final Histogram pageSize;
 
+    // Microseconds to read a page from the backing store and decode it
+    @Nonnull
+    private final Histogram pageLoadTime;
+
     public ExternalPagedStoreMetrics() {
-        getHits = new AtomicLong();
-        getMisses = new AtomicLong();
+        getHits = new LongAdder();
+        getMisses = new LongAdder();
 
         metricsScope = "ExternalPagedStoreMetrics" + Integer.toString(scopeGenerator.getAndIncrement());
 
@@ -61,7 +69,7 @@ public class ExternalPagedStoreMetrics {
                 new Gauge<Long>() {
                     @Override
                     public Long value() {
-                        return getHits.get();
+                        return getHits.sum();
                     }
                 });
 
@@ -69,7 +77,7 @@ public class ExternalPagedStoreMetrics {
                 new Gauge<Long>() {
                     @Override
                     public Long value() {
-                        return getMisses.get();
+                        return getMisses.sum();
                     }
                 });
 
@@ -77,13 +85,23 @@ public class ExternalPagedStoreMetrics {
                 new Gauge<Double>() {
                     @Override
                     public Double value() {
-                        long hits = getHits.get();
-                        long misses = getMisses.get();
+                        long hits = getHits.sum();
+                        long misses = getMisses.sum();
                         return (misses / ((double) (hits + misses)));
                     }
                 });
 
         pageSize = Metrics.newHistogram(getClass(), "pageSize", metricsScope);
+
+        pageLoadTime = Metrics.newHistogram(getClass(), "pageLoadTime", metricsScope, true);
+    }
+
+    /**
+     * A page was loaded from the backing store. {@code startNanos}
+     * is the {@link System#nanoTime()} at which the load started.
+     */
+    public void updatePageLoad(long startNanos) {
+        pageLoadTime.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
     }
 
     public void updatePageSize(int value) {
@@ -93,9 +111,21 @@ public class ExternalPagedStoreMetrics {
 
     public void updateGetValue(Object value) {
         if (value == null) {
-            getMisses.getAndIncrement();
+            getMisses.increment();
         } else {
-            getHits.getAndIncrement();
+            getHits.increment();
+        }
+    }
+
+    /**
+     * Remove these metrics from the registry.
+     */
+    public void close() {
+        MetricsRegistry registry = Metrics.defaultRegistry();
+        for (MetricName name : new ArrayList<>(registry.allMetrics().keySet())) {
+            if (metricsScope.equals(name.getScope())) {
+                registry.removeMetric(name);
+            }
         }
     }
 
@@ -13,11 +13,15 @@
  */
 package com.addthis.hydra.store.nonconcurrent;
 
+import javax.annotation.Nullable;
+
 import com.addthis.codec.codables.BytesCodable;
 import com.addthis.hydra.store.common.AbstractPageCache;
 import com.addthis.hydra.store.common.ExternalMode;
 import com.addthis.hydra.store.common.Page;
 import com.addthis.hydra.store.common.PageFactory;
+import com.addthis.hydra.store.compress.PageCodec;
+import com.addthis.hydra.store.compress.PageCodecs;
 import com.addthis.hydra.store.db.CloseOperation;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.KeyCoder;
@@ -60,6 +64,11 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
         // Optional parameters - initialized to default values;
         protected int maxPages = defaultMaxPages;
         protected PageFactory<K, V> pageFactory = NonConcurrentPage.NonConcurrentPageFactory.singleton;
+        protected PageCodec pageCodec = PageCodecs.defaultCodec();
+        @Nullable
+        protected PageCodec dictionaryCodec = null;
+        @Nullable
+        protected String metricsScope = null;
 
         public Builder(KeyCoder<K, V> keyCoder, ByteStore store, int maxPageSize) {
             this.externalStore = store;
@@ -79,20 +88,54 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
             return this;
         }
 
+        public Builder<K, V> pageCodec(PageCodec codec) {
+            pageCodec = codec;
+            return this;
+        }
+
+        public Builder<K, V> dictionaryCodec(@Nullable PageCodec codec) {
+            dictionaryCodec = codec;
+            return this;
+        }
+
+        /**
+         * Prefix of the scope of the cache metrics, for example the job and task
+         * that owns the cache. Null leaves the metrics untagged.
+         */
+        public Builder<K, V> metricsScope(@Nullable String scope) {
+            metricsScope = scope;
+            return this;
+        }
+
         public NonConcurrentPageCache<K, V> build() {
             return new NonConcurrentPageCache<>(keyCoder, externalStore, maxPageSize,
-                    maxPages, pageFactory);
+                    maxPages, pageFactory, pageCodec, dictionaryCodec, metricsScope);
         }
 
     }
 
     public NonConcurrentPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
                                   int maxPages, PageFactory<K, V> pageFactory) {
-        super(keyCoder, externalStore, pageFactory, maxPageSize, maxPages, false);
+        this(keyCoder, externalStore, maxPageSize, maxPages, pageFactory,
+             PageCodecs.defaultCodec(), null);
+    }
+
+    public NonConcurrentPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
+                                  int maxPages, PageFactory<K, V> pageFactory,
+                                  PageCodec pageCodec, @Nullable PageCodec dictionaryCodec) {
+        this(keyCoder, externalStore, maxPageSize, maxPages, pageFactory, pageCodec, dictionaryCodec, null);
+    }
+
+    public NonConcurrentPageCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
+                                  int maxPages, PageFactory<K, V> pageFactory,
+                                  PageCodec pageCodec, @Nullable PageCodec dictionaryCodec,
+                                  @Nullable String metricsScope) {
+        super(keyCoder, externalStore, pageFactory, pageCodec, dictionaryCodec, maxPageSize, maxPages,
+              false, metricsScope);
 
         log.info("[init] ro=" + isReadOnly() + " maxPageSize=" + maxPageSize +
-                " maxPages=" + maxPages + " gztype=" + NonConcurrentPage.gztype + " gzlevel=" +
-                NonConcurrentPage.gzlevel + " gzbuf=" + NonConcurrentPage.gzbuf + " mem[page=" + mem_page + " type=NonConcurrentPageCache]");
+                " maxPages=" + maxPages + " codec=" + pageCodec +
+                " dictionary=" + (dictionaryCodec != null) + " mem[page=" + mem_page + " type=NonConcurrentPageCache]");
 
     }
 
@@ -175,6 +218,10 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
                 updateMemoryEstimate(page.getMemoryEstimate() - memEstimate);
             }
 
+            if ((endOffset == pageSize) && dropCoveredPages) {
+                dropPagesBefore(page, end);
+            }
+
             if (page.size() == 0 && !page.getFirstKey().equals(negInf)) {
                 K targetKey = page.getFirstKey();
                 deletePage(targetKey);
@@ -275,7 +322,10 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
             assert (status == 0);
             log.info("pages: encoded=" + numPagesEncoded.get() +
                     " decoded=" + numPagesDecoded.get() +
-                    " split=" + numPagesSplit.get());
+                    " split=" + numPagesSplit.get() +
+                    " batches=" + numBatchesWritten.get() +
+                    " hits=" + metrics.pageHits() +
+                    " misses=" + metrics.pageMisses());
             if (trackEncodingByteUsage) {
                 log.info(MetricsUtil.histogramToString("encodeFirstKeySize", metrics.encodeFirstKeySize));
                 log.info(MetricsUtil.histogramToString("encodeNextFirstKeySize", metrics.encodeNextFirstKeySize));
@@ -286,6 +336,7 @@ public class NonConcurrentPageCache<K, V extends BytesCodable> extends AbstractP
                 log.info(MetricsUtil.histogramToString("numberKeysPerPage",
                         metrics.numberKeysPerPage));
             }
+            metrics.close();
         }
         return status;
     }
@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.skiplist;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.StampedLock;
+
+import com.addthis.codec.codables.BytesCodable;
+import com.addthis.hydra.store.common.AbstractPageCache;
+import com.addthis.hydra.store.common.PageFactory;
+import com.addthis.hydra.store.kv.PageEncodeType;
+
+/**
+ * A {@link ConcurrentPage} that can be read without acquiring its lock.
+ * Writers still take the exclusive lock of the page and additionally hold
+ * the write mode of a {@link StampedLock} for as long as they own the page.
+ * Point lookups in {@link SkipListCache} read the page optimistically and
+ * fall back to the read lock when the stamp fails to validate. Read-mostly
+ * workloads avoid the contention on the shared read lock count.
+ *
+ * @param <K> the key used to get/put values onto pages maintained by the cache
+ * @param <V> the value which must extend {@link BytesCodable}
+ */
+public class OptimisticPage<K, V extends BytesCodable> extends ConcurrentPage<K, V> {
+
+    private final StampedLock sequence = new StampedLock();
+
+    /**
+     * Stamp of the write mode of {@link #sequence} held by the
+     * thread that owns the write lock of this page.
+     */
+    @GuardedBy("lock")
+    private long sequenceStamp;
+
+    /**
+     * Number of times the current owner has acquired the write lock.
+     */
+    @GuardedBy("lock")
+    private int writeHolds;
+
+    public OptimisticPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey, PageEncodeType encodeType) {
+        super(cache, firstKey, nextFirstKey, encodeType);
+    }
+
+    public OptimisticPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey, int size, ArrayList<K> keys,
+                          ArrayList<V> values, ArrayList<byte[]> rawValues, PageEncodeType encodeType) {
+        super(cache, firstKey, nextFirstKey, size, keys, values, rawValues, encodeType);
+    }
+
+    @Override
+    public void writeLock() {
+        super.writeLock();
+        acquireSequence();
+    }
+
+    @Override
+    public boolean writeTryLock() {
+        if (super.writeTryLock()) {
+            acquireSequence();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public void writeUnlock() {
+        if (--writeHolds == 0) {
+            sequence.unlockWrite(sequenceStamp);
+        }
+        super.writeUnlock();
+    }
+
+    private void acquireSequence() {
+        if (writeHolds++ == 0) {
+            sequenceStamp = sequence.writeLock();
+        }
+    }
+
+    /**
+     * Values are decoded lazily by readers that only hold the read lock.
+     * The write mode of {@link #sequence} is taken around the store so that
+     * an optimistic reader that sees the new value fails to validate unless
+     * it started after the value was published.
+     */
+    @Override
+    protected void publishValue(int position, V value) {
+        if (isWriteLockedByCurrentThread()) {
+            super.publishValue(position, value);
+            return;
+        }
+        long stamp = sequence.writeLock();
+        try {
+            super.publishValue(position, value);
+        } finally {
+            sequence.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long tryOptimisticRead() {
+        return sequence.tryOptimisticRead();
+    }
+
+    @Override
+    public boolean validate(long stamp) {
+        return sequence.validate(stamp);
+    }
+
+    public static class OptimisticPageFactory<K, V extends BytesCodable> extends PageFactory<K, V> {
+
+        public static final OptimisticPageFactory singleton = new OptimisticPageFactory<>();
+
+        @Override
+        public TYPE getType() {
+            return TYPE.OPTIMISTIC;
+        }
+
+        private OptimisticPageFactory() {
+        }
+
+        @Override
+        protected OptimisticPage<K, V> newPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey,
+                                               PageEncodeType encodeType) {
+            return new OptimisticPage<>(cache, firstKey, nextFirstKey, encodeType);
+        }
+
+        @Override
+        protected OptimisticPage<K, V> newPage(AbstractPageCache<K, V> cache, K firstKey, K nextFirstKey, int size,
+                                               ArrayList<K> keys, ArrayList<V> values, ArrayList<byte[]> rawValues,
+                                               PageEncodeType encodeType) {
+            return new OptimisticPage<>(cache, firstKey, nextFirstKey, size, keys, values, rawValues, encodeType);
+        }
+    }
+}
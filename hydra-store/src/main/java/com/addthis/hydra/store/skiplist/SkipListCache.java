@@ -13,13 +13,16 @@
  */
 package com.addthis.hydra.store.skiplist;
 
+import javax.annotation.Nullable;
+
 import com.addthis.basis.util.Parameter;
 import com.addthis.codec.codables.BytesCodable;
-import com.addthis.hydra.store.common.AbstractPage;
 import com.addthis.hydra.store.common.AbstractPageCache;
 import com.addthis.hydra.store.common.ExternalMode;
 import com.addthis.hydra.store.common.Page;
 import com.addthis.hydra.store.common.PageFactory;
+import com.addthis.hydra.store.compress.PageCodec;
+import com.addthis.hydra.store.compress.PageCodecs;
 import com.addthis.hydra.store.db.CloseOperation;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.KeyCoder;
@@ -122,6 +125,11 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
         protected int maxPages = defaultMaxPages;
         @SuppressWarnings("unchecked")
         protected PageFactory<K, V> pageFactory = ConcurrentPage.ConcurrentPageFactory.singleton;
+        protected PageCodec pageCodec = PageCodecs.defaultCodec();
+        @Nullable
+        protected PageCodec dictionaryCodec = null;
+        @Nullable
+        protected String metricsScope = null;
 
         public Builder(KeyCoder<K, V> keyCoder, ByteStore store, int maxPageSize) {
             this.externalStore = store;
@@ -146,9 +154,28 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
             return this;
         }
 
+        public Builder<K, V> pageCodec(PageCodec codec) {
+            pageCodec = codec;
+            return this;
+        }
+
+        public Builder<K, V> dictionaryCodec(@Nullable PageCodec codec) {
+            dictionaryCodec = codec;
+            return this;
+        }
+
+        /**
+         * Prefix of the scope of the cache metrics, for example the job and task
+         * that owns the cache. Null leaves the metrics untagged.
+         */
+        public Builder<K, V> metricsScope(@Nullable String scope) {
+            metricsScope = scope;
+            return this;
+        }
+
         public SkipListCache<K, V> build() {
             return new SkipListCache<>(keyCoder, externalStore, maxPageSize,
-                    maxPages, numEvictionThreads, pageFactory);
+                    maxPages, numEvictionThreads, pageFactory, pageCodec, dictionaryCodec, metricsScope);
         }
 
     }
@@ -156,7 +183,23 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
 
     public SkipListCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
                          int maxPages, int numEvictionThreads, PageFactory<K, V> pageFactory) {
-        super(keyCoder, externalStore, pageFactory, maxPageSize, maxPages, true);
+        this(keyCoder, externalStore, maxPageSize, maxPages, numEvictionThreads, pageFactory,
+             PageCodecs.defaultCodec(), null);
+    }
+
+    public SkipListCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
+                         int maxPages, int numEvictionThreads, PageFactory<K, V> pageFactory,
+                         PageCodec pageCodec, @Nullable PageCodec dictionaryCodec) {
+        this(keyCoder, externalStore, maxPageSize, maxPages, numEvictionThreads, pageFactory,
+             pageCodec, dictionaryCodec, null);
+    }
+
+    public SkipListCache(KeyCoder<K, V> keyCoder, ByteStore externalStore, int maxPageSize,
+                         int maxPages, int numEvictionThreads, PageFactory<K, V> pageFactory,
+                         PageCodec pageCodec, @Nullable PageCodec dictionaryCodec,
+                         @Nullable String metricsScope) {
+        super(keyCoder, externalStore, pageFactory, pageCodec, dictionaryCodec, maxPageSize, maxPages,
+              true, metricsScope);
 
         this.evictionTaskQueue = new LinkedBlockingQueue<>();
         this.purgeSet = new ConcurrentSkipListSet<>();
@@ -182,8 +225,8 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
         }
 
         log.info("[init] ro=" + isReadOnly() + " maxPageSize=" + maxPageSize +
-                " maxPages=" + maxPages + " gztype=" + AbstractPage.gztype + " gzlevel=" +
-                AbstractPage.gzlevel + " gzbuf=" + AbstractPage.gzbuf + " mem[page=" + mem_page + " type=SkipListCache]");
+                " maxPages=" + maxPages + " codec=" + pageCodec +
+                " dictionary=" + (dictionaryCodec != null) + " mem[page=" + mem_page + " type=SkipListCache]");
 
     }
 
@@ -365,6 +408,10 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
                     updateMemoryEstimate(page.getMemoryEstimate() - memEstimate);
                 }
 
+                if ((endOffset == pageSize) && dropCoveredPages) {
+                    dropPagesBefore(page, end);
+                }
+
                 if (page.size() == 0 && !page.getFirstKey().equals(negInf)) {
                     K targetKey = page.getFirstKey();
                     page = writeUnlockAndNull(page);
@@ -572,7 +619,10 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
             assert(status == 0);
             log.info("pages: encoded=" + numPagesEncoded.get() +
                     " decoded=" + numPagesDecoded.get() +
-                    " split=" + numPagesSplit.get());
+                    " split=" + numPagesSplit.get() +
+                    " batches=" + numBatchesWritten.get() +
+                    " hits=" + metrics.pageHits() +
+                    " misses=" + metrics.pageMisses());
             if (trackEncodingByteUsage) {
                 log.info(MetricsUtil.histogramToString("encodeFirstKeySize", metrics.encodeFirstKeySize));
                 log.info(MetricsUtil.histogramToString("encodeNextFirstKeySize", metrics.encodeNextFirstKeySize));
@@ -583,6 +633,7 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
                 log.info(MetricsUtil.histogramToString("numberKeysPerPage",
                         metrics.numberKeysPerPage));
             }
+            metrics.close();
         }
         return status;
     }
@@ -623,9 +674,17 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
 
     public void backgroundEviction() {
         ByteBufOutputStream byteStream = new ByteBufOutputStream(PooledByteBufAllocator.DEFAULT.buffer());
+        int evicted = 0;
         try {
-            while (shutdownEvictionThreads.get() && shouldEvictPage() && doEvictPage(byteStream)) ;
+            while (shutdownEvictionThreads.get() && shouldEvictPage() && doEvictPage(byteStream)) {
+                evicted++;
+                if (pendingWritesFull()) {
+                    flushPendingWrites();
+                }
+            }
+            flushPendingWrites();
         } finally {
+            metrics.pagesEvicted(evicted, true);
             byteStream.buffer().release();
         }
     }
@@ -665,5 +724,12 @@ public class SkipListCache<K, V extends BytesCodable> extends AbstractPageCache<
         }
     }
 
+    @Override
+    protected void removeFromPurgeSet(K key) {
+        if (purgeSet.remove(key)) {
+            purgeSetSize.getAndDecrement();
+        }
+    }
+
 
 }
@@ -38,6 +38,10 @@ public final class Raw implements Comparable<Raw>, BytesCodable {
         longcompare = b;
     }
 
+    public static boolean usesLongCompare() {
+        return longcompare;
+    }
+
     public static final Raw get(String s) {
         return new Raw(s);
     }
@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.store.DBIntValue;
+import com.addthis.hydra.store.kv.ByteStore;
+import com.addthis.hydra.store.kv.ConcurrentByteStoreBDB;
+import com.addthis.hydra.store.skiplist.SimpleIntKeyCoder;
+import com.addthis.hydra.store.skiplist.SkipListCache;
+
+import com.google.common.io.ByteStreams;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PageCodecTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = LessFiles.createTempDir();
+    }
+
+    @After
+    public void deleteDirectory() {
+        LessFiles.deleteDir(directory);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] input = new byte[10000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) (i % 37);
+        }
+        for (StandardPageCodec codec : StandardPageCodec.values()) {
+            assertSame(codec, PageCodecs.forId(codec.id()));
+            assertSame(codec, PageCodecs.forName(codec.name().toLowerCase()));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputStream out = codec.encoder(bytes)) {
+                out.write(input);
+            }
+            try (InputStream in = codec.decoder(new ByteArrayInputStream(bytes.toByteArray()))) {
+                assertArrayEquals(codec.name(), input, ByteStreams.toByteArray(in));
+            }
+            ByteBuf page = Unpooled.directBuffer().writeBytes(bytes.toByteArray());
+            ByteBuf out = codec.decompress(page);
+            try {
+                byte[] output = new byte[out.readableBytes()];
+                out.readBytes(output);
+                assertArrayEquals(codec.name(), input, output);
+                if (codec != StandardPageCodec.NONE) {
+                    assertSame(codec.name(), PooledByteBufAllocator.DEFAULT, out.alloc());
+                    assertEquals(codec.name(), 0, page.readableBytes());
+                }
+            } finally {
+                out.release();
+                page.release();
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void dictionaryRequired() {
+        PageCodecs.forId(ZstdDictionaryPageCodec.ID);
+    }
+
+    @Test
+    public void mixedCodecs() throws IOException {
+        writeValues(StandardPageCodec.SNAPPY, null, 0, 5000);
+        writeValues(StandardPageCodec.LZ4, null, 5000, 10000);
+        SkipListCache<Integer, DBIntValue> cache = openCache(StandardPageCodec.LZ4, null);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(new DBIntValue(i), cache.get(i));
+        }
+        cache.close();
+        // every page read by the last cache has been rewritten with its codec
+        assertPageCodecs(StandardPageCodec.LZ4.id());
+    }
+
+    @Test
+    public void trainedDictionary() throws IOException {
+        writeValues(StandardPageCodec.ZSTD, null, 0, 20000);
+        ByteStore store = new ConcurrentByteStoreBDB(directory, "db");
+        PageCodec dictionary = PageCodecs.forDatabase(ZstdDictionaryPageCodec.NAME, directory, store);
+        store.close();
+        assertEquals(ZstdDictionaryPageCodec.ID, dictionary.id());
+        assertTrue(new File(directory, ZstdDictionaryPageCodec.DICTIONARY_FILENAME).exists());
+
+        writeValues(dictionary, dictionary, 20000, 25000);
+        PageCodec loaded = ZstdDictionaryPageCodec.load(directory);
+        assertNotNull(loaded);
+        SkipListCache<Integer, DBIntValue> cache = openCache(StandardPageCodec.ZSTD, loaded);
+        for (int i = 0; i < 25000; i++) {
+            assertEquals(new DBIntValue(i), cache.get(i));
+        }
+        cache.close();
+    }
+
+    @Test
+    public void currentCodecNotRewritten() throws IOException {
+        writeValues(StandardPageCodec.ZSTD, null, 0, 20000);
+        ByteStore store = new ConcurrentByteStoreBDB(directory, "db");
+        PageCodec dictionary = PageCodecs.forDatabase(ZstdDictionaryPageCodec.NAME, directory, store);
+        store.close();
+        writeValues(dictionary, dictionary, 0, 20000);
+
+        // separately loaded instances of the same dictionary codec
+        AtomicInteger writes = new AtomicInteger();
+        ByteStore backing = new ConcurrentByteStoreBDB(directory, "db");
+        ByteStore counting = (ByteStore) Proxy.newProxyInstance(
+                ByteStore.class.getClassLoader(), new Class<?>[]{ByteStore.class}, (proxy, method, args) -> {
+                    if (method.getName().startsWith("put")) {
+                        writes.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(backing, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+        SkipListCache<Integer, DBIntValue> cache = new SkipListCache.Builder<>(new SimpleIntKeyCoder(), counting, 20)
+                .maxPages(50).pageCodec(ZstdDictionaryPageCodec.load(directory))
+                .dictionaryCodec(ZstdDictionaryPageCodec.load(directory)).build();
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(new DBIntValue(i), cache.get(i));
+        }
+        cache.close();
+        assertEquals(0, writes.get());
+        assertPageCodecs(ZstdDictionaryPageCodec.ID);
+    }
+
+    private SkipListCache<Integer, DBIntValue> openCache(PageCodec codec, PageCodec dictionary) {
+        ByteStore store = new ConcurrentByteStoreBDB(directory, "db");
+        return new SkipListCache.Builder<>(new SimpleIntKeyCoder(), store, 20)
+                .maxPages(50).pageCodec(codec).dictionaryCodec(dictionary).build();
+    }
+
+    private void writeValues(PageCodec codec, PageCodec dictionary, int from, int to) {
+        SkipListCache<Integer, DBIntValue> cache = openCache(codec, dictionary);
+        for (int i = from; i < to; i++) {
+            cache.put(i, new DBIntValue(i));
+        }
+        cache.close();
+    }
+
+    private void assertPageCodecs(int id) {
+        ByteStore store = new ConcurrentByteStoreBDB(directory, "db");
+        try {
+            Iterator<byte[]> keys = store.keyIterator(store.firstKey());
+            while (keys.hasNext()) {
+                assertEquals(id, store.get(keys.next())[0] & 0x0f);
+            }
+        } finally {
+            store.close();
+        }
+    }
+}
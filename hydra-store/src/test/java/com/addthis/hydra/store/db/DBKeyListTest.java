@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.db;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.hydra.store.DBIntValue;
+import com.addthis.hydra.store.util.Raw;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DBKeyListTest {
+
+    private static DBKey randomKey(Random random) {
+        long id = random.nextInt(20);
+        if (random.nextInt(5) == 0) {
+            return new DBKey(id);
+        }
+        byte[] key = new byte[random.nextInt(6)];
+        random.nextBytes(key);
+        return new DBKey(id, Raw.get(key));
+    }
+
+    @Test
+    public void matchesArrayList() {
+        Random random = new Random(42);
+        List<DBKey> expected = new ArrayList<>();
+        DBKeyList actual = new DBKeyList(2);
+        for (int i = 0; i < 2000; i++) {
+            DBKey key = randomKey(random);
+            int position = Collections.binarySearch(expected, key);
+            assertEquals(position, actual.binarySearch(key));
+            if (position < 0) {
+                expected.add(-(position + 1), key);
+                actual.add(-(position + 1), key);
+            } else if (random.nextBoolean()) {
+                assertEquals(expected.remove(position), actual.remove(position));
+            } else {
+                assertEquals(expected.set(position, key), actual.set(position, key));
+            }
+        }
+        assertEquals(expected, actual);
+        int half = actual.size() / 2;
+        List<DBKey> tail = new DBKeyList(actual.subList(half, actual.size()));
+        actual.subList(half, actual.size()).clear();
+        assertEquals(expected.subList(0, half), actual);
+        assertEquals(expected.subList(half, expected.size()), tail);
+    }
+
+    @Test
+    public void pageDatabase() throws Exception {
+        File dir = LessFiles.createTempDir();
+        try {
+            PageDB<DBIntValue> db = new PageDB.Builder<>(dir, DBIntValue.class, 16, 4)
+                    .pageFactory(ColumnarPage.ColumnarPageFactory.singleton).build();
+            for (int i = 0; i < 1000; i++) {
+                db.put(new DBKey(i % 10, Integer.toString(i)), new DBIntValue(i));
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(new Integer(i), db.get(new DBKey(i % 10, Integer.toString(i))).getVal());
+            }
+            int count = 0;
+            for (Map.Entry<DBKey, DBIntValue> entry : db.range(new DBKey(3), new DBKey(4))) {
+                assertEquals(3, entry.getKey().id());
+                count++;
+            }
+            assertEquals(100, count);
+            db.close();
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
@@ -13,6 +13,8 @@
  */
 package com.addthis.hydra.store.db;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -46,4 +48,21 @@ public class DBKeyTest {
         DBKey output = DBKey.fromBytes(serialization);
         assertEquals(input, output);
     }
+
+    @Test
+    public void deltaDecodeFromBuffer() {
+        DBKey base = new DBKey(100, "base");
+        DBKey first = new DBKey(103, "foobar");
+        DBKey second = new DBKey(90);
+        byte[] firstBytes = first.deltaEncode(base);
+        byte[] secondBytes = second.deltaEncode(base);
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeBytes(firstBytes);
+        buffer.writeBytes(secondBytes);
+        buffer.writeByte(42);
+        assertEquals(first, DBKey.deltaDecode(buffer, firstBytes.length, base));
+        assertEquals(second, DBKey.deltaDecode(buffer, secondBytes.length, base));
+        assertEquals(42, buffer.readByte());
+        assertEquals(first, DBKey.deltaDecode(firstBytes, base));
+    }
 }
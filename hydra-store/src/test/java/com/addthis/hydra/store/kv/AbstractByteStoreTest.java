@@ -17,6 +17,11 @@ package com.addthis.hydra.store.kv;
 import java.io.File;
 import java.io.IOException;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import com.addthis.basis.util.LessFiles;
 
 import org.junit.Test;
@@ -63,6 +68,32 @@ public abstract class AbstractByteStoreTest {
     }
 
 
+    @Test
+    public void testPutBatch() {
+        File tempDir = null;
+        try {
+            tempDir = LessFiles.createTempDir();
+            ByteStore store = createByteStore(tempDir, "test");
+            store.put(createBytes(0), createBytes(100));
+            List<Map.Entry<byte[], byte[]>> batch = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                batch.add(new AbstractMap.SimpleImmutableEntry<>(createBytes(i), createBytes(10 - i)));
+            }
+            store.putBatch(batch);
+            for (int i = 0; i < 10; i++) {
+                assertArrayEquals(createBytes(10 - i), store.get(createBytes(i)));
+            }
+            assertNull(store.get(createBytes(10)));
+        } catch (IOException ex) {
+            fail(ex.getMessage());
+        } finally {
+            if (tempDir != null) {
+                LessFiles.deleteDir(tempDir);
+            }
+        }
+    }
+
+
     @Test
     public void testNextHigherValue() {
         File tempDir = null;
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Iterator;
+
+import com.addthis.basis.util.LessFiles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogByteStoreTest extends AbstractByteStoreTest {
+
+    @Override
+    public ByteStore createByteStore(File dir, String name) {
+        return new LogByteStore(dir, name);
+    }
+
+    private static byte[] key(int i) {
+        return String.format("key%05d", i).getBytes();
+    }
+
+    private static byte[] value(int i, int version) {
+        return String.format("value%05d-%d", i, version).getBytes();
+    }
+
+    @Test
+    public void reopenAndCompact() throws IOException {
+        File dir = LessFiles.createTempDir();
+        try {
+            LogByteStore store = new LogByteStore(dir, "test", false, 4096);
+            for (int version = 0; version < 5; version++) {
+                for (int i = 0; i < 200; i++) {
+                    store.put(key(i), value(i, version));
+                }
+            }
+            for (int i = 0; i < 200; i += 2) {
+                store.delete(key(i));
+            }
+            int segments = store.segmentCount();
+            assertTrue(store.compact(1.0) > 0);
+            assertTrue(store.segmentCount() < segments);
+            store.close();
+
+            store = new LogByteStore(dir, "test", true);
+            assertEquals(100, store.count());
+            for (int i = 0; i < 200; i++) {
+                if (i % 2 == 0) {
+                    assertNull(store.get(key(i)));
+                } else {
+                    assertArrayEquals(value(i, 4), store.get(key(i)));
+                }
+            }
+            assertArrayEquals(key(1), store.firstKey());
+            assertArrayEquals(key(199), store.lastKey());
+            assertArrayEquals(key(3), store.floorEntry(key(4)).getKey());
+            assertArrayEquals(value(3, 4), store.floorEntry(key(4)).getValue());
+            Iterator<byte[]> keys = store.keyIterator(key(4));
+            assertArrayEquals(key(3), keys.next());
+            assertArrayEquals(key(5), keys.next());
+            store.close();
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void deleteSurvivesCompaction() throws IOException {
+        File dir = LessFiles.createTempDir();
+        try {
+            LogByteStore store = new LogByteStore(dir, "test", false, 1024);
+            store.put(key(0), value(0, 0));
+            store.delete(key(0));
+            store.put(key(0), value(0, 1));
+            for (int i = 1; i < 100; i++) {
+                store.put(key(i), value(i, 0));
+            }
+            store.close(true);
+            store = new LogByteStore(dir, "test", false, 1024);
+            assertArrayEquals(value(0, 1), store.get(key(0)));
+            store.delete(key(0));
+            store.close(true);
+            store = new LogByteStore(dir, "test", true);
+            assertFalse(store.hasKey(key(0)));
+            assertEquals(99, store.count());
+            store.close();
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.store.kv;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.addthis.basis.util.LessFiles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapCachingByteStoreTest extends AbstractByteStoreTest {
+
+    @Override
+    public ByteStore createByteStore(File dir, String name) {
+        return new OffHeapCachingByteStore(new ConcurrentByteStoreBDB(dir, name), 1024 * 1024);
+    }
+
+    private static byte[] key(int i) {
+        return String.format("key%05d", i).getBytes();
+    }
+
+    private static byte[] value(int i) {
+        byte[] value = new byte[100];
+        for (int j = 0; j < value.length; j++) {
+            value[j] = (byte) (i + j);
+        }
+        return value;
+    }
+
+    @Test
+    public void evictsWithinBudget() throws IOException {
+        File dir = LessFiles.createTempDir();
+        try {
+            OffHeapCachingByteStore store = new OffHeapCachingByteStore(new ConcurrentByteStoreBDB(dir, "test"), 1000);
+            for (int i = 0; i < 100; i++) {
+                store.put(key(i), value(i));
+                assertTrue(store.size() <= 1000);
+            }
+            assertEquals(90, store.evictions());
+            // the most recent writes are served from direct memory
+            assertArrayEquals(value(99), store.get(key(99)));
+            assertEquals(1, store.hits());
+            // older values are read back from the store and cached again
+            assertArrayEquals(value(0), store.get(key(0)));
+            assertEquals(1, store.misses());
+            assertArrayEquals(value(0), store.get(key(0)));
+            assertEquals(2, store.hits());
+            store.delete(key(0));
+            assertNull(store.get(key(0)));
+            store.close();
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+}
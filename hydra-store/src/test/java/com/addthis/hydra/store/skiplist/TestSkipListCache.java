@@ -28,9 +28,13 @@ import com.addthis.basis.test.SlowTest;
 import com.addthis.basis.util.LessFiles;
 
 import com.addthis.hydra.store.DBIntValue;
+import com.addthis.hydra.store.common.Page;
 import com.addthis.hydra.store.kv.ByteStore;
 import com.addthis.hydra.store.kv.ConcurrentByteStoreBDB;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricName;
+
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
@@ -172,6 +176,120 @@ public class TestSkipListCache {
 
     }
 
+    @Test
+    public void testOptimisticReads() throws Exception {
+        File directory = makeTemporaryDirectory();
+        try {
+            ByteStore externalStore = new ConcurrentByteStoreBDB(directory, "db");
+            SkipListCache<Integer, DBIntValue> cache =
+                    new SkipListCache.Builder<>(new SimpleIntKeyCoder(), externalStore, 8)
+                            .maxPages(50).pageFactory(OptimisticPage.OptimisticPageFactory.singleton).build();
+            int numElements = 2000;
+            int rounds = 5;
+            for (int i = 0; i < numElements; i++) {
+                cache.put(i, new DBIntValue(i));
+            }
+            CyclicBarrier barrier = new CyclicBarrier(fastNumThreads);
+            List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+            Thread[] threads = new Thread[fastNumThreads];
+            for (int t = 0; t < fastNumThreads; t++) {
+                boolean writer = (t == 0);
+                threads[t] = new Thread(() -> {
+                    try {
+                        barrier.await();
+                        for (int round = 1; round <= rounds; round++) {
+                            for (int i = 0; i < numElements; i++) {
+                                if (writer) {
+                                    cache.put(i, new DBIntValue(i + round * numElements));
+                                } else {
+                                    // every version of key i is congruent to i
+                                    assertEquals(i, cache.get(i).getVal() % numElements);
+                                }
+                            }
+                        }
+                    } catch (Throwable ex) {
+                        errors.add(ex);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(errors.toString(), errors.isEmpty());
+            for (int i = 0; i < numElements; i++) {
+                assertEquals(new Integer(i + rounds * numElements), cache.get(i).getVal());
+            }
+            assertTrue(cache.metrics.optimisticReads.count() > 0);
+            consistentWaitShutdown(cache);
+        } finally {
+            LessFiles.deleteDir(directory);
+        }
+    }
+
+    @Test
+    public void testLazyDecodeInvalidatesOptimisticReads() throws Exception {
+        File directory = makeTemporaryDirectory();
+        try {
+            SkipListCache<Integer, DBIntValue> cache =
+                    new SkipListCache.Builder<>(new SimpleIntKeyCoder(), new ConcurrentByteStoreBDB(directory, "db"), 8)
+                            .maxPages(50).pageFactory(OptimisticPage.OptimisticPageFactory.singleton).build();
+            for (int i = 0; i < 100; i++) {
+                cache.put(i, new DBIntValue(i));
+            }
+            consistentWaitShutdown(cache);
+            cache = new SkipListCache.Builder<>(new SimpleIntKeyCoder(), new ConcurrentByteStoreBDB(directory, "db"), 8)
+                    .maxPages(50).pageFactory(OptimisticPage.OptimisticPageFactory.singleton).build();
+            assertEquals(new Integer(0), cache.get(0).getVal());
+            Page<Integer, DBIntValue> page = cache.getCache().floorEntry(0).getValue();
+            assertNull(page.values().get(1));
+            long stamp = page.tryOptimisticRead();
+            assertTrue(page.validate(stamp));
+            page.readLock();
+            try {
+                page.fetchValue(1);
+            } finally {
+                page.readUnlock();
+            }
+            // a value published by a reader must not be trusted by an optimistic read that started earlier
+            assertFalse(page.validate(stamp));
+            assertEquals(new Integer(1), cache.get(1).getVal());
+            consistentWaitShutdown(cache);
+        } finally {
+            LessFiles.deleteDir(directory);
+        }
+    }
+
+    @Test
+    public void testCacheMetrics() throws Exception {
+        File directory = makeTemporaryDirectory();
+        try {
+            ByteStore externalStore = new ConcurrentByteStoreBDB(directory, "db");
+            SkipListCache<Integer, DBIntValue> cache =
+                    new SkipListCache.Builder<>(new SimpleIntKeyCoder(), externalStore, 8)
+                            .maxPages(10).metricsScope("job/0").build();
+            assertTrue(cache.scope.startsWith("job/0."));
+            for (int i = 0; i < 1000; i++) {
+                cache.put(i, new DBIntValue(i));
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(new Integer(i), cache.get(i).getVal());
+            }
+            assertTrue(cache.metrics.pageHits() > 0);
+            assertTrue(cache.metrics.pageMisses() > 0);
+            assertTrue(cache.metrics.pageLoadTime.count() > 0);
+            assertTrue(cache.metrics.encodeTime.count() > 0);
+            assertTrue(cache.metrics.decodeTime.count() > 0);
+            assertTrue(cache.metrics.syncEvictionsGauge.value() + cache.metrics.backgroundEvictionsGauge.value() > 0);
+            MetricName hits = new MetricName(SkipListCache.class, "pageHits", cache.scope);
+            assertNotNull(Metrics.defaultRegistry().allMetrics().get(hits));
+            consistentWaitShutdown(cache);
+            assertNull(Metrics.defaultRegistry().allMetrics().get(hits));
+        } finally {
+            LessFiles.deleteDir(directory);
+        }
+    }
+
     private static final int rangeDeletionSlowIterations = 1_000;
     private static final int rangeDeletionSlowElements = 1_000;
 
@@ -189,6 +307,37 @@ public class TestSkipListCache {
         rangeDeletionIterations(rangeDeletionFastIterations, rangeDeletionFastElements);
     }
 
+    @Test
+    public void testRangeDeletionDropsPages() throws Exception {
+        File directory = makeTemporaryDirectory();
+        try {
+            ByteStore externalStore = new ConcurrentByteStoreBDB(directory, "db");
+            SkipListCache<Integer, DBIntValue> cache =
+                    new SkipListCache.Builder<>(new SimpleIntKeyCoder(), externalStore, 25).build();
+            int elements = 2000;
+            for (int i = 0; i < elements; i++) {
+                assertEquals(null, cache.put(i, new DBIntValue(elements - i)));
+            }
+            cache.pushAllPagesToDisk();
+            long decoded = cache.numPagesDecoded.get();
+            cache.removeValues(100, 1900);
+            // only the pages that contain the ends of the range are read
+            assertTrue(cache.numPagesDecoded.get() - decoded <= 2);
+            assertTrue(cache.numPagesDropped.get() > 0);
+            for (int i = 0; i < elements; i++) {
+                if ((i >= 100) && (i < 1900)) {
+                    assertNull(cache.get(i));
+                } else {
+                    assertEquals(new Integer(elements - i), cache.get(i).getVal());
+                }
+            }
+            consistentWaitShutdown(cache);
+            assertEquals(0, cache.getMemoryEstimate());
+        } finally {
+            LessFiles.deleteDir(directory);
+        }
+    }
+
     private void rangeDeletionIterations(int iterations, int elements) {
         Random generator = new Random();
         for (int i = 0; i < iterations; i++) {
@@ -0,0 +1,374 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.addthis.basis.util.JitterClock;
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.io.DataChannelReader;
+import com.addthis.bundle.io.DataChannelWriter;
+import com.addthis.bundle.util.AutoField;
+import com.addthis.bundle.value.ValueObject;
+import com.addthis.hydra.data.filter.bundle.BundleFilter;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This builder gathers, sorts, and de-duplicates incoming bundles using
+ * a bounded amount of memory.
+ * <p/>
+ * Bundles are collected into a batch of up to {@code batchSize} bundles. At most
+ * {@code maxBundles} of them are held in memory. Once that limit is reached the
+ * bundles in memory are sorted by {@code field} and spilled to a run on disk.
+ * When the batch is full, or the stream completes, the runs and the bundles in
+ * memory are merged and emitted in sorted order with one bundle per key. The bundle
+ * that arrived last is kept. Unlike {@link SortedDeDupBuilder} producers wait
+ * while a batch is flushed instead of growing the batch without bound.
+ * <p/>
+ * Keys can optionally be de-duplicated across batches with {@code windowKeys}.
+ * Emitted keys are remembered in bloom filters and later bundles with those keys
+ * are dropped. The filters are rotated when they hold {@code windowKeys} keys or
+ * are {@code windowMillis} old, and the keys of the current and the previous
+ * filter are remembered. Bloom filters have false positives so a small fraction
+ * ({@code windowFpp}) of unique bundles are dropped as well.
+ * <p/>
+ * <p>Example:</p>
+ * <pre>
+ * {externalDeDupe {field: uid, batchSize: 1000000, maxBundles: 50000, windowKeys: 10000000, windowMillis: 3600000}}
+ * </pre>
+ */
+public class ExternalDeDupBuilder extends StreamBuilder {
+
+    private static final Logger log = LoggerFactory.getLogger(ExternalDeDupBuilder.class);
+
+    /** The field to sort and de-duplicate on */
+    @JsonProperty(required = true) private AutoField field;
+
+    /** Number of bundles gathered before the batch is emitted. Default is 1000000. */
+    @JsonProperty private int batchSize = 1000000;
+
+    /** Maximum number of bundles held in memory before they are spilled to disk. Default is 50000. */
+    @JsonProperty private int maxBundles = 50000;
+
+    /** Directory for spilled runs. Default is a new directory in the system temporary directory. */
+    @JsonProperty private String tempDir;
+
+    /** Number of keys in each bloom filter of the cross batch window. Default is 0, ie. no window. */
+    @JsonProperty private int windowKeys = 0;
+
+    /** Age in milliseconds after which a bloom filter of the window is rotated. Default is 0, ie. never. */
+    @JsonProperty private long windowMillis = 0;
+
+    /** False positive probability of each bloom filter of the window. Default is 0.001. */
+    @JsonProperty private double windowFpp = 0.001;
+
+    /** Bundles that fail this optional filter are dropped */
+    @JsonProperty private BundleFilter filter;
+
+    private final Counter dropCounter = Metrics.newCounter(getClass(), "dropCounter");
+    private final Counter windowDropCounter = Metrics.newCounter(getClass(), "windowDropCounter");
+    private final Counter spillCounter = Metrics.newCounter(getClass(), "spillCounter");
+    private final Counter spilledBundles = Metrics.newCounter(getClass(), "spilledBundles");
+
+    /** Bundles of the current batch that have not been spilled */
+    private final TreeMap<String, Bundle> memory = new TreeMap<>();
+
+    private final List<Path> runs = new ArrayList<>();
+
+    private Path spillDir;
+
+    /** Number of bundles in the spilled runs of the current batch */
+    private int spilled;
+
+    private BloomFilter<CharSequence> currentWindow;
+    private BloomFilter<CharSequence> previousWindow;
+    private int currentWindowKeys;
+    private long currentWindowStart;
+
+    @Override
+    public void init() {
+        if (windowKeys > 0) {
+            currentWindow = newWindow();
+            currentWindowStart = JitterClock.globalTime();
+        }
+    }
+
+    @Override
+    public void process(Bundle bundle, StreamEmitter emitter) {
+        if ((filter != null) && !filter.filter(bundle)) {
+            return;
+        }
+        ValueObject valueObject = field.getValue(bundle);
+        if (valueObject == null) {
+            return;
+        }
+        String key = valueObject.asString().asNative();
+        synchronized (this) {
+            if (memory.put(key, bundle) != null) {
+                dropCounter.inc();
+            }
+            if (memory.size() >= maxBundles) {
+                spill();
+            }
+            if ((memory.size() + spilled) >= batchSize) {
+                flush(emitter);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void streamComplete(StreamEmitter emitter) {
+        flush(emitter);
+        if (spillDir != null) {
+            if (!LessFiles.deleteDir(spillDir.toFile())) {
+                log.warn("unable to delete spill directory {}", spillDir);
+            }
+            spillDir = null;
+        }
+    }
+
+    private BloomFilter<CharSequence> newWindow() {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), windowKeys, windowFpp);
+    }
+
+    /**
+     * @return true if the key has not been emitted within the window
+     */
+    private boolean admit(String key) {
+        if (currentWindow == null) {
+            return true;
+        }
+        if (currentWindow.mightContain(key) || ((previousWindow != null) && previousWindow.mightContain(key))) {
+            windowDropCounter.inc();
+            return false;
+        }
+        long now = JitterClock.globalTime();
+        if ((currentWindowKeys >= windowKeys) || ((windowMillis > 0) && ((now - currentWindowStart) > windowMillis))) {
+            previousWindow = currentWindow;
+            currentWindow = newWindow();
+            currentWindowKeys = 0;
+            currentWindowStart = now;
+        }
+        currentWindow.put(key);
+        currentWindowKeys++;
+        return true;
+    }
+
+    /**
+     * Write the bundles in memory to a new sorted run on disk.
+     */
+    private void spill() {
+        if (memory.isEmpty()) {
+            return;
+        }
+        try {
+            if (spillDir == null) {
+                spillDir = (tempDir != null) ? Files.createDirectories(Paths.get(tempDir)).resolve(
+                        "dedup-" + System.identityHashCode(this)) : Files.createTempDirectory("dedup");
+                Files.createDirectories(spillDir);
+            }
+            Path run = spillDir.resolve("run-" + runs.size());
+            try (DataChannelWriter writer = new DataChannelWriter(
+                    new BufferedOutputStream(Files.newOutputStream(run), 65536))) {
+                for (Bundle bundle : memory.values()) {
+                    writer.write(bundle);
+                }
+            }
+            runs.add(run);
+            spilled += memory.size();
+            spillCounter.inc();
+            spilledBundles.inc(memory.size());
+            log.debug("spilled {} bundles to {}", memory.size(), run);
+            memory.clear();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Merge the spilled runs with the bundles in memory and emit one bundle per key.
+     */
+    private void flush(StreamEmitter emitter) {
+        if (runs.isEmpty()) {
+            for (Map.Entry<String, Bundle> entry : memory.entrySet()) {
+                if (admit(entry.getKey())) {
+                    emitter.emit(entry.getValue());
+                }
+            }
+            memory.clear();
+            return;
+        }
+        List<RunCursor> cursors = new ArrayList<>(runs.size() + 1);
+        try {
+            PriorityQueue<RunCursor> queue = new PriorityQueue<>(runs.size() + 1);
+            for (int i = 0; i < runs.size(); i++) {
+                RunCursor cursor = new DiskCursor(runs.get(i), i);
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+            RunCursor inMemory = new MemoryCursor(runs.size());
+            cursors.add(inMemory);
+            if (inMemory.advance()) {
+                queue.add(inMemory);
+            }
+            while (!queue.isEmpty()) {
+                // the newest run sorts first among equal keys
+                RunCursor head = queue.poll();
+                String key = head.key;
+                Bundle bundle = head.bundle;
+                if (head.advance()) {
+                    queue.add(head);
+                }
+                while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+                    RunCursor duplicate = queue.poll();
+                    dropCounter.inc();
+                    if (duplicate.advance()) {
+                        queue.add(duplicate);
+                    }
+                }
+                if (admit(key)) {
+                    emitter.emit(bundle);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            for (RunCursor cursor : cursors) {
+                cursor.close();
+            }
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException ex) {
+                    log.warn("unable to delete spilled run {}", run, ex);
+                }
+            }
+            runs.clear();
+            memory.clear();
+            spilled = 0;
+        }
+    }
+
+    private abstract static class RunCursor implements Comparable<RunCursor> {
+
+        final int run;
+        String key;
+        Bundle bundle;
+
+        RunCursor(int run) {
+            this.run = run;
+        }
+
+        /**
+         * Move to the next bundle of the run.
+         *
+         * @return false if the run is exhausted
+         */
+        abstract boolean advance() throws IOException;
+
+        void close() {
+        }
+
+        @Override
+        public int compareTo(RunCursor other) {
+            int delta = key.compareTo(other.key);
+            return (delta != 0) ? delta : Integer.compare(other.run, run);
+        }
+    }
+
+    private final class MemoryCursor extends RunCursor {
+
+        private final Iterator<Map.Entry<String, Bundle>> iterator = memory.entrySet().iterator();
+
+        MemoryCursor(int run) {
+            super(run);
+        }
+
+        @Override
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            Map.Entry<String, Bundle> entry = iterator.next();
+            key = entry.getKey();
+            bundle = entry.getValue();
+            return true;
+        }
+    }
+
+    private final class DiskCursor extends RunCursor {
+
+        private final DataChannelReader reader;
+
+        DiskCursor(Path path, int run) throws IOException {
+            super(run);
+            reader = new DataChannelReader(new ListBundle(),
+                                           new BufferedInputStream(Files.newInputStream(path), 65536));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            try {
+                bundle = reader.read();
+            } catch (EOFException ignored) {
+                bundle = null;
+            }
+            if (bundle == null) {
+                return false;
+            }
+            key = field.getValue(bundle).asString().asNative();
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                log.warn("error closing spilled run", ex);
+            }
+        }
+    }
+}
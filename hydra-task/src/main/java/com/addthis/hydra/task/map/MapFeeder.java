@@ -15,10 +15,9 @@ package com.addthis.hydra.task.map;
 
 import javax.annotation.Nullable;
 
+import java.util.Arrays;
 import java.util.NoSuchElementException;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -28,11 +27,11 @@ import com.addthis.basis.util.LessStrings;
 import com.addthis.basis.util.Parameter;
 
 import com.addthis.bundle.core.Bundle;
-import com.addthis.bundle.core.list.ListBundle;
 import com.addthis.bundle.util.AutoField;
 import com.addthis.bundle.util.ValueUtil;
 import com.addthis.hydra.common.hash.PluggableHashFunction;
 import com.addthis.hydra.task.source.TaskDataSource;
+import com.addthis.hydra.task.util.SpscRing;
 
 import com.google.common.util.concurrent.Uninterruptibles;
 
@@ -45,17 +44,21 @@ import org.slf4j.LoggerFactory;
 public final class MapFeeder implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(MapFeeder.class);
 
-    private static final Bundle TERM_BUNDLE = new ListBundle();
     private static final DecimalFormat timeFormat = new DecimalFormat("#,###.00");
     private static final DecimalFormat countFormat = new DecimalFormat("#,###");
     private static final int QUEUE_DEPTH = Parameter.intValue("task.queue.depth", 100);
-    private static final int stealThreshold = Parameter.intValue("task.queue.worksteal.threshold", 50);
+    private static final int BATCH_SIZE = Math.max(1, Parameter.intValue("task.queue.batch", 16));
     private static final boolean shouldSteal = Parameter.boolValue("task.worksteal", false);
 
     // state control
     private final AtomicBoolean errored = new AtomicBoolean(false);
     private boolean hasClosedStreams = false; // not shared with MapperTasks
 
+    /**
+     * Set once every batch has been handed to the mapper threads.
+     */
+    private volatile boolean inputComplete = false;
+
     // enclosing task
     private final StreamMapper task;
     private final TaskDataSource source;
@@ -64,7 +67,24 @@ public final class MapFeeder implements Runnable {
     private final int feeders;
     private final AutoField shardField;
     private final Thread[] threads;
-    private final BlockingQueue<Bundle>[] queues;
+
+    /**
+     * One ring of bundle batches for each mapper thread. This thread is the only producer
+     * and each mapper thread is the only consumer of its own ring.
+     */
+    private final SpscRing<Bundle[]>[] rings;
+
+    /**
+     * Bundles that have been assigned to each mapper thread but not yet handed off.
+     */
+    private final Bundle[][] pending;
+    private final int[] pendingCount;
+
+    /**
+     * Bundles read from the source. Sized so that each mapper thread receives
+     * about one batch for every read from the source.
+     */
+    private final Bundle[] input;
 
     // metrics
     private final long start = System.currentTimeMillis();
@@ -88,10 +108,16 @@ public final class MapFeeder implements Runnable {
 
         shardField = source.getShardField();
         threads = new Thread[feeders];
-        queues = new LinkedBlockingQueue[feeders];
+        rings = new SpscRing[feeders];
+        pending = new Bundle[feeders][];
+        pendingCount = new int[feeders];
+        input = new Bundle[BATCH_SIZE * feeders];
 
+        // task.queue.depth remains a number of bundles
+        int ringCapacity = Math.max(2, QUEUE_DEPTH / BATCH_SIZE);
         for (int i = 0; i < threads.length; i++) {
-            queues[i] = new LinkedBlockingQueue<>(QUEUE_DEPTH);
+            rings[i] = new SpscRing<>(ringCapacity);
+            pending[i] = new Bundle[BATCH_SIZE];
             threads[i] = new Thread(new MapperTask(this, i), "MapProcessor #" + i);
         }
     }
@@ -144,21 +170,33 @@ public final class MapFeeder implements Runnable {
     private boolean fillBuffer() {
         // iterate over inputs and execute default target
         try {
-            Bundle p = source.next();
-            if (p == null) {
+            int count = source.nextBatch(input);
+            if (count == 0) {
                 log.info("exiting on null bundle from {}", source);
                 return false;
             }
-            totalBundles++;
-            int hash = p.hashCode();
-            if (shardField != null) {
-                String val = ValueUtil.asNativeString(shardField.getValue(p));
-                if (!LessStrings.isEmpty(val)) {
-                    hash = PluggableHashFunction.hash(val);
+            totalBundles += count;
+            for (int i = 0; i < count; i++) {
+                Bundle p = input[i];
+                input[i] = null;
+                int hash = p.hashCode();
+                if (shardField != null) {
+                    String val = ValueUtil.asNativeString(shardField.getValue(p));
+                    if (!LessStrings.isEmpty(val)) {
+                        hash = PluggableHashFunction.hash(val);
+                    }
+                }
+                int mod = Math.abs(hash % rings.length);
+                Bundle[] batch = pending[mod];
+                batch[pendingCount[mod]++] = p;
+                if (pendingCount[mod] == batch.length) {
+                    pushPending(mod);
                 }
             }
-            int mod = Math.abs(hash % queues.length);
-            pushQueue(mod, p);
+            // do not hold bundles back while waiting on the source
+            for (int i = 0; i < rings.length; i++) {
+                pushPending(i);
+            }
             return true;
         } catch (NoSuchElementException ignored) {
             log.info("exiting on premature stream termination");
@@ -166,16 +204,67 @@ public final class MapFeeder implements Runnable {
         return false;
     }
 
-    private void pushQueue(int queueNum, Bundle item) {
-        BlockingQueue<Bundle> queue = queues[queueNum];
-        Uninterruptibles.putUninterruptibly(queue, item);
+    /**
+     * Hand the bundles assigned to a mapper thread over to that thread.
+     */
+    private void pushPending(int ringNum) {
+        int count = pendingCount[ringNum];
+        if (count == 0) {
+            return;
+        }
+        Bundle[] batch = pending[ringNum];
+        if (count == batch.length) {
+            pending[ringNum] = new Bundle[BATCH_SIZE];
+        } else {
+            batch = Arrays.copyOf(batch, count);
+            Arrays.fill(pending[ringNum], 0, count, null);
+        }
+        pendingCount[ringNum] = 0;
+        pushRing(ringNum, batch);
     }
 
-    private void joinProcessors() {
-        log.debug("pushing terminating bundles to {} processors", queues.length);
-        for (int i = 0; i < queues.length; i++) {
-            pushQueue(i, TERM_BUNDLE);
+    private void pushRing(int ringNum, Bundle[] batch) {
+        SpscRing<Bundle[]> ring = rings[ringNum];
+        if (ring.offer(batch)) {
+            return;
         }
+        if (shouldSteal && steal(ring, batch)) {
+            return;
+        }
+        boolean interrupted = false;
+        int attempt = 0;
+        while (!ring.offer(batch)) {
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+            SpscRing.backoff(attempt++);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hand a batch whose mapper thread is backed up to the least busy mapper thread instead.
+     */
+    private boolean steal(SpscRing<Bundle[]> primaryRing, Bundle[] batch) {
+        stealAttemptMeter.mark();
+        SpscRing<Bundle[]> target = null;
+        for (SpscRing<Bundle[]> ring : rings) {
+            if ((ring != primaryRing) && ((target == null) || (ring.size() < target.size()))) {
+                target = ring;
+            }
+        }
+        if ((target != null) && target.offer(batch)) {
+            stealSuccessMeter.mark();
+            return true;
+        }
+        return false;
+    }
+
+    private void joinProcessors() {
+        log.debug("signaling end of input to {} processors", rings.length);
+        inputComplete = true;
         for (Thread thread : threads) {
             Uninterruptibles.joinUninterruptibly(thread);
         }
@@ -201,54 +290,33 @@ public final class MapFeeder implements Runnable {
 
         @Override
         public void run() {
+            SpscRing<Bundle[]> ring = mapFeeder.rings[processorID];
             while (true) {
                 try {
-                    Bundle next = popQueue();
-                    if (next == null) {
+                    Bundle[] batch = popRing(ring);
+                    if (batch == null) {
                         return;
                     }
-                    mapFeeder.task.process(next);
+                    for (Bundle next : batch) {
+                        mapFeeder.task.process(next);
+                    }
                 } catch (Throwable t) {
                     mapFeeder.handleUncaughtThrowable(t);
                 }
             }
         }
 
-        @Nullable private Bundle popQueue() throws InterruptedException {
-            BlockingQueue<Bundle> queue = mapFeeder.queues[processorID];
-            Bundle item = null;
-            if (shouldSteal) {
-                // first check our own queue
-                item = queue.poll();
-                if (item == null) {
-                    // then check every other queue
-                    item = steal(queue);
-                }
-            }
-            if (item == null) {
-                item = queue.take();
-            }
-            if (item == TERM_BUNDLE) {
-                return null;
-            } else {
-                return item;
-            }
-        }
-
-        @Nullable private Bundle steal(BlockingQueue<Bundle> primaryQueue) throws InterruptedException {
-            mapFeeder.stealAttemptMeter.mark();
-            for (BlockingQueue<Bundle> queue : mapFeeder.queues) {
-                if ((queue != primaryQueue) && (queue.size() >= stealThreshold)) {
-                    Bundle item = queue.poll();
-                    if (item == TERM_BUNDLE) {
-                        queue.put(item);
-                    } else if (item != null) {
-                        mapFeeder.stealSuccessMeter.mark();
-                        return item;
-                    }
+        @Nullable private Bundle[] popRing(SpscRing<Bundle[]> ring) {
+            int attempt = 0;
+            Bundle[] batch;
+            while ((batch = ring.poll()) == null) {
+                if (mapFeeder.inputComplete) {
+                    // the last batch may have been added before the end of input was signaled
+                    return ring.poll();
                 }
+                SpscRing.backoff(attempt++);
             }
-            return null;
+            return batch;
         }
     }
 }
@@ -13,7 +13,7 @@
  */
 package com.addthis.hydra.task.map;
 
-
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ForkJoinPool;
@@ -36,6 +36,8 @@ public final class MapFeederForkJoin implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(MapFeederForkJoin.class);
 
     private static final int QUEUE_DEPTH = Parameter.intValue("task.queue.depth", 100);
+    private static final int BATCH_SIZE =
+            Math.max(1, Math.min(QUEUE_DEPTH, Parameter.intValue("task.queue.batch", 16)));
 
     // state control
     private final AtomicBoolean errored = new AtomicBoolean(false);
@@ -90,7 +92,8 @@ public final class MapFeederForkJoin implements Runnable {
 
     private void logBundleThroughput() {
         long elapse = (System.currentTimeMillis() - start) / 1000;
-        log.info("{} bundles processed in {} seconds (avg rate={}/s)", totalBundles, elapse, totalBundles / elapse);
+        log.info("{} bundles processed in {} seconds (avg rate={}/s)", totalBundles, elapse,
+                 (elapse == 0) ? 0 : (totalBundles / elapse));
     }
 
     /**
@@ -105,7 +108,7 @@ public final class MapFeederForkJoin implements Runnable {
     }
 
     /**
-     * Push the next bundle onto the work queue. Returns true
+     * Push the next batch of bundles onto the work queue. Returns true
      * to continue processing. If another thread has interrupted
      * ourselves then set our interrupt status. This will close
      * the current source and continue to consume any remaining elements
@@ -114,15 +117,27 @@ public final class MapFeederForkJoin implements Runnable {
     private boolean fillBuffer() {
         boolean status = false;
         try {
-            enqueuePermits.acquire();
-            Bundle p = source.next();
-            if (p == null) {
-                log.info("exiting on null bundle from {}", source);
-            } else {
-                totalBundles++;
-                CompletableFuture<Void> future = CompletableFuture.runAsync(() -> task.process(p), mapperPool);
-                future.whenComplete((v, e) -> enqueuePermits.release());
-                status = true;
+            enqueuePermits.acquire(BATCH_SIZE);
+            int count = 0;
+            try {
+                Bundle[] batch = new Bundle[BATCH_SIZE];
+                count = source.nextBatch(batch);
+                if (count == 0) {
+                    log.info("exiting on null bundle from {}", source);
+                } else {
+                    totalBundles += count;
+                    Bundle[] bundles = (count == batch.length) ? batch : Arrays.copyOf(batch, count);
+                    CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                        for (Bundle bundle : bundles) {
+                            task.process(bundle);
+                        }
+                    }, mapperPool);
+                    int permits = count;
+                    future.whenComplete((v, e) -> enqueuePermits.release(permits));
+                    status = true;
+                }
+            } finally {
+                enqueuePermits.release(BATCH_SIZE - count);
             }
         } catch (NoSuchElementException ignored) {
             log.info("exiting on premature stream termination");
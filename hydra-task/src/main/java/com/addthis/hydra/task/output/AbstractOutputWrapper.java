@@ -140,10 +140,15 @@ public abstract class AbstractOutputWrapper implements OutputWrapper{
 
     @Override
     public void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
         wrapperLock.lock();
         try {
             if (!closed) {
-                rawout.write(bytes);
+                rawout.write(bytes, offset, length);
             } else {
                 throw new IOException("output wrapper for file: " + getFileName() + " was closed");
             }
@@ -35,6 +35,10 @@ import com.addthis.hydra.data.filter.bundle.BundleFilter;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Timer;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -124,6 +128,12 @@ public abstract class AbstractOutputWriter implements WritableRootPaths {
     private QueueWriter queueWriter;
     private final AtomicReference<IOException> errorCause = new AtomicReference<>();
 
+    /**
+     * Flush metrics of the threads that are not disk flush threads,
+     * ie. producers that assist with a full queue and the final drain.
+     */
+    private final FlushMetrics callerFlushMetrics = new FlushMetrics("caller");
+
     public final void writeLine(String file, Bundle nextLine) throws IOException {
         if (errored) {
             throw new IOException(errorCause.get());
@@ -315,13 +325,49 @@ public abstract class AbstractOutputWriter implements WritableRootPaths {
         }
     }
 
+    /**
+     * Bytes written and time spent waiting on output locks by
+     * the threads that call {@link #dequeueWrite(List)}.
+     */
+    private static final class FlushMetrics {
+
+        final Meter bytes;
+        final Timer lockWait;
+
+        FlushMetrics(String scope) {
+            bytes = Metrics.newMeter(AbstractOutputWriter.class, "flushBytes", scope, "bytes", TimeUnit.SECONDS);
+            lockWait = Metrics.newTimer(AbstractOutputWriter.class, "flushLockWait", scope,
+                                        TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Record the bytes written and the time spent acquiring an output lock
+     * by the current thread during {@link #dequeueWrite(List)}.
+     */
+    protected final void recordFlush(long bytes, long lockWaitNanos) {
+        Thread thread = Thread.currentThread();
+        FlushMetrics metrics;
+        if (thread instanceof DiskFlushThread) {
+            metrics = ((DiskFlushThread) thread).flushMetrics;
+        } else {
+            metrics = callerFlushMetrics;
+        }
+        if (bytes > 0) {
+            metrics.bytes.mark(bytes);
+        }
+        metrics.lockWait.update(lockWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
     protected final class DiskFlushThread extends Thread {
 
         final List<WriteTuple> outputList;
+        final FlushMetrics flushMetrics;
 
         DiskFlushThread(int id) {
             super("OutputWriterDiskFlushThread-" + id);
             outputList = new ArrayList<>(maxBundles);
+            flushMetrics = new FlushMetrics("flush-" + id);
         }
 
         @Override
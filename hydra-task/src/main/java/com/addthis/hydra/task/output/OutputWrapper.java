@@ -40,6 +40,8 @@ public interface OutputWrapper {
 
     void write(byte[] bytes) throws IOException;
 
+    void write(byte[] bytes, int offset, int length) throws IOException;
+
     boolean isClosed();
 
     void lock();
@@ -19,7 +19,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
@@ -32,6 +35,7 @@ import com.addthis.basis.util.LessBytes;
 import com.addthis.basis.util.LessFiles;
 import com.addthis.basis.util.JitterClock;
 
+import com.addthis.bundle.core.Bundle;
 import com.addthis.codec.annotations.FieldConfig;
 
 import com.google.common.collect.ImmutableList;
@@ -68,6 +72,13 @@ public class OutputWriter extends AbstractOutputWriter {
 
     private static final String DEFAULT_SPLIT_OUTPUT_DIR = "split";
 
+    /**
+     * Serialized bundles are handed to the output once the buffer reaches this size.
+     */
+    private static final int FLUSH_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_POOLED_BUFFER = 4 * FLUSH_BUFFER_SIZE;
+
     /**
      * Configuration flags for writing to files.
      * This field is required.
@@ -101,6 +112,12 @@ public class OutputWriter extends AbstractOutputWriter {
 
     private final Counter closes = Metrics.newCounter(OutputWriter.class, "closes");
 
+    /**
+     * Serialization buffer of each thread that flushes bundles. Reused across
+     * calls to {@link #dequeueWrite(List)} unless it grew past {@link #MAX_POOLED_BUFFER}.
+     */
+    private final ThreadLocal<FlushBuffer> flushBuffers = ThreadLocal.withInitial(FlushBuffer::new);
+
     public OutputWriter() throws InterruptedException {
         if (flags == null) {
             flags = new OutputStreamFlags(true, true, 10000L, (250 * (1024L * 1024L)), null);
@@ -156,43 +173,81 @@ public class OutputWriter extends AbstractOutputWriter {
 
     /**
      * called by multiple thread consumers of the input queue. must be thread
-     * safe.
+     * safe. Tuples are grouped by target file and each group is written
+     * with a single acquisition of the output lock.
      */
     @Override
     protected void dequeueWrite(List<WriteTuple> outputTuples) throws IOException {
         if (outputTuples == null || outputTuples.size() == 0) {
             return;
         }
-        ByteArrayOutputStream bufOut = new ByteArrayOutputStream();
+        Map<String, List<Bundle>> groups = new HashMap<>();
         for (WriteTuple writeTuple : outputTuples) {
-            String fileName = writeTuple.fileName;
-            // need a loop here to make sure we get a outputwrapper that is open
-            // and ready for write
-            while (true) {
-                OutputWrapper out = getOutputWrapperForFile(fileName);
-                out.lock();
-                try {
-                    if (out.isClosed()) {
-                        // another thread closed this wrapper before we got the lock
-                        // try to acquire it again
-                        continue;
+            List<Bundle> group = groups.get(writeTuple.fileName);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(writeTuple.fileName, group);
+            }
+            group.add(writeTuple.bundle);
+        }
+        FlushBuffer bufOut = flushBuffers.get();
+        try {
+            for (Map.Entry<String, List<Bundle>> entry : groups.entrySet()) {
+                writeGroup(entry.getKey(), entry.getValue(), bufOut);
+            }
+        } finally {
+            if (bufOut.capacity() > MAX_POOLED_BUFFER) {
+                flushBuffers.remove();
+            }
+        }
+    }
+
+    /**
+     * Write the bundles in order to the output for {@code fileName}. The output
+     * is replaced when it reaches the maximum file size, which is checked every
+     * 1000 lines, so a group may be split over several outputs.
+     */
+    private void writeGroup(String fileName, List<Bundle> bundles, FlushBuffer bufOut) throws IOException {
+        int next = 0;
+        // need a loop here to make sure we get a outputwrapper that is open
+        // and ready for write
+        while (next < bundles.size()) {
+            OutputWrapper out = getOutputWrapperForFile(fileName);
+            long lockStart = System.nanoTime();
+            out.lock();
+            long lockWait = System.nanoTime() - lockStart;
+            long bytes = 0;
+            try {
+                if (out.isClosed()) {
+                    // another thread closed this wrapper before we got the lock
+                    // try to acquire it again
+                    recordFlush(0, lockWait);
+                    continue;
+                }
+                bufOut.reset();
+                boolean rolled = false;
+                while ((next < bundles.size()) && !rolled) {
+                    out.write(bufOut, bundles.get(next++));
+                    out.incrementLineCount();
+                    if (bufOut.size() >= FLUSH_BUFFER_SIZE) {
+                        bytes += bufOut.writeTo(out);
                     }
-                    bufOut.reset();
-                    out.write(bufOut, writeTuple.bundle);
-                    if (bufOut.size() == 0) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("skipping empty line " + bufOut.size());
+                    if (((out.getLineCount() % 1000) == 0) && (flags.getMaxFileSize() > 0)) {
+                        bytes += bufOut.writeTo(out);
+                        if (out.exceedsSize(flags.getMaxFileSize())) {
+                            close(out);
+                            rolled = true;
                         }
-                    } else {
-                        out.write(bufOut.toByteArray());
                     }
-                    out.incrementLineCount();
+                }
+                if (!rolled) {
+                    bytes += bufOut.writeTo(out);
                     out.setLastAccessTime(JitterClock.globalTime());
-                    break;
-                } finally {
-                    out.unlock();
                 }
+            } finally {
+                out.unlock();
             }
+            recordFlush(bytes, lockWait);
         }
     }
 
@@ -216,13 +271,6 @@ public class OutputWriter extends AbstractOutputWriter {
 
     private OutputWrapper getOutputWrapperForFile(String fileName) throws IOException {
         OutputWrapper out = openOutputs.get(fileName);
-        if ((out != null)
-            && ((out.getLineCount() % 1000) == 0)
-            && (flags.getMaxFileSize() > 0)
-            && out.exceedsSize(flags.getMaxFileSize())) {
-            close(out);
-            out = null;
-        }
         // the retry code here is an attempt to work around a overlapping file lock exception that is thrown
         // on occasion.  We do not understand why that exception is thrown and the correct solution
         // is to gain that understanding and fix the root cause.  So this is a band-aid.
@@ -279,6 +327,34 @@ public class OutputWriter extends AbstractOutputWriter {
         }
     }
 
+    /**
+     * Byte buffer that writes its contents to an output without copying them.
+     */
+    private static final class FlushBuffer extends ByteArrayOutputStream {
+
+        FlushBuffer() {
+            super(FLUSH_BUFFER_SIZE);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        /**
+         * Write the buffered bytes to the output and reset the buffer.
+         *
+         * @return number of bytes written
+         */
+        int writeTo(OutputWrapper out) throws IOException {
+            int written = count;
+            if (written > 0) {
+                out.write(buf, 0, written);
+                reset();
+            }
+            return written;
+        }
+    }
+
     public OutputWriter setOutputWrapperFactory(OutputWrapperFactory factory) {
         this.factory = factory;
         return this;
@@ -29,6 +29,25 @@ public final class StoreConfig implements Codable {
     Long    maxCacheMem;
     @FieldConfig(codable = true)
     Integer maxPageMem;
+    /**
+     * Page compression: none, deflate, gzip, lzf, snappy, lz4, lz4_hc, zstd or zstd_dict.
+     * Pages written with a previous codec remain readable and are rewritten on eviction.
+     */
+    @FieldConfig(codable = true)
+    String  pageCodec;
+    /**
+     * Backing store of a new tree: paged.bdb, paged.mapdb or paged.log.
+     * An existing tree keeps the store it was created with.
+     */
+    @FieldConfig(codable = true)
+    String  byteStore;
+    /**
+     * Keep the node keys of cached pages in primitive columns. More pages fit
+     * in memory but iterating over keys allocates them again. Only affects
+     * the page cache, the tree on disk is unchanged.
+     */
+    @FieldConfig(codable = true)
+    Boolean columnarKeys;
 
     public void setStaticFieldsFromMembers() {
         if (maxCacheSize != null)
@@ -41,5 +60,11 @@ public final class StoreConfig implements Codable {
             TreeCommonParameters.setDefaultMaxPageMem(maxPageMem);
         if (memSample != null)
             TreeCommonParameters.setDefaultMemSample(memSample);
+        if (pageCodec != null)
+            TreeCommonParameters.setDefaultPageCodec(pageCodec);
+        if (byteStore != null)
+            TreeCommonParameters.setDefaultByteStore(byteStore);
+        if (columnarKeys != null)
+            TreeCommonParameters.setDefaultColumnarKeys(columnarKeys);
     }
 }
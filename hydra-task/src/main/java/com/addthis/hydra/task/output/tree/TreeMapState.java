@@ -190,7 +190,7 @@ public final class TreeMapState implements DataTreeNodeUpdater, DataTreeNodeInit
      */
     public void dispatchRule(TreeMapperPathReference t) {
         if ((t != null) && (bundle != null) && (processor != null)) {
-            processor.processBundle(bundle, t);
+            processor.processBundle(bundle, t, countValue);
         } else if (debug > 0) {
             log.warn("Proc Rule Dispatch DROP {} b/c p={} rp={}", t, bundle, processor);
         }
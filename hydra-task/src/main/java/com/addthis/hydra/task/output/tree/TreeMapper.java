@@ -215,6 +215,23 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
 
     @FieldConfig private TreeConfig advanced;
 
+    /**
+     * If greater than one then each processing thread buffers up to this many bundles
+     * and bundles with identical values are processed once with a hit count equal to
+     * the number of bundles that were combined. Only enable this for trees whose path
+     * elements and data attachments depend on nothing but the bundle values. Sampling
+     * filters, "once" path elements or other stateful filters will see one bundle per
+     * combined group. Default is zero (disabled).
+     */
+    @FieldConfig private int combineWindow = 0;
+
+    /**
+     * Optional fields that are compared when combining bundles. Bundles that match on
+     * these fields are combined even if they differ on other fields, so this must include
+     * every field read by the tree. Default is to compare all fields.
+     */
+    @FieldConfig private String[] combineFields;
+
     private final ConcurrentMap<String, BundleField> fields    = new ConcurrentHashMap<>();
     private final IndexHash<PathElement[]>           pathIndex = new IndexHash();
 
@@ -225,6 +242,8 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
 
     private DataTree tree;
     private Bench    bench;
+
+    private TreeMapperCombiner combiner;
     private long     startTime;
 
     private MeshyServer     liveQueryServer;
@@ -305,12 +324,15 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
             if (trashInterval != null) TreeCommonParameters.setDefaultTrashInterval(trashInterval);
             if (trashTimeLimit != null) TreeCommonParameters.setDefaultTrashTimeLimit(trashTimeLimit);
             if (storage != null) storage.setStaticFieldsFromMembers();
+            if ((config.jobId != null) && (TreeCommonParameters.metricsScope == null)) {
+                TreeCommonParameters.setDefaultMetricsScope(config.jobIdWithNode());
+            }
 
             log.info("[init] live={}, target={} job={}", live, root, this.config.jobId);
 
             Path treePath = Paths.get(config.dir, directory);
             if (concurrentTree) {
-                tree = new ConcurrentTree(LessFiles.initDirectory(treePath.toFile()));
+                tree = new ConcurrentTree(LessFiles.initDirectory(treePath.toFile()), advanced.nodeCache);
             } else {
                 tree = new NonConcurrentTree(LessFiles.initDirectory(treePath.toFile()));
             }
@@ -330,6 +352,17 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
                 sampleOperation(pre, preRate, "pre.sample", "pre");
             }
 
+            if (combineWindow > 1) {
+                BundleField[] combineBy = null;
+                if (combineFields != null) {
+                    combineBy = new BundleField[combineFields.length];
+                    for (int i = 0; i < combineFields.length; i++) {
+                        combineBy[i] = bindField(combineFields[i]);
+                    }
+                }
+                combiner = new TreeMapperCombiner(this, root, combineWindow, combineBy);
+            }
+
         } catch (Exception ex) {
             Throwables.propagate(ex);
         }
@@ -357,12 +390,16 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
 
 
     public void processBundle(Bundle bundle, TreeMapperPathReference target) {
+        processBundle(bundle, target, 1);
+    }
+
+    public void processBundle(Bundle bundle, TreeMapperPathReference target, int count) {
         Integer unit = target.getTargetUnit();
         if (unit == null) {
             log.warn("[deliver] target missing unit: {}", target);
             return;
         }
-        processBundle(bundle, pathIndex.getValueByIndex(unit));
+        processBundle(bundle, pathIndex.getValueByIndex(unit), count);
     }
 
     /**
@@ -381,6 +418,14 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
      * router for delivery to another hydra node.
      */
     public void processBundle(Bundle bundle, PathElement[] path) {
+        processBundle(bundle, path, 1);
+    }
+
+    /**
+     * Process a bundle that stands in for {@code count} bundles with identical values.
+     * Node hits and data attachments are updated as if every bundle had been processed.
+     */
+    public void processBundle(Bundle bundle, PathElement[] path, int count) {
         try {
             long bundleTime;
             try {
@@ -397,16 +442,16 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
                     throw new RuntimeException("Invalid bundle: " + bundle + " unable to read TimeField due to NumberFormatException");
                 }
             }
-            bench.addEvents(BENCH.UNITS, 1);
-            bench.addEvents(BENCH.TIME, bundleTime >> 8);
-            processPath(bundle, path);
+            bench.addEvents(BENCH.UNITS, count);
+            bench.addEvents(BENCH.TIME, (bundleTime >> 8) * count);
+            processPath(bundle, path, count);
         } catch (RuntimeException ex) {
             throw ex;
         } catch (Exception ex)  {
             log.warn("", ex);
         }
-        processed.incrementAndGet();
-        bench.addEvents(BENCH.LOCAL, 1);
+        processed.addAndGet(count);
+        bench.addEvents(BENCH.LOCAL, count);
         checkBench();
     }
 
@@ -427,15 +472,19 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
      * Processor interface this is where packets and rules are finally executed
      * locally.
      */
-    private void processPath(Bundle bundle, PathElement[] path) {
+    private void processPath(Bundle bundle, PathElement[] path, int count) {
+        tree.enterEpoch();
         try {
             TreeMapState ps = new TreeMapState(this, tree, path, bundle);
+            ps.setCountValue(count);
             ps.process();
             processNodes.addAndGet(ps.touched());
         } catch (RuntimeException ex) {
             throw ex;
         } catch (Exception ex)  {
             log.warn("", ex);
+        } finally {
+            tree.exitEpoch();
         }
         bench.addEvents(BENCH.RULES, 1);
     }
@@ -497,7 +546,11 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
     public void send(Bundle bundle) {
         long markBefore = System.nanoTime();
         streamWaitime.addAndGet(markBefore - lastBundleTime.getAndSet(markBefore));
-        processBundle(bundle, root);
+        if (combiner != null) {
+            combiner.send(bundle);
+        } else {
+            processBundle(bundle, root);
+        }
         long markAfter = System.nanoTime();
         mapWriteTime.addAndGet(markAfter - markBefore);
         streamReadCount.incrementAndGet();
@@ -517,6 +570,10 @@ public final class TreeMapper extends DataOutputTypeList implements Codable {
     @Override
     public void sendComplete() {
         try {
+            if (combiner != null) {
+                combiner.flush();
+                log.info("combined {} bundles into {} tree updates", combiner.received(), combiner.updates());
+            }
             boolean doPost = false;
             if (post != null) {
                 doPost = sampleOperation(post, postRate, "post.sample", "post");
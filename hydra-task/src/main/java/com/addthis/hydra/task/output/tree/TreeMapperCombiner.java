@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output.tree;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.value.ValueObject;
+
+/**
+ * Buffers bundles in front of a {@link TreeMapper} and collapses bundles with
+ * identical values into a single pass through the tree. Each mapper thread
+ * fills its own window so no locking is needed on the send path. A window is
+ * processed when it holds {@code window} bundles and all windows are processed
+ * by {@link #flush()} once the mapper threads have exited.
+ */
+final class TreeMapperCombiner {
+
+    private final TreeMapper mapper;
+    private final PathElement[] path;
+    private final int window;
+
+    /**
+     * Fields that are compared to combine bundles. If null then all fields are compared.
+     */
+    @Nullable private final BundleField[] fields;
+
+    private final Queue<Window> windows = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Window> local = ThreadLocal.withInitial(this::newWindow);
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+
+    TreeMapperCombiner(TreeMapper mapper, PathElement[] path, int window, @Nullable BundleField[] fields) {
+        this.mapper = mapper;
+        this.path = path;
+        this.window = window;
+        this.fields = fields;
+    }
+
+    private Window newWindow() {
+        Window result = new Window();
+        windows.add(result);
+        return result;
+    }
+
+    public void send(Bundle bundle) {
+        Window current = local.get();
+        current.add(bundle);
+        if (current.buffered >= window) {
+            current.flush();
+        }
+    }
+
+    /**
+     * Process the buffered bundles of every thread. Must not be called
+     * concurrently with {@link #send(Bundle)}.
+     */
+    public void flush() {
+        for (Window current : windows) {
+            current.flush();
+        }
+    }
+
+    public long received() {
+        return received.sum();
+    }
+
+    public long updates() {
+        return updates.sum();
+    }
+
+    private List<Object> key(Bundle bundle) {
+        List<Object> key;
+        if (fields != null) {
+            key = new ArrayList<>(fields.length * 2);
+            for (BundleField field : fields) {
+                addValue(key, bundle.getValue(field));
+            }
+        } else {
+            key = new ArrayList<>(bundle.getCount() * 3);
+            for (BundleField field : bundle) {
+                key.add(field.getName());
+                addValue(key, bundle.getValue(field));
+            }
+        }
+        return key;
+    }
+
+    private static void addValue(List<Object> key, ValueObject value) {
+        if (value == null) {
+            key.add(null);
+            key.add(null);
+        } else {
+            key.add(value.getObjectType());
+            key.add(value.toString());
+        }
+    }
+
+    private static final class Combined {
+
+        final Bundle bundle;
+        int count;
+
+        Combined(Bundle bundle) {
+            this.bundle = bundle;
+        }
+    }
+
+    private final class Window {
+
+        final LinkedHashMap<List<Object>, Combined> pending = new LinkedHashMap<>();
+        int buffered;
+
+        void add(Bundle bundle) {
+            pending.computeIfAbsent(key(bundle), k -> new Combined(bundle)).count++;
+            buffered++;
+        }
+
+        void flush() {
+            if (buffered == 0) {
+                return;
+            }
+            received.add(buffered);
+            updates.add(pending.size());
+            try {
+                for (Combined combined : pending.values()) {
+                    mapper.processBundle(combined.bundle, path, combined.count);
+                }
+            } finally {
+                pending.clear();
+                buffered = 0;
+            }
+        }
+    }
+}
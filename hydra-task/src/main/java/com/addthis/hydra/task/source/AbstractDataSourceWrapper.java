@@ -55,6 +55,11 @@ public abstract class AbstractDataSourceWrapper extends TaskDataSource {
         return source.next();
     }
 
+    @Override
+    public boolean ready() {
+        return source.ready();
+    }
+
     @Override
     public Bundle peek() throws DataChannelError {
         return source.peek();
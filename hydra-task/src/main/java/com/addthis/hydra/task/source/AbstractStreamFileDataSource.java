@@ -386,6 +386,30 @@ public abstract class AbstractStreamFileDataSource extends TaskDataSource implem
         return null;
     }
 
+    /**
+     * Waits for the first bundle as {@link #next()} does and then takes the bundles that are already queued.
+     */
+    @Override public int nextBatch(Bundle[] into) throws DataChannelError {
+        if (into.length == 0) {
+            return 0;
+        }
+        Bundle first = next();
+        if (first == null) {
+            return 0;
+        }
+        into[0] = first;
+        int count = 1;
+        Bundle more;
+        while ((count < into.length) && ((more = queue.poll()) != null)) {
+            into[count++] = more;
+        }
+        return count;
+    }
+
+    @Override public boolean ready() {
+        return localInitialized && !queue.isEmpty();
+    }
+
     private Bundle pollAndCloseOnInterrupt(long pollFor, TimeUnit unit) {
         boolean interrupted = false;
         try {
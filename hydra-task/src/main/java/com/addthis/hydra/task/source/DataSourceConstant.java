@@ -73,6 +73,10 @@ public class DataSourceConstant extends TaskDataSource {
         return Bundles.deepCopyBundle(iterator.next());
     }
 
+    @Override public boolean ready() {
+        return true;
+    }
+
     private void checkNotClosed() {
         if (closed) {
             throw new NoSuchElementException();
@@ -15,6 +15,8 @@ package com.addthis.hydra.task.source;
 
 import javax.annotation.Nonnull;
 
+import java.util.Arrays;
+
 import java.nio.file.Path;
 
 import com.addthis.bundle.core.Bundle;
@@ -91,6 +93,40 @@ public class DataSourceFiltered extends TaskDataSource {
         return null;
     }
 
+    /**
+     * Reads a batch from the underlying source and removes the bundles
+     * that do not pass the filter. Reads again if none of them pass.
+     */
+    @Override
+    public int nextBatch(Bundle[] into) {
+        if (into.length == 0) {
+            return 0;
+        }
+        if (peek != null) {
+            into[0] = peek;
+            peek = null;
+            return 1;
+        }
+        while (true) {
+            int read = stream.nextBatch(into);
+            int kept = 0;
+            for (int i = 0; i < read; i++) {
+                if (filter.filter(into[i])) {
+                    into[kept++] = into[i];
+                }
+            }
+            Arrays.fill(into, kept, read, null);
+            if ((kept > 0) || (read == 0)) {
+                return kept;
+            }
+        }
+    }
+
+    @Override
+    public boolean ready() {
+        return (peek != null) || stream.ready();
+    }
+
     @Nonnull @Override
     public ImmutableList<Path> writableRootPaths() {
         return stream.writableRootPaths();
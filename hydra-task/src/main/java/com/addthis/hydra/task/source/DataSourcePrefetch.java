@@ -15,27 +15,58 @@ package com.addthis.hydra.task.source;
 
 import javax.annotation.Nonnull;
 
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import java.nio.file.Path;
 
 import com.addthis.bundle.core.Bundle;
 import com.addthis.codec.annotations.FieldConfig;
+import com.addthis.hydra.task.util.SpscRing;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This {@link TaskDataSource source} <span class="hydra-summary">prefetches bundles from an underlying data source</span>.
+ * <p/>
+ * <p>A background thread reads bundles from the underlying source and hands them
+ * to the consumer in batches through a bounded ring buffer. The underlying source
+ * is only ever called from the background thread, so it does not need to be
+ * thread safe.</p>
+ * <p/>
+ * <p>Example:</p>
+ * <pre>source.prefetch {
+ *     size: 4096
+ *     source.mesh2 {...}
+ * }</pre>
  *
  * @user-reference
  */
 public final class DataSourcePrefetch extends TaskDataSource {
 
+    private static final Logger log = LoggerFactory.getLogger(DataSourcePrefetch.class);
+
+    /**
+     * Number of bundles to prefetch. Default is 1024.
+     */
+    @FieldConfig(codable = true)
+    protected int size = 1024;
+
     /**
-     * Number of bundles to prefetch.
+     * Maximum number of bundles that are handed to the consumer at once.
+     * A smaller batch is handed off whenever the consumer is waiting.
+     * Default is 64.
      */
     @FieldConfig(codable = true)
-    protected int size;
+    protected int batch = 64;
 
     /**
      * Underlying data source. This field is required.
@@ -43,8 +74,40 @@ public final class DataSourcePrefetch extends TaskDataSource {
     @FieldConfig(codable = true, required = true)
     protected TaskDataSource source;
 
-    protected final LinkedList<Bundle> prefetch = new LinkedList<>();
+    /**
+     * Milliseconds that close waits for the prefetch thread to stop before
+     * closing the underlying source anyway. Sources that block in next()
+     * until they are closed are only released by the latter. Default is 5000.
+     */
+    @FieldConfig(codable = true)
+    protected long closeTimeout = 5000;
+
+    private final Timer producerStall = Metrics.newTimer(getClass(), "producerStall",
+                                                         TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+    private final Timer consumerStall = Metrics.newTimer(getClass(), "consumerStall",
+                                                         TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+
+    private SpscRing<Bundle[]> ring;
+    private Thread producer;
+
+    /**
+     * Set by the producer once the underlying source is exhausted
+     * and every bundle has been added to the ring.
+     */
+    private volatile boolean exhausted;
 
+    /**
+     * Set by the producer if the underlying source throws an exception.
+     */
+    private volatile Throwable error;
+
+    private volatile boolean closing;
+
+    /**
+     * Consumer state. Guarded by this.
+     */
+    private Bundle[] current;
+    private int position;
 
     public DataSourcePrefetch setup(TaskDataSource source, int size) {
         this.source = source;
@@ -55,29 +118,163 @@ public final class DataSourcePrefetch extends TaskDataSource {
     @Override
     public void init() {
         source.init();
+        int depth = Math.max(2, (Math.max(size, 1) + batch - 1) / Math.max(batch, 1));
+        ring = new SpscRing<>(depth);
+        producer = new Thread(this::produce, "DataSourcePrefetch " + source.getClass().getSimpleName());
+        producer.setDaemon(true);
+        producer.start();
     }
 
+    /**
+     * Stops the prefetch thread and then closes the underlying source from the calling thread.
+     * If the prefetch thread is still blocked in the underlying source after {@link #closeTimeout}
+     * then the source is closed first, which releases sources that wait for their own close.
+     */
     @Override
     public void close() {
+        closing = true;
+        if (producer != null) {
+            Uninterruptibles.joinUninterruptibly(producer, closeTimeout, TimeUnit.MILLISECONDS);
+            if (producer.isAlive()) {
+                log.warn("prefetch thread of {} did not stop within {} ms, closing the source", source,
+                         closeTimeout);
+            }
+        }
+        log.info("closing {}. producer stalls={} consumer stalls={}", source,
+                 producerStall.count(), consumerStall.count());
         source.close();
+        if ((producer != null) && producer.isAlive()) {
+            Uninterruptibles.joinUninterruptibly(producer, closeTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void produce() {
+        int length = Math.max(batch, 1);
+        Bundle[] pending = new Bundle[length];
+        int count = 0;
+        try {
+            Bundle next;
+            while (!closing && ((next = source.next()) != null)) {
+                pending[count++] = next;
+                // hand off a partial batch whenever the consumer has nothing to read
+                if ((count == length) || ring.isEmpty()) {
+                    publish((count == length) ? pending : Arrays.copyOf(pending, count));
+                    pending = new Bundle[length];
+                    count = 0;
+                }
+            }
+        } catch (Throwable t) {
+            // some sources signal the end of the stream with an exception
+            error = t;
+        } finally {
+            if (count > 0) {
+                publish(Arrays.copyOf(pending, count));
+            }
+            exhausted = true;
+        }
     }
 
-    private boolean prefetch() {
-        Bundle next = source.next();
-        while (prefetch.size() < size && (next = source.next()) != null) {
-            prefetch.add(next);
+    private void publish(Bundle[] bundles) {
+        if (ring.offer(bundles)) {
+            return;
         }
-        return prefetch.size() > 0;
+        long start = System.nanoTime();
+        int attempt = 0;
+        while (!ring.offer(bundles)) {
+            if (closing) {
+                return;
+            }
+            SpscRing.backoff(attempt++);
+        }
+        producerStall.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Ensure that {@link #current} has a bundle at {@link #position}.
+     *
+     * @return false if there are no more bundles
+     */
+    private boolean fill() {
+        if ((current != null) && (position < current.length)) {
+            return true;
+        }
+        current = null;
+        Bundle[] next = ring.poll();
+        if (next == null) {
+            long start = System.nanoTime();
+            int attempt = 0;
+            while ((next = ring.poll()) == null) {
+                if (exhausted) {
+                    // the producer may have published its last batch before it finished
+                    next = ring.poll();
+                    break;
+                }
+                SpscRing.backoff(attempt++);
+            }
+            consumerStall.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (next == null) {
+            Throwable t = error;
+            if (t != null) {
+                throw Throwables.propagate(t);
+            }
+            return false;
+        }
+        current = next;
+        position = 0;
+        return true;
     }
 
     @Override
     public synchronized Bundle next() {
-        return prefetch() ? prefetch.removeFirst() : null;
+        if (!fill()) {
+            return null;
+        }
+        Bundle next = current[position];
+        current[position++] = null;
+        return next;
+    }
+
+    /**
+     * Waits for the first bundle and then takes the bundles that have already been prefetched.
+     */
+    @Override
+    public synchronized int nextBatch(Bundle[] into) {
+        int count = 0;
+        while ((count < into.length) && ((count == 0) ? fill() : available())) {
+            int length = Math.min(into.length - count, current.length - position);
+            System.arraycopy(current, position, into, count, length);
+            Arrays.fill(current, position, position + length, null);
+            position += length;
+            count += length;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized boolean ready() {
+        return available();
+    }
+
+    /**
+     * Same as {@link #fill()} but returns false instead of waiting for the producer.
+     */
+    private boolean available() {
+        if ((current != null) && (position < current.length)) {
+            return true;
+        }
+        Bundle[] next = ring.poll();
+        if (next == null) {
+            return false;
+        }
+        current = next;
+        position = 0;
+        return true;
     }
 
     @Override
     public synchronized Bundle peek() {
-        return prefetch() ? prefetch.getFirst() : null;
+        return fill() ? current[position] : null;
     }
 
     @Nonnull @Override
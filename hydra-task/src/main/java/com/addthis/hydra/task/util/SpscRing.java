@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free ring buffer for exactly one producer thread and one
+ * consumer thread. Neither {@link #offer(Object)} nor {@link #poll()} block,
+ * callers decide how to wait when the ring is full or empty.
+ * <p/>
+ * The producer and the consumer may each be a different thread over time
+ * provided that there is a happens-before relationship between successive
+ * threads on the same side, for example by holding a common lock.
+ */
+public final class SpscRing<E> {
+
+    private final Object[] buffer;
+    private final int mask;
+
+    /**
+     * Index of the next element to read. Only written by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Index of the next element to write. Only written by the producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Last value of {@link #head} observed by the producer.
+     */
+    private long headCache;
+
+    /**
+     * Last value of {@link #tail} observed by the consumer.
+     */
+    private long tailCache;
+
+    /**
+     * @param capacity minimum capacity. Rounded up to a power of two.
+     */
+    public SpscRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Wait strategy for callers that find the ring full or empty. Yields for the
+     * first few attempts and then parks for increasing periods of up to a millisecond.
+     */
+    public static void backoff(int attempt) {
+        if (attempt < 16) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(1_000_000L, 1_000L << Math.min(attempt - 16, 10)));
+        }
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Called by the producer. Returns false if the ring is full.
+     */
+    public boolean offer(E element) {
+        long current = tail.get();
+        if ((current - headCache) >= buffer.length) {
+            headCache = head.get();
+            if ((current - headCache) >= buffer.length) {
+                return false;
+            }
+        }
+        buffer[(int) current & mask] = element;
+        tail.lazySet(current + 1);
+        return true;
+    }
+
+    /**
+     * Called by the consumer. Returns null if the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long current = head.get();
+        if ((current >= tailCache) && (current >= (tailCache = tail.get()))) {
+            return null;
+        }
+        int index = (int) current & mask;
+        E element = (E) buffer[index];
+        buffer[index] = null;
+        head.lazySet(current + 1);
+        return element;
+    }
+
+    /**
+     * Called by the consumer. Returns null if the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long current = head.get();
+        if ((current >= tailCache) && (current >= (tailCache = tail.get()))) {
+            return null;
+        }
+        return (E) buffer[(int) current & mask];
+    }
+
+    /**
+     * Approximate number of elements when called concurrently with the producer or consumer.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, buffer.length));
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.Bundles;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.addthis.codec.config.Configs.decodeObject;
+import static org.junit.Assert.assertEquals;
+
+public class ExternalDeDupBuilderTest {
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private static String value(Bundle bundle, String field) {
+        return bundle.getValue(bundle.getFormat().getField(field)).asString().asNative();
+    }
+
+    private ExternalDeDupBuilder builder(String config) throws Exception {
+        File dir = testFolder.newFolder();
+        ExternalDeDupBuilder builder = decodeObject(ExternalDeDupBuilder.class,
+                                                    "field: key, tempDir: \"" + dir.getCanonicalPath() + "\", " +
+                                                    config);
+        builder.init();
+        return builder;
+    }
+
+    @Test
+    public void mergesSpilledRuns() throws Exception {
+        ExternalDeDupBuilder builder = builder("maxBundles: 7, batchSize: 1000");
+        List<Bundle> emitted = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            builder.process(Bundles.decode(String.format("key: k%02d, seq: %d", i % 40, i)), emitted::add);
+        }
+        assertEquals(0, emitted.size());
+        builder.streamComplete(emitted::add);
+        assertEquals(40, emitted.size());
+        for (int i = 0; i < 40; i++) {
+            Bundle bundle = emitted.get(i);
+            assertEquals(String.format("k%02d", i), value(bundle, "key"));
+            // the last bundle with each key is kept
+            assertEquals(String.valueOf(160 + i), value(bundle, "seq"));
+        }
+    }
+
+    @Test
+    public void windowDropsKeysOfEarlierBatches() throws Exception {
+        ExternalDeDupBuilder builder = builder("maxBundles: 5, batchSize: 20, windowKeys: 1000");
+        List<Bundle> emitted = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            builder.process(Bundles.decode("key: k" + (i % 30)), emitted::add);
+        }
+        builder.streamComplete(emitted::add);
+        assertEquals(30, emitted.size());
+    }
+
+    @Test
+    public void batchesWithoutWindow() throws Exception {
+        ExternalDeDupBuilder builder = builder("maxBundles: 5, batchSize: 20");
+        List<Bundle> emitted = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            builder.process(Bundles.decode("key: k" + (i % 30)), emitted::add);
+        }
+        builder.streamComplete(emitted::add);
+        assertEquals(100, emitted.size());
+    }
+}
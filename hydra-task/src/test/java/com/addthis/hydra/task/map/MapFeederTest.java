@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.map;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.codec.config.Configs;
+import com.addthis.hydra.task.output.TaskDataOutput;
+import com.addthis.hydra.task.source.TaskDataSource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MapFeederTest {
+
+    private static class CountingOutput extends TaskDataOutput {
+
+        final AtomicLong sent = new AtomicLong();
+
+        @Override protected void open() {
+        }
+
+        @Override public void send(Bundle bundle) {
+            sent.incrementAndGet();
+        }
+
+        @Override public void sendComplete() {
+        }
+
+        @Override public void sourceError(Throwable cause) {
+        }
+    }
+
+    private static long run(boolean forkJoin) throws Exception {
+        TaskDataSource source = Configs.decodeObject(
+                TaskDataSource.class, "const {bundles:[{A:a},{A:b},{A:c}], repeat:999, shardField:A}");
+        CountingOutput output = new CountingOutput();
+        StreamMapper mapper = new StreamMapper(source, new MapDef(), output, null, false, 0, 3, false, false,
+                                               null, false, 60, forkJoin);
+        mapper.start();
+        mapper.getCompletionFuture().get(60, TimeUnit.SECONDS);
+        return output.sent.get();
+    }
+
+    @Test
+    public void deliversEveryBundle() throws Exception {
+        assertEquals(3000, run(false));
+    }
+
+    @Test
+    public void forkJoinDeliversEveryBundle() throws Exception {
+        assertEquals(3000, run(true));
+    }
+}
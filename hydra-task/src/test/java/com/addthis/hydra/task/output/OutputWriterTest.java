@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output;
+
+import java.io.File;
+
+import java.util.List;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.codec.config.Configs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OutputWriterTest {
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private static Bundle bundle(int value) {
+        Bundle bundle = new ListBundle();
+        bundle.setValue(bundle.getFormat().getField("A"), ValueFactory.create(value));
+        return bundle;
+    }
+
+    /**
+     * @return number of files written in the output directory
+     */
+    private int writeAndVerify(String flags, int files, int lines) throws Exception {
+        File dir = testFolder.newFolder();
+        OutputWriter writer = Configs.decodeObject(
+                OutputWriter.class,
+                "flags: " + flags + ", factory.dir: \"" + dir.getCanonicalPath() + "\", " +
+                "format.column.columns: [A], maxBundles: 10, diskFlushThreads: 2");
+        writer.open();
+        for (int i = 0; i < lines; i++) {
+            writer.writeLine("file-" + (i % files), bundle(i));
+        }
+        writer.closeOpenOutputs();
+        int[] counts = new int[files];
+        File[] written = dir.listFiles();
+        for (File file : written) {
+            int target = Integer.parseInt(file.getName().split("-")[1]);
+            List<String> rows = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            for (String row : rows) {
+                assertEquals(target, Integer.parseInt(row) % files);
+                counts[target]++;
+            }
+        }
+        for (int i = 0; i < files; i++) {
+            assertEquals(lines / files, counts[i]);
+        }
+        return written.length;
+    }
+
+    @Test
+    public void groupedWrites() throws Exception {
+        assertEquals(7, writeAndVerify("{}", 7, 7000));
+    }
+
+    @Test
+    public void groupedWritesRollFiles() throws Exception {
+        assertTrue(writeAndVerify("{noAppend: true, maxFileSize: 1000}", 3, 9000) > 3);
+    }
+}
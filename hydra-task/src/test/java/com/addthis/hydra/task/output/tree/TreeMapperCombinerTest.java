@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.output.tree;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.addthis.basis.util.ClosableIterator;
+import com.addthis.basis.util.LessFiles;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.BundleField;
+import com.addthis.bundle.value.ValueFactory;
+import com.addthis.codec.config.Configs;
+import com.addthis.hydra.data.tree.DataTreeNode;
+import com.addthis.hydra.data.tree.ReadTree;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TreeMapperCombinerTest {
+
+    private static final String TREE = "root: [{const: root}, {field: A}, {field: B}], directory: data";
+
+    @Test
+    public void combinedTreeMatchesUncombinedTree() throws Exception {
+        File dir = LessFiles.createTempDir();
+        try {
+            // 23 bundles leave a partial window that is only processed by sendComplete
+            Map<String, Long> plain = buildTree(new File(dir, "plain"), 0, 23);
+            Map<String, Long> combined = buildTree(new File(dir, "combined"), 5, 23);
+            assertEquals(plain, combined);
+            assertEquals(Long.valueOf(23), plain.get("/root"));
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void flushOnCompleteProcessesWholeStream() throws Exception {
+        File dir = LessFiles.createTempDir();
+        try {
+            // the window never fills so every bundle is processed by sendComplete
+            Map<String, Long> plain = buildTree(new File(dir, "plain"), 0, 23);
+            Map<String, Long> combined = buildTree(new File(dir, "combined"), 100, 23);
+            assertEquals(plain, combined);
+        } finally {
+            LessFiles.deleteDir(dir);
+        }
+    }
+
+    private static Map<String, Long> buildTree(File dir, int window, int count) throws Exception {
+        TreeMapper mapper = Configs.decodeObject(TreeMapper.class,
+                TREE + ", combineWindow: " + window + ", config.dir: \"" + dir.getPath() + "\"");
+        mapper.open();
+        BundleField a = mapper.bindField("A");
+        BundleField b = mapper.bindField("B");
+        List<Bundle> bundles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Bundle bundle = mapper.createBundle();
+            bundle.setValue(a, ValueFactory.create("a" + (i % 3)));
+            bundle.setValue(b, ValueFactory.create("b" + (i % 2)));
+            bundles.add(bundle);
+        }
+        mapper.send(bundles);
+        mapper.sendComplete();
+        Map<String, Long> counts = new TreeMap<>();
+        ReadTree tree = new ReadTree(new File(dir, "data"));
+        try {
+            collect(tree.getRootNode(), "", counts);
+        } finally {
+            tree.close();
+        }
+        return counts;
+    }
+
+    private static void collect(DataTreeNode parent, String prefix, Map<String, Long> counts) {
+        ClosableIterator<DataTreeNode> iter = parent.getIterator();
+        try {
+            while (iter.hasNext()) {
+                DataTreeNode node = iter.next();
+                String name = prefix + "/" + node.getName();
+                counts.put(name, node.getCounter());
+                collect(node, name, counts);
+            }
+        } finally {
+            iter.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+
+import org.junit.Test;
+
+import static com.addthis.codec.config.Configs.decodeObject;
+import static org.junit.Assert.assertEquals;
+
+public class AbstractDataSourceWrapperTest {
+
+    /**
+     * Returns one bundle and fails if it is asked for another one,
+     * which would block a source that is waiting for input.
+     */
+    private static class SlowSource extends TaskDataSource {
+
+        int reads;
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public Bundle next() {
+            if (reads++ > 0) {
+                throw new AssertionError("read past the available bundles");
+            }
+            return new ListBundle();
+        }
+
+        @Override
+        public Bundle peek() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void batchDoesNotWaitForMoreBundles() {
+        TaskDataSource source = new AbstractDataSourceWrapper(new SlowSource()) {};
+        assertEquals(1, source.nextBatch(new Bundle[16]));
+    }
+
+    @Test
+    public void batchUsesOverriddenNext() throws Exception {
+        TaskDataSource constant = decodeObject(TaskDataSource.class, "const: [{a = 1}, {a = 2}, {a = 3}]");
+        int[] reads = new int[1];
+        TaskDataSource source = new AbstractDataSourceWrapper(constant) {
+            @Override
+            public Bundle next() {
+                reads[0]++;
+                return super.next();
+            }
+        };
+        source.init();
+        assertEquals(2, source.nextBatch(new Bundle[2]));
+        assertEquals(2, reads[0]);
+    }
+}
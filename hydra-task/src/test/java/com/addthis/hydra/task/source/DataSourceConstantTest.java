@@ -70,6 +70,18 @@ public class DataSourceConstantTest {
         verifyNoMoreBundles();
     }
 
+    @Test
+    public void nextBatch() throws IOException {
+        source = initSource("bundles:[{A:a,B:1},{C:[1,2],D:[a,b]}], repeat:2");
+        Bundle[] batch = new Bundle[4];
+        assertEquals(4, source.nextBatch(batch));
+        assertEquals(2, source.nextBatch(batch));
+        bundle = batch[1];
+        assertEquals(Lists.newArrayList("a", "b"), getField("D").asArray().asNative());
+
+        verifyNoMoreBundles();
+    }
+
     private DataSourceConstant initSource(@Syntax("HOCON") @Nonnull String config) throws IOException {
         DataSourceConstant src = Configs.decodeObject(DataSourceConstant.class, config);
         src.init();
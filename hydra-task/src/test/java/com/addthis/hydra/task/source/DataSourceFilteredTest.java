@@ -34,4 +34,18 @@ public class DataSourceFilteredTest {
         Assert.assertTrue(Bundles.equals(expected, filteredSource.next()));
         filteredSource.close();
     }
+
+    @Test public void nextBatch() throws Exception {
+        TaskDataSource filteredSource = decodeObject(
+                TaskDataSource.class, "filtered {const: [{a = 5}, {a = 3}, {a = 6}, {a = 3}, {a = 5}, {a = 3}], "
+                                      + "filter {from: a, require: 3}}");
+        filteredSource.init();
+        Bundle[] batch = new Bundle[4];
+        Assert.assertEquals(2, filteredSource.nextBatch(batch));
+        Assert.assertNull(batch[2]);
+        Assert.assertEquals(1, filteredSource.nextBatch(batch));
+        Bundle expected = Bundles.decode("{a = 3}");
+        Assert.assertTrue(Bundles.equals(expected, batch[0]));
+        filteredSource.close();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.hydra.task.source;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Syntax;
+
+import java.io.IOException;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+
+import com.addthis.bundle.core.Bundle;
+import com.addthis.bundle.core.list.ListBundle;
+import com.addthis.codec.config.Configs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class DataSourcePrefetchTest {
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private static String field(Bundle bundle, String name) {
+        return bundle.getValue(bundle.getFormat().getField(name)).asString().asNative();
+    }
+
+    private DataSourcePrefetch initSource(@Syntax("HOCON") @Nonnull String config) throws IOException {
+        DataSourcePrefetch src = Configs.decodeObject(DataSourcePrefetch.class, config);
+        src.init();
+        return src;
+    }
+
+    @Test
+    public void preservesOrder() throws IOException {
+        DataSourcePrefetch source = initSource(
+                "size: 8, batch: 3, source.const {bundles:[{A:a},{A:b},{A:c}], repeat:99}");
+        for (int i = 0; i < 100; i++) {
+            Bundle peeked = source.peek();
+            assertNotNull(peeked);
+            Bundle bundle = source.next();
+            assertSame(peeked, bundle);
+            assertEquals("a", field(bundle, "A"));
+            assertEquals("b", field(source.next(), "A"));
+            assertEquals("c", field(source.next(), "A"));
+        }
+        // the constant source signals the end of the stream with an exception
+        exception.expect(NoSuchElementException.class);
+        source.next();
+    }
+
+    @Test
+    public void nextBatch() throws IOException {
+        DataSourcePrefetch source = initSource(
+                "size: 8, batch: 3, source.const {bundles:[{A:a},{A:b},{A:c}], repeat:99}");
+        Bundle[] batch = new Bundle[5];
+        int total = 0;
+        int count;
+        while ((total < 300) && ((count = source.nextBatch(batch)) > 0)) {
+            for (int i = 0; i < count; i++) {
+                assertEquals(String.valueOf((char) ('a' + ((total + i) % 3))), field(batch[i], "A"));
+            }
+            total += count;
+        }
+        assertEquals(300, total);
+        exception.expect(NoSuchElementException.class);
+        source.nextBatch(batch);
+    }
+
+    @Test
+    public void closeStopsProducer() throws IOException {
+        DataSourcePrefetch source = initSource("size: 16, source.const {bundles:[{A:a}], repeat:-1}");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("a", field(source.next(), "A"));
+        }
+        source.close();
+    }
+
+    /**
+     * Emits one bundle and then blocks in next() until it is closed,
+     * like the stream file sources that wait for more input.
+     */
+    private static class BlockingSource extends TaskDataSource {
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        boolean first = true;
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public Bundle next() {
+            if (first) {
+                first = false;
+                return new ListBundle();
+            }
+            blocked.countDown();
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        @Override
+        public Bundle peek() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void closeReleasesBlockedSource() throws Exception {
+        BlockingSource blocking = new BlockingSource();
+        DataSourcePrefetch source = new DataSourcePrefetch().setup(blocking, 16);
+        source.closeTimeout = 100;
+        source.init();
+        assertNotNull(source.next());
+        blocking.blocked.await();
+        source.close();
+        assertEquals(0, blocking.closed.getCount());
+    }
+}